@@ -0,0 +1,139 @@
+package heigit.ors.mapmatching.hmm;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.graphhopper.util.Helper;
+import com.vividsolutions.jts.geom.Coordinate;
+
+import heigit.ors.mapmatching.RouteSegmentInfo;
+import heigit.ors.routing.GridGraph;
+import heigit.ors.routing.graphhopper.extensions.ORSGraphHopper;
+import junit.framework.Assert;
+
+public class HiddenMarkovMapMatcherTest {
+	// the points of the traces are about 3 m beside the middle of the edges
+	private static final double OFFSET = 0.00003;
+	private static final double SEARCH_RADIUS = 50;
+
+	private static File dir;
+	private static GridGraph grid;
+	private static ORSGraphHopper gh;
+	private static HiddenMarkovMapMatcher matcher;
+
+	@BeforeClass
+	public static void importGraph() throws Exception {
+		dir = Files.createTempDirectory("ors-hmm").toFile();
+		grid = new GridGraph(5, 6);
+		gh = grid.importGraphHopper(dir, "car");
+
+		matcher = new HiddenMarkovMapMatcher();
+		matcher.setGraphHopper(gh);
+	}
+
+	@AfterClass
+	public static void removeGraph() {
+		gh.close();
+		Helper.removeDir(dir);
+	}
+
+	@Test
+	public void expectRowToBeMatched() {
+		RouteSegmentInfo[] result = matcher.match(createRowTrace(2, 0, 5), SEARCH_RADIUS, null, false);
+
+		Assert.assertNotNull(result);
+		Assert.assertNotNull(result[0]);
+
+		// from the middle of the first to the middle of the last edge
+		double expectedDistance = Helper.DIST_EARTH.calcDist(grid.getLat(2), grid.getLon(0), grid.getLat(2), grid.getLon(4));
+		Assert.assertEquals(expectedDistance, result[0].getDistance(), 5.0);
+	}
+
+	@Test
+	public void expectConcurrentMatchesToEqualSequentialOnes() throws Exception {
+		final List<Coordinate[]> traces = new ArrayList<Coordinate[]>();
+		for (int row = 0; row < 5; row++) {
+			if (row != 1)
+				traces.add(createRowTrace(row, 0, 5));
+		}
+		for (int col = 0; col < 6; col++)
+			traces.add(createColumnTrace(col, 0, 4));
+
+		final List<RouteSegmentInfo> expected = new ArrayList<RouteSegmentInfo>();
+		for (Coordinate[] trace : traces)
+			expected.add(matcher.match(trace, SEARCH_RADIUS, null, false)[0]);
+
+		int nThreads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < nThreads; i++) {
+				final int offset = i;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int j = 0; j < 10 * traces.size(); j++) {
+							int index = (offset + j) % traces.size();
+							RouteSegmentInfo segment = matcher.match(traces.get(index), SEARCH_RADIUS, null, false)[0];
+
+							Assert.assertEquals(expected.get(index).getDistance(), segment.getDistance(), 1e-6);
+							Assert.assertEquals(expected.get(index).getEdges(), segment.getEdges());
+						}
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> future : futures)
+				future.get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void expectInterruptedMatchToBeCancelled() {
+		Thread.currentThread().interrupt();
+
+		try {
+			matcher.match(createRowTrace(3, 0, 4), SEARCH_RADIUS, null, false);
+			Assert.fail("The match has not been cancelled.");
+		} catch (CancellationException ex) {
+			// expected
+		} finally {
+			Thread.interrupted();
+		}
+
+		// the context of the cancelled match is reused without its state
+		Assert.assertNotNull(matcher.match(createRowTrace(3, 0, 4), SEARCH_RADIUS, null, false)[0]);
+	}
+
+	/**
+	 * Creates a trace along the edges of a row between the given columns, one point per edge.
+	 */
+	private static Coordinate[] createRowTrace(int row, int fromCol, int toCol) {
+		Coordinate[] trace = new Coordinate[toCol - fromCol];
+		for (int col = fromCol; col < toCol; col++)
+			trace[col - fromCol] = new Coordinate(grid.getLon(col) + GridGraph.LON_STEP / 2, grid.getLat(row) + OFFSET);
+		return trace;
+	}
+
+	private static Coordinate[] createColumnTrace(int col, int fromRow, int toRow) {
+		Coordinate[] trace = new Coordinate[toRow - fromRow];
+		for (int row = fromRow; row < toRow; row++)
+			trace[row - fromRow] = new Coordinate(grid.getLon(col) + OFFSET, grid.getLat(row) + GridGraph.LAT_STEP / 2);
+		return trace;
+	}
+}
@@ -0,0 +1,204 @@
+package heigit.ors.mapmatching.hmm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+public class OnlineViterbiSolverTest {
+	private static class StateCollector implements OnlineViterbiSolver.Listener<Integer> {
+		public final List<Integer> states = new ArrayList<Integer>();
+
+		@Override
+		public void stateCommitted(Integer state) {
+			states.add(state);
+		}
+	}
+
+	@Test
+	public void expectOfflineViterbiPath() {
+		Random random = new Random(42);
+
+		for (int n = 0; n < 50; n++) {
+			int nSteps = 2 + random.nextInt(30);
+			int nStates = 1 + random.nextInt(6);
+			double[][] emissionProbs = new double[nSteps][nStates];
+			double[][][] transitionProbs = new double[nSteps][nStates][nStates];
+
+			for (int t = 0; t < nSteps; t++) {
+				for (int j = 0; j < nStates; j++) {
+					emissionProbs[t][j] = Math.log(random.nextDouble());
+					for (int i = 0; i < nStates; i++)
+						transitionProbs[t][i][j] = random.nextInt(4) == 0 ? Double.NEGATIVE_INFINITY : Math.log(random.nextDouble());
+				}
+			}
+
+			int[] expected = solveOffline(emissionProbs, transitionProbs);
+			// a sequence without any path through all steps is split by the solver
+			if (expected == null)
+				continue;
+
+			StateCollector collector = new StateCollector();
+			OnlineViterbiSolver<Integer> solver = new OnlineViterbiSolver<Integer>(collector, 1000);
+			List<Integer> states = createStates(nStates);
+
+			solver.start(states, emissionProbs[0]);
+			solver.commit();
+
+			for (int t = 1; t < nSteps; t++) {
+				double[][] probs = getReachableTransitions(solver, transitionProbs[t]);
+				Assert.assertNotNull(solver.next(states, emissionProbs[t], probs));
+				solver.commit();
+			}
+
+			solver.flush();
+
+			Assert.assertEquals(nSteps, collector.states.size());
+			for (int t = 0; t < nSteps; t++)
+				Assert.assertEquals(expected[t], collector.states.get(t).intValue());
+		}
+	}
+
+	@Test
+	public void expectCommitOfConvergedPaths() {
+		StateCollector collector = new StateCollector();
+		OnlineViterbiSolver<Integer> solver = new OnlineViterbiSolver<Integer>(collector, 1000);
+		List<Integer> states = createStates(2);
+		double[] emissionProbs = new double[] { Math.log(0.5), Math.log(0.5) };
+
+		solver.start(states, emissionProbs);
+		solver.commit();
+		Assert.assertTrue(collector.states.isEmpty());
+
+		// both new states are reached best from the first state only
+		double[][] transitionProbs = new double[][] { { Math.log(0.9), Math.log(0.9) }, { Math.log(0.1), Math.log(0.1) } };
+		solver.next(states, emissionProbs, transitionProbs);
+		solver.commit();
+
+		Assert.assertEquals(Arrays.asList(0), collector.states);
+
+		solver.flush();
+		Assert.assertEquals(2, collector.states.size());
+		Assert.assertTrue(solver.isEmpty());
+	}
+
+	@Test
+	public void expectBoundedWindow() {
+		StateCollector collector = new StateCollector();
+		int window = 10;
+		OnlineViterbiSolver<Integer> solver = new OnlineViterbiSolver<Integer>(collector, window);
+		List<Integer> states = createStates(2);
+		double[] emissionProbs = new double[] { 0, 0 };
+		// two parallel chains which never meet, the first one being more probable
+		double[][] transitionProbs = new double[][] { { Math.log(0.6), Double.NEGATIVE_INFINITY }, { Double.NEGATIVE_INFINITY, Math.log(0.4) } };
+
+		solver.start(states, emissionProbs);
+		int nSteps = 100;
+		for (int t = 1; t < nSteps; t++) {
+			solver.next(states, emissionProbs, transitionProbs);
+			solver.commit();
+
+			Assert.assertTrue(t + 1 - collector.states.size() <= window + 1);
+		}
+
+		// the less probable chain has been dropped when its part of the window was committed
+		Assert.assertEquals(1, solver.size());
+
+		solver.flush();
+		Assert.assertEquals(nSteps, collector.states.size());
+		for (Integer state : collector.states)
+			Assert.assertEquals(0, state.intValue());
+	}
+
+	@Test
+	public void expectUnreachableStatesToBeRejected() {
+		StateCollector collector = new StateCollector();
+		OnlineViterbiSolver<Integer> solver = new OnlineViterbiSolver<Integer>(collector, 1000);
+		List<Integer> states = createStates(2);
+		double[] emissionProbs = new double[] { 0, 0 };
+
+		solver.start(states, emissionProbs);
+
+		double[][] noTransitions = new double[][] { { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY }, { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY } };
+		Assert.assertNull(solver.next(states, emissionProbs, noTransitions));
+		Assert.assertEquals(2, solver.size());
+
+		double[][] transitionProbs = new double[][] { { Double.NEGATIVE_INFINITY, 0 }, { Double.NEGATIVE_INFINITY, Math.log(0.5) } };
+		int[] parents = solver.next(states, emissionProbs, transitionProbs);
+
+		Assert.assertEquals(-1, parents[0]);
+		Assert.assertEquals(0, parents[1]);
+		Assert.assertEquals(1, solver.size());
+		Assert.assertEquals(1, solver.getState(0).intValue());
+
+		solver.flush();
+		Assert.assertEquals(Arrays.asList(0, 1), collector.states);
+	}
+
+	private static List<Integer> createStates(int nStates) {
+		List<Integer> states = new ArrayList<Integer>(nStates);
+		for (int i = 0; i < nStates; i++)
+			states.add(i);
+		return states;
+	}
+
+	/**
+	 * Returns the rows of the transitions of the states which are still part of the lattice.
+	 */
+	private static double[][] getReachableTransitions(OnlineViterbiSolver<Integer> solver, double[][] transitionProbs) {
+		double[][] probs = new double[solver.size()][];
+		for (int i = 0; i < probs.length; i++)
+			probs[i] = transitionProbs[solver.getState(i)];
+		return probs;
+	}
+
+	/**
+	 * Plain Viterbi over the whole sequence, returns null if no state of the last step can be reached.
+	 */
+	private static int[] solveOffline(double[][] emissionProbs, double[][][] transitionProbs) {
+		int nSteps = emissionProbs.length;
+		int nStates = emissionProbs[0].length;
+		double[][] probs = new double[nSteps][nStates];
+		int[][] parents = new int[nSteps][nStates];
+
+		probs[0] = emissionProbs[0].clone();
+
+		for (int t = 1; t < nSteps; t++) {
+			for (int j = 0; j < nStates; j++) {
+				probs[t][j] = Double.NEGATIVE_INFINITY;
+				parents[t][j] = -1;
+
+				for (int i = 0; i < nStates; i++) {
+					double prob = probs[t - 1][i] + transitionProbs[t][i][j];
+					if (prob > probs[t][j]) {
+						probs[t][j] = prob;
+						parents[t][j] = i;
+					}
+				}
+
+				if (parents[t][j] >= 0)
+					probs[t][j] += emissionProbs[t][j];
+			}
+		}
+
+		int best = -1;
+		for (int j = 0; j < nStates; j++) {
+			if (probs[nSteps - 1][j] != Double.NEGATIVE_INFINITY && (best < 0 || probs[nSteps - 1][j] > probs[nSteps - 1][best]))
+				best = j;
+		}
+
+		if (best < 0)
+			return null;
+
+		int[] path = new int[nSteps];
+		path[nSteps - 1] = best;
+		for (int t = nSteps - 1; t > 0; t--)
+			path[t - 1] = parents[t][path[t]];
+
+		return path;
+	}
+}
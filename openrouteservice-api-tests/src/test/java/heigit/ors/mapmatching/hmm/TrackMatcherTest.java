@@ -0,0 +1,200 @@
+package heigit.ors.mapmatching.hmm;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.weighting.FastestWeighting;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.Helper;
+import com.graphhopper.util.PointList;
+import com.vividsolutions.jts.geom.Coordinate;
+
+import heigit.ors.routing.GridGraph;
+import heigit.ors.routing.graphhopper.extensions.ORSGraphHopper;
+import junit.framework.Assert;
+
+public class TrackMatcherTest {
+	// the points of the tracks are about 3 m beside the roads
+	private static final double OFFSET = 0.00003;
+	// the points are at least a quarter of an edge away from other roads
+	private static final double SEARCH_RADIUS = 10;
+
+	private static File dir;
+	private static GridGraph grid;
+	private static ORSGraphHopper gh;
+	private static FlagEncoder encoder;
+
+	private static class PathCollector implements TrackMatcher.Listener {
+		public final PointList points = new PointList();
+		public int sections;
+		public double distance;
+
+		@Override
+		public void pathMatched(PointList pathPoints, List<EdgeIteratorState> edges, boolean newSection, double pathDistance, long time) {
+			if (newSection) {
+				sections++;
+				Assert.assertTrue(edges.isEmpty());
+			} else {
+				// every part starts where the previous one ended
+				Assert.assertEquals(points.getLat(points.size() - 1), pathPoints.getLat(0), 1e-6);
+				Assert.assertEquals(points.getLon(points.size() - 1), pathPoints.getLon(0), 1e-6);
+
+				double edgesDistance = 0;
+				for (EdgeIteratorState edge : edges)
+					edgesDistance += edge.getDistance();
+				Assert.assertEquals(edgesDistance, pathDistance, 1e-3);
+				Assert.assertTrue(time >= 0);
+			}
+
+			for (int i = 0; i < pathPoints.size(); i++)
+				points.add(pathPoints.getLat(i), pathPoints.getLon(i));
+			distance += pathDistance;
+		}
+	}
+
+	@BeforeClass
+	public static void importGraph() throws Exception {
+		dir = Files.createTempDirectory("ors-track").toFile();
+		grid = new GridGraph(5, 6);
+		gh = grid.importGraphHopper(dir, "car");
+		encoder = gh.getEncodingManager().getEncoder("car");
+	}
+
+	@AfterClass
+	public static void removeGraph() {
+		gh.close();
+		Helper.removeDir(dir);
+	}
+
+	@Test
+	public void expectTurningTrackToBeMatched() {
+		List<Coordinate> track = new ArrayList<Coordinate>();
+		addRowPoints(track, 2, 0, 5, 1);
+		addColumnPoints(track, 5, 2, 4);
+
+		PathCollector collector = match(createMatcher(), track);
+
+		Assert.assertEquals(1, collector.sections);
+
+		double expectedDistance = Helper.DIST_EARTH.calcDist(grid.getLat(2), track.get(0).x, grid.getLat(2), grid.getLon(5))
+				+ Helper.DIST_EARTH.calcDist(grid.getLat(2), grid.getLon(5), track.get(track.size() - 1).y, grid.getLon(5));
+		Assert.assertEquals(expectedDistance, collector.distance, 1.0);
+
+		// the matched route does not leave the roads of the track
+		for (int i = 0; i < collector.points.size(); i++) {
+			boolean onRow = Math.abs(collector.points.getLat(i) - grid.getLat(2)) < 1e-6;
+			boolean onColumn = Math.abs(collector.points.getLon(i) - grid.getLon(5)) < 1e-6;
+			Assert.assertTrue(onRow || onColumn);
+		}
+	}
+
+	@Test
+	public void expectOutliersToBeSkipped() {
+		List<Coordinate> track = new ArrayList<Coordinate>();
+		addRowPoints(track, 3, 0, 4, 1);
+		PathCollector expected = match(createMatcher(), track);
+
+		// about 1 km away from all roads
+		track.add(track.size() / 2, new Coordinate(grid.getLon(2), grid.getLat(0) - 0.01));
+		PathCollector collector = match(createMatcher(), track);
+
+		Assert.assertEquals(1, collector.sections);
+		Assert.assertEquals(expected.distance, collector.distance, 1e-6);
+		Assert.assertEquals(expected.points.size(), collector.points.size());
+	}
+
+	@Test
+	public void expectOneWayToBeFollowed() {
+		List<Coordinate> track = new ArrayList<Coordinate>();
+		addRowPoints(track, 1, 0, 5, 1);
+
+		PathCollector collector = match(createMatcher(), track);
+		Assert.assertEquals(1, collector.sections);
+
+		// against the one-way road no point can be reached from the previous one
+		track.clear();
+		addRowPoints(track, 1, 0, 5, -1);
+
+		collector = match(createMatcher(), track);
+		Assert.assertEquals(track.size(), collector.sections);
+		Assert.assertEquals(0.0, collector.distance);
+	}
+
+	@Test
+	public void expectLongTrackWithSmallWindow() {
+		List<Coordinate> track = new ArrayList<Coordinate>();
+		for (int i = 0; i < 10; i++) {
+			addRowPoints(track, 2, 0, 5, 1);
+			addColumnPoints(track, 5, 2, 4);
+			addRowPoints(track, 4, 0, 5, -1);
+			addColumnPoints(track, 0, 4, 2);
+		}
+
+		PathCollector expected = match(createMatcher(), track);
+
+		TrackMatcher matcher = createMatcher();
+		matcher.setWindowSize(3);
+		PathCollector collector = match(matcher, track);
+
+		Assert.assertEquals(1, collector.sections);
+		Assert.assertEquals(expected.distance, collector.distance, 1.0);
+	}
+
+	@Test(expected = CancellationException.class)
+	public void expectCancellationAfterDeadline() {
+		List<Coordinate> track = new ArrayList<Coordinate>();
+		addRowPoints(track, 2, 0, 5, 1);
+
+		TrackMatcher matcher = createMatcher();
+		matcher.setDeadline(System.currentTimeMillis() - 1);
+		match(matcher, track);
+	}
+
+	private static TrackMatcher createMatcher() {
+		TrackMatcher matcher = new TrackMatcher(gh, encoder, new FastestWeighting(encoder), null);
+		matcher.setSearchRadius(SEARCH_RADIUS);
+		return matcher;
+	}
+
+	private static PathCollector match(TrackMatcher matcher, List<Coordinate> track) {
+		PathCollector collector = new PathCollector();
+		matcher.match(track.toArray(new Coordinate[track.size()]), collector);
+		return collector;
+	}
+
+	/**
+	 * Adds points at a quarter, half and three quarters of the edges of a row, towards the east for direction 1 and
+	 * towards the west for -1.
+	 */
+	private static void addRowPoints(List<Coordinate> track, int row, int fromCol, int toCol, int direction) {
+		for (int col = fromCol; col < toCol; col++) {
+			int edgeCol = direction > 0 ? col : toCol - 1 - (col - fromCol);
+			for (int k = 1; k <= 3; k++) {
+				int quarter = direction > 0 ? k : 4 - k;
+				track.add(new Coordinate(grid.getLon(edgeCol) + quarter * GridGraph.LON_STEP / 4, grid.getLat(row) + OFFSET));
+			}
+		}
+	}
+
+	/**
+	 * Adds points at a quarter, half and three quarters of the edges of a column, from the first to the last row.
+	 */
+	private static void addColumnPoints(List<Coordinate> track, int col, int fromRow, int toRow) {
+		int direction = fromRow < toRow ? 1 : -1;
+		for (int row = fromRow; row != toRow; row += direction) {
+			int edgeRow = direction > 0 ? row : row - 1;
+			for (int k = 1; k <= 3; k++) {
+				int quarter = direction > 0 ? k : 4 - k;
+				track.add(new Coordinate(grid.getLon(col) + OFFSET, grid.getLat(edgeRow) + quarter * GridGraph.LAT_STEP / 4));
+			}
+		}
+	}
+}
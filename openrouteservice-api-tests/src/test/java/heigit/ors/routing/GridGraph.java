@@ -0,0 +1,172 @@
+package heigit.ors.routing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+
+import com.graphhopper.routing.ch.PrepareContractionHierarchies;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.CHGraph;
+import com.graphhopper.storage.DAType;
+import com.graphhopper.storage.GHDirectory;
+import com.graphhopper.storage.GraphExtension;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.storage.NodeAccess;
+import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.util.CmdArgs;
+import com.graphhopper.util.Helper;
+
+import heigit.ors.routing.configuration.RouteProfileConfiguration;
+import heigit.ors.routing.graphhopper.extensions.GraphProcessContext;
+import heigit.ors.routing.graphhopper.extensions.ORSGraphHopper;
+
+/**
+ * Small grid graph in Heidelberg for testing the algorithms. The edges created by
+ * {@link #create(EncodingManager, List)} are a bit longer than the distance of their nodes, by a factor depending on
+ * their position, so that the shortest paths are unique. The horizontal edges of the second row are one-way towards
+ * the east.
+ * <p>
+ * For the tests which need a GraphHopper instance the grid is written to an OSM file and imported, with the edge
+ * lengths taken from the coordinates, see {@link #importGraphHopper(File, String)}.
+ */
+public class GridGraph {
+	public static final double LAT = 49.40;
+	public static final double LON = 8.68;
+	public static final double LAT_STEP = 0.001;
+	public static final double LON_STEP = 0.0015;
+
+	private final int _rows;
+	private final int _cols;
+
+	public GridGraph(int rows, int cols) {
+		_rows = rows;
+		_cols = cols;
+	}
+
+	public int getNodes() {
+		return _rows * _cols;
+	}
+
+	public int getNode(int row, int col) {
+		return row * _cols + col;
+	}
+
+	public double getLat(int row) {
+		return LAT + row * LAT_STEP;
+	}
+
+	public double getLon(int col) {
+		return LON + col * LON_STEP;
+	}
+
+	/**
+	 * Creates the graph with a contraction hierarchy for each of the given weightings, which still has to be
+	 * prepared by {@link #prepareCH(GraphHopperStorage, Weighting)}.
+	 */
+	@SuppressWarnings("resource")
+	public GraphHopperStorage create(EncodingManager encodingManager, List<Weighting> chWeightings, GraphExtension extension) {
+		GraphHopperStorage graph = new GraphHopperStorage(chWeightings, new RAMDirectory(), encodingManager, false, extension).create(20);
+		NodeAccess nodeAccess = graph.getNodeAccess();
+
+		for (int row = 0; row < _rows; row++) {
+			for (int col = 0; col < _cols; col++)
+				nodeAccess.setNode(getNode(row, col), getLat(row), getLon(col));
+		}
+
+		for (int row = 0; row < _rows; row++) {
+			for (int col = 0; col < _cols; col++) {
+				if (col + 1 < _cols)
+					addEdge(graph, row, col, row, col + 1, row != 1);
+				if (row + 1 < _rows)
+					addEdge(graph, row, col, row + 1, col, true);
+			}
+		}
+
+		return graph;
+	}
+
+	public GraphHopperStorage create(EncodingManager encodingManager, List<Weighting> chWeightings) {
+		return create(encodingManager, chWeightings, new GraphExtension.NoOpExtension());
+	}
+
+	private void addEdge(GraphHopperStorage graph, int row1, int col1, int row2, int col2, boolean bothDirections) {
+		double distance = Helper.DIST_EARTH.calcDist(getLat(row1), getLon(col1), getLat(row2), getLon(col2));
+		double factor = 1.0 + ((row1 * 7 + col1 * 3 + row2 + col2) % 5) * 0.1;
+
+		graph.edge(getNode(row1, col1), getNode(row2, col2), distance * factor, bothDirections);
+	}
+
+	/**
+	 * Writes the grid as OSM file with one residential way per row and column. The ids of the OSM nodes are the
+	 * node ids of the grid plus one.
+	 */
+	public void writeOsmFile(File file) throws IOException {
+		try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+			writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			writer.println("<osm version=\"0.6\">");
+
+			for (int row = 0; row < _rows; row++) {
+				for (int col = 0; col < _cols; col++)
+					writer.println(String.format(Locale.US, "<node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"/>", getNode(row, col) + 1, getLat(row), getLon(col)));
+			}
+
+			int wayId = 1;
+			for (int row = 0; row < _rows; row++) {
+				writer.println("<way id=\"" + (wayId++) + "\">");
+				for (int col = 0; col < _cols; col++)
+					writer.println("<nd ref=\"" + (getNode(row, col) + 1) + "\"/>");
+				writer.println("<tag k=\"highway\" v=\"residential\"/>");
+				if (row == 1)
+					writer.println("<tag k=\"oneway\" v=\"yes\"/>");
+				writer.println("</way>");
+			}
+
+			for (int col = 0; col < _cols; col++) {
+				writer.println("<way id=\"" + (wayId++) + "\">");
+				for (int row = 0; row < _rows; row++)
+					writer.println("<nd ref=\"" + (getNode(row, col) + 1) + "\"/>");
+				writer.println("<tag k=\"highway\" v=\"residential\"/>");
+				writer.println("</way>");
+			}
+
+			writer.println("</osm>");
+		}
+	}
+
+	/**
+	 * Imports the grid into a graph without CH preparation in the given directory, in the same way as the routing
+	 * profiles are imported.
+	 */
+	public ORSGraphHopper importGraphHopper(File dir, String flagEncoders) throws Exception {
+		File osmFile = new File(dir, "grid.osm");
+		writeOsmFile(osmFile);
+
+		CmdArgs args = new CmdArgs();
+		args.put("graph.dataaccess", "RAM_STORE");
+		args.put("datareader.file", osmFile.getAbsolutePath());
+		args.put("graph.location", new File(dir, "graph").getAbsolutePath());
+		args.put("prepare.ch.weightings", "no");
+		args.put("prepare.lm.weightings", "no");
+		args.put("graph.flag_encoders", flagEncoders);
+
+		ORSGraphHopper gh = new ORSGraphHopper(new GraphProcessContext(new RouteProfileConfiguration()), null);
+		gh.init(args);
+		gh.importOrLoad();
+
+		return gh;
+	}
+
+	public static PrepareContractionHierarchies prepareCH(GraphHopperStorage graph, Weighting weighting) {
+		graph.freeze();
+
+		CHGraph chGraph = graph.getGraph(CHGraph.class, weighting);
+		PrepareContractionHierarchies prepareCH = new PrepareContractionHierarchies(new GHDirectory("", DAType.RAM_INT), graph, chGraph, weighting, TraversalMode.NODE_BASED);
+		prepareCH.doWork();
+
+		return prepareCH;
+	}
+}
@@ -0,0 +1,143 @@
+package heigit.ors.routing.algorithms;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.graphhopper.routing.Dijkstra;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.FastestWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.util.EdgeIteratorState;
+
+import heigit.ors.routing.GridGraph;
+import heigit.ors.routing.graphhopper.extensions.AccessibilityMap;
+import junit.framework.Assert;
+
+public class DijkstraCostConditionTest {
+	private static GridGraph grid;
+	private static GraphHopperStorage graph;
+	private static Weighting weighting;
+
+	@BeforeClass
+	public static void createGraph() {
+		CarFlagEncoder encoder = new CarFlagEncoder();
+		EncodingManager encodingManager = new EncodingManager(encoder);
+		weighting = new FastestWeighting(encoder);
+
+		grid = new GridGraph(6, 6);
+		graph = grid.create(encodingManager, Collections.<Weighting>emptyList());
+	}
+
+	@Test
+	public void expectDijkstraWeights() {
+		assertDijkstraWeights(grid.getNode(2, 3), false);
+		assertDijkstraWeights(grid.getNode(0, 0), false);
+		// the start of the one-way row
+		assertDijkstraWeights(grid.getNode(1, 0), false);
+	}
+
+	@Test
+	public void expectReverseDijkstraWeights() {
+		assertDijkstraWeights(grid.getNode(2, 3), true);
+		// the end of the one-way row
+		assertDijkstraWeights(grid.getNode(1, 5), true);
+	}
+
+	@Test
+	public void expectAllNodesWithinInfiniteCost() {
+		DijkstraCostCondition algorithm = new DijkstraCostCondition(graph, weighting, Double.MAX_VALUE, false, TraversalMode.NODE_BASED);
+		algorithm.calcPath(grid.getNode(3, 3));
+		AccessibilityMap map = algorithm.getMap();
+
+		Assert.assertEquals(grid.getNodes(), map.size());
+		for (int node = 0; node < grid.getNodes(); node++)
+			Assert.assertTrue(map.getSlot(node) != AccessibilityMap.NO_SLOT);
+
+		DijkstraCostCondition.releaseMap(map);
+	}
+
+	@Test
+	public void expectPooledMapsNotToBeShared() {
+		DijkstraCostCondition first = new DijkstraCostCondition(graph, weighting, Double.MAX_VALUE, false, TraversalMode.NODE_BASED);
+		first.calcPath(grid.getNode(0, 0));
+		DijkstraCostCondition second = new DijkstraCostCondition(graph, weighting, Double.MAX_VALUE, false, TraversalMode.NODE_BASED);
+		second.calcPath(grid.getNode(5, 5));
+
+		// both maps are in use, so the second search must not get the map of the first one
+		Assert.assertNotSame(first.getMap(), second.getMap());
+		Assert.assertTrue(first.getMap().isStart(first.getMap().getSlot(grid.getNode(0, 0))));
+		Assert.assertTrue(second.getMap().isStart(second.getMap().getSlot(grid.getNode(5, 5))));
+
+		DijkstraCostCondition.releaseMap(first.getMap());
+		DijkstraCostCondition.releaseMap(second.getMap());
+
+		// a released map keeps nothing of its previous search
+		for (int i = 0; i < 3; i++)
+			assertDijkstraWeights(grid.getNode(i, 4 - i), false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void expectEdgeBasedTraversalToBeRejected() {
+		new DijkstraCostCondition(graph, weighting, 100, false, TraversalMode.EDGE_BASED_2DIR);
+	}
+
+	/**
+	 * Searches with the median weight of all nodes as maximum cost and compares the weights of the settled nodes and
+	 * their tree with plain Dijkstra.
+	 */
+	private void assertDijkstraWeights(int from, boolean reverse) {
+		double[] weights = new double[grid.getNodes()];
+		for (int node = 0; node < weights.length; node++) {
+			Path path = reverse ? calcDijkstraPath(node, from) : calcDijkstraPath(from, node);
+			Assert.assertTrue(path.isFound());
+			weights[node] = path.getWeight();
+		}
+
+		double[] sortedWeights = weights.clone();
+		Arrays.sort(sortedWeights);
+		double maxCost = sortedWeights[weights.length / 2];
+
+		DijkstraCostCondition algorithm = new DijkstraCostCondition(graph, weighting, maxCost, reverse, TraversalMode.NODE_BASED);
+		algorithm.calcPath(from);
+		AccessibilityMap map = algorithm.getMap();
+
+		Assert.assertEquals(0, map.getSlot(from));
+		Assert.assertTrue(map.isStart(0));
+
+		for (int node = 0; node < weights.length; node++) {
+			String message = (reverse ? "to " : "from ") + from + " at " + node;
+			int slot = map.getSlot(node);
+
+			if (weights[node] <= maxCost) {
+				Assert.assertTrue(message, slot != AccessibilityMap.NO_SLOT);
+				Assert.assertEquals(message, weights[node], map.getWeight(slot), 1e-6);
+			} else if (slot != AccessibilityMap.NO_SLOT) {
+				// reached by an edge which ends beyond the maximum cost, but not expanded
+				Assert.assertTrue(message, map.getParentWeight(slot) <= maxCost);
+				Assert.assertTrue(message, map.getWeight(slot) > maxCost);
+			}
+		}
+
+		// every slot is reached by its edge from the node of its parent
+		for (int slot = 1; slot < map.size(); slot++) {
+			int parent = map.getParent(slot);
+			EdgeIteratorState edge = graph.getEdgeIteratorState(map.getEdge(slot), map.getNode(slot));
+
+			Assert.assertEquals(map.getNode(parent), edge.getBaseNode());
+			Assert.assertEquals(map.getWeight(parent) + weighting.calcWeight(edge, reverse, map.getEdge(parent)), map.getWeight(slot), 1e-6);
+		}
+
+		DijkstraCostCondition.releaseMap(map);
+	}
+
+	private Path calcDijkstraPath(int from, int to) {
+		return new Dijkstra(graph, weighting, TraversalMode.NODE_BASED).calcPath(from, to);
+	}
+}
@@ -0,0 +1,189 @@
+package heigit.ors.routing.algorithms;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.graphhopper.routing.Dijkstra;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.ch.PrepareContractionHierarchies;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.FastestWeighting;
+import com.graphhopper.routing.weighting.PriorityWeighting;
+import com.graphhopper.routing.weighting.ShortestWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.CHGraph;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.PMap;
+
+import heigit.ors.isochrones.GraphEdgeMapFinder;
+import heigit.ors.routing.GridGraph;
+import heigit.ors.routing.graphhopper.extensions.AccessibilityMap;
+import heigit.ors.routing.graphhopper.extensions.flagencoders.HeavyVehicleFlagEncoder;
+import junit.framework.Assert;
+
+public class PHASTAlgorithmTest {
+	private GridGraph grid;
+	private GraphHopperStorage graph;
+	private Weighting weighting;
+	private PrepareContractionHierarchies prepareCH;
+
+	@Before
+	public void createGraph() {
+		CarFlagEncoder encoder = new CarFlagEncoder();
+		createGraph(encoder, new FastestWeighting(encoder));
+	}
+
+	/**
+	 * Creates the grid with the hierarchy prepared for the given weighting. The weights of the maps are compared
+	 * with those of this weighting.
+	 */
+	private void createGraph(FlagEncoder encoder, Weighting chWeighting) {
+		EncodingManager encodingManager = new EncodingManager(encoder);
+		weighting = chWeighting;
+
+		grid = new GridGraph(6, 6);
+		graph = grid.create(encodingManager, Collections.singletonList(weighting));
+		prepareCH = GridGraph.prepareCH(graph, weighting);
+	}
+
+	@Test
+	public void expectDijkstraWeights() {
+		for (int row = 0; row < 6; row += 2) {
+			for (int col = 0; col < 6; col += 3) {
+				assertDijkstraWeights(grid.getNode(row, col), false, 0.5);
+				assertDijkstraWeights(grid.getNode(row, col), true, 0.5);
+			}
+		}
+	}
+
+	@Test
+	public void expectDijkstraWeightsAtOneWayRow() {
+		assertDijkstraWeights(grid.getNode(1, 0), false, 0.3);
+		assertDijkstraWeights(grid.getNode(1, 5), true, 0.3);
+	}
+
+	@Test
+	public void expectWholeGraphWithinLargeCost() {
+		assertDijkstraWeights(grid.getNode(3, 3), false, 1.0);
+
+		AccessibilityMap map = createAlgorithm(Double.MAX_VALUE, false).calcAccessibilityMap(grid.getNode(3, 3));
+		Assert.assertEquals(grid.getNodes(), map.size());
+	}
+
+	@Test
+	public void expectOnlySourceWithinZeroCost() {
+		int from = grid.getNode(2, 2);
+		AccessibilityMap map = createAlgorithm(0, false).calcAccessibilityMap(from);
+
+		Assert.assertEquals(from, map.getNode(0));
+		Assert.assertEquals(0.0, map.getWeight(0));
+
+		// the neighbours of the source are added with their tentative costs
+		for (int slot = 1; slot < map.size(); slot++)
+			Assert.assertEquals(from, map.getNode(map.getParent(slot)));
+	}
+
+	@Test
+	public void expectDijkstraWeightsWithPriorityEncoder() {
+		HeavyVehicleFlagEncoder encoder = new HeavyVehicleFlagEncoder();
+		createGraph(encoder, new FastestWeighting(encoder));
+		Assert.assertTrue(encoder.supports(PriorityWeighting.class));
+
+		assertDijkstraWeights(grid.getNode(0, 0), false, 0.5);
+		assertDijkstraWeights(grid.getNode(3, 3), true, 0.5);
+		Assert.assertTrue(GraphEdgeMapFinder.isTravelTimeWeighting(weighting, encoder));
+	}
+
+	@Test
+	public void expectNoTravelTimesWithPriorityWeighting() {
+		HeavyVehicleFlagEncoder encoder = new HeavyVehicleFlagEncoder();
+		FastestWeighting fastestWeighting = new FastestWeighting(encoder);
+		// the weighting which the CH preparation of a "fastest" profile uses for this encoder
+		createGraph(encoder, new PriorityWeighting(encoder, new PMap()));
+
+		int from = grid.getNode(0, 0);
+		int to = grid.getNode(5, 5);
+		double seconds = new Dijkstra(graph, fastestWeighting, TraversalMode.NODE_BASED).calcPath(from, to).getWeight();
+
+		AccessibilityMap map = createAlgorithm(Double.MAX_VALUE, false).calcAccessibilityMap(from);
+		Assert.assertEquals(calcDijkstraPath(from, to).getWeight(), map.getWeight(map.getSlot(to)), 1e-6);
+		Assert.assertTrue(map.getWeight(map.getSlot(to)) > seconds + 1e-6);
+
+		// therefore the isochrones are not built from such a hierarchy
+		Assert.assertFalse(GraphEdgeMapFinder.isTravelTimeWeighting(weighting, encoder));
+		Assert.assertTrue(GraphEdgeMapFinder.isTravelTimeWeighting(fastestWeighting, encoder));
+		Assert.assertFalse(GraphEdgeMapFinder.isTravelTimeWeighting(new ShortestWeighting(encoder), encoder));
+		Assert.assertFalse(GraphEdgeMapFinder.isTravelTimeWeighting(fastestWeighting, new CarFlagEncoder()));
+	}
+
+	private PHASTAlgorithm createAlgorithm(double maxCost, boolean reverse) {
+		return new PHASTAlgorithm(graph.getGraph(CHGraph.class), graph, prepareCH.getPrepareWeighting(), maxCost, reverse);
+	}
+
+	/**
+	 * Compares the map with plain Dijkstra and with DijkstraCostCondition, whose maps are used by the isochrone
+	 * builders in the same way. The maximum cost is the given quantile of the weights of all nodes.
+	 */
+	private void assertDijkstraWeights(int from, boolean reverse, double quantile) {
+		double[] weights = new double[grid.getNodes()];
+		for (int node = 0; node < weights.length; node++) {
+			Path path = reverse ? calcDijkstraPath(node, from) : calcDijkstraPath(from, node);
+			Assert.assertTrue(path.isFound());
+			weights[node] = path.getWeight();
+		}
+
+		double[] sortedWeights = weights.clone();
+		Arrays.sort(sortedWeights);
+		double maxCost = sortedWeights[(int)Math.round(quantile * (weights.length - 1))];
+
+		AccessibilityMap map = createAlgorithm(maxCost, reverse).calcAccessibilityMap(from);
+
+		DijkstraCostCondition dijkstra = new DijkstraCostCondition(graph, weighting, maxCost, reverse, TraversalMode.NODE_BASED);
+		dijkstra.calcPath(from);
+		AccessibilityMap expectedMap = dijkstra.getMap();
+
+		Assert.assertEquals(from, map.getNode(0));
+		Assert.assertTrue(map.isStart(0));
+		Assert.assertEquals(expectedMap.size(), map.size());
+
+		for (int node = 0; node < weights.length; node++) {
+			String message = (reverse ? "to " : "from ") + from + " at " + node;
+			int slot = map.getSlot(node);
+			int expectedSlot = expectedMap.getSlot(node);
+
+			Assert.assertEquals(message, expectedSlot == AccessibilityMap.NO_SLOT, slot == AccessibilityMap.NO_SLOT);
+			if (slot == AccessibilityMap.NO_SLOT)
+				continue;
+
+			if (weights[node] <= maxCost)
+				Assert.assertEquals(message, weights[node], map.getWeight(slot), 1e-6);
+			else
+				Assert.assertTrue(message, map.getWeight(slot) > maxCost);
+
+			// also the tentative costs beyond the maximum cost are the same
+			Assert.assertEquals(message, expectedMap.getWeight(expectedSlot), map.getWeight(slot), 1e-6);
+		}
+
+		// every node is reached by a base edge from the node of its parent
+		for (int slot = 1; slot < map.size(); slot++) {
+			int parent = map.getParent(slot);
+			EdgeIteratorState edge = graph.getEdgeIteratorState(map.getEdge(slot), map.getNode(slot));
+
+			Assert.assertEquals(map.getNode(parent), edge.getBaseNode());
+			Assert.assertEquals(map.getWeight(parent) + weighting.calcWeight(edge, reverse, map.getEdge(parent)), map.getWeight(slot), 1e-6);
+		}
+
+		DijkstraCostCondition.releaseMap(expectedMap);
+	}
+
+	private Path calcDijkstraPath(int from, int to) {
+		return new Dijkstra(graph, weighting, TraversalMode.NODE_BASED).calcPath(from, to);
+	}
+}
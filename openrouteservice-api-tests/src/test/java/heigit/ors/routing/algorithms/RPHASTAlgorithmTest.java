@@ -0,0 +1,100 @@
+package heigit.ors.routing.algorithms;
+
+import java.util.Collections;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.graphhopper.routing.Dijkstra;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.ch.PrepareContractionHierarchies;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.FastestWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.CHGraph;
+import com.graphhopper.storage.GraphHopperStorage;
+
+import heigit.ors.routing.GridGraph;
+import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPStorage;
+import junit.framework.Assert;
+
+public class RPHASTAlgorithmTest {
+	// the weight of the sources, which is added to all weights of their trees
+	private static final double SOURCE_WEIGHT = 0.0001;
+
+	private static GridGraph grid;
+	private static GraphHopperStorage graph;
+	private static Weighting weighting;
+	private static PrepareContractionHierarchies prepareCH;
+
+	@BeforeClass
+	public static void createGraph() {
+		CarFlagEncoder encoder = new CarFlagEncoder();
+		EncodingManager encodingManager = new EncodingManager(encoder);
+		weighting = new FastestWeighting(encoder);
+
+		grid = new GridGraph(6, 6);
+		graph = grid.create(encodingManager, Collections.singletonList(weighting));
+		prepareCH = GridGraph.prepareCH(graph, weighting);
+	}
+
+	@Test
+	public void expectDijkstraWeights() {
+		int[] sources = new int[] { grid.getNode(0, 0), grid.getNode(1, 3), grid.getNode(5, 5), grid.getNode(3, 2) };
+		int[] targets = new int[] { grid.getNode(5, 0), grid.getNode(1, 5), grid.getNode(2, 2), grid.getNode(1, 0), grid.getNode(3, 2) };
+
+		assertDijkstraWeights(sources, targets);
+	}
+
+	@Test
+	public void expectAllPairsDijkstraWeights() {
+		int[] nodes = new int[grid.getNodes()];
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = i;
+
+		assertDijkstraWeights(nodes, nodes);
+	}
+
+	@Test
+	public void expectSameWeightsAfterReset() {
+		int[] sources = new int[] { grid.getNode(4, 1), grid.getNode(0, 5) };
+		int[] targets = new int[] { grid.getNode(1, 1), grid.getNode(5, 3) };
+
+		RPHASTAlgorithm algorithm = new RPHASTAlgorithm(graph.getGraph(CHGraph.class), prepareCH.getPrepareWeighting(), TraversalMode.NODE_BASED);
+		algorithm.prepare(sources, targets);
+		int[] firstSlots = algorithm.calcPaths(sources, targets);
+		double firstWeight = algorithm.getStorage().getWeight(firstSlots[1], 0);
+
+		algorithm.reset();
+		algorithm.prepare(sources, targets);
+		int[] secondSlots = algorithm.calcPaths(sources, targets);
+
+		Assert.assertEquals(firstWeight, algorithm.getStorage().getWeight(secondSlots[1], 0), 1e-9);
+	}
+
+	private void assertDijkstraWeights(int[] sources, int[] targets) {
+		RPHASTAlgorithm algorithm = new RPHASTAlgorithm(graph.getGraph(CHGraph.class), prepareCH.getPrepareWeighting(), TraversalMode.NODE_BASED);
+		algorithm.prepare(sources, targets);
+
+		int[] slots = algorithm.calcPaths(sources, targets);
+		MultiTreeSPStorage storage = algorithm.getStorage();
+
+		Assert.assertEquals(sources.length, storage.getNumTrees());
+		Assert.assertEquals(targets.length, slots.length);
+
+		for (int i = 0; i < sources.length; i++) {
+			for (int j = 0; j < targets.length; j++) {
+				Assert.assertTrue(slots[j] != MultiTreeSPStorage.NO_SLOT);
+				Assert.assertEquals(targets[j], storage.getAdjNode(slots[j]));
+
+				Path path = new Dijkstra(graph, weighting, TraversalMode.NODE_BASED).calcPath(sources[i], targets[j]);
+				Assert.assertTrue(path.isFound());
+
+				String message = "from " + sources[i] + " to " + targets[j];
+				Assert.assertEquals(message, path.getWeight(), storage.getWeight(slots[j], i) - SOURCE_WEIGHT, 1e-6);
+			}
+		}
+	}
+}
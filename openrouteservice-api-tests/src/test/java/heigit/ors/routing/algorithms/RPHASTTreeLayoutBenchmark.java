@@ -0,0 +1,326 @@
+package heigit.ors.routing.algorithms;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.carrotsearch.hppc.IntObjectMap;
+import com.graphhopper.coll.GHIntObjectHashMap;
+import com.graphhopper.routing.ch.PrepareContractionHierarchies;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.FastestWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.CHGraph;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+
+import heigit.ors.routing.GridGraph;
+import heigit.ors.routing.graphhopper.extensions.edgefilters.UpwardSearchEdgeFilter;
+import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPStorage;
+
+/**
+ * Compares the shortest path trees of RPHASTAlgorithm stored in MultiTreeSPStorage with the former layout of one
+ * MultiTreeSPEntry object per node holding one MultiTreeSPEntryItem object per tree. The former layout is rebuilt
+ * here by {@link ObjectTreeSearch}, a copy of the searches of RPHASTAlgorithm before the change. Both run on the
+ * same contraction hierarchy of grids of 10x10, 100x100 and 500x500 nodes with the same target graph, and the time
+ * and the heap allocated per matrix are printed for each grid.
+ * <p>
+ * Not run with the other tests, start it with -Dtest=RPHASTTreeLayoutBenchmark. The number of sources and targets
+ * can be set with -Dbenchmark.locations and the number of measured matrices per grid with -Dbenchmark.iterations.
+ * The preparation of the largest grid takes a while.
+ */
+public class RPHASTTreeLayoutBenchmark {
+	private static final int[] GRID_SIZES = new int[] { 10, 100, 500 };
+
+	@Test
+	public void compareTreeLayouts() {
+		int nLocations = Integer.getInteger("benchmark.locations", 50);
+		int nIterations = Integer.getInteger("benchmark.iterations", 20);
+
+		for (int size : GRID_SIZES) {
+			CarFlagEncoder encoder = new CarFlagEncoder();
+			EncodingManager encodingManager = new EncodingManager(encoder);
+			Weighting weighting = new FastestWeighting(encoder);
+
+			GridGraph grid = new GridGraph(size, size);
+			GraphHopperStorage graph = grid.create(encodingManager, Collections.singletonList(weighting));
+			PrepareContractionHierarchies prepareCH = GridGraph.prepareCH(graph, weighting);
+			CHGraph chGraph = graph.getGraph(CHGraph.class);
+			Weighting chWeighting = prepareCH.getPrepareWeighting();
+
+			Random random = new Random(42);
+			int[] sources = createLocations(random, grid.getNodes(), nLocations);
+			int[] targets = createLocations(random, grid.getNodes(), nLocations);
+			SubGraph targetGraph = new RPHASTAlgorithm(chGraph, chWeighting, TraversalMode.NODE_BASED).createTargetGraph(chGraph, targets);
+
+			int nDifferent = countDifferentWeights(chGraph, chWeighting, targetGraph, sources, targets);
+			if (nDifferent > 0)
+				System.out.println(String.format(Locale.US, "%dx%d grid: %d weights differ between the layouts", size, size, nDifferent));
+
+			// the first round warms up the JIT
+			for (int round = 0; round < 2; round++) {
+				long allocated = getAllocatedBytes();
+				long startTime = System.nanoTime();
+				for (int i = 0; i < nIterations; i++)
+					calcStorage(chGraph, chWeighting, targetGraph, sources, targets);
+				double storageTime = (System.nanoTime() - startTime) / 1e6 / nIterations;
+				double storageBytes = (getAllocatedBytes() - allocated) / (double) nIterations;
+
+				allocated = getAllocatedBytes();
+				startTime = System.nanoTime();
+				for (int i = 0; i < nIterations; i++)
+					new ObjectTreeSearch(chGraph, chWeighting, targetGraph, sources.length).calcPaths(sources, targets);
+				double objectsTime = (System.nanoTime() - startTime) / 1e6 / nIterations;
+				double objectsBytes = (getAllocatedBytes() - allocated) / (double) nIterations;
+
+				if (round > 0)
+					System.out.println(String.format(Locale.US, "%dx%d grid, %dx%d matrix: MultiTreeSPStorage %.2f ms, %.1f kB; MultiTreeSPEntry %.2f ms, %.1f kB",
+							size, size, sources.length, targets.length, storageTime, storageBytes / 1024, objectsTime, objectsBytes / 1024));
+			}
+		}
+	}
+
+	private static MultiTreeSPStorage calcStorage(CHGraph chGraph, Weighting weighting, SubGraph targetGraph, int[] sources, int[] targets) {
+		RPHASTAlgorithm algorithm = new RPHASTAlgorithm(chGraph, weighting, TraversalMode.NODE_BASED);
+		algorithm.prepare(sources, targetGraph);
+		algorithm.calcPaths(sources, targets);
+		return algorithm.getStorage();
+	}
+
+	/**
+	 * Counts the weights which differ between the layouts. The times are only comparable if both give the same trees.
+	 */
+	private static int countDifferentWeights(CHGraph chGraph, Weighting weighting, SubGraph targetGraph, int[] sources, int[] targets) {
+		RPHASTAlgorithm algorithm = new RPHASTAlgorithm(chGraph, weighting, TraversalMode.NODE_BASED);
+		algorithm.prepare(sources, targetGraph);
+		int[] slots = algorithm.calcPaths(sources, targets);
+
+		ObjectTreeEntry[] entries = new ObjectTreeSearch(chGraph, weighting, targetGraph, sources.length).calcPaths(sources, targets);
+
+		int nDifferent = 0;
+		for (int j = 0; j < targets.length; j++) {
+			for (int i = 0; i < sources.length; i++) {
+				if (Math.abs(entries[j].items[i].weight - algorithm.getStorage().getWeight(slots[j], i)) > 1e-6)
+					nDifferent++;
+			}
+		}
+
+		return nDifferent;
+	}
+
+	/**
+	 * Picks distinct nodes, since the former layout keeps only the last tree of sources at the same node.
+	 */
+	private static int[] createLocations(Random random, int nNodes, int nLocations) {
+		int[] nodes = new int[nNodes];
+		for (int i = 0; i < nNodes; i++)
+			nodes[i] = i;
+
+		int n = Math.min(nNodes, nLocations);
+		for (int i = 0; i < n; i++) {
+			int j = i + random.nextInt(nNodes - i);
+			int node = nodes[i];
+			nodes[i] = nodes[j];
+			nodes[j] = node;
+		}
+
+		return Arrays.copyOf(nodes, n);
+	}
+
+	/**
+	 * Returns the bytes allocated by the current thread, or 0 if the JVM does not count them.
+	 */
+	private static long getAllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+
+	/**
+	 * Entry of the former layout, with one item object per tree.
+	 */
+	private static class ObjectTreeEntry implements Comparable<ObjectTreeEntry> {
+		int adjNode;
+		boolean visited;
+		ObjectTreeItem[] items;
+		double totalWeight;
+
+		ObjectTreeEntry(int adjNode, int edgeId, double edgeWeight, boolean updated, ObjectTreeEntry parent, int numTrees) {
+			this.adjNode = adjNode;
+			this.items = new ObjectTreeItem[numTrees];
+
+			for (int i = 0; i < numTrees; ++i) {
+				ObjectTreeItem item = new ObjectTreeItem();
+				items[i] = item;
+
+				double entryWeight = parent == null ? 0.0 : parent.items[i].weight;
+				if (entryWeight == 0.0 && parent != null)
+					continue;
+
+				item.weight = edgeWeight + entryWeight;
+				item.parent = parent;
+				item.edge = edgeId;
+				item.update = updated;
+				totalWeight += item.weight;
+			}
+		}
+
+		void resetUpdate(boolean value) {
+			for (int i = 0; i < items.length; i++)
+				items[i].update = value;
+		}
+
+		void updateWeights() {
+			totalWeight = 0.0;
+			for (int i = 0; i < items.length; i++)
+				totalWeight += items[i].weight;
+		}
+
+		@Override
+		public int compareTo(ObjectTreeEntry o) {
+			if (totalWeight < o.totalWeight)
+				return -1;
+			return totalWeight > o.totalWeight ? 1 : 0;
+		}
+	}
+
+	private static class ObjectTreeItem {
+		int edge = EdgeIterator.NO_EDGE;
+		double weight = 0.0;
+		boolean update = false;
+		ObjectTreeEntry parent = null;
+	}
+
+	/**
+	 * The upward and downward searches of RPHASTAlgorithm on the former layout, with a PriorityQueue whose entries
+	 * are removed and added again when their weights decrease.
+	 */
+	private static class ObjectTreeSearch {
+		private final Weighting _weighting;
+		private final SubGraph _targetGraph;
+		private final UpwardSearchEdgeFilter _upwardEdgeFilter;
+		private final EdgeExplorer _upwardExplorer;
+		private final int _treeEntrySize;
+		private final PriorityQueue<ObjectTreeEntry> _prioQueue;
+		private final IntObjectMap<ObjectTreeEntry> _bestWeightMap;
+
+		ObjectTreeSearch(CHGraph chGraph, Weighting weighting, SubGraph targetGraph, int numTrees) {
+			int size = Math.min(Math.max(200, chGraph.getNodes() / 10), 2000);
+
+			_weighting = weighting;
+			_targetGraph = targetGraph;
+			_upwardEdgeFilter = new UpwardSearchEdgeFilter(chGraph, weighting.getFlagEncoder());
+			_upwardExplorer = chGraph.createEdgeExplorer();
+			_treeEntrySize = numTrees;
+			_prioQueue = new PriorityQueue<ObjectTreeEntry>(size);
+			_bestWeightMap = new GHIntObjectHashMap<ObjectTreeEntry>(size);
+		}
+
+		ObjectTreeEntry[] calcPaths(int[] from, int[] to) {
+			for (int i = 0; i < from.length; i++) {
+				ObjectTreeEntry entry = new ObjectTreeEntry(from[i], EdgeIterator.NO_EDGE, 0.0, true, null, from.length);
+				entry.items[i].weight = 0.0001;
+				entry.visited = true;
+				_prioQueue.add(entry);
+				_bestWeightMap.put(from[i], entry);
+			}
+
+			while (!_prioQueue.isEmpty())
+				fillEdges(_prioQueue.poll(), _upwardExplorer, true);
+
+			ObjectTreeEntry highest = _bestWeightMap.get(_upwardEdgeFilter.getHighestNode());
+			highest.visited = true;
+			highest.resetUpdate(true);
+			_prioQueue.add(highest);
+
+			EdgeExplorer downwardExplorer = _targetGraph.createExplorer();
+			while (!_prioQueue.isEmpty())
+				fillEdges(_prioQueue.poll(), downwardExplorer, false);
+
+			ObjectTreeEntry[] targets = new ObjectTreeEntry[to.length];
+			for (int i = 0; i < to.length; ++i)
+				targets[i] = _bestWeightMap.get(to[i]);
+
+			return targets;
+		}
+
+		private void fillEdges(ObjectTreeEntry currEdge, EdgeExplorer explorer, boolean upward) {
+			EdgeIterator iter = explorer.setBaseNode(currEdge.adjNode);
+			if (iter == null)
+				return;
+
+			if (upward)
+				_upwardEdgeFilter.setBaseNode(currEdge.adjNode);
+
+			while (iter.next()) {
+				if (upward) {
+					if (!_upwardEdgeFilter.accept(iter))
+						continue;
+					_upwardEdgeFilter.updateHighestNode(iter);
+				}
+
+				double edgeWeight = _weighting.calcWeight(iter, false, 0);
+				if (Double.isInfinite(edgeWeight))
+					continue;
+
+				ObjectTreeEntry ee = _bestWeightMap.get(iter.getAdjNode());
+
+				if (ee == null) {
+					ee = new ObjectTreeEntry(iter.getAdjNode(), iter.getEdge(), edgeWeight, true, currEdge, _treeEntrySize);
+					ee.visited = !upward;
+					_bestWeightMap.put(iter.getAdjNode(), ee);
+					_prioQueue.add(ee);
+					continue;
+				}
+
+				boolean addToQueue = false;
+				for (int i = 0; i < _treeEntrySize; ++i) {
+					ObjectTreeItem item = currEdge.items[i];
+					if (item.weight == 0.0 || !item.update)
+						continue;
+
+					double tmpWeight = edgeWeight + item.weight;
+					ObjectTreeItem eeItem = ee.items[i];
+
+					if (eeItem.weight > tmpWeight || eeItem.weight == 0.0) {
+						eeItem.weight = tmpWeight;
+						eeItem.edge = iter.getEdge();
+						eeItem.parent = currEdge;
+						eeItem.update = true;
+						addToQueue = true;
+					}
+				}
+
+				if (upward) {
+					if (addToQueue) {
+						ee.updateWeights();
+						_prioQueue.remove(ee);
+						_prioQueue.add(ee);
+					}
+				} else {
+					ee.updateWeights();
+
+					if (!ee.visited) {
+						ee.visited = true;
+						ee.resetUpdate(true);
+						_prioQueue.add(ee);
+					} else if (addToQueue) {
+						_prioQueue.remove(ee);
+						_prioQueue.add(ee);
+					}
+				}
+			}
+
+			currEdge.resetUpdate(false);
+		}
+	}
+}
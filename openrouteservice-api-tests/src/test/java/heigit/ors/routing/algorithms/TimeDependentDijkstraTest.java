@@ -0,0 +1,256 @@
+package heigit.ors.routing.algorithms;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.graphhopper.routing.Dijkstra;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.DefaultEdgeFilter;
+import com.graphhopper.routing.util.EncodingManager;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.FastestWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.GraphHopperStorage;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.EdgeIteratorState;
+
+import heigit.ors.routing.GridGraph;
+import heigit.ors.routing.graphhopper.extensions.storages.SpeedProfilesGraphStorage;
+import heigit.ors.routing.graphhopper.extensions.weighting.TimeDependentWeighting;
+import junit.framework.Assert;
+
+public class TimeDependentDijkstraTest {
+	private static final int COLS = 6;
+	private static final long MINUTE = 60 * 1000L;
+	// the profiles are given in local times, which must not depend on the time zone of the JVM
+	private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("Europe/Berlin");
+
+	private GridGraph grid;
+	private GraphHopperStorage graph;
+	private CarFlagEncoder encoder;
+	private Weighting weighting;
+	private SpeedProfilesGraphStorage speedProfiles;
+
+	@Before
+	public void createGraph() {
+		encoder = new CarFlagEncoder();
+		EncodingManager encodingManager = new EncodingManager(encoder);
+		weighting = new FastestWeighting(encoder);
+		speedProfiles = new SpeedProfilesGraphStorage(TIME_ZONE);
+
+		grid = new GridGraph(5, COLS);
+		graph = grid.create(encodingManager, Collections.<Weighting>emptyList(), speedProfiles);
+	}
+
+	@Test
+	public void expectDijkstraPathsWithConstantSpeeds() {
+		int profile = speedProfiles.addProfile(createProfile(20));
+		AllEdgesIterator iter = graph.getAllEdges();
+		while (iter.next())
+			speedProfiles.setEdgeProfile(iter.getEdge(), profile);
+
+		long departureTime = getMondayTime(8, 0);
+		int from = grid.getNode(0, 0);
+
+		for (int to = 0; to < grid.getNodes(); to++) {
+			Path expected = new Dijkstra(graph, weighting, TraversalMode.NODE_BASED).calcPath(from, to);
+			Path path = calcPath(departureTime, from, to);
+
+			Assert.assertTrue(path.isFound());
+			Assert.assertEquals(expected.calcNodes(), path.calcNodes());
+			Assert.assertEquals(expected.getDistance(), path.getDistance(), 1e-6);
+			// the weight is the travel time in seconds at the speed of the profile
+			Assert.assertEquals(path.getDistance() * 3.6 / 20, path.getWeight(), 1e-6);
+			Assert.assertEquals(path.getDistance() * 3600 / 20, path.getTime(), path.calcEdges().size() + 1);
+		}
+	}
+
+	@Test
+	public void expectRouteToDependOnDepartureTime() {
+		byte[] rushHour = createProfile(30);
+		// Monday 07:00 to 10:00
+		Arrays.fill(rushHour, 7 * 4, 10 * 4, (byte) 5);
+		int rushHourProfile = speedProfiles.addProfile(rushHour);
+		int profile = speedProfiles.addProfile(createProfile(30));
+
+		AllEdgesIterator iter = graph.getAllEdges();
+		while (iter.next())
+			speedProfiles.setEdgeProfile(iter.getEdge(), isRowEdge(iter, 0) ? rushHourProfile : profile);
+
+		int from = grid.getNode(0, 0);
+		int to = grid.getNode(0, 5);
+
+		// at noon the first row is the shortest and fastest route
+		Path path = calcPath(getMondayTime(12, 0), from, to);
+		Assert.assertEquals(5, path.calcEdges().size());
+		for (EdgeIteratorState edge : path.calcEdges())
+			Assert.assertTrue(isRowEdge(edge, 0));
+
+		// during the rush hour the congested first row is avoided
+		Path rushHourPath = calcPath(getMondayTime(8, 0), from, to);
+		for (EdgeIteratorState edge : rushHourPath.calcEdges())
+			Assert.assertFalse(isRowEdge(edge, 0));
+		Assert.assertTrue(rushHourPath.getTime() < path.getDistance() * 3600 / 5);
+	}
+
+	@Test
+	public void expectEarliestArrivalTimes() {
+		setRisingProfiles();
+		int from = grid.getNode(2, 2);
+
+		for (int hour = 0; hour < 24; hour += 5) {
+			long departureTime = getMondayTime(hour, 7);
+			long[] arrivalTimes = calcArrivalTimes(departureTime, from);
+
+			for (int to = 0; to < grid.getNodes(); to++) {
+				Path path = calcPath(departureTime, from, to);
+				Assert.assertTrue(path.isFound());
+
+				// the times of the edges are truncated to milliseconds, the weights are not
+				int edges = path.calcEdges().size();
+				Assert.assertEquals("at " + hour + " to " + to, arrivalTimes[to], path.getTime(), edges + 1);
+				Assert.assertEquals(path.getTime() / 1000.0, path.getWeight(), (edges + 1) / 1000.0);
+			}
+		}
+	}
+
+	@Test
+	public void expectFifoArrivals() {
+		setRisingProfiles();
+		int from = grid.getNode(0, 0);
+		int to = grid.getNode(4, 5);
+
+		long prevArrival = Long.MIN_VALUE;
+		for (long time = getMondayTime(6, 0); time < getMondayTime(11, 0); time += 5 * MINUTE) {
+			Path path = calcPath(time, from, to);
+			long arrival = time + path.getTime();
+
+			// a later departure never arrives earlier
+			Assert.assertTrue(arrival >= prevArrival);
+			prevArrival = arrival;
+		}
+	}
+
+	@Test
+	public void expectLocalTimesOfTimeZone() {
+		byte[] rushHour = createProfile(30);
+		// Monday 08:00 to 09:00 in Berlin, which is 06:00 to 07:00 UTC in summer
+		Arrays.fill(rushHour, 8 * 4, 9 * 4, (byte) 5);
+		int profile = speedProfiles.addProfile(rushHour);
+
+		AllEdgesIterator iter = graph.getAllEdges();
+		while (iter.next())
+			speedProfiles.setEdgeProfile(iter.getEdge(), profile);
+
+		int from = grid.getNode(0, 0);
+		int to = grid.getNode(0, 1);
+		Path path = calcPath(getMondayTime(8, 0), from, to);
+		Assert.assertEquals(path.getDistance() * 3600 / 5, path.getTime(), 1);
+
+		// 08:00 UTC is 10:00 in Berlin, after the rush hour
+		Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		cal.clear();
+		cal.set(2017, Calendar.JUNE, 5, 8, 0, 0);
+		path = calcPath(cal.getTimeInMillis(), from, to);
+		Assert.assertEquals(path.getDistance() * 3600 / 30, path.getTime(), 1);
+	}
+
+	@Test
+	public void expectStaticTimesWithoutProfiles() {
+		long departureTime = getMondayTime(8, 0);
+		int from = grid.getNode(4, 0);
+		int to = grid.getNode(0, 5);
+
+		Path expected = new Dijkstra(graph, weighting, TraversalMode.NODE_BASED).calcPath(from, to);
+		Path path = calcPath(departureTime, from, to);
+
+		Assert.assertEquals(expected.calcNodes(), path.calcNodes());
+		Assert.assertEquals(expected.getWeight(), path.getWeight(), 1e-6);
+		Assert.assertEquals(expected.getTime(), path.getTime(), path.calcEdges().size() + 1);
+	}
+
+	private Path calcPath(long departureTime, int from, int to) {
+		TimeDependentWeighting tdWeighting = new TimeDependentWeighting(weighting, encoder, graph, departureTime);
+		return new TimeDependentDijkstra(graph, tdWeighting, TraversalMode.NODE_BASED).calcPath(from, to);
+	}
+
+	/**
+	 * Label correcting search for the earliest arrival at every node, relaxing all edges until no arrival time
+	 * changes.
+	 */
+	private long[] calcArrivalTimes(long departureTime, int from) {
+		TimeDependentWeighting tdWeighting = new TimeDependentWeighting(weighting, encoder, graph, departureTime);
+		EdgeExplorer explorer = graph.createEdgeExplorer(new DefaultEdgeFilter(encoder, false, true));
+
+		long[] arrivalTimes = new long[grid.getNodes()];
+		Arrays.fill(arrivalTimes, Long.MAX_VALUE);
+		arrivalTimes[from] = 0;
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+
+			for (int node = 0; node < grid.getNodes(); node++) {
+				if (arrivalTimes[node] == Long.MAX_VALUE)
+					continue;
+
+				EdgeIterator iter = explorer.setBaseNode(node);
+				while (iter.next()) {
+					long time = arrivalTimes[node] + tdWeighting.calcMillis(iter, false, EdgeIterator.NO_EDGE, arrivalTimes[node]);
+					if (time < arrivalTimes[iter.getAdjNode()]) {
+						arrivalTimes[iter.getAdjNode()] = time;
+						changed = true;
+					}
+				}
+			}
+		}
+
+		return arrivalTimes;
+	}
+
+	/**
+	 * Gives every edge a profile whose speed rises by 1 km/h per bucket and drops back after 20 buckets, with a
+	 * different phase per profile. The small rises keep the arrivals FIFO.
+	 */
+	private void setRisingProfiles() {
+		int[] profiles = new int[8];
+		for (int i = 0; i < profiles.length; i++) {
+			byte[] speeds = new byte[SpeedProfilesGraphStorage.BUCKETS_PER_WEEK];
+			for (int bucket = 0; bucket < speeds.length; bucket++)
+				speeds[bucket] = (byte) (30 + (bucket + 7 * i) % 20);
+			profiles[i] = speedProfiles.addProfile(speeds);
+		}
+
+		AllEdgesIterator iter = graph.getAllEdges();
+		while (iter.next())
+			speedProfiles.setEdgeProfile(iter.getEdge(), profiles[(iter.getEdge() * 5) % profiles.length]);
+	}
+
+	private static byte[] createProfile(int speed) {
+		byte[] speeds = new byte[SpeedProfilesGraphStorage.BUCKETS_PER_WEEK];
+		Arrays.fill(speeds, (byte) speed);
+		return speeds;
+	}
+
+	private boolean isRowEdge(EdgeIteratorState edge, int row) {
+		return edge.getBaseNode() / COLS == row && edge.getAdjNode() / COLS == row;
+	}
+
+	/**
+	 * Returns the time of the given hour and minute on a Monday in the time zone of the profiles.
+	 */
+	private static long getMondayTime(int hour, int minute) {
+		Calendar cal = Calendar.getInstance(TIME_ZONE);
+		cal.clear();
+		cal.set(2017, Calendar.JUNE, 5, hour, minute, 0);
+		return cal.getTimeInMillis();
+	}
+}
@@ -0,0 +1,136 @@
+package heigit.ors.routing.graphhopper.extensions.storages;
+
+import org.junit.Test;
+
+import com.graphhopper.util.EdgeIterator;
+
+import junit.framework.Assert;
+
+public class MultiTreeSPStorageTest {
+
+	@Test
+	public void expectEmptyEntry() {
+		MultiTreeSPStorage storage = new MultiTreeSPStorage(3, 10);
+
+		Assert.assertEquals(MultiTreeSPStorage.NO_SLOT, storage.getSlot(42));
+
+		int slot = storage.addEntry(42);
+		Assert.assertEquals(slot, storage.getSlot(42));
+		Assert.assertEquals(42, storage.getAdjNode(slot));
+		Assert.assertEquals(1, storage.size());
+		Assert.assertFalse(storage.isVisited(slot));
+
+		for (int tree = 0; tree < 3; tree++) {
+			Assert.assertEquals(0.0, storage.getWeight(slot, tree));
+			Assert.assertEquals(EdgeIterator.NO_EDGE, storage.getEdge(slot, tree));
+			Assert.assertEquals(MultiTreeSPStorage.NO_SLOT, storage.getParent(slot, tree));
+			Assert.assertFalse(storage.isUpdate(slot, tree));
+		}
+	}
+
+	@Test
+	public void expectChildEntryToExtendReachedTrees() {
+		MultiTreeSPStorage storage = new MultiTreeSPStorage(3, 10);
+
+		int parent = storage.addEntry(1);
+		storage.setItem(parent, 0, 2.0, 7, MultiTreeSPStorage.NO_SLOT);
+		storage.setItem(parent, 2, 5.0, 8, MultiTreeSPStorage.NO_SLOT);
+		storage.updateWeights(parent);
+		Assert.assertEquals(7.0, storage.getTotalWeight(parent));
+
+		int child = storage.addEntry(2, 11, 1.5, true, parent);
+
+		Assert.assertEquals(3.5, storage.getWeight(child, 0));
+		Assert.assertEquals(11, storage.getEdge(child, 0));
+		Assert.assertEquals(parent, storage.getParent(child, 0));
+		Assert.assertTrue(storage.isUpdate(child, 0));
+
+		// the second tree has not reached the parent
+		Assert.assertEquals(0.0, storage.getWeight(child, 1));
+		Assert.assertEquals(EdgeIterator.NO_EDGE, storage.getEdge(child, 1));
+		Assert.assertEquals(MultiTreeSPStorage.NO_SLOT, storage.getParent(child, 1));
+		Assert.assertFalse(storage.isUpdate(child, 1));
+
+		Assert.assertEquals(6.5, storage.getWeight(child, 2));
+		Assert.assertEquals(10.0, storage.getTotalWeight(child));
+
+		storage.resetUpdate(child, false);
+		Assert.assertFalse(storage.isUpdate(child, 0));
+		Assert.assertFalse(storage.isUpdate(child, 2));
+	}
+
+	@Test
+	public void expectEntriesToSurviveGrowth() {
+		int numTrees = 4;
+		int numEntries = 100;
+		MultiTreeSPStorage storage = new MultiTreeSPStorage(numTrees, 1);
+
+		for (int i = 0; i < numEntries; i++) {
+			int slot = storage.addEntry(1000 + i);
+			for (int tree = 0; tree < numTrees; tree++)
+				storage.setItem(slot, tree, i * numTrees + tree + 1, i, slot - 1);
+			storage.setVisited(slot, i % 2 == 0);
+		}
+
+		Assert.assertEquals(numEntries, storage.size());
+
+		for (int i = 0; i < numEntries; i++) {
+			int slot = storage.getSlot(1000 + i);
+			Assert.assertEquals(1000 + i, storage.getAdjNode(slot));
+			Assert.assertEquals(i % 2 == 0, storage.isVisited(slot));
+
+			for (int tree = 0; tree < numTrees; tree++) {
+				Assert.assertEquals((double)(i * numTrees + tree + 1), storage.getWeight(slot, tree));
+				Assert.assertEquals(i, storage.getEdge(slot, tree));
+				Assert.assertEquals(slot - 1, storage.getParent(slot, tree));
+				Assert.assertTrue(storage.isUpdate(slot, tree));
+			}
+		}
+	}
+
+	@Test
+	public void expectClearedStorage() {
+		MultiTreeSPStorage storage = new MultiTreeSPStorage(2, 10);
+		int slot = storage.addEntry(5);
+		storage.setItem(slot, 1, 3.0, 4, MultiTreeSPStorage.NO_SLOT);
+		storage.setVisited(slot, true);
+
+		storage.clear();
+
+		Assert.assertEquals(0, storage.size());
+		Assert.assertEquals(MultiTreeSPStorage.NO_SLOT, storage.getSlot(5));
+
+		// a reused slot does not keep the values of its previous entry
+		slot = storage.addEntry(6);
+		Assert.assertFalse(storage.isVisited(slot));
+		Assert.assertEquals(0.0, storage.getWeight(slot, 1));
+		Assert.assertFalse(storage.isUpdate(slot, 1));
+	}
+
+	@Test
+	public void expectQueueOrderedByTotalWeight() {
+		MultiTreeSPStorage storage = new MultiTreeSPStorage(1, 10);
+		MultiTreeSPQueue queue = new MultiTreeSPQueue(storage, 2);
+		double[] weights = new double[] { 5.0, 1.0, 4.0, 3.0, 2.0 };
+
+		for (int i = 0; i < weights.length; i++) {
+			int slot = storage.addEntry(i);
+			storage.setItem(slot, 0, weights[i], EdgeIterator.NO_EDGE, MultiTreeSPStorage.NO_SLOT);
+			storage.updateWeights(slot);
+			queue.update(slot);
+		}
+
+		// decrease the key of a queued entry
+		storage.setWeight(0, 0, 0.5);
+		storage.updateWeights(0);
+		queue.update(0);
+
+		Assert.assertEquals(weights.length, queue.size());
+		Assert.assertEquals(0, queue.poll());
+		Assert.assertEquals(1, queue.poll());
+		Assert.assertEquals(4, queue.poll());
+		Assert.assertEquals(3, queue.poll());
+		Assert.assertEquals(2, queue.poll());
+		Assert.assertTrue(queue.isEmpty());
+	}
+}
@@ -0,0 +1,177 @@
+package heigit.ors.routing.graphhopper.extensions.storages;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.util.Helper;
+
+import junit.framework.Assert;
+
+public class TmcEdgesGraphStorageTest {
+	// way ids using the upper half of the long and the sign bit of the lower half
+	private static final long[] WAY_IDS = new long[] { 4, 0x80000001L, 12345678901L, 7 };
+
+	private File dir;
+
+	@Before
+	public void createDirectory() throws Exception {
+		dir = Files.createTempDirectory("ors-tmc").toFile();
+	}
+
+	@After
+	public void removeDirectory() {
+		Helper.removeDir(dir);
+	}
+
+	@Test
+	public void expectEdgesOfWays() {
+		TmcEdgesGraphStorage storage = createStorage();
+		setWayIds(storage, 40);
+		storage.flush();
+
+		assertWayIds(storage, 40);
+		storage.close();
+	}
+
+	@Test
+	public void expectStorageToBeLoaded() {
+		TmcEdgesGraphStorage storage = createStorage();
+		setWayIds(storage, 40);
+		storage.flush();
+		storage.close();
+
+		TmcEdgesGraphStorage loaded = new TmcEdgesGraphStorage();
+		loaded.init(null, new RAMDirectory(dir.getAbsolutePath(), true));
+		Assert.assertTrue(loaded.loadExisting());
+
+		Assert.assertEquals(30, loaded.entries());
+		assertWayIds(loaded, 40);
+		loaded.close();
+	}
+
+	@Test
+	public void expectChangedWaysAfterFlush() {
+		TmcEdgesGraphStorage storage = createStorage();
+		setWayIds(storage, 40);
+		storage.flush();
+
+		// edge 1 moves to another way, edge 2 loses its way
+		storage.setOsmId(1, WAY_IDS[3]);
+		storage.setOsmId(2, 0);
+		storage.flush();
+
+		Assert.assertEquals(29, storage.entries());
+		Assert.assertEquals(WAY_IDS[3], storage.getOsmId(1));
+		Assert.assertEquals(0, storage.getOsmId(2));
+
+		IntArrayList edges = new IntArrayList();
+		Assert.assertTrue(storage.getEdges(WAY_IDS[1], edges));
+		Assert.assertFalse(edges.contains(1));
+
+		edges.clear();
+		Assert.assertTrue(storage.getEdges(WAY_IDS[2], edges));
+		Assert.assertFalse(edges.contains(2));
+
+		edges.clear();
+		Assert.assertTrue(storage.getEdges(WAY_IDS[3], edges));
+		Assert.assertEquals(1, edges.get(0));
+
+		storage.close();
+	}
+
+	@Test
+	public void expectCopiedStorage() {
+		TmcEdgesGraphStorage storage = createStorage();
+		setWayIds(storage, 40);
+		storage.flush();
+
+		TmcEdgesGraphStorage copy = new TmcEdgesGraphStorage();
+		copy.init(null, new RAMDirectory());
+		copy.create(100);
+		storage.copyTo(copy);
+
+		Assert.assertEquals(storage.entries(), copy.entries());
+		assertWayIds(copy, 40);
+
+		storage.close();
+		copy.close();
+	}
+
+	@Test
+	public void expectNoEdgesOfUnknownWays() {
+		TmcEdgesGraphStorage storage = createStorage();
+		setWayIds(storage, 40);
+		storage.flush();
+
+		IntArrayList edges = new IntArrayList();
+		Assert.assertFalse(storage.getEdges(1, edges));
+		Assert.assertFalse(storage.getEdges(0x80000000L, edges));
+		Assert.assertFalse(storage.getEdges(Long.MAX_VALUE, edges));
+		Assert.assertTrue(edges.isEmpty());
+
+		Assert.assertEquals(0, storage.getOsmId(-1));
+		Assert.assertEquals(0, storage.getOsmId(1000));
+
+		storage.close();
+	}
+
+	@Test
+	public void expectEmptyStorage() {
+		TmcEdgesGraphStorage storage = createStorage();
+		storage.flush();
+
+		Assert.assertEquals(0, storage.entries());
+		Assert.assertEquals(0, storage.getOsmId(0));
+		Assert.assertFalse(storage.getEdges(WAY_IDS[0], new IntArrayList()));
+
+		storage.close();
+	}
+
+	private TmcEdgesGraphStorage createStorage() {
+		TmcEdgesGraphStorage storage = new TmcEdgesGraphStorage();
+		storage.init(null, new RAMDirectory(dir.getAbsolutePath(), true));
+		storage.create(100);
+		return storage;
+	}
+
+	/**
+	 * Sets the way ids of the edges in descending order of the edge ids, leaving every fourth edge without way.
+	 */
+	private static void setWayIds(TmcEdgesGraphStorage storage, int nEdges) {
+		for (int edgeId = nEdges - 1; edgeId >= 0; edgeId--) {
+			if (edgeId % 4 != 3)
+				storage.setOsmId(edgeId, getWayId(edgeId));
+		}
+	}
+
+	private static long getWayId(int edgeId) {
+		return edgeId % 4 == 3 ? 0 : WAY_IDS[edgeId % 3];
+	}
+
+	private static void assertWayIds(TmcEdgesGraphStorage storage, int nEdges) {
+		for (int edgeId = 0; edgeId < nEdges; edgeId++)
+			Assert.assertEquals(getWayId(edgeId), storage.getOsmId(edgeId));
+
+		for (int i = 0; i < 3; i++) {
+			IntArrayList expected = new IntArrayList();
+			for (int edgeId = 0; edgeId < nEdges; edgeId++) {
+				if (getWayId(edgeId) == WAY_IDS[i])
+					expected.add(edgeId);
+			}
+
+			// the edges of a way are returned in ascending order, appended to the list
+			IntArrayList edges = new IntArrayList();
+			edges.add(-1);
+			Assert.assertTrue(storage.getEdges(WAY_IDS[i], edges));
+			Assert.assertEquals(expected.size() + 1, edges.size());
+			for (int j = 0; j < expected.size(); j++)
+				Assert.assertEquals(expected.get(j), edges.get(j + 1));
+		}
+	}
+}
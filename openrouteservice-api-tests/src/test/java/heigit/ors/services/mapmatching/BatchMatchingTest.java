@@ -0,0 +1,201 @@
+package heigit.ors.services.mapmatching;
+
+import static io.restassured.RestAssured.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import heigit.ors.services.common.EndPointAnnotation;
+import heigit.ors.services.common.ServiceTest;
+import io.restassured.response.Response;
+import junit.framework.Assert;
+
+@EndPointAnnotation(name = "matching/batch")
+public class BatchMatchingTest extends ServiceTest {
+	private static final double[][] ROUTE_ENDS = new double[][] {
+		{ 8.680916, 49.410973, 8.687782, 49.424597 },
+		{ 8.714733, 49.393267, 8.680916, 49.410973 },
+		{ 8.676281, 49.418204, 8.692803, 49.403988 }
+	};
+
+	public BatchMatchingTest() {
+		addParameter("profile", "driving-car");
+	}
+
+	@Test
+	public void featureCollectionTest() {
+		JSONArray jFeatures = new JSONArray();
+		for (int i = 0; i < ROUTE_ENDS.length; i++) {
+			JSONObject jFeature = new JSONObject();
+			jFeature.put("type", "Feature");
+			jFeature.put("properties", new JSONObject().put("id", "trace" + i));
+			jFeature.put("geometry", new JSONObject().put("type", "LineString").put("coordinates", createTrace(ROUTE_ENDS[i])));
+			jFeatures.put(jFeature);
+		}
+
+		JSONObject jRequest = new JSONObject();
+		jRequest.put("type", "FeatureCollection");
+		jRequest.put("features", jFeatures);
+
+		JSONObject[] results = postBatch(jRequest.toString());
+		Assert.assertEquals(ROUTE_ENDS.length, results.length);
+
+		for (int i = 0; i < ROUTE_ENDS.length; i++) {
+			JSONObject result = results[i];
+			Assert.assertEquals("trace" + i, result.getString("id"));
+			Assert.assertFalse(result.has("error"));
+
+			double distance = result.getJSONArray("routes").getJSONObject(0).getJSONObject("summary").getDouble("distance");
+			Assert.assertTrue(distance > 0);
+		}
+	}
+
+	@Test
+	public void batchMatchesSingleTracesTest() {
+		StringBuilder body = new StringBuilder();
+		JSONArray[] traces = new JSONArray[ROUTE_ENDS.length];
+
+		for (int i = 0; i < ROUTE_ENDS.length; i++) {
+			traces[i] = createTrace(ROUTE_ENDS[i]);
+			body.append(new JSONObject().put("id", i).put("coordinates", traces[i]).toString()).append('\n');
+		}
+
+		JSONObject[] results = postBatch(body.toString());
+
+		for (int i = 0; i < ROUTE_ENDS.length; i++) {
+			StringBuilder coordinates = new StringBuilder();
+			for (int j = 0; j < traces[i].length(); j++) {
+				if (j > 0)
+					coordinates.append('|');
+				coordinates.append(traces[i].getJSONArray(j).getDouble(0)).append(',').append(traces[i].getJSONArray(j).getDouble(1));
+			}
+
+			Response response = given()
+					.param("coordinates", coordinates.toString())
+					.param("profile", getParameter("profile"))
+					.when()
+					.get("matching");
+
+			Assert.assertEquals(200, response.getStatusCode());
+
+			JSONObject expected = new JSONObject(response.body().asString()).getJSONArray("routes").getJSONObject(0).getJSONObject("summary");
+			JSONObject actual = results[i].getJSONArray("routes").getJSONObject(0).getJSONObject("summary");
+
+			Assert.assertEquals(Integer.toString(i), results[i].getString("id"));
+			Assert.assertEquals(expected.getDouble("distance"), actual.getDouble("distance"), 1e-6);
+			Assert.assertEquals(expected.getDouble("duration"), actual.getDouble("duration"), 1e-6);
+		}
+	}
+
+	@Test
+	public void invalidTraceTest() {
+		StringBuilder body = new StringBuilder();
+		body.append(new JSONObject().put("id", "valid").put("coordinates", createTrace(ROUTE_ENDS[0])).toString()).append('\n');
+		body.append(new JSONObject().put("id", "single").put("coordinates", new JSONArray().put(new JSONArray().put(8.68).put(49.41))).toString()).append('\n');
+		body.append(new JSONObject().put("id", "missing").toString()).append('\n');
+
+		JSONObject[] results = postBatch(body.toString());
+
+		// the other traces of the batch are still matched
+		Assert.assertTrue(results[0].has("routes"));
+		Assert.assertEquals(803, results[1].getJSONObject("error").getInt("code"));
+		Assert.assertEquals(801, results[2].getJSONObject("error").getInt("code"));
+	}
+
+	@Test
+	public void emptyBatchTest() {
+		given()
+		.param("profile", getParameter("profile"))
+		.contentType("application/json")
+		.body("")
+		.when()
+		.post(getEndPointName())
+		.then()
+		.assertThat()
+		.body("error.code", is(801))
+		.statusCode(400);
+	}
+
+	@Test
+	public void invalidJsonLineTest() {
+		String body = new JSONObject().put("coordinates", createTrace(ROUTE_ENDS[0])).toString() + "\n{\"coordinates\": [\n";
+
+		given()
+		.param("profile", getParameter("profile"))
+		.contentType("application/json")
+		.body(body)
+		.when()
+		.post(getEndPointName())
+		.then()
+		.assertThat()
+		.body("error.code", is(800))
+		.statusCode(400);
+	}
+
+	@Test
+	public void missingProfileTest() {
+		given()
+		.contentType("application/json")
+		.body(new JSONObject().put("coordinates", createTrace(ROUTE_ENDS[0])).toString())
+		.when()
+		.post(getEndPointName())
+		.then()
+		.assertThat()
+		.body("error.code", is(801))
+		.statusCode(400);
+	}
+
+	/**
+	 * Posts the traces and returns the result lines ordered by the index of their trace.
+	 */
+	private JSONObject[] postBatch(String body) {
+		Response response = given()
+				.param("profile", getParameter("profile"))
+				.contentType("application/json")
+				.body(body)
+				.when()
+				.post(getEndPointName());
+
+		Assert.assertEquals(200, response.getStatusCode());
+		Assert.assertTrue(response.getContentType().startsWith("application/x-ndjson"));
+
+		String[] lines = response.body().asString().trim().split("\n");
+		JSONObject[] results = new JSONObject[lines.length];
+		Set<Integer> indices = new HashSet<Integer>();
+
+		for (String line : lines) {
+			JSONObject result = new JSONObject(line);
+			int index = result.getInt("index");
+			Assert.assertTrue(indices.add(index));
+			results[index] = result;
+		}
+
+		return results;
+	}
+
+	/**
+	 * Creates a trace from every third vertex of the route between the given points.
+	 */
+	private JSONArray createTrace(double[] ends) {
+		Response response = given()
+				.param("coordinates", ends[0] + "," + ends[1] + "|" + ends[2] + "," + ends[3])
+				.param("profile", getParameter("profile"))
+				.param("geometry_format", "polyline")
+				.when()
+				.get("routes");
+
+		Assert.assertEquals(200, response.getStatusCode());
+
+		JSONArray geometry = new JSONObject(response.body().asString()).getJSONArray("routes").getJSONObject(0).getJSONArray("geometry");
+		JSONArray trace = new JSONArray();
+		for (int i = 0; i < geometry.length(); i += 3)
+			trace.put(geometry.getJSONArray(i));
+
+		return trace;
+	}
+}
@@ -0,0 +1,136 @@
+package heigit.ors.services.mapmatching;
+
+import static io.restassured.RestAssured.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import heigit.ors.services.common.EndPointAnnotation;
+import heigit.ors.services.common.ServiceTest;
+import io.restassured.response.Response;
+import junit.framework.Assert;
+
+/**
+ * Replays GPS traces against the matching service with an increasing number of concurrent clients and prints the
+ * throughput, which should grow about linearly with the number of clients up to the number of cores of the server.
+ * The traces are generated from routes through Heidelberg with some noise added to their points.
+ * <p>
+ * Not run with the other tests, start it with -Dtest=MatchingThroughputBenchmark. The number of traces replayed by
+ * every client can be set with -Dbenchmark.traces.
+ */
+@EndPointAnnotation(name = "matching")
+public class MatchingThroughputBenchmark extends ServiceTest {
+	private static final double[][] ROUTE_ENDS = new double[][] {
+		{ 8.680916, 49.410973, 8.687782, 49.424597 },
+		{ 8.714733, 49.393267, 8.680916, 49.410973 },
+		{ 8.687782, 49.424597, 8.714733, 49.393267 },
+		{ 8.676281, 49.418204, 8.692803, 49.403988 }
+	};
+
+	// every third vertex of the route is taken, moved by up to about 5 m
+	private static final int POINT_STEP = 3;
+	private static final double NOISE = 0.0001;
+
+	public MatchingThroughputBenchmark() {
+		addParameter("profile", "driving-car");
+	}
+
+	@Test
+	public void replayTraces() throws Exception {
+		List<String> traces = createTraces();
+		int nTraces = Integer.getInteger("benchmark.traces", 50);
+		int maxClients = Runtime.getRuntime().availableProcessors();
+
+		// warms up the JIT and the caches of the server
+		runClients(1, traces, nTraces);
+
+		double singleThroughput = 0;
+		for (int nClients = 1; nClients <= maxClients; nClients *= 2) {
+			long time = runClients(nClients, traces, nTraces);
+			double throughput = nClients * nTraces * 1000.0 / Math.max(time, 1);
+			if (nClients == 1)
+				singleThroughput = throughput;
+
+			System.out.println(String.format(Locale.US, "%d clients: %.1f traces/s, speedup %.2f", nClients, throughput, throughput / singleThroughput));
+		}
+	}
+
+	private long runClients(int nClients, final List<String> traces, final int nTraces) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(nClients);
+
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			long startTime = System.currentTimeMillis();
+
+			for (int i = 0; i < nClients; i++) {
+				final int offset = i;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int j = 0; j < nTraces; j++)
+							matchTrace(traces.get((offset + j) % traces.size()));
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> future : futures)
+				future.get();
+
+			return System.currentTimeMillis() - startTime;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void matchTrace(String coordinates) {
+		given()
+		.param("coordinates", coordinates)
+		.param("profile", getParameter("profile"))
+		.when()
+		.get(getEndPointName())
+		.then()
+		.assertThat()
+		.statusCode(200);
+	}
+
+	private List<String> createTraces() {
+		Random random = new Random(42);
+		List<String> traces = new ArrayList<String>();
+
+		for (double[] ends : ROUTE_ENDS) {
+			Response response = given()
+					.param("coordinates", ends[0] + "," + ends[1] + "|" + ends[2] + "," + ends[3])
+					.param("profile", getParameter("profile"))
+					.param("geometry_format", "polyline")
+					.when()
+					.get("routes");
+
+			Assert.assertEquals(200, response.getStatusCode());
+
+			JSONArray geometry = new JSONObject(response.body().asString()).getJSONArray("routes").getJSONObject(0).getJSONArray("geometry");
+
+			StringBuilder trace = new StringBuilder();
+			for (int i = 0; i < geometry.length(); i += POINT_STEP) {
+				JSONArray point = geometry.getJSONArray(i);
+				if (trace.length() > 0)
+					trace.append('|');
+				trace.append(String.format(Locale.US, "%.6f,%.6f", point.getDouble(0) + (random.nextDouble() - 0.5) * NOISE, point.getDouble(1) + (random.nextDouble() - 0.5) * NOISE));
+			}
+
+			traces.add(trace.toString());
+		}
+
+		return traces;
+	}
+}
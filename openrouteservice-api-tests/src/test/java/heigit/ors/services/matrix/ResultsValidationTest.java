@@ -19,6 +19,8 @@ public class ResultsValidationTest extends ServiceTest {
 		addParameter("sources1", "0,1");
 		addParameter("destinations1", "2");
 		addParameter("destinations2", "2,3");
+		addParameter("manyLocations", "8.690733,49.387283|8.692771,49.385118|8.686409,49.426272|8.680916,49.410973|8.687782,49.424597|"
+				+ "8.714733,49.393267|8.676281,49.414715|8.684177,49.411034|8.685371,49.398383|8.6483,49.413291");
 	}
 
 	@Test
@@ -152,6 +154,54 @@ public class ResultsValidationTest extends ServiceTest {
 		Assert.assertEquals(true, jResponse.getJSONArray("sources").getJSONObject(0).has("name"));
 	}
 
+	@Test
+	public void flexibleRowsMatchSingleSourceRowsTest() {
+		// the rows of a matrix in flexible mode are computed by several workers
+		JSONObject jMatrix = getManyLocationsMatrix(null, "false");
+		JSONArray jDurations = jMatrix.getJSONArray("durations");
+		JSONArray jDistances = jMatrix.getJSONArray("distances");
+		int size = jDurations.length();
+
+		for (int i = 0; i < size; i++) {
+			JSONObject jRow = getManyLocationsMatrix(String.valueOf(i), "false");
+			checkTableDimensions(jRow, "durations", 1, size);
+
+			for (int j = 0; j < size; j++) {
+				Assert.assertEquals(jDurations.getJSONArray(i).getDouble(j), jRow.getJSONArray("durations").getJSONArray(0).getDouble(j), 1e-6);
+				Assert.assertEquals(jDistances.getJSONArray(i).getDouble(j), jRow.getJSONArray("distances").getJSONArray(0).getDouble(j), 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void flexibleMatrixMatchesOptimizedMatrixTest() {
+		JSONArray jFlexible = getManyLocationsMatrix(null, "false").getJSONArray("durations");
+		JSONArray jOptimized = getManyLocationsMatrix(null, "true").getJSONArray("durations");
+
+		Assert.assertEquals(jOptimized.length(), jFlexible.length());
+
+		for (int i = 0; i < jFlexible.length(); i++) {
+			for (int j = 0; j < jFlexible.length(); j++) {
+				double duration = jOptimized.getJSONArray(i).getDouble(j);
+				Assert.assertEquals(duration, jFlexible.getJSONArray(i).getDouble(j), Math.max(1.0, duration * 0.01));
+			}
+		}
+	}
+
+	private JSONObject getManyLocationsMatrix(String sources, String optimized) {
+		Response response = given()
+				.param("locations", getParameter("manyLocations"))
+				.param("sources", sources == null ? "all" : sources)
+				.param("metrics", "duration|distance")
+				.param("profile", "driving-car")
+				.param("optimized", optimized)
+				.when()
+				.get(getEndPointName());
+
+		Assert.assertEquals(200, response.getStatusCode());
+		return new JSONObject(response.body().asString());
+	}
+
 	private void checkTableDimensions(JSONObject json, String tableName, int rows, int columns)
 	{
 		Assert.assertEquals(true, json.has(tableName));
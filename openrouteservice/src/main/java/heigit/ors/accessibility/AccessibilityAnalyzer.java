@@ -23,7 +23,6 @@ import com.vividsolutions.jts.geom.Polygon;
 import heigit.ors.common.NamedLocation;
 import heigit.ors.common.TravellerInfo;
 import heigit.ors.exceptions.InternalServerException;
-import heigit.ors.isochrones.IsochroneMap;
 import heigit.ors.isochrones.IsochroneMapCollection;
 import heigit.ors.isochrones.IsochroneSearchParameters;
 import heigit.ors.locations.LocationsRequest;
@@ -45,14 +44,12 @@ public class AccessibilityAnalyzer
 			AccessibilityResult accesibilityResult = new AccessibilityResult();
 
 			// Phase I: compute isochrone that includes all possible POIs or user-defined locations.
-			IsochroneMapCollection isoMaps = new IsochroneMapCollection();
-
 			List<TravellerInfo> travellers = req.getTravellers();
-			for (int i = 0;i < travellers.size(); ++i){
-				IsochroneSearchParameters searchParams =  req.getIsochroneSearchParameters(i);
-				IsochroneMap isochroneMap = RoutingProfileManager.getInstance().buildIsochrone(searchParams);
-				isoMaps.add(isochroneMap);
-			}
+			List<IsochroneSearchParameters> searchParams = new ArrayList<IsochroneSearchParameters>(travellers.size());
+			for (int i = 0;i < travellers.size(); ++i)
+				searchParams.add(req.getIsochroneSearchParameters(i));
+
+			IsochroneMapCollection isoMaps = RoutingProfileManager.getInstance().buildIsochrones(searchParams);
 
 			if (isoMaps.size() > 0)
 			{
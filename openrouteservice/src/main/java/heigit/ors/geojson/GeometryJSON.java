@@ -1,5 +1,7 @@
 package heigit.ors.geojson;
 
+import java.io.IOException;
+
 import org.geotools.geometry.jts.coordinatesequence.CoordinateSequences;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -17,6 +19,7 @@ import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 
 import heigit.ors.util.FormatUtility;
+import heigit.ors.util.JsonStreamWriter;
 
 public class GeometryJSON {
 
@@ -151,6 +154,95 @@ public class GeometryJSON {
 		return bbox;
 	}
 
+	public static void write(JsonStreamWriter writer, Geometry geom) throws Exception
+	{
+		if (geom instanceof Polygon)
+			write(writer, (Polygon)geom);
+		else if (geom instanceof LineString)
+			write(writer, (LineString)geom, false);
+		else if (geom instanceof Point)
+			write(writer, ((Point)geom).getCoordinate());
+		else if (geom instanceof MultiPolygon)
+			write(writer, (MultiPolygon)geom);
+		else 
+			throw new Exception("write function is not implemented for " + geom.getGeometryType());
+	}
+
+	public static void write(JsonStreamWriter writer, MultiPolygon multiPoly) throws IOException
+	{
+		writer.beginArray();
+		for (int i = 0; i < multiPoly.getNumGeometries(); i++)
+			write(writer, (Polygon)multiPoly.getGeometryN(i));
+		writer.endArray();
+	}
+
+	public static void write(JsonStreamWriter writer, Polygon poly) throws IOException
+	{
+		writer.beginArray();
+
+		LineString shell = poly.getExteriorRing();
+		write(writer, shell, shell.getNumPoints() > 1 ? !CoordinateSequences.isCCW(shell.getCoordinateSequence()) : false);
+
+		for (int j = 0; j < poly.getNumInteriorRing(); ++j)
+		{
+			LineString ring = poly.getInteriorRingN(j);
+			write(writer, ring, ring.getNumPoints() > 1 ? CoordinateSequences.isCCW(ring.getCoordinateSequence()) : false);
+		}
+
+		writer.endArray();
+	}
+
+	public static void write(JsonStreamWriter writer, LineString line, boolean inverseSeq) throws IOException
+	{
+		int size = line.getNumPoints();
+		CoordinateSequence seq = line.getCoordinateSequence();
+
+		writer.beginArray();
+		for (int i = 0; i < size; ++i) 
+		{
+			int index = inverseSeq ? size - i - 1: i;
+			writer.beginArray();
+			writer.value(seq.getOrdinate(index, CoordinateSequence.X), COORDINATE_PRECISION);
+			writer.value(seq.getOrdinate(index, CoordinateSequence.Y), COORDINATE_PRECISION);
+			writer.endArray();
+		}
+		writer.endArray();
+	}
+
+	public static void write(JsonStreamWriter writer, Coordinate c) throws IOException
+	{
+		writer.beginArray();
+		writer.value(c.x, COORDINATE_PRECISION);
+		writer.value(c.y, COORDINATE_PRECISION);
+		writer.endArray();
+	}
+
+	public static void write(JsonStreamWriter writer, Coordinate[] coords, boolean includeElevation) throws IOException
+	{
+		writer.beginArray();
+		for (int i = 0; i < coords.length; ++i)
+		{
+			Coordinate c = coords[i];
+			writer.beginArray();
+			writer.value(c.x, COORDINATE_PRECISION);
+			writer.value(c.y, COORDINATE_PRECISION);
+			if (includeElevation)
+				writer.value(c.z, 1);
+			writer.endArray();
+		}
+		writer.endArray();
+	}
+
+	public static void write(JsonStreamWriter writer, double minX, double minY, double maxX, double maxY) throws IOException
+	{
+		writer.beginArray();
+		writer.value(minX, COORDINATE_PRECISION);
+		writer.value(minY, COORDINATE_PRECISION);
+		writer.value(maxX, COORDINATE_PRECISION);
+		writer.value(maxY, COORDINATE_PRECISION);
+		writer.endArray();
+	}
+
 	public static Geometry parse(JSONObject json) throws Exception
 	{
 		if (!json.has("type"))
@@ -1,13 +1,15 @@
 package heigit.ors.isochrones;
 
-import com.carrotsearch.hppc.IntObjectMap;
 import com.graphhopper.GraphHopper;
+import com.graphhopper.routing.ch.PrepareContractionHierarchies;
 import com.graphhopper.routing.weighting.FastestWeighting;
+import com.graphhopper.routing.util.DefaultEdgeFilter;
+import com.graphhopper.routing.util.EdgeFilter;
 import com.graphhopper.routing.util.FlagEncoder;
 import com.graphhopper.routing.util.HintsMap;
 import com.graphhopper.routing.util.TraversalMode;
 import com.graphhopper.routing.weighting.Weighting;
-import com.graphhopper.storage.SPTEntry;
+import com.graphhopper.storage.CHGraph;
 import com.graphhopper.storage.GraphHopperStorage;
 import com.graphhopper.storage.index.QueryResult;
 import com.graphhopper.util.ByteArrayBuffer;
@@ -19,6 +21,7 @@ import heigit.ors.isochrones.IsochroneSearchParameters;
 import heigit.ors.routing.RouteSearchContext;
 import heigit.ors.routing.RouteSearchParameters;
 import heigit.ors.routing.algorithms.DijkstraCostCondition;
+import heigit.ors.routing.algorithms.PHASTAlgorithm;
 import heigit.ors.routing.graphhopper.extensions.AccessibilityMap;
 import heigit.ors.routing.graphhopper.extensions.weighting.DistanceWeighting;
 
@@ -44,7 +47,14 @@ public class GraphEdgeMapFinder {
 			RouteSearchParameters routeParams = parameters.getRouteParameters();
 			if (routeParams != null)
 				maxSpeed = routeParams.getMaximumSpeed();
-			
+
+			PrepareContractionHierarchies prepareCH = getCHPreparation(gh, encoder, searchCntx.getEdgeFilter(), maxSpeed);
+			if (prepareCH != null)
+			{
+				PHASTAlgorithm phastAlg = new PHASTAlgorithm(graph.getGraph(CHGraph.class), graph, prepareCH.getPrepareWeighting(), parameters.getMaximumRange(), parameters.getReverseDirection());
+				return phastAlg.calcAccessibilityMap(fromId);
+			}
+
 			HintsMap hints = new HintsMap();
 			hints.put("max_speed", maxSpeed);
 		    weighting = new FastestWeighting(encoder, hints);	
@@ -57,10 +67,48 @@ public class GraphEdgeMapFinder {
 		DijkstraCostCondition dijkstraAlg = new DijkstraCostCondition(graph, weighting, parameters.getMaximumRange(), parameters.getReverseDirection(),
 				TraversalMode.NODE_BASED);
 		dijkstraAlg.setEdgeFilter(searchCntx.getEdgeFilter());
-		dijkstraAlg.calcPath(fromId, Integer.MIN_VALUE);
+		dijkstraAlg.calcPath(fromId);
+
+		return dijkstraAlg.getMap();
+	}
+
+	/**
+	 * Gives the map back to the pool of the searches, once the isochrones have been built from it.
+	 */
+	public static void release(AccessibilityMap edgeMap)
+	{
+		DijkstraCostCondition.releaseMap(edgeMap);
+	}
 
-		IntObjectMap<SPTEntry> edgeMap = dijkstraAlg.getMap();
+	/**
+	 * Returns the CH preparation which can be used for a time based search, or null if the search has to run on the
+	 * base graph. This is the case if the request restricts the edges or limits the speed, since the shortcuts do not
+	 * take this into account, or if no hierarchy has been prepared with the travel times of the encoder.
+	 */
+	private static PrepareContractionHierarchies getCHPreparation(GraphHopper gh, FlagEncoder encoder, EdgeFilter edgeFilter, double maxSpeed)
+	{
+		if (!gh.isCHEnabled())
+			return null;
+
+		if (maxSpeed > 0 || (edgeFilter != null && edgeFilter.getClass() != DefaultEdgeFilter.class))
+			return null;
+
+		for (PrepareContractionHierarchies prepareCH : gh.getCHFactoryDecorator().getPreparations())
+		{
+			if (isTravelTimeWeighting(prepareCH.getWeighting(), encoder))
+				return prepareCH;
+		}
+
+		return null;
+	}
 
-		return new AccessibilityMap(edgeMap, dijkstraAlg.getCurrentEdge());
+	/**
+	 * Returns true if the weights of the weighting are the travel times of the encoder in seconds, like those of the
+	 * Dijkstra search on the base graph. This is not the case for "fastest" profiles whose encoder supports
+	 * priorities, since they are prepared with a {@link com.graphhopper.routing.weighting.PriorityWeighting}.
+	 */
+	public static boolean isTravelTimeWeighting(Weighting weighting, FlagEncoder encoder)
+	{
+		return weighting.getClass() == FastestWeighting.class && weighting.getFlagEncoder() == encoder;
 	}
 }
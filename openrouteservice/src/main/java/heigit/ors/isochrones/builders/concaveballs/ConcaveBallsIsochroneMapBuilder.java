@@ -12,15 +12,13 @@
 package heigit.ors.isochrones.builders.concaveballs;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.TreeSet;
 
-import com.carrotsearch.hppc.IntObjectMap;
-import com.carrotsearch.hppc.cursors.IntObjectCursor;
-import com.graphhopper.coll.GHIntObjectHashMap;
+import com.carrotsearch.hppc.IntArrayList;
 import com.graphhopper.storage.GraphHopperStorage;
 import com.graphhopper.storage.NodeAccess;
-import com.graphhopper.storage.SPTEntry;
 import com.graphhopper.util.ByteArrayBuffer;
 import com.graphhopper.util.DistanceCalc;
 import com.graphhopper.util.DistancePlaneProjection;
@@ -65,6 +63,25 @@ public class ConcaveBallsIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 
 	private boolean BUFFERED_OUTPUT = true;
 
+	/**
+	 * Edges of the accessibility map whose start cost falls into the cost band between two consecutive ranges. The
+	 * slots are kept in the order of the map.
+	 */
+	private static class EdgeBand
+	{
+		public final IntArrayList slots = new IntArrayList();
+
+		public void add(int slot)
+		{
+			slots.add(slot);
+		}
+
+		public int size()
+		{
+			return slots.size();
+		}
+	}
+
 	public void initialize(RouteSearchContext searchContext) {
 		_geomFactory = new GeometryFactory();
 		_searchContext = searchContext;		
@@ -97,33 +114,14 @@ public class ConcaveBallsIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 			LOGGER.debug("Find edges: " + sw.getSeconds());
 		}
 
-		if (edgeMap.isEmpty())
-			return isochroneMap;
-
-		_treeSet = new TreeSet<Coordinate>();
-
-		List<Coordinate> isoPoints = new ArrayList<Coordinate>((int)(1.2*edgeMap.getMap().size()));
-
-		if (LOGGER.isDebugEnabled())
-		{
-			sw = new StopWatch();
-			sw.start();
-		}
-
-		markDeadEndEdges(edgeMap);
-
-		if (LOGGER.isDebugEnabled())
+		try
 		{
-			sw.stop();
-			LOGGER.debug("Mark dead ends: " + sw.getSeconds());
-		}
+			if (edgeMap.isEmpty())
+				return isochroneMap;
 
-		int nRanges = parameters.getRanges().length;
-		double metersPerSecond = maxSpeed / 3.6;
+			_treeSet = new TreeSet<Coordinate>();
 
-		double prevCost = 0;
-		for (int i = 0; i < nRanges; i++) {
-			double isoValue = parameters.getRanges()[i];
+			List<Coordinate> isoPoints = new ArrayList<Coordinate>((int)(1.2*edgeMap.size()));
 
 			if (LOGGER.isDebugEnabled())
 			{
@@ -131,24 +129,49 @@ public class ConcaveBallsIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 				sw.start();
 			}
 
-			GeometryCollection points = buildIsochrone(edgeMap, isoPoints, loc.x, loc.y, isoValue, prevCost,maxSpeed, 0.85, arrayBuffer);
+			BitSet deadEnds = markDeadEndEdges(edgeMap);
 
 			if (LOGGER.isDebugEnabled())
 			{
-				//	 savePoints(points, "D:\\isochrones3.shp");
 				sw.stop();
-				LOGGER.debug(i + " Find points: " + sw.getSeconds() + " " + points.getNumGeometries());
-
-				sw = new StopWatch();
-				sw.start();
+				LOGGER.debug("Mark dead ends: " + sw.getSeconds());
 			}
 
-			addIsochrone(isochroneMap, points, isoValue, metersPerSecond * isoValue);
+			int nRanges = parameters.getRanges().length;
+			double metersPerSecond = maxSpeed / 3.6;
 
-			if (LOGGER.isDebugEnabled())
-				LOGGER.debug("Build concave hull: " + sw.stop().getSeconds());
+			EdgeBand[] bands = splitIntoBands(edgeMap, parameters.getRanges());
 
-			prevCost = isoValue;
+			for (int i = 0; i < nRanges; i++) {
+				double isoValue = parameters.getRanges()[i];
+
+				if (LOGGER.isDebugEnabled())
+				{
+					sw = new StopWatch();
+					sw.start();
+				}
+
+				GeometryCollection points = buildIsochrone(edgeMap, bands[i], deadEnds, isoPoints, loc.x, loc.y, isoValue, maxSpeed, 0.85, arrayBuffer);
+
+				if (LOGGER.isDebugEnabled())
+				{
+					//	 savePoints(points, "D:\\isochrones3.shp");
+					sw.stop();
+					LOGGER.debug(i + " Find points: " + sw.getSeconds() + " " + points.getNumGeometries());
+
+					sw = new StopWatch();
+					sw.start();
+				}
+
+				addIsochrone(isochroneMap, points, isoValue, metersPerSecond * isoValue);
+
+				if (LOGGER.isDebugEnabled())
+					LOGGER.debug("Build concave hull: " + sw.stop().getSeconds());
+			}
+		}
+		finally
+		{
+			GraphEdgeMapFinder.release(edgeMap);
 		}
 
 		if (LOGGER.isDebugEnabled())
@@ -195,27 +218,70 @@ public class ConcaveBallsIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 		isochroneMap.addIsochrone(new Isochrone(poly, isoValue, maxRadius));
 	}
 
-	private void markDeadEndEdges(AccessibilityMap edgeMap)
+	/**
+	 * Returns the slots of the edges which are not continued by any other edge of the map.
+	 */
+	private BitSet markDeadEndEdges(AccessibilityMap edgeMap)
 	{
-		IntObjectMap<SPTEntry> map = edgeMap.getMap();
-		IntObjectMap<Integer> result = new GHIntObjectHashMap<Integer>(map.size()/20);
+		int size = edgeMap.size();
+		BitSet deadEnds = new BitSet(size);
+		deadEnds.set(0, size);
+
+		for (int slot = 0; slot < size; slot++) {
+			int parent = edgeMap.getParent(slot);
+			if (parent != AccessibilityMap.NO_SLOT)
+				deadEnds.clear(parent);
+		}
 
-		for (IntObjectCursor<SPTEntry> entry : map) {
-			SPTEntry  edge = entry.value;
-			if (edge.originalEdge == -1)
-				continue;
+		return deadEnds;
+	}
 
-			result.put(edge.parent.originalEdge, 1);
-		}
+	/**
+	 * Assigns every edge of the map to the range for which it has to be processed, so that each range only visits
+	 * its own edges instead of the whole map. The edges within the previous range are represented by the points of
+	 * the previous isochrone, an edge is needed for a range if it starts within [prevRange, range) or it starts
+	 * and ends exactly at the range.
+	 */
+	private EdgeBand[] splitIntoBands(AccessibilityMap edgeMap, double[] ranges)
+	{
+		int nRanges = ranges.length;
+		EdgeBand[] bands = new EdgeBand[nRanges];
+		for (int i = 0; i < nRanges; i++)
+			bands[i] = new EdgeBand();
+
+		int maxNodeId = _searchContext.getGraphHopper().getGraphHopperStorage().getNodes();
+
+		for (int slot = 0; slot < edgeMap.size(); slot++) {
+			int nodeId = edgeMap.getNode(slot);
+
+			if (nodeId == -1 || nodeId > maxNodeId)
+				continue;
 
-		for (IntObjectCursor<SPTEntry> entry : map) {
-			SPTEntry  edge = entry.value;
-			if (edge.originalEdge == -1)
+			if (edgeMap.isStart(slot))
 				continue;
 
-			if (!result.containsKey(edge.originalEdge))
-				edge.edge =-2;
+			float maxCost = (float) (edgeMap.getWeight(slot));
+			float minCost = (float) (edgeMap.getParentWeight(slot));
+
+			// index of the first range with minCost < range
+			int low = 0, high = nRanges;
+			while (low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if (minCost < ranges[mid])
+					high = mid;
+				else
+					low = mid + 1;
+			}
+
+			if (low < nRanges)
+				bands[low].add(slot);
+
+			if (low > 0 && minCost == ranges[low - 1] && maxCost <= ranges[low - 1])
+				bands[low - 1].add(slot);
 		}
+
+		return bands;
 	}
 
 	public Boolean addPoint(List<Coordinate> points, Quadtree tree, double lon, double lat, boolean checkNeighbours) {
@@ -282,10 +348,8 @@ public class ConcaveBallsIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 		} 
 	}
 
-	private GeometryCollection buildIsochrone(AccessibilityMap edgeMap, List<Coordinate> points, double lon, double lat,
-			double isolineCost, double prevCost,  double maxSpeed, double detailedGeomFactor, ByteArrayBuffer arrayBuffer) {
-		IntObjectMap<SPTEntry> map = edgeMap.getMap();
-
+	private GeometryCollection buildIsochrone(AccessibilityMap edgeMap, EdgeBand band, BitSet deadEnds, List<Coordinate> points, double lon, double lat,
+			double isolineCost, double maxSpeed, double detailedGeomFactor, ByteArrayBuffer arrayBuffer) {
 		points.clear();
 		_treeSet.clear();
 
@@ -294,10 +358,6 @@ public class ConcaveBallsIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 
 		GraphHopperStorage graph = _searchContext.getGraphHopper().getGraphHopperStorage();
 		NodeAccess nodeAccess = graph.getNodeAccess();
-		int maxNodeId = graph.getNodes();
-
-		SPTEntry edgeEntry = edgeMap.getEdgeEntry();
-		SPTEntry goalEdge = edgeEntry;
 
 		DistanceCalc dcFast = new DistancePlaneProjection();
 		double bufferSize = 0.0018;
@@ -310,34 +370,22 @@ public class ConcaveBallsIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 		double defaultVisitorThreshold = 0.0035;
 		
 		// make results a bit more precise for regions with low data density
-		if (map.size() < 10000)
+		if (edgeMap.size() < 10000)
 		{
 			defaultSearchWidth = 0.0008;
 			defaulPointWidth = 0.005;
 			defaultVisitorThreshold = 0.0025;  
 		}
 
-		for (IntObjectCursor<SPTEntry> entry : map) {
-			int nodeId = entry.key;
-
-			if (nodeId == -1 || nodeId > maxNodeId)
-				continue;
-
-			goalEdge = entry.value;
-
-			int edgeId = goalEdge.originalEdge;
+		for (int e = 0; e < band.size(); e++) {
+			int slot = band.slots.get(e);
+			int nodeId = edgeMap.getNode(slot);
+			boolean deadEnd = deadEnds.get(slot);
 
-			if (edgeId == -1)
-				continue;
-
-			EdgeIteratorState iter = graph.getEdgeIteratorState(edgeId, nodeId);
+			EdgeIteratorState iter = graph.getEdgeIteratorState(edgeMap.getEdge(slot), nodeId);
 
-			float maxCost = (float) (goalEdge.weight);
-			float minCost = (float) (goalEdge.parent.weight);
-
-			// ignore all edges that have been considered in the previous step
-			if (minCost < prevCost)
-				continue;
+			float maxCost = (float) (edgeMap.getWeight(slot));
+			float minCost = (float) (edgeMap.getParentWeight(slot));
 
 			searchWidth = defaultSearchWidth; 
 			visitorThreshold = defaultVisitorThreshold; 
@@ -348,7 +396,7 @@ public class ConcaveBallsIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 			// edges that are fully inside of the isochrone
 			if (isolineCost >= maxCost) {
 
-				if (goalEdge.edge == -2)
+				if (deadEnd)
 				{
 					//addPoint(points, qtree, nodeAccess.getLon(nodeId), nodeAccess.getLat(nodeId), true);
 				}
@@ -372,7 +420,7 @@ public class ConcaveBallsIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 									lat1 = pl.getLat(i);
 									lon1 = pl.getLon(i);
 
-									addBufferPoints(points, qtree, lon0, lat0, lon1, lat1, goalEdge.edge < 0 && i == size - 1, true, bufferSize);
+									addBufferPoints(points, qtree, lon0, lat0, lon1, lat1, deadEnd && i == size - 1, true, bufferSize);
 
 									lon0 = lon1;
 									lat0 = lat1;
@@ -0,0 +1,175 @@
+package heigit.ors.isochrones.builders.grid;
+
+import java.util.Arrays;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Raster of travel costs stored in a primitive float array, row by row from south to north. The values refer to the
+ * centres of the cells. Cells which have not been reached hold the given unreached value, which has to be greater
+ * than all ranges.
+ */
+public class CostGrid {
+	private static final double METERS_PER_DEGREE = 111320.0;
+
+	private double _originX;
+	private double _originY;
+	private double _cellSizeX;
+	private double _cellSizeY;
+	private double _cellSize;
+	private int _width;
+	private int _height;
+	private float _unreachedValue;
+	private float[] _costs;
+
+	/**
+	 * Creates a grid covering the envelope plus a border of the given number of cells on every side.
+	 */
+	public CostGrid(Envelope env, double cellSize, int border, float unreachedValue)
+	{
+		_cellSize = cellSize;
+		_cellSizeY = cellSize / METERS_PER_DEGREE;
+		_cellSizeX = _cellSizeY / Math.cos(Math.toRadians(env.centre().y));
+		_originX = env.getMinX() - border * _cellSizeX;
+		_originY = env.getMinY() - border * _cellSizeY;
+		_width = (int)Math.ceil(env.getWidth() / _cellSizeX) + 2 * border + 1;
+		_height = (int)Math.ceil(env.getHeight() / _cellSizeY) + 2 * border + 1;
+		_unreachedValue = unreachedValue;
+
+		_costs = new float[_width * _height];
+		Arrays.fill(_costs, unreachedValue);
+	}
+
+	public int getWidth()
+	{
+		return _width;
+	}
+
+	public int getHeight()
+	{
+		return _height;
+	}
+
+	/**
+	 * Returns the size of a cell in meters.
+	 */
+	public double getCellSize()
+	{
+		return _cellSize;
+	}
+
+	public double getX(double col)
+	{
+		return _originX + (col + 0.5) * _cellSizeX;
+	}
+
+	public double getY(double row)
+	{
+		return _originY + (row + 0.5) * _cellSizeY;
+	}
+
+	public float getCost(int col, int row)
+	{
+		return _costs[row * _width + col];
+	}
+
+	/**
+	 * Returns the cost at the given location, interpolated bilinearly between the centres of the surrounding cells.
+	 */
+	public float getCost(double x, double y)
+	{
+		double fx = Math.max(0, Math.min(_width - 1, (x - _originX) / _cellSizeX - 0.5));
+		double fy = Math.max(0, Math.min(_height - 1, (y - _originY) / _cellSizeY - 0.5));
+		int col = Math.min((int)fx, _width - 2);
+		int row = Math.min((int)fy, _height - 2);
+		double tx = fx - col, ty = fy - row;
+
+		double v0 = getCost(col, row) * (1 - tx) + getCost(col + 1, row) * tx;
+		double v1 = getCost(col, row + 1) * (1 - tx) + getCost(col + 1, row + 1) * tx;
+
+		return (float)(v0 * (1 - ty) + v1 * ty);
+	}
+
+	public void setMinCost(double x, double y, float cost)
+	{
+		int col = (int)((x - _originX) / _cellSizeX);
+		int row = (int)((y - _originY) / _cellSizeY);
+		if (col < 0 || row < 0 || col >= _width || row >= _height)
+			return;
+
+		int index = row * _width + col;
+		if (cost < _costs[index])
+			_costs[index] = Math.min(cost, _unreachedValue);
+	}
+
+	/**
+	 * Propagates the costs of the reached cells to their neighbours up to the given distance in meters, adding
+	 * costPerMeter for every meter. Uses a two-pass chamfer transform over the eight neighbours of a cell.
+	 */
+	public void spread(double maxDistance, double costPerMeter)
+	{
+		float[] distances = new float[_costs.length];
+		for (int i = 0; i < _costs.length; i++)
+			distances[i] = _costs[i] < _unreachedValue ? 0f : Float.MAX_VALUE;
+
+		float straight = (float)_cellSize;
+		float diagonal = (float)(_cellSize * Math.sqrt(2));
+
+		// forward pass: neighbours below and left of the cell
+		for (int row = 0; row < _height; row++)
+		{
+			for (int col = 0; col < _width; col++)
+			{
+				int index = row * _width + col;
+				if (col > 0)
+					relax(distances, index, index - 1, straight, maxDistance, costPerMeter);
+				if (row > 0)
+				{
+					int below = index - _width;
+					relax(distances, index, below, straight, maxDistance, costPerMeter);
+					if (col > 0)
+						relax(distances, index, below - 1, diagonal, maxDistance, costPerMeter);
+					if (col < _width - 1)
+						relax(distances, index, below + 1, diagonal, maxDistance, costPerMeter);
+				}
+			}
+		}
+
+		// backward pass: neighbours above and right of the cell
+		for (int row = _height - 1; row >= 0; row--)
+		{
+			for (int col = _width - 1; col >= 0; col--)
+			{
+				int index = row * _width + col;
+				if (col < _width - 1)
+					relax(distances, index, index + 1, straight, maxDistance, costPerMeter);
+				if (row < _height - 1)
+				{
+					int above = index + _width;
+					relax(distances, index, above, straight, maxDistance, costPerMeter);
+					if (col > 0)
+						relax(distances, index, above - 1, diagonal, maxDistance, costPerMeter);
+					if (col < _width - 1)
+						relax(distances, index, above + 1, diagonal, maxDistance, costPerMeter);
+				}
+			}
+		}
+	}
+
+	private void relax(float[] distances, int index, int neighbour, float step, double maxDistance, double costPerMeter)
+	{
+		if (distances[neighbour] == Float.MAX_VALUE)
+			return;
+
+		float distance = distances[neighbour] + step;
+		if (distance > maxDistance)
+			return;
+
+		float cost = (float)(_costs[neighbour] + step * costPerMeter);
+		if (cost < _costs[index])
+		{
+			_costs[index] = cost;
+			distances[index] = distance;
+		}
+	}
+}
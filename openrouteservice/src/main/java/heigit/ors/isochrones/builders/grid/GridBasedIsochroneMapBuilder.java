@@ -1,64 +1,64 @@
 package heigit.ors.isochrones.builders.grid;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.apache.log4j.Logger;
 
-import com.graphhopper.GraphHopper;
-import com.graphhopper.routing.util.DefaultEdgeFilter;
-import com.graphhopper.routing.util.EdgeFilter;
-import com.graphhopper.routing.util.FlagEncoder;
-import com.graphhopper.storage.Graph;
-import com.graphhopper.storage.MMapDirectory;
-import com.graphhopper.storage.index.Location2IDQuadtree;
-import com.graphhopper.storage.index.LocationIndex;
-import com.graphhopper.storage.index.LocationIndexTree;
-import com.graphhopper.storage.index.QueryResult;
+import com.graphhopper.storage.GraphHopperStorage;
 import com.graphhopper.util.ByteArrayBuffer;
+import com.graphhopper.util.DistanceCalc;
+import com.graphhopper.util.DistancePlaneProjection;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.PointList;
 import com.graphhopper.util.StopWatch;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
 
+import heigit.ors.common.TravelRangeType;
+import heigit.ors.isochrones.GraphEdgeMapFinder;
+import heigit.ors.isochrones.Isochrone;
 import heigit.ors.isochrones.IsochroneMap;
 import heigit.ors.isochrones.IsochroneSearchParameters;
 import heigit.ors.isochrones.builders.AbstractIsochroneMapBuilder;
-import heigit.ors.matrix.MatrixMetricsType;
-import heigit.ors.matrix.MatrixRequest;
-import heigit.ors.matrix.MatrixResult;
-import heigit.ors.matrix.MatrixLocations;
-import heigit.ors.matrix.algorithms.MatrixAlgorithm;
-import heigit.ors.matrix.algorithms.MatrixAlgorithmFactory;
 import heigit.ors.routing.RouteSearchContext;
-
-public class GridBasedIsochroneMapBuilder extends AbstractIsochroneMapBuilder 
+import heigit.ors.routing.graphhopper.extensions.AccessibilityMap;
+
+/**
+ * Builds isochrones from a raster of travel costs. The edges of the accessibility map are rasterised into a float
+ * grid covering the reachable area, the costs being interpolated along the edges between the costs of their end
+ * nodes. The costs are then spread to the cells next to the roads (off-road travel up to MAX_OFFROAD_DISTANCE) and
+ * the contours of every range are extracted with marching squares.
+ */
+public class GridBasedIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 {
 	private final Logger LOGGER = Logger.getLogger(GridBasedIsochroneMapBuilder.class.getName());
 
+	private static final int MAX_GRID_SIZE = 512; // maximum number of cells along one axis
+	private static final double MIN_CELL_SIZE = 30; // in meters
+	private static final double MAX_OFFROAD_DISTANCE = 200; // in meters
+	private static final double OFFROAD_SPEED = 5 / 3.6; // in meters per second
+	private static final double METERS_PER_DEGREE = 111320.0;
+
 	private GeometryFactory _geomFactory;
 	private RouteSearchContext _searchContext;
-	
-	private static LocationIndex _gridIndex;
-	
-	private double _grdiStep = 500; // measured in meters
 
-	public GridBasedIsochroneMapBuilder() 
+	public GridBasedIsochroneMapBuilder()
 	{
-		
+
 	}
 
 	@Override
-	public void initialize(RouteSearchContext searchContext) 
+	public void initialize(RouteSearchContext searchContext)
 	{
 		_geomFactory = new GeometryFactory();
-		_searchContext = searchContext;		
+		_searchContext = searchContext;
 	}
 
 	@Override
 	public IsochroneMap compute(IsochroneSearchParameters parameters) throws Exception {
 		StopWatch swTotal = null;
 		StopWatch sw = null;
-		
+
 		if (LOGGER.isDebugEnabled())
 		{
 			swTotal = new StopWatch();
@@ -67,88 +67,133 @@ public class GridBasedIsochroneMapBuilder extends AbstractIsochroneMapBuilder
 			sw.start();
 		}
 
-		FlagEncoder encoder = _searchContext.getEncoder();
-		// 1. Find all graph edges for a given cost.
-		double maxSpeed = encoder.getMaxSpeed();
+		double maxSpeed = _searchContext.getEncoder().getMaxSpeed();
 
 		Coordinate loc = parameters.getLocation();
-		GraphHopper gh = _searchContext.getGraphHopper();
-		//LocationIndexMatch index = new LocationIndexMatch(gh.getGraphHopperStorage(),(LocationIndexTree)gh.getLocationIndex()); 
-		//gh.getGraphHopperStorage().getBounds()
-		//index.setGpxAccuracy(500);
-     	//index.setMinResolutionInMeter(200);
-		
-		if (_gridIndex == null)
-		{
-			_gridIndex = new Location2IDQuadtree(gh.getGraphHopperStorage().getGraph(Graph.class), new MMapDirectory(gh.getGraphHopperLocation() + "grid_loc2idIndex").create()).
-	                setResolution(500).prepareIndex();
-		}
-		
-		int gridSizeMeters = 500;
-		int[] gridValues = new int[gridSizeMeters*gridSizeMeters];
-		double cx = loc.x;
-		double cy = loc.y;
-		double gridSizeY = Math.toDegrees(gridSizeMeters / 6378100.0);
-		double gridSizeX = gridSizeY / Math.cos(Math.toRadians(cx));
-		double halfN = gridSizeMeters/2;
-		ByteArrayBuffer arrayBuffer = new ByteArrayBuffer(50);
-		List<Coordinate> gridLocations = new ArrayList<Coordinate>(gridValues.length);
-		
-		for (int xi = 0; xi < gridSizeMeters; xi++)
+		IsochroneMap isochroneMap = new IsochroneMap(parameters.getTravellerId(), loc);
+		ByteArrayBuffer arrayBuffer = new ByteArrayBuffer();
+
+		AccessibilityMap edgeMap = GraphEdgeMapFinder.findEdgeMap(_searchContext, parameters, arrayBuffer);
+
+		if (LOGGER.isDebugEnabled())
 		{
-			double dx = (-halfN + xi)*gridSizeX;
-			
-			for (int yi = 0; yi< gridSizeMeters; yi++)
-			{
-				double dy = (-halfN + yi)*gridSizeX;
-				
-				int p = xi + yi*gridSizeMeters;
-
-				QueryResult res = _gridIndex.findClosest(cy + dy, cx + dx, EdgeFilter.ALL_EDGES , arrayBuffer);
-				if (res.isValid())
-					gridValues[p] = res.getClosestNode();
-				else
-					gridValues[p] = -1;
-				
-				gridLocations.add(new Coordinate(cx + dx, cy + dy));
-			}
+			sw.stop();
+			LOGGER.debug("Find edges: " + sw.getSeconds());
+			sw = new StopWatch();
+			sw.start();
 		}
-		
-		
-		MatrixRequest mtxReq = new MatrixRequest();
-		mtxReq.setMetrics(MatrixMetricsType.Distance);
-		mtxReq.setFlexibleMode(true);
-		mtxReq.setSources(new Coordinate[] { parameters.getLocation() });
-        Coordinate[] destinations = new Coordinate[gridLocations.size()];
-        gridLocations.toArray(destinations);
-		mtxReq.setDestinations(destinations); 
 
-		MatrixAlgorithm alg = MatrixAlgorithmFactory.createAlgorithm(mtxReq, gh, encoder);
-		
-		if (alg == null)
-			throw new Exception("Unable to create an algorithm to distance/duration matrix.");
-
-		//alg.init(mtxReq, gh, _searchContext.getEncoder());
+		// the map of the search is given back before the grid is spread and contoured
+		CostGrid grid = null;
+		try
+		{
+			if (edgeMap.isEmpty())
+				return isochroneMap;
 
-		//MatrixLocationDataResolver locResolver = new MatrixLocationDataResolver(gh.getLocationIndex(), new DefaultEdgeFilter(encoder), new ByteArrayBuffer(), mtxReq.getResolveLocations(), 2000);
+			GraphHopperStorage graph = _searchContext.getGraphHopper().getGraphHopperStorage();
+			Envelope env = getEnvelope(graph, edgeMap, arrayBuffer);
+			if (env.isNull())
+				return isochroneMap;
 
-	/*	MatrixSearchData srcData = locResolver.resolve(mtxReq.getSources());
-		MatrixSearchData dstData = locResolver.resolve(mtxReq.getDestinations()); 
+			double cellSize = Math.max(MIN_CELL_SIZE, Math.max(env.getWidth() * Math.cos(Math.toRadians(env.centre().y)), env.getHeight()) * METERS_PER_DEGREE / MAX_GRID_SIZE);
+			int border = (int)Math.ceil(MAX_OFFROAD_DISTANCE / cellSize) + 1;
+			double maxRange = parameters.getMaximumRange();
 
-		MatrixResult mtxResult = alg.compute(srcData, dstData, mtxReq.getMetrics()); 
-		*/
-		IsochroneMap isochroneMap = new IsochroneMap(0, loc);
+			grid = new CostGrid(env, cellSize, border, (float)(2 * maxRange + 1));
+			rasterizeEdges(grid, graph, edgeMap, arrayBuffer);
+		}
+		finally
+		{
+			GraphEdgeMapFinder.release(edgeMap);
+		}
 
-		//AccessibilityMap edgeMap = GraphEdgeMapFinder.findEdgeMap(_searchContext, parameters);
+		grid.spread(MAX_OFFROAD_DISTANCE, parameters.getRangeType() == TravelRangeType.Time ? 1.0 / OFFROAD_SPEED : 1.0);
 
 		if (LOGGER.isDebugEnabled())
 		{
 			sw.stop();
+			LOGGER.debug("Rasterize edges: " + sw.getSeconds() + " " + grid.getWidth() + "x" + grid.getHeight());
+		}
 
-			LOGGER.debug("Find edges: " + sw.getSeconds());
+		MarchingSquares contours = new MarchingSquares(grid, _geomFactory);
+		double metersPerSecond = maxSpeed / 3.6;
+
+		for (double isoValue : parameters.getRanges())
+		{
+			Polygon poly = contours.getPolygon((float)isoValue, loc);
+			if (poly != null)
+				isochroneMap.addIsochrone(new Isochrone(poly, isoValue, metersPerSecond * isoValue));
 		}
-		
+
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("Total time: " + swTotal.stop().getSeconds());
 
 		return isochroneMap;
 	}
+
+	private Envelope getEnvelope(GraphHopperStorage graph, AccessibilityMap edgeMap, ByteArrayBuffer arrayBuffer)
+	{
+		Envelope env = new Envelope();
+
+		for (int slot = 0; slot < edgeMap.size(); slot++) {
+			if (edgeMap.isStart(slot))
+				continue;
+
+			EdgeIteratorState iter = graph.getEdgeIteratorState(edgeMap.getEdge(slot), edgeMap.getNode(slot));
+			PointList pl = iter.fetchWayGeometry(3, arrayBuffer);
+			for (int i = 0; i < pl.getSize(); i++)
+				env.expandToInclude(pl.getLon(i), pl.getLat(i));
+		}
+
+		return env;
+	}
+
+	/**
+	 * Samples every edge at steps of half a cell and stores the smallest cost of each cell. The geometry of an edge
+	 * starts at its parent node, so that the cost grows linearly from the cost of the parent to the cost of the edge.
+	 */
+	private void rasterizeEdges(CostGrid grid, GraphHopperStorage graph, AccessibilityMap edgeMap, ByteArrayBuffer arrayBuffer)
+	{
+		DistanceCalc dcFast = new DistancePlaneProjection();
+		double step = grid.getCellSize() / 2;
+
+		for (int slot = 0; slot < edgeMap.size(); slot++) {
+			if (edgeMap.isStart(slot))
+				continue;
+
+			EdgeIteratorState iter = graph.getEdgeIteratorState(edgeMap.getEdge(slot), edgeMap.getNode(slot));
+			PointList pl = iter.fetchWayGeometry(3, arrayBuffer);
+			int size = pl.getSize();
+			if (size == 0)
+				continue;
+
+			double minCost = edgeMap.getParentWeight(slot);
+			double edgeCost = edgeMap.getWeight(slot) - minCost;
+			double edgeDist = iter.getDistance();
+			double costPerMeter = edgeDist > 0 ? edgeCost / edgeDist : 0;
+			double distPolyline = 0.0;
+
+			double lat0 = pl.getLat(0);
+			double lon0 = pl.getLon(0);
+			grid.setMinCost(lon0, lat0, (float)minCost);
+
+			for (int i = 1; i < size; ++i) {
+				double lat1 = pl.getLat(i);
+				double lon1 = pl.getLon(i);
+				double segDist = dcFast.calcDist(lat0, lon0, lat1, lon1);
+				int nSteps = (int)Math.ceil(segDist / step);
+
+				for (int j = 1; j <= nSteps; j++)
+				{
+					double t = (double)j / nSteps;
+					double cost = minCost + Math.min(edgeCost, (distPolyline + t * segDist) * costPerMeter);
+					grid.setMinCost(lon0 + t * (lon1 - lon0), lat0 + t * (lat1 - lat0), (float)cost);
+				}
+
+				distPolyline += segDist;
+				lat0 = lat1;
+				lon0 = lon1;
+			}
+		}
+	}
 }
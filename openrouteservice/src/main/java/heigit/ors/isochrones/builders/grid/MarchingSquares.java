@@ -0,0 +1,168 @@
+package heigit.ors.isochrones.builders.grid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.operation.polygonize.Polygonizer;
+
+/**
+ * Extracts the contour of a cost level from a CostGrid with the marching squares algorithm. Every square between
+ * four cell centres contributes up to two segments whose end points are interpolated linearly along the sides of
+ * the square. A side is always interpolated in the same direction, so that the segments of neighbouring squares
+ * share exactly the same end points and can be polygonized without further noding.
+ */
+public class MarchingSquares {
+	private CostGrid _grid;
+	private GeometryFactory _geomFactory;
+
+	public MarchingSquares(CostGrid grid, GeometryFactory geomFactory)
+	{
+		_grid = grid;
+		_geomFactory = geomFactory;
+	}
+
+	/**
+	 * Returns the area with costs below the given level which contains the location, or the largest one if none
+	 * does. Unreachable areas inside of it are returned as holes.
+	 */
+	@SuppressWarnings("unchecked")
+	public Polygon getPolygon(float level, Coordinate location)
+	{
+		List<Geometry> segments = getContourSegments(level);
+		if (segments.isEmpty())
+			return null;
+
+		Polygonizer polygonizer = new Polygonizer();
+		polygonizer.add(segments);
+
+		Point point = _geomFactory.createPoint(location);
+		Polygon result = null;
+
+		for (Polygon poly : (Collection<Polygon>)polygonizer.getPolygons())
+		{
+			Coordinate c = poly.getInteriorPoint().getCoordinate();
+			if (_grid.getCost(c.x, c.y) >= level)
+				continue;
+
+			if (poly.contains(point))
+				return poly;
+
+			if (result == null || result.getArea() < poly.getArea())
+				result = poly;
+		}
+
+		return result;
+	}
+
+	private List<Geometry> getContourSegments(float level)
+	{
+		List<Geometry> segments = new ArrayList<Geometry>();
+		int width = _grid.getWidth();
+		int height = _grid.getHeight();
+
+		for (int row = 0; row < height - 1; row++)
+		{
+			for (int col = 0; col < width - 1; col++)
+			{
+				float bl = _grid.getCost(col, row);
+				float br = _grid.getCost(col + 1, row);
+				float tr = _grid.getCost(col + 1, row + 1);
+				float tl = _grid.getCost(col, row + 1);
+
+				int index = (bl < level ? 1 : 0) | (br < level ? 2 : 0) | (tr < level ? 4 : 0) | (tl < level ? 8 : 0);
+
+				switch (index)
+				{
+				case 0:
+				case 15:
+					break;
+				case 1:
+				case 14:
+					addSegment(segments, bottom(col, row, bl, br, level), left(col, row, bl, tl, level));
+					break;
+				case 2:
+				case 13:
+					addSegment(segments, bottom(col, row, bl, br, level), right(col, row, br, tr, level));
+					break;
+				case 4:
+				case 11:
+					addSegment(segments, right(col, row, br, tr, level), top(col, row, tl, tr, level));
+					break;
+				case 8:
+				case 7:
+					addSegment(segments, left(col, row, bl, tl, level), top(col, row, tl, tr, level));
+					break;
+				case 3:
+				case 12:
+					addSegment(segments, left(col, row, bl, tl, level), right(col, row, br, tr, level));
+					break;
+				case 6:
+				case 9:
+					addSegment(segments, bottom(col, row, bl, br, level), top(col, row, tl, tr, level));
+					break;
+				case 5:
+				case 10:
+					// saddle, resolved by the average value at the centre of the square
+					boolean centerInside = (bl + br + tr + tl) / 4 < level;
+					if ((index == 5) == centerInside)
+					{
+						addSegment(segments, bottom(col, row, bl, br, level), right(col, row, br, tr, level));
+						addSegment(segments, left(col, row, bl, tl, level), top(col, row, tl, tr, level));
+					}
+					else
+					{
+						addSegment(segments, bottom(col, row, bl, br, level), left(col, row, bl, tl, level));
+						addSegment(segments, right(col, row, br, tr, level), top(col, row, tl, tr, level));
+					}
+					break;
+				}
+			}
+		}
+
+		return segments;
+	}
+
+	private void addSegment(List<Geometry> segments, Coordinate c0, Coordinate c1)
+	{
+		if (!c0.equals2D(c1))
+			segments.add(_geomFactory.createLineString(new Coordinate[] { c0, c1 }));
+	}
+
+	private Coordinate bottom(int col, int row, float bl, float br, float level)
+	{
+		return horizontal(col, row, bl, br, level);
+	}
+
+	private Coordinate top(int col, int row, float tl, float tr, float level)
+	{
+		return horizontal(col, row + 1, tl, tr, level);
+	}
+
+	private Coordinate left(int col, int row, float bl, float tl, float level)
+	{
+		return vertical(col, row, bl, tl, level);
+	}
+
+	private Coordinate right(int col, int row, float br, float tr, float level)
+	{
+		return vertical(col + 1, row, br, tr, level);
+	}
+
+	private Coordinate horizontal(int col, int row, float v0, float v1, float level)
+	{
+		double t = (level - v0) / (double)(v1 - v0);
+		return new Coordinate(_grid.getX(col + t), _grid.getY(row));
+	}
+
+	private Coordinate vertical(int col, int row, float v0, float v1, float level)
+	{
+		double t = (level - v0) / (double)(v1 - v0);
+		return new Coordinate(_grid.getX(col), _grid.getY(row + t));
+	}
+}
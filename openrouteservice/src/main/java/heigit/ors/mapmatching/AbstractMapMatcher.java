@@ -13,26 +13,18 @@
 package heigit.ors.mapmatching;
 
 import com.graphhopper.GraphHopper;
-import com.graphhopper.routing.util.EdgeFilter;
 
 public abstract class AbstractMapMatcher implements MapMatcher {
-	protected double _searchRadius = 50;
-	protected EdgeFilter _edgeFilter;
 	protected GraphHopper _graphHopper;
 	
-	public void setSearchRadius(double radius)
-	{
-		_searchRadius = radius;
-	}
-	
-	public void setEdgeFilter(EdgeFilter edgeFilter)
+	public void setGraphHopper(GraphHopper gh)
 	{
-		_edgeFilter = edgeFilter;
+		_graphHopper = gh;
 	}
 	
-	public void setGraphHopper(GraphHopper gh)
+	public GraphHopper getGraphHopper()
 	{
-		_graphHopper = gh;
+		return _graphHopper;
 	}
 	
 	public RouteSegmentInfo match(double lat0, double lon0, double lat1, double lon1)
@@ -70,6 +70,18 @@ public class LocationIndexMatch extends LocationIndexTree {
     }
 
     public List<QueryResult> findNClosest(final double queryLat, final double queryLon, final EdgeFilter edgeFilter) {
+        return findNClosestWithin(queryLat, queryLon, edgeFilter, returnAllResultsWithin);
+    }
+
+    /**
+     * Same as findNClosest(queryLat, queryLon, edgeFilter), but with the GPS accuracy given for this query only, so
+     * that one instance can serve concurrent queries with different accuracies.
+     */
+    public List<QueryResult> findNClosest(final double queryLat, final double queryLon, final EdgeFilter edgeFilter, double gpxAccuracyInMetern) {
+        return findNClosestWithin(queryLat, queryLon, edgeFilter, distCalc.calcNormalizedDist(gpxAccuracyInMetern));
+    }
+
+    private List<QueryResult> findNClosestWithin(final double queryLat, final double queryLon, final EdgeFilter edgeFilter, final double returnAllResultsWithin) {
     	 // implement a cheap priority queue via List, sublist and Collections.sort
         final List<QueryResult> queryResults = new ArrayList<QueryResult>();
         GHIntHashSet set = new GHIntHashSet();
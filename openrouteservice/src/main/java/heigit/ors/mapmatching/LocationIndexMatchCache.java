@@ -0,0 +1,63 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.mapmatching;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.index.QueryResult;
+
+/**
+ * Shares the candidates found by LocationIndexMatch between the traces of a batch which cover the same area. The
+ * locations are rounded to about one meter, all lookups have to use the same edge filter and search radius. The
+ * cached query results must not be changed, e.g. by QueryGraph.lookup.
+ */
+public class LocationIndexMatchCache {
+	private static final double PRECISION = 1e5;
+
+	private ConcurrentHashMap<Long, List<QueryResult>> _entries;
+	private AtomicReference<Graph> _graph = new AtomicReference<Graph>();
+	private int _maximumEntries;
+
+	public LocationIndexMatchCache(int maximumEntries) {
+		_maximumEntries = maximumEntries;
+		_entries = new ConcurrentHashMap<Long, List<QueryResult>>();
+	}
+
+	/**
+	 * Returns true if the cache can be used for lookups on the given graph. The cache is bound to the graph it is
+	 * first used with, so that results of a graph which has been updated in the meantime are never mixed up.
+	 */
+	public boolean isValidFor(Graph graph) {
+		return _graph.compareAndSet(null, graph) || _graph.get() == graph;
+	}
+
+	public List<QueryResult> findNClosest(LocationIndexMatch locationIndex, double lat, double lon, EdgeFilter edgeFilter, double searchRadius) {
+		Long key = (Math.round(lat * PRECISION) << 32) ^ (Math.round(lon * PRECISION) & 0xFFFFFFFFL);
+
+		List<QueryResult> qResults = _entries.get(key);
+		if (qResults == null) {
+			qResults = locationIndex.findNClosest(lat, lon, edgeFilter, searchRadius);
+			if (_entries.size() < _maximumEntries)
+				_entries.putIfAbsent(key, qResults);
+		}
+
+		return qResults;
+	}
+
+	public int size() {
+		return _entries.size();
+	}
+}
@@ -16,13 +16,15 @@ import com.graphhopper.GraphHopper;
 import com.graphhopper.routing.util.EdgeFilter;
 import com.vividsolutions.jts.geom.Coordinate;
 
+/**
+ * Implementations must be safe for concurrent use once the graph has been set, everything that is specific to a
+ * single call is passed to match.
+ */
 public interface MapMatcher {
 	
-	public void setSearchRadius(double radius);
-	
-	public void setEdgeFilter(EdgeFilter edgeFilter);
-	
 	public void setGraphHopper(GraphHopper gh);
 	
-	public RouteSegmentInfo[] match(Coordinate[] locations, boolean bothDirections);
+	public GraphHopper getGraphHopper();
+	
+	public RouteSegmentInfo[] match(Coordinate[] locations, double searchRadius, EdgeFilter edgeFilter, boolean bothDirections);
 }
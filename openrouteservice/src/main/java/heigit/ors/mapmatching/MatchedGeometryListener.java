@@ -0,0 +1,28 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.mapmatching;
+
+import java.io.IOException;
+
+import com.graphhopper.util.PointList;
+
+/**
+ * Receives the geometry of a track while it is being matched, so that the points of long tracks can be sent to the
+ * client instead of being kept until the whole track has been matched.
+ */
+public interface MatchedGeometryListener {
+	/**
+	 * Called with the points which have been matched since the previous call. The points of all calls in order give
+	 * the geometry of the route.
+	 */
+	void pointsMatched(PointList points) throws IOException;
+}
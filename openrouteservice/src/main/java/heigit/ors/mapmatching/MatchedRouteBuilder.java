@@ -0,0 +1,159 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.mapmatching;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.shapes.BBox;
+
+import heigit.ors.common.DistanceUnit;
+import heigit.ors.exceptions.InternalServerException;
+import heigit.ors.mapmatching.hmm.TrackMatcher;
+import heigit.ors.routing.RouteResult;
+import heigit.ors.routing.RouteSummary;
+import heigit.ors.routing.pathprocessors.ExtraInfoProcessor;
+import heigit.ors.util.DistanceUnitUtil;
+import heigit.ors.util.FormatUtility;
+
+/**
+ * Builds the route of a track from the parts which are reported by TrackMatcher. The points are passed on to the
+ * geometry listener as soon as they have been matched and are only kept if they are needed for the result.
+ * <p>
+ * The edges of the parts are passed to the extra info processor like the edges of a path, each with the points from
+ * its base node to its adjacent node. The point which starts a new section of the track is added to the last edge
+ * before it, so that the extra info covers all points of the geometry.
+ */
+public class MatchedRouteBuilder implements TrackMatcher.Listener {
+	private boolean _includeElevation;
+	private ExtraInfoProcessor _extraInfoProcessor;
+	private MatchedGeometryListener _geometryListener;
+	private PointList _points;
+	private int _pointsCount = 0;
+	private BBox _bbox;
+	private double _distance = 0;
+	private long _time = 0;
+	private EdgeIteratorState _pendingEdge;
+	private PointList _pendingGeometry;
+
+	/**
+	 * @param extraInfoProcessor the processor of the requested extra info which has been initialized, or null
+	 * @param geometryListener the listener the geometry is streamed to, or null if it is part of the result
+	 * @param keepPoints true if the points are needed by the extra info processor, e.g. for the steepness
+	 */
+	public MatchedRouteBuilder(boolean includeElevation, ExtraInfoProcessor extraInfoProcessor, MatchedGeometryListener geometryListener, boolean keepPoints) {
+		_includeElevation = includeElevation;
+		_extraInfoProcessor = extraInfoProcessor;
+		_geometryListener = geometryListener;
+
+		if (geometryListener == null || keepPoints)
+			_points = new PointList(100, includeElevation);
+		if (extraInfoProcessor != null)
+			_pendingGeometry = new PointList(10, includeElevation);
+	}
+
+	/**
+	 * @throws UncheckedIOException if the geometry listener has failed to write the points
+	 */
+	@Override
+	public void pathMatched(PointList points, List<EdgeIteratorState> edges, boolean newSection, double distance, long time) {
+		// the first point of a part has been added with the previous one
+		int first = newSection ? 0 : 1;
+		PointList newPoints = _geometryListener == null ? null : new PointList(points.size() - first, _includeElevation);
+
+		for (int i = first; i < points.size(); i++) {
+			addPoint(_points, points, i);
+			addPoint(newPoints, points, i);
+			if (newSection)
+				addPoint(_pendingGeometry, points, i);
+
+			if (_bbox == null)
+				_bbox = new BBox(points.getLon(i), points.getLon(i), points.getLat(i), points.getLat(i));
+			else
+				_bbox.update(points.getLat(i), points.getLon(i));
+		}
+
+		_pointsCount += points.size() - first;
+		_distance += distance;
+		_time += time;
+
+		if (_extraInfoProcessor != null) {
+			for (EdgeIteratorState edge : edges) {
+				if (_pendingEdge != null) {
+					_extraInfoProcessor.processEdge(0, _pendingEdge, false, _pendingGeometry);
+
+					PointList geom = new PointList(10, _includeElevation);
+					addPoint(geom, _pendingGeometry, _pendingGeometry.size() - 1);
+					_pendingGeometry = geom;
+				}
+
+				// pillar nodes and the adjacent node
+				PointList edgePoints = edge.fetchWayGeometry(2);
+				for (int i = 0; i < edgePoints.size(); i++)
+					addPoint(_pendingGeometry, edgePoints, i);
+				_pendingEdge = edge;
+			}
+		}
+
+		if (newPoints != null && !newPoints.isEmpty()) {
+			try {
+				_geometryListener.pointsMatched(newPoints);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+
+	/**
+	 * Creates the result once the whole track has been matched. Its geometry is empty if it has been streamed.
+	 */
+	public RouteResult createRouteResult(MapMatchingRequest req) throws Exception {
+		if (_pointsCount < 2)
+			throw new InternalServerException(MapMatchingErrorCodes.UNKNOWN, "Unable to match the track to the road network.");
+
+		if (_extraInfoProcessor != null) {
+			if (_pendingEdge != null) {
+				_extraInfoProcessor.processEdge(0, _pendingEdge, true, _pendingGeometry);
+				_pendingEdge = null;
+			}
+
+			if (_points != null)
+				_points = _extraInfoProcessor.processPoints(_points);
+		}
+
+		RouteResult result = new RouteResult(req.getExtraInfo());
+		if (_geometryListener == null)
+			result.addPoints(_points, false, _includeElevation);
+		if (_extraInfoProcessor != null)
+			result.addExtraInfo(_extraInfoProcessor.getExtras());
+
+		RouteSummary summary = result.getSummary();
+		summary.setDistance(FormatUtility.roundToDecimals(DistanceUnitUtil.convert(_distance, DistanceUnit.Meters, req.getUnits()), FormatUtility.getUnitDecimals(req.getUnits())));
+		summary.setDuration(FormatUtility.roundToDecimals(_time / 1000.0, 1));
+		summary.setBBox(_bbox);
+
+		return result;
+	}
+
+	private void addPoint(PointList target, PointList points, int index) {
+		if (target == null)
+			return;
+
+		if (_includeElevation)
+			target.add(points.getLat(index), points.getLon(index), points.getEle(index));
+		else
+			target.add(points.getLat(index), points.getLon(index));
+	}
+}
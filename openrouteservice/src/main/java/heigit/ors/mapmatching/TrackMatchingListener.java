@@ -0,0 +1,24 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.mapmatching;
+
+import heigit.ors.routing.RouteResult;
+
+/**
+ * Receives the results of a batch of map matching requests in the order in which the tracks are finished. All
+ * methods are called on the thread which has submitted the batch.
+ */
+public interface TrackMatchingListener {
+	void trackMatched(int index, RouteResult result) throws Exception;
+
+	void trackFailed(int index, Exception ex) throws Exception;
+}
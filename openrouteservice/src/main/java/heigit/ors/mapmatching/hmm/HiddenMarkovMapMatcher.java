@@ -13,13 +13,19 @@
 package heigit.ors.mapmatching.hmm;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import heigit.ors.routing.graphhopper.extensions.ORSGraphHopper;
 import heigit.ors.mapmatching.AbstractMapMatcher;
 import heigit.ors.mapmatching.LocationIndexMatch;
 import heigit.ors.mapmatching.RouteSegmentInfo;
 
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.carrotsearch.hppc.LongObjectHashMap;
 import com.graphhopper.GHRequest;
 import com.graphhopper.GHResponse;
 import com.graphhopper.GraphHopper;
@@ -38,40 +44,67 @@ import com.vividsolutions.jts.geom.Coordinate;
  * 
  * http://research.microsoft.com/en-us/um/people/jckrumm/Publications%202009/map%20matching%20ACM%20GIS%20camera%20ready.pdf
  * 
+ * The matcher does not change after setGraphHopper has been called, all state of a single match is kept in a MatchContext
+ * taken from a pool, so one instance can be used by any number of threads. A match throws a CancellationException
+ * when its thread is interrupted, which is checked before every route between two candidates.
  * */
 public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 
+	private static final double[] NO_TRANSITION = new double[0];
+	private static final int MAXIMUM_POOLED_MATCH_POINTS = 4096;
+
 	private DistanceCalc distCalcEarth = new DistanceCalcEarth(); // DistancePlaneProjection
 	private LocationIndexMatch locationIndex;
 	private FlagEncoder encoder;
-	private List<MatchPoint> matchPoints = new ArrayList<>(2);
-	private List<Integer> roadSegments = new ArrayList<Integer>();
+	private ConcurrentLinkedQueue<MatchContext> contexts = new ConcurrentLinkedQueue<MatchContext>();
 	
 	private static double sigma_z = 4.07;// sigma_z(z, x); this value is taken from a paper by Newson and Krumm
 	private static double beta =  0.00959442; // beta(z, x); 
 	private static double denom = Math.sqrt(2 * Math.PI) * sigma_z; // see Equation 1
-	
-	private double[] distances = new double[2];
-	private double[] longitudes = new double[2];
-	private double[] latitudes = new double[2];
 
-	
 	@SuppressWarnings("serial")
-	private class MatchPoint extends Coordinate {
+	private static class MatchPoint extends Coordinate {
+		public int edgeId;
 		public int segmentId;
+		public int locationId;
 		public double distance;
 		public int measuredPointIndex;
 
-		public MatchPoint(double lat, double lon) {
-			super(lat, lon);
+		public MatchPoint(double lat, double lon, int edgeId) {
+			super(lon, lat);
+			this.edgeId = edgeId;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof MatchPoint && ((MatchPoint)other).edgeId == edgeId && equals2D((MatchPoint)other);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * super.hashCode() + edgeId;
 		}
 	}
 
-	public void setSearchRadius(double radius)
-	{
-		_searchRadius = radius;
-		if (locationIndex != null)
-			locationIndex.setGpxAccuracy(radius);
+	/**
+	 * Per-call state of the matcher. Transitions between two snapped positions are routed only once per trace, no matter
+	 * how many candidates (e.g. of a vehicle standing still) share these positions.
+	 */
+	private static class MatchContext {
+		public List<MatchPoint> matchPoints = new ArrayList<MatchPoint>();
+		public IntIntHashMap roadSegments = new IntIntHashMap();
+		public Map<MatchPoint, Integer> locations = new HashMap<MatchPoint, Integer>();
+		public LongObjectHashMap<double[]> transitions = new LongObjectHashMap<double[]>();
+		public double[] distances = new double[2];
+		public double[] longitudes = new double[2];
+		public double[] latitudes = new double[2];
+
+		public void clear() {
+			matchPoints.clear();
+			roadSegments.clear();
+			locations.clear();
+			transitions.clear();
+		}
 	}
 
 	public void setGraphHopper(GraphHopper gh) {
@@ -80,13 +113,27 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 		encoder = gh.getEncodingManager().fetchEdgeEncoders().get(0);
 		GraphHopperStorage graph = gh.getGraphHopperStorage();
 		locationIndex = new LocationIndexMatch(graph,
-				(com.graphhopper.storage.index.LocationIndexTree) gh.getLocationIndex(), (int)_searchRadius);
+				(com.graphhopper.storage.index.LocationIndexTree) gh.getLocationIndex());
+		contexts.clear();
 	}
 
 	@Override
-	public RouteSegmentInfo[] match(Coordinate[] locations, boolean bothDirections) {
-		EdgeFilter edgeFilter = _edgeFilter == null ? new DefaultEdgeFilter(encoder) : _edgeFilter;
+	public RouteSegmentInfo[] match(Coordinate[] locations, double searchRadius, EdgeFilter edgeFilter, boolean bothDirections) {
+		MatchContext cntx = contexts.poll();
+		if (cntx == null)
+			cntx = new MatchContext();
+
+		try {
+			return match(cntx, locations, searchRadius, edgeFilter == null ? new DefaultEdgeFilter(encoder) : edgeFilter, bothDirections);
+		} finally {
+			if (cntx.matchPoints.size() <= MAXIMUM_POOLED_MATCH_POINTS) {
+				cntx.clear();
+				contexts.offer(cntx);
+			}
+		}
+	}
 
+	private RouteSegmentInfo[] match(MatchContext cntx, Coordinate[] locations, double searchRadius, EdgeFilter edgeFilter, boolean bothDirections) {
 		boolean bPreciseMode = false;
 		int nPoints = locations.length;
 		//Point[] inputPoints = new Point[nPoints];
@@ -94,31 +141,27 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 		//inputPoints[1] = new Point((lat0 + lat1)/2.0, (lon0+lon1)/2.0); // extension
 		//inputPoints[2] = new Point(lat1, lon1);
 		//inputPoints[1] = new Point(lat1, lon1);
-		Coordinate[] z = locations;
+		// the locations are reversed for the second direction, so work on a copy of the array of the caller
+		Coordinate[] z = bothDirections ? locations.clone() : locations;
 		int Nz = z.length;
 		int Nr = 0;
-		matchPoints.clear();
-		roadSegments.clear();
 		
 		// Phase I: We are looking for the nearest road segments
 		MatchPoint[][] x = new MatchPoint[Nz][];
-		double searchRadius = _searchRadius;
 		
 		for (int i = 0; i < nPoints; i++) {
 			Coordinate zt = z[i];
-			_searchRadius = (bPreciseMode && i == 1) ? 50 : searchRadius;
+			double radius = (bPreciseMode && i == 1) ? 50 : searchRadius;
 				
-			MatchPoint[] xi = findNearestPoints(zt.y, zt.x, i, edgeFilter, matchPoints, roadSegments);
+			MatchPoint[] xi = findNearestPoints(cntx, zt.y, zt.x, i, radius, edgeFilter);
 
 			if (xi == null)
 				return null;
 
 			x[i] = xi;
 		}
-		
-		_searchRadius = searchRadius;
 
-		Nr += roadSegments.size();
+		Nr += cntx.roadSegments.size();
 
 		if (Nr == 0)
 			return null;
@@ -127,7 +170,7 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 		double[][] emissionProbs = new double[Nr][Nz];
 		double[] startProbs = new double[Nr];
 
-		RouteSegmentInfo seg1 = findRouteSegments(z, x, Nr, Nz, startProbs, emissionProbs, transProbs, edgeFilter);
+		RouteSegmentInfo seg1 = findRouteSegments(cntx, z, x, Nr, Nz, startProbs, emissionProbs, transProbs, edgeFilter);
 		RouteSegmentInfo seg2 = null;
 		
 		if (bothDirections)
@@ -153,9 +196,9 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 				}
 			}
 
-			seg2 = findRouteSegments(z, x, Nr, Nz, startProbs, emissionProbs, transProbs, edgeFilter);
+			seg2 = findRouteSegments(cntx, z, x, Nr, Nz, startProbs, emissionProbs, transProbs, edgeFilter);
 		}
-		
+
 		if (seg1 !=  null && seg2 != null)
 		{
 			double koef = 1.1;
@@ -185,7 +228,7 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 		return result;
 	}
 
-	private RouteSegmentInfo findRouteSegments(Coordinate[] z, MatchPoint[][] x, int Nr, int Nz, double[] startProbs, double[][] emissionProbs, double[][] transProbs, EdgeFilter edgeFilter)
+	private RouteSegmentInfo findRouteSegments(MatchContext cntx, Coordinate[] z, MatchPoint[][] x, int Nr, int Nz, double[] startProbs, double[][] emissionProbs, double[][] transProbs, EdgeFilter edgeFilter)
 	{
 		// Phase II: Compute distances, probabilities, etc.
 
@@ -222,8 +265,9 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 			}
 		}
 		
-		if (z.length > distances.length)
-			distances = new double[z.length];
+		if (z.length > cntx.distances.length)
+			cntx.distances = new double[z.length];
+		double[] distances = cntx.distances;
 		
 		for (int i = 0; i < z.length - 1 ; i++)
 		{
@@ -237,7 +281,7 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 		double perfTime = (distances[0]/encoder.getMaxSpeed())*3600;
 		
 		for (int i = 0; i < Nr; i++) {
-		    MatchPoint xi = matchPoints.get(i);
+		    MatchPoint xi = cntx.matchPoints.get(i);
 			
 			for (int j = 0; j < Nr; j++) {
 				
@@ -245,7 +289,7 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 				
 				if (i != j)
 				{
-					MatchPoint xj = matchPoints.get(j);
+					MatchPoint xj = cntx.matchPoints.get(j);
 				 
 					// check the order of points from 0 -> 1
 					if (xi.measuredPointIndex < xj.measuredPointIndex)
@@ -254,37 +298,26 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 						//Point zt1 = z[xj.measuredPointIndex];
 						double dz = distances[xi.measuredPointIndex]; // distCalcEarth.calcDist(zt.lat, zt.lon, zt1.lat, zt1.lon);
 				
-						GHRequest req = new GHRequest(xi.y, xi.x, xj.y, xj.x);
-						req.getHints().put("ch.disable", true);
-						req.getHints().put("lm.disable", true);
-						req.setAlgorithm("dijkstrabi"); 
+						double[] transition = findTransition(cntx, xi, xj);
 						
-						try
+						if (transition != NO_TRANSITION)
 						{
-							GHResponse resp = _graphHopper.route(req);
-						
-							if (!resp.hasErrors())
-							{
-								PathWrapper path = resp.getBest();
-								/*
-								double dx = resp.getDistance();
-								double dt = Math.abs(dz - dx);
-                                								
-								value = exponentialDistribution(100*beta, dt);  // Equation 2
-								*/
-								
-								double dx = path.getDistance();
-								double dt = Math.abs(dz - dx)/distances[0]; // normalize 
-
-								double time = path.getTime();
-								//(distances[0]/1000/encoder.getMaxSpeed())*60*60*1000
-                                double dt2 = Math.abs(time - perfTime)/perfTime;
-                                								
-								value = exponentialDistribution(beta, 0.2*dt + 0.8*dt2); 
-							}
+							/*
+							double dx = resp.getDistance();
+							double dt = Math.abs(dz - dx);
+                            								
+							value = exponentialDistribution(100*beta, dt);  // Equation 2
+							*/
+							
+							double dx = transition[0];
+							double dt = Math.abs(dz - dx)/distances[0]; // normalize 
+
+							double time = transition[1];
+							//(distances[0]/1000/encoder.getMaxSpeed())*60*60*1000
+                            double dt2 = Math.abs(time - perfTime)/perfTime;
+                            								
+							value = exponentialDistribution(beta, 0.2*dt + 0.8*dt2); 
 						}
-						catch(Exception ex)
-						{}
 					}
 				}
 				
@@ -303,17 +336,19 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 		
 		RouteSegmentInfo res = null;
 
-		if (Nz > latitudes.length)
+		if (Nz > cntx.latitudes.length)
 		{
-		   latitudes = new double[Nz];
-		   longitudes = new double[Nz];
+		   cntx.latitudes = new double[Nz];
+		   cntx.longitudes = new double[Nz];
 		}
+		double[] latitudes = cntx.latitudes;
+		double[] longitudes = cntx.longitudes;
 
 		if (bestPath[0] != bestPath[1])
 		{
 			for (int i = 0; i < Nz; i++)
 			{
-				MatchPoint mp = matchPoints.get(bestPath[i]);
+				MatchPoint mp = cntx.matchPoints.get(bestPath[i]);
 				latitudes[i] = mp.y;
 				longitudes[i] = mp.x;
 			}
@@ -336,12 +371,50 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
         return 1.0 / beta * Math.exp(-x / beta); 
     }
 	
-	private MatchPoint[] findNearestPoints(double lat, double lon, int measuredPointIndex, EdgeFilter edgeFilter, List<MatchPoint> matchPoints,
-			List<Integer> roadSegments) {
-		List<QueryResult> qResults = locationIndex.findNClosest(lat, lon, edgeFilter);
+	/**
+	 * Returns the distance and time of the route between two candidates, or NO_TRANSITION if there is none.
+	 */
+	private double[] findTransition(MatchContext cntx, MatchPoint xi, MatchPoint xj) {
+		long key = ((long)xi.locationId << 32) | xj.locationId;
+		double[] transition = cntx.transitions.get(key);
+
+		if (transition == null)
+		{
+			if (Thread.currentThread().isInterrupted())
+				throw new CancellationException("The matching has been cancelled.");
+
+			transition = NO_TRANSITION;
+
+			GHRequest req = new GHRequest(xi.y, xi.x, xj.y, xj.x);
+			req.getHints().put("ch.disable", true);
+			req.getHints().put("lm.disable", true);
+			req.setAlgorithm("dijkstrabi"); 
+			
+			try
+			{
+				GHResponse resp = _graphHopper.route(req);
+			
+				if (!resp.hasErrors())
+				{
+					PathWrapper path = resp.getBest();
+					transition = new double[] { path.getDistance(), path.getTime() };
+				}
+			}
+			catch(Exception ex)
+			{}
+
+			cntx.transitions.put(key, transition);
+		}
+
+		return transition;
+	}
+	
+	private MatchPoint[] findNearestPoints(MatchContext cntx, double lat, double lon, int measuredPointIndex, double searchRadius, EdgeFilter edgeFilter) {
+		List<QueryResult> qResults = locationIndex.findNClosest(lat, lon, edgeFilter, searchRadius);
 		if (qResults.isEmpty())
 			return null;
 
+		List<MatchPoint> matchPoints = cntx.matchPoints;
 		int nMatchPoints = matchPoints.size();
 
 		for (int matchIndex = 0; matchIndex < qResults.size(); matchIndex++) {
@@ -352,18 +425,30 @@ public class HiddenMarkovMapMatcher extends AbstractMapMatcher {
 			double distance = distCalcEarth.calcDist(qr.getQueryPoint().getLat(), qr.getQueryPoint().getLon(), spLat,
 					spLon);
 
-			if (distance <= _searchRadius) {
+			if (distance <= searchRadius) {
 				
 				int edgeId = qr.getClosestEdge().getOriginalEdge();
 
-				if (!roadSegments.contains(edgeId))
-					roadSegments.add(edgeId);
+				int segmentId = cntx.roadSegments.getOrDefault(edgeId, -1);
+				if (segmentId < 0)
+				{
+					segmentId = cntx.roadSegments.size();
+					cntx.roadSegments.put(edgeId, segmentId);
+				}
 
-				MatchPoint mp = new MatchPoint(spLat, spLon);
+				MatchPoint mp = new MatchPoint(spLat, spLon, edgeId);
 				mp.distance = distance;
-                mp.segmentId = roadSegments.indexOf(edgeId);
+                mp.segmentId = segmentId;
                 mp.measuredPointIndex = measuredPointIndex;
 
+                Integer locationId = cntx.locations.get(mp);
+                if (locationId == null)
+                {
+                	locationId = cntx.locations.size();
+                	cntx.locations.put(mp, locationId);
+                }
+                mp.locationId = locationId;
+
 				matchPoints.add(mp);
 			}
 		}
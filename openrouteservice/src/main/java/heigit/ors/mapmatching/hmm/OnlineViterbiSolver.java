@@ -0,0 +1,214 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.mapmatching.hmm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Viterbi algorithm which processes the observations one by one and keeps only the undecided part of the lattice. As
+ * soon as all surviving paths share a common ancestor, the states up to this ancestor are final and are passed to
+ * the listener. If the paths do not converge within the maximum window, the most probable path is committed up to
+ * the middle of the window, so the memory needed for a sequence is bounded regardless of its length.
+ * <p>
+ * All probabilities are given as logarithms, impossible transitions as Double.NEGATIVE_INFINITY.
+ */
+public class OnlineViterbiSolver<T> {
+	public interface Listener<T> {
+		void stateCommitted(T state);
+	}
+
+	private static class Node<T> {
+		public final T state;
+		public final double probability;
+		public final int step;
+		public Node<T> parent;
+
+		public Node(T state, double probability, int step, Node<T> parent) {
+			this.state = state;
+			this.probability = probability;
+			this.step = step;
+			this.parent = parent;
+		}
+	}
+
+	private Listener<T> _listener;
+	private int _maximumWindow;
+	private List<Node<T>> _nodes = new ArrayList<Node<T>>();
+	private Node<T> _lastCommitted;
+	private int _firstStep;
+	private int _step = -1;
+
+	public OnlineViterbiSolver(Listener<T> listener, int maximumWindow) {
+		_listener = listener;
+		_maximumWindow = Math.max(2, maximumWindow);
+	}
+
+	public boolean isEmpty() {
+		return _nodes.isEmpty();
+	}
+
+	/**
+	 * Returns the number of states of the current step which are still reachable.
+	 */
+	public int size() {
+		return _nodes.size();
+	}
+
+	public T getState(int index) {
+		return _nodes.get(index).state;
+	}
+
+	/**
+	 * Starts a new sequence with the given states. The current sequence, if any, has to be flushed before.
+	 */
+	public void start(List<T> states, double[] emissionProbs) {
+		_nodes.clear();
+		_lastCommitted = null;
+		_firstStep = ++_step;
+
+		for (int i = 0; i < states.size(); i++) {
+			if (emissionProbs[i] != Double.NEGATIVE_INFINITY)
+				_nodes.add(new Node<T>(states.get(i), emissionProbs[i], _step, null));
+		}
+	}
+
+	/**
+	 * Extends the lattice by the next observation. transitionProbs[i][j] is the probability of the transition from
+	 * the i-th state of the current step (see getState) to the j-th new state. Returns the index of the predecessor
+	 * of every new state on its most probable path, or -1 for unreachable states. If none of the new states is
+	 * reachable, null is returned and the lattice is left unchanged.
+	 */
+	public int[] next(List<T> states, double[] emissionProbs, double[][] transitionProbs) {
+		int nStates = states.size();
+		int nPrevStates = _nodes.size();
+		int[] parents = new int[nStates];
+		List<Node<T>> nodes = new ArrayList<Node<T>>(nStates);
+
+		for (int j = 0; j < nStates; j++) {
+			parents[j] = -1;
+
+			if (emissionProbs[j] == Double.NEGATIVE_INFINITY)
+				continue;
+
+			double maxProb = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < nPrevStates; i++) {
+				double prob = _nodes.get(i).probability + transitionProbs[i][j];
+				if (prob > maxProb) {
+					maxProb = prob;
+					parents[j] = i;
+				}
+			}
+
+			if (parents[j] >= 0)
+				nodes.add(new Node<T>(states.get(j), maxProb + emissionProbs[j], _step + 1, _nodes.get(parents[j])));
+		}
+
+		if (nodes.isEmpty())
+			return null;
+
+		_nodes = nodes;
+		_step++;
+
+		return parents;
+	}
+
+	/**
+	 * Passes all states which can no longer change to the listener.
+	 */
+	public void commit() {
+		if (_nodes.isEmpty())
+			return;
+
+		Node<T> node = findCommonAncestor();
+
+		int lastStep = _lastCommitted == null ? _firstStep - 1 : _lastCommitted.step;
+		if ((node == null || node == _lastCommitted) && _step - lastStep > _maximumWindow) {
+			node = ancestor(findBestNode(), _step - _maximumWindow / 2);
+
+			// drop all paths which do not pass the committed state
+			List<Node<T>> nodes = new ArrayList<Node<T>>(_nodes.size());
+			for (Node<T> n : _nodes) {
+				if (ancestor(n, node.step) == node)
+					nodes.add(n);
+			}
+			_nodes = nodes;
+		}
+
+		if (node != null && node != _lastCommitted)
+			commitPath(node);
+	}
+
+	/**
+	 * Commits the most probable path up to the current step and clears the lattice.
+	 */
+	public void flush() {
+		if (!_nodes.isEmpty())
+			commitPath(findBestNode());
+
+		_nodes.clear();
+		_lastCommitted = null;
+	}
+
+	private Node<T> findBestNode() {
+		Node<T> best = null;
+		for (Node<T> node : _nodes) {
+			if (best == null || node.probability > best.probability)
+				best = node;
+		}
+
+		return best;
+	}
+
+	private Node<T> findCommonAncestor() {
+		Map<Node<T>, Boolean> frontier = new IdentityHashMap<Node<T>, Boolean>(_nodes.size());
+		for (Node<T> node : _nodes)
+			frontier.put(node, Boolean.TRUE);
+
+		while (frontier.size() > 1) {
+			Map<Node<T>, Boolean> parents = new IdentityHashMap<Node<T>, Boolean>(frontier.size());
+			for (Node<T> node : frontier.keySet()) {
+				// several roots of the sequence have survived
+				if (node.parent == null)
+					return null;
+				parents.put(node.parent, Boolean.TRUE);
+			}
+			frontier = parents;
+		}
+
+		return frontier.keySet().iterator().next();
+	}
+
+	private Node<T> ancestor(Node<T> node, int step) {
+		while (node.step > step)
+			node = node.parent;
+
+		return node;
+	}
+
+	private void commitPath(Node<T> node) {
+		List<Node<T>> path = new ArrayList<Node<T>>(node.step - _firstStep + 1);
+		for (Node<T> n = node; n != null && n != _lastCommitted; n = n.parent)
+			path.add(n);
+		Collections.reverse(path);
+
+		for (Node<T> n : path)
+			_listener.stateCommitted(n.state);
+
+		// the committed part of the lattice is no longer referenced and can be collected
+		node.parent = null;
+		_lastCommitted = node;
+	}
+}
@@ -0,0 +1,399 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.mapmatching.hmm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+
+import com.carrotsearch.hppc.IntHashSet;
+import com.carrotsearch.hppc.IntObjectHashMap;
+import com.graphhopper.GraphHopper;
+import com.graphhopper.routing.QueryGraph;
+import com.graphhopper.routing.util.DefaultEdgeFilter;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.NodeAccess;
+import com.graphhopper.storage.index.LocationIndexTree;
+import com.graphhopper.storage.index.QueryResult;
+import com.graphhopper.util.ByteArrayBuffer;
+import com.graphhopper.util.DistanceCalc;
+import com.graphhopper.util.DistanceCalcEarth;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.PointList;
+import com.vividsolutions.jts.geom.Coordinate;
+
+import heigit.ors.mapmatching.LocationIndexMatch;
+import heigit.ors.mapmatching.LocationIndexMatchCache;
+
+/**
+ * Matches long GPS tracks to the road network with a hidden Markov model as described by Newson and Krumm (see
+ * HiddenMarkovMapMatcher). The track is processed point by point with an OnlineViterbiSolver, so the memory used per
+ * track is bounded and the matched route is passed to the listener piece by piece as soon as it is final.
+ * <p>
+ * The transition probabilities between two consecutive sets of candidates are computed with one bounded search per
+ * candidate of the first set, which settles all candidates of the second set at once, instead of a route per pair.
+ * A track is split where none of the candidates can be reached from the previous ones.
+ * <p>
+ * The matching is cancelled when the thread is interrupted or the deadline has passed. Both are checked for every
+ * point of the track and every node settled by the searches, so that a cancelled track releases its thread soon.
+ */
+public class TrackMatcher {
+	public interface Listener {
+		/**
+		 * Called for every matched part of the track in order. points starts with the last point of the previous part,
+		 * unless a new section of the track begins. edges are the edges of the part in order, possibly virtual ones
+		 * of a query graph, and are empty for a new section. distance is given in meters, time in milliseconds.
+		 */
+		void pathMatched(PointList points, List<EdgeIteratorState> edges, boolean newSection, double distance, long time);
+	}
+
+	private static class Candidate {
+		public final QueryResult queryResult;
+		public PointList points;
+		public List<EdgeIteratorState> edges;
+		public double distance;
+		public long time;
+
+		public Candidate(QueryResult qr) {
+			queryResult = qr;
+		}
+	}
+
+	private static class SearchEntry implements Comparable<SearchEntry> {
+		public final int edge;
+		public final int adjNode;
+		public final double weight;
+		public final double distance;
+		public final long time;
+		public final SearchEntry parent;
+
+		public SearchEntry(int edge, int adjNode, double weight, double distance, long time, SearchEntry parent) {
+			this.edge = edge;
+			this.adjNode = adjNode;
+			this.weight = weight;
+			this.distance = distance;
+			this.time = time;
+			this.parent = parent;
+		}
+
+		@Override
+		public int compareTo(SearchEntry other) {
+			return Double.compare(weight, other.weight);
+		}
+	}
+
+	private Graph _graph;
+	private LocationIndexMatch _locationIndex;
+	private LocationIndexMatchCache _locationCache;
+	private FlagEncoder _encoder;
+	private Weighting _weighting;
+	private EdgeFilter _edgeFilter;
+	private DistanceCalc _distCalc = new DistanceCalcEarth();
+	private ByteArrayBuffer _buffer = new ByteArrayBuffer();
+	private boolean _includeElevation;
+	private double _searchRadius = 50;
+	private double _sigma = 25;
+	private double _beta = 2.0;
+	private int _maximumVisitedNodes = 10000;
+	private int _windowSize = 50;
+	private long _deadline = Long.MAX_VALUE;
+
+	/**
+	 * The weighting is used for the searches between the candidates. It must not depend on the previous edge, as the
+	 * searches are node based.
+	 */
+	public TrackMatcher(GraphHopper gh, FlagEncoder encoder, Weighting weighting, EdgeFilter edgeFilter) {
+		_graph = gh.getGraphHopperStorage().getBaseGraph();
+		_locationIndex = new LocationIndexMatch(gh.getGraphHopperStorage(), (LocationIndexTree) gh.getLocationIndex());
+		_encoder = encoder;
+		_weighting = weighting;
+		_edgeFilter = edgeFilter == null ? new DefaultEdgeFilter(encoder) : edgeFilter;
+		_includeElevation = gh.hasElevation();
+	}
+
+	/**
+	 * Sets the radius in meters in which candidates of a GPS point are searched. The standard deviation of the GPS
+	 * error is assumed to be half of it.
+	 */
+	public void setSearchRadius(double radius) {
+		_searchRadius = radius;
+		_sigma = radius / 2;
+	}
+
+	public void setMaximumVisitedNodes(int value) {
+		_maximumVisitedNodes = value;
+	}
+
+	public void setWindowSize(int value) {
+		_windowSize = value;
+	}
+
+	public void setIncludeElevation(boolean value) {
+		_includeElevation = value;
+	}
+
+	/**
+	 * Sets the time in milliseconds since the epoch after which the matching is cancelled.
+	 */
+	public void setDeadline(long deadline) {
+		_deadline = deadline;
+	}
+
+	/**
+	 * Sets a cache of candidates shared with other tracks matched with the same parameters, or null.
+	 */
+	public void setLocationCache(LocationIndexMatchCache cache) {
+		_locationCache = cache != null && cache.isValidFor(_graph) ? cache : null;
+	}
+
+	/**
+	 * @throws CancellationException if the thread has been interrupted or the deadline has passed
+	 */
+	public void match(Coordinate[] locations, final Listener listener) {
+		OnlineViterbiSolver<Candidate> solver = new OnlineViterbiSolver<Candidate>(new OnlineViterbiSolver.Listener<Candidate>() {
+			@Override
+			public void stateCommitted(Candidate state) {
+				if (state.points == null) {
+					PointList points = new PointList(1, _includeElevation);
+					addPoint(points, state.queryResult);
+					listener.pathMatched(points, Collections.<EdgeIteratorState>emptyList(), true, 0, 0);
+				} else {
+					listener.pathMatched(state.points, state.edges, false, state.distance, state.time);
+				}
+			}
+		}, _windowSize);
+
+		Coordinate prevLocation = null;
+
+		for (Coordinate location : locations) {
+			checkCancelled();
+
+			List<Candidate> candidates = findCandidates(location);
+			// GPS outliers without any road nearby are skipped
+			if (candidates.isEmpty())
+				continue;
+
+			double[] emissionProbs = new double[candidates.size()];
+			for (int i = 0; i < emissionProbs.length; i++)
+				emissionProbs[i] = emissionLogProbability(candidates.get(i).queryResult.getQueryDistance());
+
+			if (solver.isEmpty()) {
+				solver.start(candidates, emissionProbs);
+			} else {
+				double linearDistance = _distCalc.calcDist(prevLocation.y, prevLocation.x, location.y, location.x);
+
+				if (!computeTransitions(solver, candidates, emissionProbs, linearDistance)) {
+					solver.flush();
+					solver.start(candidates, emissionProbs);
+				}
+			}
+
+			solver.commit();
+			prevLocation = location;
+		}
+
+		solver.flush();
+	}
+
+	private List<Candidate> findCandidates(Coordinate location) {
+		List<QueryResult> qResults = _locationCache == null ? _locationIndex.findNClosest(location.y, location.x, _edgeFilter, _searchRadius) : _locationCache.findNClosest(_locationIndex, location.y, location.x, _edgeFilter, _searchRadius);
+		List<Candidate> candidates = new ArrayList<Candidate>(qResults.size());
+
+		for (QueryResult qr : qResults) {
+			if (qr.isValid() && qr.getQueryDistance() <= _searchRadius)
+				candidates.add(new Candidate(qr));
+		}
+
+		return candidates;
+	}
+
+	private boolean computeTransitions(OnlineViterbiSolver<Candidate> solver, List<Candidate> candidates, double[] emissionProbs, double linearDistance) {
+		int nPrev = solver.size();
+		int nNext = candidates.size();
+
+		// query results are changed by the lookup, so every query graph gets its own copies
+		List<QueryResult> queryResults = new ArrayList<QueryResult>(nPrev + nNext);
+		for (int i = 0; i < nPrev; i++)
+			queryResults.add(copy(solver.getState(i).queryResult));
+		for (int j = 0; j < nNext; j++)
+			queryResults.add(copy(candidates.get(j).queryResult));
+
+		QueryGraph queryGraph = new QueryGraph(_graph);
+		queryGraph.lookup(queryResults, _buffer);
+
+		IntHashSet targets = new IntHashSet(nNext);
+		for (int j = 0; j < nNext; j++)
+			targets.add(queryResults.get(nPrev + j).getClosestNode());
+
+		EdgeExplorer explorer = queryGraph.createEdgeExplorer(new DefaultEdgeFilter(_encoder, false, true));
+		double maxDistance = 2 * linearDistance + 4 * _searchRadius;
+
+		double[][] transitionProbs = new double[nPrev][nNext];
+		List<IntObjectHashMap<SearchEntry>> searches = new ArrayList<IntObjectHashMap<SearchEntry>>(nPrev);
+
+		for (int i = 0; i < nPrev; i++) {
+			IntObjectHashMap<SearchEntry> entries = search(explorer, queryResults.get(i).getClosestNode(), targets, maxDistance);
+			searches.add(entries);
+
+			for (int j = 0; j < nNext; j++) {
+				SearchEntry entry = entries.get(queryResults.get(nPrev + j).getClosestNode());
+				transitionProbs[i][j] = entry == null ? Double.NEGATIVE_INFINITY : transitionLogProbability(entry.distance, linearDistance);
+			}
+		}
+
+		int[] parents = solver.next(candidates, emissionProbs, transitionProbs);
+		if (parents == null)
+			return false;
+
+		for (int j = 0; j < nNext; j++) {
+			if (parents[j] < 0)
+				continue;
+
+			Candidate candidate = candidates.get(j);
+			QueryResult from = queryResults.get(parents[j]);
+			SearchEntry entry = searches.get(parents[j]).get(queryResults.get(nPrev + j).getClosestNode());
+
+			candidate.distance = entry.distance;
+			candidate.time = entry.time;
+			extractPath(queryGraph, from.getClosestNode(), entry, candidate);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Dijkstra search from the given node which stops as soon as all targets are settled, the distance limit is
+	 * exceeded or the maximum number of nodes has been visited.
+	 */
+	private IntObjectHashMap<SearchEntry> search(EdgeExplorer explorer, int fromNode, IntHashSet targets, double maxDistance) {
+		IntObjectHashMap<SearchEntry> entries = new IntObjectHashMap<SearchEntry>();
+		PriorityQueue<SearchEntry> queue = new PriorityQueue<SearchEntry>();
+
+		SearchEntry start = new SearchEntry(EdgeIterator.NO_EDGE, fromNode, 0, 0, 0, null);
+		entries.put(fromNode, start);
+		queue.add(start);
+
+		int nTargets = targets.size();
+		int nVisited = 0;
+
+		while (!queue.isEmpty()) {
+			SearchEntry current = queue.poll();
+			// outdated entry of a node which has been reached with a lower weight in the meantime
+			if (entries.get(current.adjNode) != current)
+				continue;
+
+			if (targets.contains(current.adjNode) && --nTargets == 0)
+				break;
+			if (++nVisited > _maximumVisitedNodes)
+				break;
+
+			checkCancelled();
+
+			EdgeIterator iter = explorer.setBaseNode(current.adjNode);
+			while (iter.next()) {
+				if (iter.getEdge() == current.edge || !_edgeFilter.accept(iter))
+					continue;
+
+				double weight = _weighting.calcWeight(iter, false, current.edge);
+				if (Double.isInfinite(weight))
+					continue;
+
+				double distance = current.distance + iter.getDistance();
+				if (distance > maxDistance)
+					continue;
+
+				weight += current.weight;
+				SearchEntry entry = entries.get(iter.getAdjNode());
+				if (entry == null || entry.weight > weight) {
+					entry = new SearchEntry(iter.getEdge(), iter.getAdjNode(), weight, distance, current.time + _weighting.calcMillis(iter, false, current.edge), current);
+					entries.put(iter.getAdjNode(), entry);
+					queue.add(entry);
+				}
+			}
+		}
+
+		return entries;
+	}
+
+	private void checkCancelled() {
+		if (Thread.currentThread().isInterrupted() || System.currentTimeMillis() > _deadline)
+			throw new CancellationException("The matching of the track has been cancelled.");
+	}
+
+	/**
+	 * Sets the edges of the path to the candidate and its points, from the given node to the adjacent node of entry.
+	 */
+	private void extractPath(QueryGraph queryGraph, int fromNode, SearchEntry entry, Candidate candidate) {
+		List<EdgeIteratorState> edges = new ArrayList<EdgeIteratorState>();
+		for (SearchEntry e = entry; e.edge != EdgeIterator.NO_EDGE; e = e.parent)
+			edges.add(queryGraph.getEdgeIteratorState(e.edge, e.adjNode));
+		Collections.reverse(edges);
+
+		PointList points = new PointList(edges.size() + 1, _includeElevation);
+		NodeAccess nodeAccess = queryGraph.getNodeAccess();
+		if (_includeElevation)
+			points.add(nodeAccess.getLat(fromNode), nodeAccess.getLon(fromNode), nodeAccess.getEle(fromNode));
+		else
+			points.add(nodeAccess.getLat(fromNode), nodeAccess.getLon(fromNode));
+
+		for (EdgeIteratorState edge : edges) {
+			// pillar nodes and the adjacent node
+			PointList edgePoints = edge.fetchWayGeometry(2);
+			for (int k = 0; k < edgePoints.size(); k++) {
+				if (_includeElevation)
+					points.add(edgePoints.getLat(k), edgePoints.getLon(k), edgePoints.getEle(k));
+				else
+					points.add(edgePoints.getLat(k), edgePoints.getLon(k));
+			}
+		}
+
+		candidate.points = points;
+		candidate.edges = edges;
+	}
+
+	private void addPoint(PointList points, QueryResult qr) {
+		if (_includeElevation)
+			points.add(qr.getSnappedPoint().getLat(), qr.getSnappedPoint().getLon(), qr.getSnappedPoint().getEle());
+		else
+			points.add(qr.getSnappedPoint().getLat(), qr.getSnappedPoint().getLon());
+	}
+
+	private QueryResult copy(QueryResult qr) {
+		QueryResult res = new QueryResult(qr.getQueryPoint().getLat(), qr.getQueryPoint().getLon());
+		res.setQueryDistance(qr.getQueryDistance());
+		res.setClosestNode(qr.getClosestNode());
+		res.setClosestEdge(qr.getClosestEdge());
+		res.setWayIndex(qr.getWayIndex());
+		res.setSnappedPosition(qr.getSnappedPosition());
+		res.calcSnappedPoint(_distCalc, _buffer);
+
+		return res;
+	}
+
+	// Equation 1 of Newson and Krumm
+	private double emissionLogProbability(double distance) {
+		double v = distance / _sigma;
+		return -0.5 * v * v - Math.log(Math.sqrt(2 * Math.PI) * _sigma);
+	}
+
+	// Equation 2 of Newson and Krumm
+	private double transitionLogProbability(double routeDistance, double linearDistance) {
+		return -Math.abs(routeDistance - linearDistance) / _beta - Math.log(_beta);
+	}
+}
@@ -11,6 +11,8 @@
  *|----------------------------------------------------------------------------------------------*/
 package heigit.ors.matrix;
 
+import java.util.Arrays;
+
 public class MatrixLocations {
 	private int[] _nodeIds;
 	private ResolvedLocation[] _locations;
@@ -22,6 +24,13 @@ public class MatrixLocations {
 		_locations = new ResolvedLocation[size];
 	}
 
+	private MatrixLocations(int[] nodeIds, ResolvedLocation[] locations, boolean hasValidNodes)
+	{
+		_nodeIds = nodeIds;
+		_locations = locations;
+		_hasValidNodes = hasValidNodes;
+	}
+
 	public ResolvedLocation[] getLocations()
 	{
 		return _locations;
@@ -55,4 +64,26 @@ public class MatrixLocations {
 	{
 		return _hasValidNodes;
 	}
+
+	/**
+	 * Returns the locations from index to index + count as a separate object, e.g. the sources of a matrix tile.
+	 */
+	public MatrixLocations getRange(int index, int count)
+	{
+		if (index == 0 && count == _nodeIds.length)
+			return this;
+
+		int[] nodeIds = Arrays.copyOfRange(_nodeIds, index, index + count);
+		boolean hasValidNodes = false;
+		for (int nodeId : nodeIds)
+		{
+			if (nodeId >= 0)
+			{
+				hasValidNodes = true;
+				break;
+			}
+		}
+
+		return new MatrixLocations(nodeIds, Arrays.copyOfRange(_locations, index, index + count), hasValidNodes);
+	}
 }
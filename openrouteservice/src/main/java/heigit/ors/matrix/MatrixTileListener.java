@@ -0,0 +1,36 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.matrix;
+
+import heigit.ors.exceptions.StatusCodeException;
+
+/**
+ * Receives the rows of a matrix while it is being computed, so that large tables can be written to the client tile by
+ * tile instead of being kept in memory as a whole.
+ */
+public interface MatrixTileListener {
+	public void begin(ResolvedLocation[] sources, ResolvedLocation[] destinations) throws Exception;
+
+	/**
+	 * Called for every computed tile. The tables of the tile hold rowsCount rows starting with the source at firstRow.
+	 * The arrays are reused for the next tile, so they must not be referenced after this method returns.
+	 */
+	public void tileComputed(MatrixResult tile, int firstRow, int rowsCount) throws Exception;
+
+	public void end() throws Exception;
+
+	/**
+	 * Called instead of end() if the computation fails after begin(). The status of the response may already have been
+	 * sent with the first tiles, so the failure has to be reported inside the response body.
+	 */
+	public void error(StatusCodeException ex) throws Exception;
+}
@@ -12,8 +12,7 @@ import com.graphhopper.util.EdgeIterator;
 import com.graphhopper.util.EdgeIteratorState;
 
 import heigit.ors.common.DistanceUnit;
-import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPEntry;
-import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPEntryItem;
+import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPStorage;
 import heigit.ors.util.DistanceUnitUtil;
 
 public class MultiTreeMetricsExtractor {
@@ -72,7 +71,7 @@ public class MultiTreeMetricsExtractor {
 		}
 	}
 
-	public void calcValues(MultiTreeSPEntry[] targets, MatrixLocations srcData, MatrixLocations dstData, float[] times,
+	public void calcValues(MultiTreeSPStorage storage, int[] targets, MatrixLocations srcData, MatrixLocations dstData, float[] times,
 			float[] distances, float[] weights) throws Exception {
 		if (targets == null)
 			throw new IllegalStateException("Target destinations not set");
@@ -85,7 +84,7 @@ public class MultiTreeMetricsExtractor {
 		boolean calcDistance = MatrixMetricsType.isSet(_metrics, MatrixMetricsType.Distance);
 		boolean calcWeight = MatrixMetricsType.isSet(_metrics, MatrixMetricsType.Weight);
 		MetricsItem edgeMetricsItem = null;
-		MultiTreeSPEntryItem sptItem = null;
+		int sptEdge, sptParent;
 
 		for (int i = 0; i < targets.length; ++i) {
 			// index = i * dstData.size();
@@ -98,27 +97,29 @@ public class MultiTreeMetricsExtractor {
 				index = j * dstData.size() + i;
 
 				if (srcData.getNodeId(j) != -1) {
-					MultiTreeSPEntry targetEntry = targets[i];
+					int targetEntry = targets[i];
 
-					if (targetEntry != null) {
+					if (targetEntry != MultiTreeSPStorage.NO_SLOT) {
 						pathTime = 0.0;
 						pathDistance = 0.0;
 						pathWeight = 0.0;
 
-						sptItem = targetEntry.getItem(srcNode);
+						sptEdge = storage.getEdge(targetEntry, srcNode);
+						sptParent = storage.getParent(targetEntry, srcNode);
 
-						if (sptItem.parent != null) {
-							while (EdgeIterator.Edge.isValid(sptItem.edge)) {
+						if (sptParent != MultiTreeSPStorage.NO_SLOT) {
+							while (EdgeIterator.Edge.isValid(sptEdge)) {
+								int adjNode = storage.getAdjNode(targetEntry);
 								edgeMetricsItem = null;
 								if (_edgeMetrics != null) {
-									entryHash = getMultiTreeSPEntryHash(targetEntry, srcNode);
+									entryHash = getMultiTreeSPEntryHash(adjNode, sptEdge);
 									edgeMetricsItem = _edgeMetrics.get(entryHash);
 								}
 
 								if (edgeMetricsItem == null) {
 									if (_chGraph != null) {
 										CHEdgeIteratorState iterState = (CHEdgeIteratorState) _graph
-												.getEdgeIteratorState(sptItem.edge, targetEntry.adjNode);
+												.getEdgeIteratorState(sptEdge, adjNode);
 
 										if (calcWeight || calcTime || _unpackDistance) {
 											if (iterState.isShortcut()) {
@@ -146,8 +147,8 @@ public class MultiTreeMetricsExtractor {
 													: DistanceUnitUtil.convert(iterState.getDistance(),
 															DistanceUnit.Meters, _distUnits);
 									} else {
-										EdgeIteratorState iter = _graph.getEdgeIteratorState(sptItem.edge,
-												targetEntry.adjNode);
+										EdgeIteratorState iter = _graph.getEdgeIteratorState(sptEdge,
+												adjNode);
 
 										if (calcDistance)
 											_edgeDistance = (_distUnits == DistanceUnit.Meters) ? iter.getDistance()
@@ -182,12 +183,13 @@ public class MultiTreeMetricsExtractor {
 										pathWeight += edgeMetricsItem.weight;
 								}
 
-								targetEntry = sptItem.parent;
+								targetEntry = sptParent;
 
-								if (targetEntry == null)
+								if (targetEntry == MultiTreeSPStorage.NO_SLOT)
 									break;
 
-								sptItem = targetEntry.getItem(srcNode);
+								sptEdge = storage.getEdge(targetEntry, srcNode);
+								sptParent = storage.getParent(targetEntry, srcNode);
 							}
 						}
 					}
@@ -206,8 +208,8 @@ public class MultiTreeMetricsExtractor {
 		}
 	}
 
-	private long getMultiTreeSPEntryHash(MultiTreeSPEntry entry, int sptEntry) {
-		return entry.adjNode * 31 + entry.getItem(sptEntry).edge;
+	private long getMultiTreeSPEntryHash(int adjNode, int edge) {
+		return adjNode * 31 + edge;
 	}
 
 	private void extractEdgeValues(CHEdgeIteratorState iterState, boolean reverse) {
@@ -5,7 +5,11 @@ import com.graphhopper.routing.util.FlagEncoder;
 import com.graphhopper.routing.weighting.Weighting;
 import com.graphhopper.storage.Graph;
 
+import heigit.ors.matrix.MatrixLocations;
+import heigit.ors.matrix.MatrixMetricsType;
 import heigit.ors.matrix.MatrixRequest;
+import heigit.ors.matrix.MatrixResult;
+import heigit.ors.matrix.MatrixTileListener;
 
 public abstract class AbstractMatrixAlgorithm implements MatrixAlgorithm {
   protected GraphHopper _graphHopper;
@@ -20,4 +24,57 @@ public abstract class AbstractMatrixAlgorithm implements MatrixAlgorithm {
 	  _encoder = encoder;
 	  _weighting = weighting;
   }
+
+  @Override
+  public MatrixResult compute(MatrixLocations srcData, MatrixLocations dstData, int metrics) throws Exception
+  {
+	  MatrixResult mtxResult = new MatrixResult(srcData.getLocations(), dstData.getLocations());
+	  setTables(mtxResult, metrics, srcData.size() * dstData.size());
+
+	  prepareRows(srcData, dstData);
+	  computeRows(srcData, dstData, 0, srcData.size(), mtxResult.getTable(MatrixMetricsType.Duration), mtxResult.getTable(MatrixMetricsType.Distance), mtxResult.getTable(MatrixMetricsType.Weight));
+
+	  return mtxResult;
+  }
+
+  @Override
+  public void compute(MatrixLocations srcData, MatrixLocations dstData, int metrics, int tileSize, MatrixTileListener listener) throws Exception
+  {
+	  int tileRows = Math.max(1, Math.min(tileSize, srcData.size()));
+	  MatrixResult tile = new MatrixResult(srcData.getLocations(), dstData.getLocations());
+	  // the tables are allocated once and reused for all tiles
+	  setTables(tile, metrics, tileRows * dstData.size());
+
+	  prepareRows(srcData, dstData);
+
+	  for (int firstRow = 0; firstRow < srcData.size(); firstRow += tileRows)
+	  {
+		  int rowsCount = Math.min(tileRows, srcData.size() - firstRow);
+		  computeRows(srcData, dstData, firstRow, rowsCount, tile.getTable(MatrixMetricsType.Duration), tile.getTable(MatrixMetricsType.Distance), tile.getTable(MatrixMetricsType.Weight));
+		  listener.tileComputed(tile, firstRow, rowsCount);
+	  }
+  }
+
+  /**
+   * Called once before the rows of a matrix are computed, e.g. to build search structures which are shared by all tiles.
+   */
+  protected void prepareRows(MatrixLocations srcData, MatrixLocations dstData) throws Exception
+  {
+  }
+
+  /**
+   * Computes rowsCount rows of the matrix starting with the source at firstRow. The values of the first row are written
+   * to the beginning of the given tables, unused tables are null.
+   */
+  protected abstract void computeRows(MatrixLocations srcData, MatrixLocations dstData, int firstRow, int rowsCount, float[] times, float[] distances, float[] weights) throws Exception;
+
+  private void setTables(MatrixResult mtxResult, int metrics, int tableSize)
+  {
+	  if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Duration))
+		  mtxResult.setTable(MatrixMetricsType.Duration, new float[tableSize]);
+	  if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Distance))
+		  mtxResult.setTable(MatrixMetricsType.Distance, new float[tableSize]);
+	  if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Weight))
+		  mtxResult.setTable(MatrixMetricsType.Weight, new float[tableSize]);
+  }
 }
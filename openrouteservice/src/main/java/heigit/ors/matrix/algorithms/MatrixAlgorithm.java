@@ -19,9 +19,16 @@ import com.graphhopper.storage.Graph;
 import heigit.ors.matrix.MatrixLocations;
 import heigit.ors.matrix.MatrixRequest;
 import heigit.ors.matrix.MatrixResult;
+import heigit.ors.matrix.MatrixTileListener;
 
 public interface MatrixAlgorithm {
   public void init(MatrixRequest req, GraphHopper gh, Graph graph, FlagEncoder encoder, Weighting weighting);
   
   public MatrixResult compute(MatrixLocations srcData, MatrixLocations dstData, int metrics) throws Exception;
+  
+  /**
+   * Computes the matrix in tiles of tileSize source rows and passes every tile to the listener. Calling begin() and
+   * end() of the listener is left to the caller.
+   */
+  public void compute(MatrixLocations srcData, MatrixLocations dstData, int metrics, int tileSize, MatrixTileListener listener) throws Exception;
 }
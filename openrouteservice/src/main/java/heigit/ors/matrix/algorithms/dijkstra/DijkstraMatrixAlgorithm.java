@@ -11,91 +11,197 @@
  *|----------------------------------------------------------------------------------------------*/
 package heigit.ors.matrix.algorithms.dijkstra;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.graphhopper.GraphHopper;
+import com.graphhopper.routing.QueryGraph;
 import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.util.HintsMap;
 import com.graphhopper.routing.util.TraversalMode;
 import com.graphhopper.routing.weighting.Weighting;
 import com.graphhopper.storage.Graph;
 import com.graphhopper.storage.SPTEntry;
+import com.graphhopper.util.Helper;
 
-import heigit.ors.matrix.MatrixMetricsType;
+import heigit.ors.common.DistanceUnit;
 import heigit.ors.matrix.MatrixRequest;
-import heigit.ors.matrix.MatrixResult;
 import heigit.ors.matrix.MatrixLocations;
 import heigit.ors.matrix.PathMetricsExtractor;
 import heigit.ors.matrix.algorithms.AbstractMatrixAlgorithm;
 import heigit.ors.routing.algorithms.DijkstraOneToManyAlgorithm;
+import heigit.ors.routing.graphhopper.extensions.ORSWeightingFactory;
+import heigit.ors.routing.traffic.RealTrafficDataProvider;
 import heigit.ors.services.matrix.MatrixServiceSettings;
 
+/**
+ * Computes the rows of a matrix with one Dijkstra search per source. The rows of a tile are split across the workers
+ * of a shared pool. The workers only read the query graph; every worker uses its own algorithm, edge explorers,
+ * weighting and metrics extractor, since the ORS weightings keep per-instance state.
+ */
 public class DijkstraMatrixAlgorithm extends AbstractMatrixAlgorithm {
+	private static ForkJoinPool _pool;
+
 	private PathMetricsExtractor _pathMetricsExtractor;
+	private int _metrics;
+	private DistanceUnit _units;
+	private String _weightingName;
 
 	public void init(MatrixRequest req, GraphHopper gh, Graph graph, FlagEncoder encoder, Weighting weighting)
 	{
 		super.init(req, gh, graph, encoder, weighting);
 
+		_metrics = req.getMetrics();
+		_units = req.getUnits();
+		_weightingName = Helper.isEmpty(req.getWeightingMethod()) ? "fastest" : req.getWeightingMethod();
+		// the explorer cache of a query graph is a plain map, explorers must be created per worker instead
+		if (_graph instanceof QueryGraph)
+			((QueryGraph)_graph).setUseEdgeExplorerCache(false);
 		_pathMetricsExtractor = new PathMetricsExtractor(req.getMetrics(), _graph, _encoder, _weighting, req.getUnits());
 	}
 
-	@Override
-	public MatrixResult compute(MatrixLocations srcData, MatrixLocations dstData, int metrics) throws Exception {
-		MatrixResult mtxResult = new MatrixResult(srcData.getLocations(), dstData.getLocations());
+	private static synchronized ForkJoinPool getPool()
+	{
+		if (_pool == null)
+			_pool = new ForkJoinPool(MatrixServiceSettings.getComputationThreads());
 
-		float[] times = null; 
-		float[] distances = null; 
-		float[] weights = null;
+		return _pool;
+	}
 
-		int tableSize = srcData.size() * dstData.size();
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Duration))
-			times = new float[tableSize];
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Distance)) 
-			distances = new float[tableSize];
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Weight))
-			weights = new float[tableSize];
+	/**
+	 * Stops the workers of the pool, e.g. when the application is shut down.
+	 */
+	public static synchronized void shutdownPool()
+	{
+		if (_pool != null)
+		{
+			_pool.shutdownNow();
+			_pool = null;
+		}
+	}
 
+	@Override
+	protected void computeRows(MatrixLocations srcData, MatrixLocations dstData, int firstRow, int rowsCount, float[] times, float[] distances, float[] weights) throws Exception {
 		if (!srcData.hasValidNodes() || !dstData.hasValidNodes())
 		{
-			for (int srcIndex = 0; srcIndex < srcData.size(); srcIndex++) 
-				_pathMetricsExtractor.setEmptyValues(srcIndex, srcData, dstData, times, distances, weights);
+			for (int row = 0; row < rowsCount; row++) 
+				_pathMetricsExtractor.setEmptyValues(row, srcData, dstData, times, distances, weights);
 		}
 		else
 		{
-			DijkstraOneToManyAlgorithm algorithm = new DijkstraOneToManyAlgorithm(_graph, _weighting, TraversalMode.NODE_BASED);
-			algorithm.prepare(srcData.getNodeIds(),  dstData.getNodeIds());
-			algorithm.setMaxVisitedNodes(MatrixServiceSettings.getMaximumVisitedNodes());
-			
-			int sourceId = -1;
+			int endRow = firstRow + rowsCount;
+			AtomicInteger nextSource = new AtomicInteger(firstRow);
+			int nWorkers = Math.min(MatrixServiceSettings.getMaximumThreadsPerRequest(), rowsCount);
 
-			for (int srcIndex = 0; srcIndex < srcData.size(); srcIndex++) {
-				sourceId = srcData.getNodeId(srcIndex);
+			if (nWorkers <= 1)
+			{
+				computeRows(nextSource, firstRow, endRow, srcData, dstData, times, distances, weights, _weighting);
+			}
+			else
+			{
+				// the number of workers limits the share of the pool a single request can occupy
+				List<Future<Void>> futures = new ArrayList<Future<Void>>(nWorkers);
+				for (int i = 0; i < nWorkers; i++)
+					futures.add(getPool().submit(new SourceRowsTask(nextSource, firstRow, endRow, srcData, dstData, times, distances, weights)));
 
-				if (sourceId == -1)
+				try
 				{
-					_pathMetricsExtractor.setEmptyValues(srcIndex, srcData, dstData, times, distances, weights);
+					for (Future<Void> future : futures)
+						future.get();
 				}
-				else
+				catch (ExecutionException ex)
 				{
-					algorithm.reset();
-					SPTEntry[] targets = algorithm.calcPaths(sourceId, dstData.getNodeIds());
+					// let the remaining workers stop after their current row
+					nextSource.set(endRow);
+
+					if (ex.getCause() instanceof Exception)
+						throw (Exception)ex.getCause();
+					throw ex;
+				}
+			}
+		}
+	}
 
-					if (algorithm.getFoundTargets() != algorithm.getTargetsCount())
-						throw new Exception("Search exceeds the limit of visited nodes.");
+	/**
+	 * Computes the rows of the matrix until no source before endRow is left. Every worker has its own algorithm, weighting
+	 * and metrics extractor, all workers write to distinct rows of the shared tables.
+	 */
+	private void computeRows(AtomicInteger nextSource, int firstRow, int endRow, MatrixLocations srcData, MatrixLocations dstData, float[] times, float[] distances, float[] weights, Weighting weighting) throws Exception
+	{
+		DijkstraOneToManyAlgorithm algorithm = new DijkstraOneToManyAlgorithm(_graph, weighting, TraversalMode.NODE_BASED);
+		algorithm.prepare(srcData.getNodeIds(),  dstData.getNodeIds());
+		algorithm.setMaxVisitedNodes(MatrixServiceSettings.getMaximumVisitedNodes());
 
-					if (targets != null)
-					{
-						_pathMetricsExtractor.calcValues(srcIndex, targets, srcData, dstData, times, distances, weights);
-					}
+		PathMetricsExtractor pathMetricsExtractor = new PathMetricsExtractor(_metrics, _graph, _encoder, weighting, _units);
+
+		int sourceId = -1;
+		int srcIndex;
+
+		while ((srcIndex = nextSource.getAndIncrement()) < endRow) {
+			sourceId = srcData.getNodeId(srcIndex);
+
+			if (sourceId == -1)
+			{
+				pathMetricsExtractor.setEmptyValues(srcIndex - firstRow, srcData, dstData, times, distances, weights);
+			}
+			else
+			{
+				algorithm.reset();
+				SPTEntry[] targets = algorithm.calcPaths(sourceId, dstData.getNodeIds());
+
+				if (algorithm.getFoundTargets() != algorithm.getTargetsCount())
+					throw new Exception("Search exceeds the limit of visited nodes.");
+
+				if (targets != null)
+				{
+					pathMetricsExtractor.calcValues(srcIndex - firstRow, targets, srcData, dstData, times, distances, weights);
 				}
 			}
 		}
+	}
 
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Duration))
-			mtxResult.setTable(MatrixMetricsType.Duration, times);
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Distance))
-			mtxResult.setTable(MatrixMetricsType.Distance, distances);
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Weight))
-			mtxResult.setTable(MatrixMetricsType.Weight, weights);
+	/**
+	 * Creates a weighting for a worker of the pool in the same way as the weighting of the request.
+	 */
+	private Weighting createWeighting()
+	{
+		HintsMap hintsMap = new HintsMap();
+		hintsMap.setWeighting(_weightingName);
+		return new ORSWeightingFactory(RealTrafficDataProvider.getInstance()).createWeighting(hintsMap, _graphHopper.getTraversalMode(), _encoder, _graph, null, _graphHopper.getGraphHopperStorage());
+	}
+
+	private class SourceRowsTask implements Callable<Void>
+	{
+		private AtomicInteger _nextSource;
+		private int _firstRow;
+		private int _endRow;
+		private MatrixLocations _srcData;
+		private MatrixLocations _dstData;
+		private float[] _times;
+		private float[] _distances;
+		private float[] _weights;
 
-		return mtxResult;
+		public SourceRowsTask(AtomicInteger nextSource, int firstRow, int endRow, MatrixLocations srcData, MatrixLocations dstData, float[] times, float[] distances, float[] weights)
+		{
+			_nextSource = nextSource;
+			_firstRow = firstRow;
+			_endRow = endRow;
+			_srcData = srcData;
+			_dstData = dstData;
+			_times = times;
+			_distances = distances;
+			_weights = weights;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			computeRows(_nextSource, _firstRow, _endRow, _srcData, _dstData, _times, _distances, _weights, createWeighting());
+			return null;
+		}
 	}
 }
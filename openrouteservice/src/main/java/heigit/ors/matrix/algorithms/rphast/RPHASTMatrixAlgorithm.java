@@ -15,24 +15,29 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.graphhopper.GraphHopper;
+import com.graphhopper.coll.GHIntHashSet;
 import com.graphhopper.routing.ch.PrepareContractionHierarchies;
 import com.graphhopper.routing.util.FlagEncoder;
 import com.graphhopper.routing.util.TraversalMode;
 import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.CHGraph;
 import com.graphhopper.storage.Graph;
 
 import heigit.ors.matrix.MatrixLocations;
-import heigit.ors.matrix.MatrixMetricsType;
 import heigit.ors.matrix.MatrixRequest;
-import heigit.ors.matrix.MatrixResult;
 import heigit.ors.matrix.MultiTreeMetricsExtractor;
 import heigit.ors.matrix.algorithms.AbstractMatrixAlgorithm;
 import heigit.ors.routing.algorithms.RPHASTAlgorithm;
-import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPEntry;
+import heigit.ors.routing.algorithms.RPHASTTargetGraphCache;
+import heigit.ors.routing.algorithms.RPHASTTargetGraphCache.CacheKey;
+import heigit.ors.routing.algorithms.SubGraph;
+import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPStorage;
 
 public class RPHASTMatrixAlgorithm extends AbstractMatrixAlgorithm {
 	private PrepareContractionHierarchies _prepareCH;
 	private MultiTreeMetricsExtractor _pathMetricsExtractor;
+	private SubGraph _targetGraph;
+	private int[] _destIds;
 
 	public void init(MatrixRequest req, GraphHopper gh, Graph graph, FlagEncoder encoder, Weighting weighting) {
 		super.init(req, gh, graph, encoder, weighting);
@@ -43,39 +48,64 @@ public class RPHASTMatrixAlgorithm extends AbstractMatrixAlgorithm {
 	}
 
 	@Override
-	public MatrixResult compute(MatrixLocations srcData, MatrixLocations dstData, int metrics) throws Exception {
-		MatrixResult mtxResult = new MatrixResult(srcData.getLocations(), dstData.getLocations());
+	protected void prepareRows(MatrixLocations srcData, MatrixLocations dstData) throws Exception {
+		_targetGraph = null;
+		_destIds = null;
 
-		float[] times = null;
-		float[] distances = null;
-		float[] weights = null;
+		if (!srcData.hasValidNodes() || !dstData.hasValidNodes())
+			return;
 
-		int tableSize = srcData.size() * dstData.size();
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Duration))
-			times = new float[tableSize];
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Distance))
-			distances = new float[tableSize];
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Weight))
-			weights = new float[tableSize];
+		RPHASTAlgorithm algorithm = new RPHASTAlgorithm(_graph, _prepareCH.getPrepareWeighting(),
+				TraversalMode.NODE_BASED);
 
-		if (!srcData.hasValidNodes() || !dstData.hasValidNodes())
+		_destIds = getValidNodeIds(dstData.getNodeIds());
+
+		// the target graph does not depend on the sources, so it is built once and shared by all tiles
+		RPHASTTargetGraphCache cache = RPHASTTargetGraphCache.getInstance();
+		if (cache.isEnabled())
 		{
-			for (int srcIndex = 0; srcIndex < srcData.size(); srcIndex++) 
-				_pathMetricsExtractor.setEmptyValues(srcIndex, srcData, dstData, times, distances, weights);
+			// Only the virtual edges leading to snapped destinations depend on the current request,
+			// the downward graph from the adjacent tower nodes can be shared between requests.
+			GHIntHashSet towerNodes = new GHIntHashSet(_destIds.length);
+			_targetGraph = algorithm.createVirtualTargetGraph(_destIds, towerNodes);
+
+			CHGraph chGraph = algorithm.getCHGraph();
+			CacheKey key = cache.createKey(_graphHopper.getGraphHopperLocation(), _prepareCH.getPrepareWeighting().toString(), towerNodes.toArray());
+			SubGraph towerTargetGraph = cache.get(key, chGraph);
+			if (towerTargetGraph == null)
+			{
+				towerTargetGraph = algorithm.createTargetGraph(chGraph, key.nodes);
+				cache.put(key, chGraph, towerTargetGraph);
+			}
+
+			_targetGraph.setParent(towerTargetGraph);
+		}
+		else
+		{
+			_targetGraph = algorithm.createTargetGraph(_graph, _destIds);
+		}
+	}
+
+	@Override
+	protected void computeRows(MatrixLocations srcData, MatrixLocations dstData, int firstRow, int rowsCount, float[] times, float[] distances, float[] weights) throws Exception {
+		MatrixLocations tileSrcData = srcData.getRange(firstRow, rowsCount);
+
+		if (_targetGraph == null || !tileSrcData.hasValidNodes())
+		{
+			for (int srcIndex = 0; srcIndex < rowsCount; srcIndex++) 
+				_pathMetricsExtractor.setEmptyValues(srcIndex, tileSrcData, dstData, times, distances, weights);
 		}
 		else
 		{
 			RPHASTAlgorithm algorithm = new RPHASTAlgorithm(_graph, _prepareCH.getPrepareWeighting(),
 					TraversalMode.NODE_BASED);
 			
-			int[] srcIds = getValidNodeIds(srcData.getNodeIds());
-			int[] destIds = getValidNodeIds(dstData.getNodeIds());
-			
-			algorithm.prepare(srcIds, destIds);
+			int[] srcIds = getValidNodeIds(tileSrcData.getNodeIds());
+			algorithm.prepare(srcIds, _targetGraph);
 
-			MultiTreeSPEntry[] destTrees = algorithm.calcPaths(srcIds, destIds);
+			int[] destTrees = algorithm.calcPaths(srcIds, _destIds);
 
-			MultiTreeSPEntry[] originalDestTrees = new MultiTreeSPEntry[dstData.size()];
+			int[] originalDestTrees = new int[dstData.size()];
 			
 			int j = 0;
 			for (int i = 0; i < dstData.size(); i++) {
@@ -83,21 +113,12 @@ public class RPHASTMatrixAlgorithm extends AbstractMatrixAlgorithm {
 					originalDestTrees[i] = destTrees[j];
 					++j;
 				} else {
-					originalDestTrees[i] = null;
+					originalDestTrees[i] = MultiTreeSPStorage.NO_SLOT;
 				}
 			}
 
-			_pathMetricsExtractor.calcValues(originalDestTrees, srcData, dstData, times, distances, weights);
+			_pathMetricsExtractor.calcValues(algorithm.getStorage(), originalDestTrees, tileSrcData, dstData, times, distances, weights);
 		}
-
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Duration))
-			mtxResult.setTable(MatrixMetricsType.Duration, times);
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Distance))
-			mtxResult.setTable(MatrixMetricsType.Distance, distances);
-		if (MatrixMetricsType.isSet(metrics, MatrixMetricsType.Weight))
-			mtxResult.setTable(MatrixMetricsType.Weight, weights);
-
-		return mtxResult;
 	}
 	
 	private int[] getValidNodeIds(int[] nodeIds)
@@ -0,0 +1,82 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import heigit.ors.routing.graphhopper.extensions.ORSGraphHopper;
+
+/**
+ * Reference-counted holder of the graph instance used by a routing profile. The profile itself holds one lease
+ * for as long as the instance is current, every request acquires another one for the time it works on the graph.
+ * The instance is closed as soon as the last lease is released, i.e. when it has been replaced by a newer graph
+ * and all requests started on it have finished.
+ */
+public class GraphHopperHandle {
+	private static final Logger LOGGER = Logger.getLogger(GraphHopperHandle.class.getName());
+
+	private final ORSGraphHopper _graphHopper;
+	private final AtomicInteger _leases;
+	private volatile boolean _deleteOnClose = false;
+
+	public GraphHopperHandle(ORSGraphHopper gh) {
+		_graphHopper = gh;
+		_leases = new AtomicInteger(1);
+	}
+
+	public ORSGraphHopper getGraphHopper() {
+		return _graphHopper;
+	}
+
+	/**
+	 * Takes a lease on the graph. Returns false if the instance has already been closed, in which case the caller
+	 * has to retry with the current handle of the profile.
+	 */
+	public boolean acquire() {
+		while (true) {
+			int leases = _leases.get();
+			if (leases == 0)
+				return false;
+			if (_leases.compareAndSet(leases, leases + 1))
+				return true;
+		}
+	}
+
+	public void release() {
+		if (_leases.decrementAndGet() == 0) {
+			try {
+				_graphHopper.close();
+			} catch (Exception ex) {
+				LOGGER.error("Unable to close graph at '" + _graphHopper.getGraphHopperLocation() + "'. Message: " + ex.getMessage());
+			}
+
+			if (_deleteOnClose && !FileUtils.deleteQuietly(new File(_graphHopper.getGraphHopperLocation())))
+				LOGGER.warn("Unable to delete the outdated graph at '" + _graphHopper.getGraphHopperLocation() + "'.");
+		}
+	}
+
+	/**
+	 * Lets the files of the graph be deleted as soon as it is closed, i.e. when it has been replaced by a newer
+	 * version and the last request has released it.
+	 */
+	public void setDeleteOnClose(boolean deleteOnClose) {
+		_deleteOnClose = deleteOnClose;
+	}
+
+	public int getLeasesCount() {
+		return _leases.get();
+	}
+}
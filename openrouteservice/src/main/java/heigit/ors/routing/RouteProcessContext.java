@@ -6,6 +6,8 @@ import com.graphhopper.util.ByteArrayBuffer;
 public class RouteProcessContext {
 	private PathProcessor _pathProcessor;
 	private ByteArrayBuffer _arrayBuffer;
+	private long _departureTime = -1;
+	private GraphHopperHandle _graphHandle;
 	
    public RouteProcessContext(PathProcessor pathProcessor)
    {
@@ -24,4 +26,31 @@ public class RouteProcessContext {
 	   
 	   return _arrayBuffer;
    }
+
+   /**
+    * Returns the departure time of the next segment in milliseconds since the epoch or -1 if none is given.
+    */
+   public long getDepartureTime()
+   {
+	   return _departureTime;
+   }
+
+   public void setDepartureTime(long departureTime)
+   {
+	   _departureTime = departureTime;
+   }
+
+   /**
+    * Returns the graph which has been acquired for all segments of the request or null if every segment acquires
+    * the current graph of the profile itself.
+    */
+   public GraphHopperHandle getGraphHandle()
+   {
+	   return _graphHandle;
+   }
+
+   public void setGraphHandle(GraphHopperHandle graphHandle)
+   {
+	   _graphHandle = graphHandle;
+   }
 }
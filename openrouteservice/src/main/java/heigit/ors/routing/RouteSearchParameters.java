@@ -1,6 +1,7 @@
 package heigit.ors.routing;
 
 import java.text.ParseException;
+import java.util.Date;
 import java.util.Iterator;
 
 import org.json.JSONArray;
@@ -32,6 +33,7 @@ public class RouteSearchParameters {
 	private int _vehicleType = HeavyVehicleAttributes.UNKNOWN;
 	private ProfileParameters _profileParams;
 	private boolean _flexibleMode = false;
+	private Date _departureTime;
 
 	private String _options;
 
@@ -70,6 +72,19 @@ public class RouteSearchParameters {
 		this._considerTraffic = _considerTraffic;
 	}
 
+	public Date getDepartureTime() {
+		return _departureTime;
+	}
+
+	public void setDepartureTime(Date departureTime) {
+		_departureTime = departureTime;
+	}
+
+	public boolean hasDepartureTime()
+	{
+		return _departureTime != null;
+	}
+
 	public Polygon[] getAvoidAreas() {
 		return _avoidAreas;
 	}
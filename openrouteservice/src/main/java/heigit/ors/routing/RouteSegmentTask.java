@@ -0,0 +1,88 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.graphhopper.GHResponse;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.PathProcessor;
+import com.vividsolutions.jts.geom.Coordinate;
+
+import heigit.ors.routing.pathprocessors.ElevationSmoothPathProcessor;
+import heigit.ors.routing.pathprocessors.ExtraInfoProcessor;
+
+/**
+ * Computes a single segment of a one-to-many (or many-to-one) routing request. Path processors,
+ * array buffers and result builders are stateful, so every task creates its own instances
+ * and can safely run concurrently with the other segments of the same request.
+ */
+public class RouteSegmentTask implements Callable<RouteResult> {
+	private RoutingProfile _routeProfile;
+	private RoutingRequest _request;
+	private Coordinate _from;
+	private Coordinate _to;
+	private EdgeFilter _customEdgeFilter;
+
+	public RouteSegmentTask(RoutingProfile rp, RoutingRequest req, Coordinate from, Coordinate to, EdgeFilter customEdgeFilter)
+	{
+		_routeProfile = rp;
+		_request = req;
+		_from = from;
+		_to = to;
+		_customEdgeFilter = customEdgeFilter;
+	}
+
+	@Override
+	public RouteResult call() throws Exception {
+		PathProcessor pathProcessor = null;
+		GHResponse gr = null;
+
+		// the extra info storages have to belong to the graph the segment is computed on
+		GraphHopperHandle ghHandle = _routeProfile.acquireGH();
+		try
+		{
+			if (_request.getExtraInfo() > 0)
+				pathProcessor = new ExtraInfoProcessor(ghHandle.getGraphHopper(), _request);
+			else if (_request.getIncludeElevation())
+				pathProcessor = new ElevationSmoothPathProcessor();
+
+			// every segment is returned as a separate route
+			if (pathProcessor != null)
+				pathProcessor.setSegmentIndex(0, 1);
+
+			RouteProcessContext routeProcCntx = new RouteProcessContext(pathProcessor);
+			routeProcCntx.setGraphHandle(ghHandle);
+			if (_request.getSearchParameters().hasDepartureTime())
+				routeProcCntx.setDepartureTime(_request.getSearchParameters().getDepartureTime().getTime());
+
+			gr = _routeProfile.computeRoute(_from.y, _from.x, _to.y, _to.x, false, _request.getSearchParameters(), _customEdgeFilter, _request.getSimplifyGeometry(), routeProcCntx);
+		}
+		finally
+		{
+			ghHandle.release();
+		}
+
+		if (gr.hasErrors())
+			return null;
+
+		List<GHResponse> resp = new ArrayList<GHResponse>(1);
+		resp.add(gr);
+
+		RouteResult route = new RouteResultBuilder().createRouteResult(resp, _request, (pathProcessor != null && (pathProcessor instanceof ExtraInfoProcessor)) ? ((ExtraInfoProcessor)pathProcessor).getExtras(): null);
+		route.setLocationIndex(_request.getLocationIndex());
+
+		return route;
+	}
+}
@@ -13,15 +13,16 @@
 package heigit.ors.routing;
 
 import java.io.File;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
@@ -33,8 +34,11 @@ import heigit.ors.routing.graphhopper.extensions.ORSGraphHopper;
 import heigit.ors.routing.graphhopper.extensions.ORSGraphStorageFactory;
 import heigit.ors.routing.graphhopper.extensions.ORSWeightingFactory;
 import heigit.ors.routing.graphhopper.extensions.flagencoders.WheelchairFlagEncoder;
+import heigit.ors.routing.graphhopper.extensions.reader.osm.SharedOSMInputFile;
+import heigit.ors.routing.graphhopper.extensions.storages.AvoidFeaturesIndex;
 import heigit.ors.routing.graphhopper.extensions.storages.GraphStorageUtils;
 import heigit.ors.routing.parameters.*;
+import heigit.ors.routing.algorithms.RPHASTTargetGraphCache;
 import heigit.ors.routing.graphhopper.extensions.edgefilters.*;
 import heigit.ors.isochrones.IsochroneSearchParameters;
 import heigit.ors.isochrones.IsochronesErrorCodes;
@@ -44,12 +48,18 @@ import heigit.ors.isochrones.IsochroneMapBuilderFactory;
 import heigit.ors.routing.RouteSearchParameters;
 import heigit.ors.routing.RoutingProfileType;
 import heigit.ors.routing.WeightingMethod;
+import heigit.ors.mapmatching.LocationIndexMatchCache;
 import heigit.ors.mapmatching.MapMatcher;
+import heigit.ors.mapmatching.MapMatchingRequest;
+import heigit.ors.mapmatching.MatchedGeometryListener;
+import heigit.ors.mapmatching.MatchedRouteBuilder;
 import heigit.ors.mapmatching.RouteSegmentInfo;
 import heigit.ors.mapmatching.hmm.HiddenMarkovMapMatcher;
+import heigit.ors.mapmatching.hmm.TrackMatcher;
 import heigit.ors.matrix.MatrixErrorCodes;
 import heigit.ors.matrix.MatrixRequest;
 import heigit.ors.matrix.MatrixResult;
+import heigit.ors.matrix.MatrixTileListener;
 import heigit.ors.matrix.MatrixSearchContext;
 import heigit.ors.matrix.MatrixSearchContextBuilder;
 import heigit.ors.matrix.algorithms.MatrixAlgorithm;
@@ -61,10 +71,13 @@ import heigit.ors.optimization.solvers.OptimizationProblemSolver;
 import heigit.ors.optimization.solvers.OptimizationProblemSolverFactory;
 import heigit.ors.optimization.solvers.OptimizationSolution;
 import heigit.ors.routing.configuration.RouteProfileConfiguration;
+import heigit.ors.routing.pathprocessors.ExtraInfoProcessor;
 import heigit.ors.routing.traffic.RealTrafficDataProvider;
 import heigit.ors.routing.traffic.TrafficEdgeAnnotator;
+import heigit.ors.services.mapmatching.MapMatchingServiceSettings;
 import heigit.ors.services.matrix.MatrixServiceSettings;
 import heigit.ors.services.optimization.OptimizationServiceSettings;
+import heigit.ors.services.routing.RoutingServiceSettings;
 import heigit.ors.util.DebugUtility;
 import heigit.ors.util.RuntimeUtility;
 import heigit.ors.util.StringUtility;
@@ -80,6 +93,7 @@ import com.graphhopper.routing.util.EdgeFilterSequence;
 import com.graphhopper.routing.util.EncodingManager;
 import com.graphhopper.routing.util.FlagEncoder;
 import com.graphhopper.routing.util.HintsMap;
+import com.graphhopper.routing.util.TraversalMode;
 import com.graphhopper.routing.weighting.Weighting;
 import com.graphhopper.storage.CHGraph;
 import com.graphhopper.storage.Graph;
@@ -104,13 +118,14 @@ public class RoutingProfile
 	private static final Logger LOGGER = Logger.getLogger(RoutingProfileManager.class.getName());
 	private static int profileIdentifier = 0;
 	private static final Object lockObj = new Object();
+	private static final String GRAPH_VERSION_SEPARATOR = "_v";
+	private static final int MAX_ACQUIRE_ATTEMPTS = 10;
 
-	private ORSGraphHopper mGraphHopper;
+	private AtomicReference<GraphHopperHandle> mGraphHandle;
 	private boolean mUseTrafficInfo;
 	private Integer[] mRoutePrefs;
-	private Integer mUseCounter;
-	private boolean mUpdateRun;
-	private MapMatcher mMapMatcher;
+	private volatile MapMatcher mMapMatcher;
+	private volatile AvoidFeaturesIndex mAvoidFeaturesIndex;
 
 	private RouteProfileConfiguration _config;
 	private String _astarApproximation;
@@ -118,10 +133,11 @@ public class RoutingProfile
 	
 	public RoutingProfile(String osmFile, RouteProfileConfiguration rpc, RoutingProfilesCollection profiles, RoutingProfileLoadContext loadCntx) throws Exception {
 		mRoutePrefs = rpc.getProfilesTypes();
-		mUseCounter = 0;
 		mUseTrafficInfo = /*mHasDynamicWeights &&*/ hasCarPreferences() ? rpc.getUseTrafficInformation() : false;
 
-		mGraphHopper = initGraphHopper(osmFile, rpc, profiles, loadCntx);
+		String graphLocation = resolveGraphLocation(rpc.getGraphPath());
+		mGraphHandle = new AtomicReference<GraphHopperHandle>(new GraphHopperHandle(initGraphHopper(osmFile, rpc, graphLocation, profiles, loadCntx)));
+		removeGraphVersions(rpc.getGraphPath(), graphLocation);
 
 		_config = rpc;
 
@@ -136,7 +152,16 @@ public class RoutingProfile
 	}
 
 	public static ORSGraphHopper initGraphHopper(String osmFile, RouteProfileConfiguration config, RoutingProfilesCollection profiles, RoutingProfileLoadContext loadCntx) throws Exception {
+		return initGraphHopper(osmFile, config, config.getGraphPath(), profiles, loadCntx);
+	}
+
+	/**
+	 * Imports or loads the graph of the profile at the given location, which may be a version of the configured graph
+	 * path created by an update.
+	 */
+	public static ORSGraphHopper initGraphHopper(String osmFile, RouteProfileConfiguration config, String graphLocation, RoutingProfilesCollection profiles, RoutingProfileLoadContext loadCntx) throws Exception {
 		CmdArgs args = createGHSettings(osmFile, config);
+		args.put("graph.location", graphLocation);
 
 		RoutingProfile refProfile = null;
 
@@ -157,19 +182,20 @@ public class RoutingProfile
 
 		if (LOGGER.isInfoEnabled())
 		{
-			LOGGER.info(String.format("[%d] Profiles: '%s', location: '%s'.", profileId, config.getProfiles(), config.getGraphPath()));
+			LOGGER.info(String.format("[%d] Profiles: '%s', location: '%s', data access: %s.", profileId, config.getProfiles(), graphLocation, config.getGraphDataAccess()));
 		}
 
 		GraphProcessContext gpc = new GraphProcessContext(config);
+		gpc.setStorageBuilderThreads(RoutingServiceSettings.getStorageBuilderThreads());
 
-		ORSGraphHopper gh = (ORSGraphHopper) new ORSGraphHopper(gpc, config.getUseTrafficInformation(), refProfile);
+		ORSGraphHopper gh = (ORSGraphHopper) new ORSGraphHopper(gpc, refProfile);
 
 		ORSDefaultFlagEncoderFactory flagEncoderFactory = new ORSDefaultFlagEncoderFactory();
 		gh.setFlagEncoderFactory(flagEncoderFactory);
 
 		gh.init(args);
 
-		gh.setGraphStorageFactory(new ORSGraphStorageFactory(gpc.getStorageBuilders()));
+		gh.setGraphStorageFactory(new ORSGraphStorageFactory(gpc.getStorageBuilders(), config.getUseTrafficInformation()));
 		gh.setWeightingFactory(new ORSWeightingFactory(RealTrafficDataProvider.getInstance()));
 
 		if (!Helper.isEmpty(config.getElevationProvider()) && !Helper.isEmpty(config.getElevationCachePath()))
@@ -178,6 +204,10 @@ public class RoutingProfile
 			gh.setElevationProvider(elevProvider);
 		}
 
+		SharedOSMInputFile sharedInput = loadCntx.getSharedOSMInput();
+		if (sharedInput != null && sharedInput.isRegistered(config.getGraphPath()))
+			gh.setSharedInput(sharedInput, config.getGraphPath());
+
 		gh.importOrLoad();
 
 		if (LOGGER.isInfoEnabled())
@@ -193,7 +223,7 @@ public class RoutingProfile
 
 		// Make a stamp which help tracking any changes in the size of OSM file.
 		File file = new File(osmFile);
-		Path pathTimestamp = Paths.get(config.getGraphPath(), "stamp.txt");
+		Path pathTimestamp = Paths.get(graphLocation, "stamp.txt");
 		File file2 = pathTimestamp.toFile();
 		if (!file2.exists())
 			Files.write(pathTimestamp, Long.toString(file.length()).getBytes());
@@ -201,16 +231,97 @@ public class RoutingProfile
 		return gh;
 	}
 
+	/**
+	 * Returns the directory of the newest complete version of the graph at the given path. An update does not
+	 * overwrite the files of the graph in use, it loads the new graph from a directory next to it which is named after
+	 * the path with a version suffix. Returns the path itself if there are no versions or no graph has been built yet.
+	 */
+	public static String resolveGraphLocation(String graphPath)
+	{
+		File baseDir = new File(graphPath).getAbsoluteFile();
+		File[] files = baseDir.getParentFile() == null ? null : baseDir.getParentFile().listFiles();
+		if (files == null)
+			return graphPath;
+
+		File newestDir = null;
+		int newestVersion = 0;
+
+		for (File file : files)
+		{
+			int version = getGraphVersion(baseDir.getName(), file.getName());
+			if (version > newestVersion && file.isDirectory() && new File(file, "properties").exists())
+			{
+				newestDir = file;
+				newestVersion = version;
+			}
+		}
+
+		return newestDir == null ? graphPath : newestDir.getPath();
+	}
+
+	/**
+	 * Deletes all versions of the graph at the given path except the one at the given location, e.g. the versions
+	 * left over when the application has been stopped during an update.
+	 */
+	private static void removeGraphVersions(String graphPath, String keepLocation)
+	{
+		File baseDir = new File(graphPath).getAbsoluteFile();
+		File keepDir = new File(keepLocation).getAbsoluteFile();
+		File[] files = baseDir.getParentFile() == null ? null : baseDir.getParentFile().listFiles();
+		if (files == null)
+			return;
+
+		for (File file : files)
+		{
+			if (file.isDirectory() && getGraphVersion(baseDir.getName(), file.getName()) >= 0 && !file.equals(keepDir))
+			{
+				if (!FileUtils.deleteQuietly(file))
+					LOGGER.warn("Unable to delete the outdated graph at '" + file + "'.");
+			}
+		}
+	}
+
+	/**
+	 * Returns 0 for the directory of the graph path itself, the version number for a version of it and -1 for any
+	 * other directory.
+	 */
+	private static int getGraphVersion(String baseName, String name)
+	{
+		if (name.equals(baseName))
+			return 0;
+
+		if (name.startsWith(baseName + GRAPH_VERSION_SEPARATOR))
+		{
+			try
+			{
+				return Integer.parseInt(name.substring(baseName.length() + GRAPH_VERSION_SEPARATOR.length()));
+			}
+			catch (NumberFormatException ex)
+			{
+			}
+		}
+
+		return -1;
+	}
+
 	public long getCapacity()
 	{
-		GraphHopperStorage graph = mGraphHopper.getGraphHopperStorage();
-		return graph.getCapacity() + GraphStorageUtils.getCapacity(graph.getExtension());
+		GraphHopperHandle ghHandle = acquireGH();
+		try
+		{
+			GraphHopperStorage graph = ghHandle.getGraphHopper().getGraphHopperStorage();
+			return graph.getCapacity() + GraphStorageUtils.getCapacity(graph.getExtension());
+		}
+		finally
+		{
+			ghHandle.release();
+		}
 	}
 
 	private static CmdArgs createGHSettings(String sourceFile, RouteProfileConfiguration config)  
 	{
 		CmdArgs args = new CmdArgs();
-		args.put("graph.dataaccess", "RAM_STORE");
+		args.put("graph.dataaccess", config.getGraphDataAccess());
 		args.put("datareader.file", sourceFile);
 		args.put("graph.location", config.getGraphPath());
 		args.put("graph.bytes_for_flags", config.getEncoderFlagsSize());
@@ -333,29 +444,34 @@ public class RoutingProfile
 		return args;
 	}
 
-	public HashMap<Integer, Long> getTmcEdges() {
-		return mGraphHopper.getTmcGraphEdges();
-	}
-
-	public HashMap<Long, ArrayList<Integer>> getOsmId2edgeIds() {
-		return mGraphHopper.getOsmId2EdgeIds();
-	}
-
-	public ORSGraphHopper getGraphhopper() {
-		return mGraphHopper;
-	}
-
 	public BBox getBounds() {
-		return mGraphHopper.getGraphHopperStorage().getBounds();
+		GraphHopperHandle ghHandle = acquireGH();
+		try {
+			return ghHandle.getGraphHopper().getGraphHopperStorage().getBounds();
+		} finally {
+			ghHandle.release();
+		}
 	}
 
 	public StorableProperties getGraphProperties() {
-		StorableProperties props = mGraphHopper.getGraphHopperStorage().getProperties();
-		return props;
+		GraphHopperHandle ghHandle = acquireGH();
+		try {
+			return ghHandle.getGraphHopper().getGraphHopperStorage().getProperties();
+		} finally {
+			ghHandle.release();
+		}
 	}
 
+	/**
+	 * Returns the directory of the graph which is currently in use, i.e. the configured graph path or a version of it.
+	 */
 	public String getGraphLocation() {
-		return mGraphHopper == null ? null : mGraphHopper.getGraphHopperStorage().getDirectory().toString();
+		GraphHopperHandle ghHandle = acquireGH();
+		try {
+			return ghHandle.getGraphHopper().getGraphHopperLocation();
+		} finally {
+			ghHandle.release();
+		}
 	}
 
 	public RouteProfileConfiguration getConfiguration() {
@@ -377,7 +493,12 @@ public class RoutingProfile
 
 
 	public boolean isCHEnabled() {
-		return mGraphHopper != null && mGraphHopper.isCHEnabled();
+		GraphHopperHandle ghHandle = acquireGH();
+		try {
+			return ghHandle.getGraphHopper().isCHEnabled();
+		} finally {
+			ghHandle.release();
+		}
 	}
 
 	public boolean useTrafficInformation() {
@@ -385,96 +506,89 @@ public class RoutingProfile
 	}
 
 	public void close() {
-		mGraphHopper.close();
-	}
-
-	private synchronized boolean isGHUsed() {
-		return mUseCounter > 0;
+		// the graph is closed as soon as the requests which are still using it are finished
+		mGraphHandle.get().release();
 	}
 
-	private synchronized void beginUseGH() {
-		mUseCounter++;
-	}
+	/**
+	 * Takes a lease on the current graph of the profile, which has to be released when the caller is done with it.
+	 * The graph is not closed before, even if it is replaced by an update in the meantime.
+	 */
+	public GraphHopperHandle acquireGH() {
+		// a handle is only closed after it has been replaced, so another attempt gets the newer one; the attempts are
+		// only exhausted if the profile has been closed or is updated over and over again
+		for (int i = 0; i < MAX_ACQUIRE_ATTEMPTS; i++) {
+			GraphHopperHandle handle = mGraphHandle.get();
+			if (handle.acquire())
+				return handle;
+		}
 
-	private synchronized void endUseGH() {
-		mUseCounter--;
+		throw new IllegalStateException("The graph of the profile '" + _config.getProfiles() + "' is not available.");
 	}
 
+	/**
+	 * Replaces the graph of the profile by the one which has been built at a temporary location. The new graph
+	 * is moved to a new version directory next to the current one and loaded from there, then it is swapped in
+	 * atomically. The files of the current graph are not touched, so requests started before the swap finish on the
+	 * previous instance whatever its data access type is. It is closed and its directory is deleted when the last of
+	 * them releases it. If the new graph cannot be loaded, the current one stays in use.
+	 */
 	public void updateGH(GraphHopper gh) throws Exception {
 		if (gh == null)
 			throw new Exception("GraphHopper instance is null.");
 
-		try {
-			mUpdateRun = true;
-			while (true) {
-				if (!isGHUsed()) {
-					GraphHopper ghOld = mGraphHopper;
-
-					ghOld.close();
-					ghOld.clean();
-
-					gh.close();
-					// gh.clean(); // do not remove on-disk files, we need to
-					// copy them as follows
+		GraphHopperHandle oldHandle = mGraphHandle.get();
+		GraphHopper ghOld = oldHandle.getGraphHopper();
+		String oldLocation = ghOld.getGraphHopperLocation();
 
-					RuntimeUtility.clearMemory(LOGGER);
+		File baseDir = new File(_config.getGraphPath()).getAbsoluteFile();
+		int version = Math.max(getGraphVersion(baseDir.getName(), new File(oldLocation).getName()), 0) + 1;
+		File newDir = new File(baseDir.getParentFile(), baseDir.getName() + GRAPH_VERSION_SEPARATOR + version);
 
-					// Change the content of the graph folder
-					String oldLocation = ghOld.getGraphHopperLocation();
-					File dstDir = new File(oldLocation);
-					File srcDir = new File(gh.getGraphHopperLocation());
-					FileUtils.copyDirectory(srcDir, dstDir, true);
-					FileUtils.deleteDirectory(srcDir);
-
-					RoutingProfileLoadContext loadCntx = new RoutingProfileLoadContext();
-
-					mGraphHopper = initGraphHopper(ghOld.getDataReaderFile(), _config, RoutingProfileManager.getInstance().getProfiles(), loadCntx);
-
-					loadCntx.release();
-
-					break;
-				}
+		gh.close();
 
-				Thread.sleep(2000);
+		ORSGraphHopper ghNew = null;
+		try {
+			// a directory left over by a failed update is replaced
+			FileUtils.deleteDirectory(newDir);
+			FileUtils.moveDirectory(new File(gh.getGraphHopperLocation()), newDir);
+
+			RoutingProfileLoadContext loadCntx = new RoutingProfileLoadContext();
+			try {
+				ghNew = initGraphHopper(ghOld.getDataReaderFile(), _config, newDir.getPath(), RoutingProfileManager.getInstance().getProfiles(), loadCntx);
+			} finally {
+				loadCntx.release();
 			}
 		} catch (Exception ex) {
-			LOGGER.error(ex.getMessage());
+			FileUtils.deleteQuietly(newDir);
+			throw ex;
 		}
 
-		mUpdateRun = false;
-	}
+		mGraphHandle.set(new GraphHopperHandle(ghNew));
 
-	private void waitForUpdateCompletion() throws Exception {
-		if (mUpdateRun) {
-			long startTime = System.currentTimeMillis();
+		RPHASTTargetGraphCache.getInstance().invalidate(oldLocation);
 
-			while (mUpdateRun) {
-				long curTime = System.currentTimeMillis();
-				if (curTime - startTime > 600000) {
-					throw new Exception("The route profile is currently being updated.");
-				}
+		// the profile gives up its own lease on the previous graph
+		oldHandle.setDeleteOnClose(true);
+		oldHandle.release();
 
-				Thread.sleep(1000);
-			}
-		}
+		RuntimeUtility.clearMemory(LOGGER);
 	}
 
 	public IsochroneMap buildIsochrone(IsochroneSearchParameters parameters) throws Exception {
 		IsochroneMap result = null;
 
-		waitForUpdateCompletion();
-
-		beginUseGH();
+		GraphHopperHandle ghHandle = acquireGH();
 
 		try {
-			RouteSearchContext searchCntx = createSearchContext(parameters.getRouteParameters(), RouteSearchMode.Isochrones, null);
+			RouteSearchContext searchCntx = createSearchContext(ghHandle.getGraphHopper(), parameters.getRouteParameters(), RouteSearchMode.Isochrones, null);
 
 			IsochroneMapBuilderFactory isochroneMapBuilderFactory = new IsochroneMapBuilderFactory(searchCntx);
 			result = isochroneMapBuilderFactory.buildMap(parameters);
 
-			endUseGH();
+			ghHandle.release();
 		} catch (Exception ex) {
-			endUseGH();
+			ghHandle.release();
 
 			LOGGER.error(ex);
 
@@ -485,20 +599,32 @@ public class RoutingProfile
 	}
 
 	public MatrixResult computeMatrix(MatrixRequest req) throws Exception
+	{
+		return computeMatrix(req, null);
+	}
+
+	/**
+	 * Computes the matrix in one piece if no listener is given. Otherwise the matrix is computed in tiles of
+	 * about MatrixServiceSettings.getTileSize() values which are passed to the listener, and null is returned.
+	 */
+	public MatrixResult computeMatrix(MatrixRequest req, MatrixTileListener listener) throws Exception
 	{
 		MatrixResult mtxResult = null;
 
-		GraphHopper gh = getGraphhopper();
-		String encoderName = RoutingProfileType.getEncoderName(req.getProfileType());
-		FlagEncoder flagEncoder = gh.getEncodingManager().getEncoder(encoderName);
+		GraphHopperHandle ghHandle = acquireGH();
+		GraphHopper gh = ghHandle.getGraphHopper();
+		boolean streaming = false;
 
-		MatrixAlgorithm alg = MatrixAlgorithmFactory.createAlgorithm(req, gh, flagEncoder);
-		
-		if (alg == null)
-			throw new Exception("Unable to create an algorithm to for computing distance/duration matrix.");
-		
 		try
 		{ 
+			String encoderName = RoutingProfileType.getEncoderName(req.getProfileType());
+			FlagEncoder flagEncoder = gh.getEncodingManager().getEncoder(encoderName);
+
+			MatrixAlgorithm alg = MatrixAlgorithmFactory.createAlgorithm(req, gh, flagEncoder);
+
+			if (alg == null)
+				throw new Exception("Unable to create an algorithm to for computing distance/duration matrix.");
+
 			String weightingStr =  Helper.isEmpty(req.getWeightingMethod()) ? "fastest" : req.getWeightingMethod();
 			Graph graph = null;
 			 if (!req.getFlexibleMode() && gh.getCHFactoryDecorator().isEnabled() && gh.getCHFactoryDecorator().getWeightingsAsStrings().contains(weightingStr)) 
@@ -515,12 +641,30 @@ public class RoutingProfile
 
 			alg.init(req, gh, mtxSearchCntx.getGraph(), flagEncoder, weighting);
 			
-			mtxResult = alg.compute(mtxSearchCntx.getSources(), mtxSearchCntx.getDestinations(), req.getMetrics()); 
+			if (listener == null)
+				mtxResult = alg.compute(mtxSearchCntx.getSources(), mtxSearchCntx.getDestinations(), req.getMetrics());
+			else
+			{
+				int tileRows = Math.max(1, MatrixServiceSettings.getTileSize() / Math.max(1, mtxSearchCntx.getDestinations().size()));
+				listener.begin(mtxSearchCntx.getSources().getLocations(), mtxSearchCntx.getDestinations().getLocations());
+				// from here on the response may be committed, so failures can only be reported inside its body
+				streaming = true;
+				alg.compute(mtxSearchCntx.getSources(), mtxSearchCntx.getDestinations(), req.getMetrics(), tileRows, listener);
+				listener.end();
+			}
 		}
 		catch(Exception ex)
 		{
 			LOGGER.error(ex);
-			throw new InternalServerException(MatrixErrorCodes.UNKNOWN, "Unable to compute a distance/duration matrix.");
+			InternalServerException isex = new InternalServerException(MatrixErrorCodes.UNKNOWN, "Unable to compute a distance/duration matrix.");
+			if (!streaming)
+				throw isex;
+
+			listener.error(isex);
+		}
+		finally
+		{
+			ghHandle.release();
 		}
 
 		return mtxResult;
@@ -582,13 +726,13 @@ public class RoutingProfile
 		return optResult;
 	}
 
-	private RouteSearchContext createSearchContext(RouteSearchParameters searchParams, RouteSearchMode mode, EdgeFilter customEdgeFilter) throws Exception
+	private RouteSearchContext createSearchContext(ORSGraphHopper gh, RouteSearchParameters searchParams, RouteSearchMode mode, EdgeFilter customEdgeFilter) throws Exception
 	{
 		int profileType = searchParams.getProfileType();
 		int weightingMethod = searchParams.getWeightingMethod();
 		String encoderName = RoutingProfileType.getEncoderName(profileType);
 		EdgeFilter edgeFilter = null;
-		FlagEncoder flagEncoder = mGraphHopper.getEncodingManager().getEncoder(encoderName);
+		FlagEncoder flagEncoder = gh.getEncodingManager().getEncoder(encoderName);
 		//String algorithm = null;
 		PMap props = new PMap();
 
@@ -596,23 +740,23 @@ public class RoutingProfile
 			if (encoderName.isEmpty())
 				throw new InternalServerException(RoutingErrorCodes.UNKNOWN, "vehicle parameter is empty.");
 
-			if (!mGraphHopper.getEncodingManager().supports(encoderName)) {
+			if (!gh.getEncodingManager().supports(encoderName)) {
 				throw new IllegalArgumentException("Vehicle " + encoderName + " unsupported. " + "Supported are: "
-						+ mGraphHopper.getEncodingManager());
+						+ gh.getEncodingManager());
 			}
 
-			edgeFilter = new AvoidAreasEdgeFilter(flagEncoder, searchParams.getAvoidAreas());
+			edgeFilter = new AvoidAreasEdgeFilter(flagEncoder, searchParams.getAvoidAreas(), gh.getGraphHopperStorage());
 		}
 
 		if (RoutingProfileType.isDriving(profileType)) {
 			if (RoutingProfileType.isHeavyVehicle(profileType)) {
-				edgeFilter = createHeavyVehicleEdgeFilter(searchParams, flagEncoder, edgeFilter);
+				edgeFilter = createHeavyVehicleEdgeFilter(gh, searchParams, flagEncoder, edgeFilter);
 			} else if (searchParams.hasParameters(VehicleParameters.class)) {
 				//edgeFilter = createWayRestrictionsEdgeFilter(searchParams, flagEncoder, edgeFilter);
 			}
 		} else if (profileType == RoutingProfileType.WHEELCHAIR) {
 			if (searchParams.hasParameters(WheelchairParameters.class)) {
-				edgeFilter = createWheelchairRestrictionsEdgeFilter(searchParams,  flagEncoder,
+				edgeFilter = createWheelchairRestrictionsEdgeFilter(gh, searchParams,  flagEncoder,
 						edgeFilter);
 			}
 		}
@@ -625,7 +769,7 @@ public class RoutingProfile
 				if (searchParams.getAvoidFeatureTypes() != AvoidFeatureFlags.Hills)
 				{
 					EdgeFilter ef = new AvoidFeaturesEdgeFilter(flagEncoder, searchParams,
-							mGraphHopper.getGraphHopperStorage());
+							getAvoidFeaturesIndex(gh), gh.getGraphHopperStorage());
 					edgeFilter = createEdgeFilter(ef, edgeFilter);
 				}
 
@@ -652,13 +796,13 @@ public class RoutingProfile
 
 			if (cyclingParams.getMaximumGradient() > 0)
 			{
-				EdgeFilter ef = new AvoidSteepnessEdgeFilter(flagEncoder, mGraphHopper.getGraphHopperStorage(), cyclingParams.getMaximumGradient());
+				EdgeFilter ef = new AvoidSteepnessEdgeFilter(flagEncoder, gh.getGraphHopperStorage(), cyclingParams.getMaximumGradient());
 				edgeFilter = createEdgeFilter(ef, edgeFilter);
 			}
 			
 			if (cyclingParams.getMaximumTrailDifficulty() > 0)
 			{
-				EdgeFilter ef = new TrailDifficultyEdgeFilter(flagEncoder, mGraphHopper.getGraphHopperStorage(), cyclingParams.getMaximumTrailDifficulty());
+				EdgeFilter ef = new TrailDifficultyEdgeFilter(flagEncoder, gh.getGraphHopperStorage(), cyclingParams.getMaximumTrailDifficulty());
 				edgeFilter = createEdgeFilter(ef, edgeFilter);
 			}
 		}
@@ -668,13 +812,13 @@ public class RoutingProfile
 
 			if (walkingParams.getMaximumGradient() > 0)
 			{
-				EdgeFilter ef = new AvoidSteepnessEdgeFilter(flagEncoder, mGraphHopper.getGraphHopperStorage(), walkingParams.getMaximumGradient());
+				EdgeFilter ef = new AvoidSteepnessEdgeFilter(flagEncoder, gh.getGraphHopperStorage(), walkingParams.getMaximumGradient());
 				edgeFilter = createEdgeFilter(ef, edgeFilter);
 			}
 			
 			if (walkingParams.getMaximumTrailDifficulty() > 0)
 			{
-				EdgeFilter ef = new TrailDifficultyEdgeFilter(flagEncoder, mGraphHopper.getGraphHopperStorage(), walkingParams.getMaximumTrailDifficulty());
+				EdgeFilter ef = new TrailDifficultyEdgeFilter(flagEncoder, gh.getGraphHopperStorage(), walkingParams.getMaximumTrailDifficulty());
 				edgeFilter = createEdgeFilter(ef, edgeFilter);
 			}
 		}
@@ -701,8 +845,8 @@ public class RoutingProfile
 				props.put("weighting_traffic_block", true);
 
 				EdgeFilter ef = new BlockedEdgesEdgeFilter(flagEncoder, RealTrafficDataProvider.getInstance()
-						.getBlockedEdges(mGraphHopper.getGraphHopperStorage()), RealTrafficDataProvider.getInstance()
-						.getHeavyVehicleBlockedEdges(mGraphHopper.getGraphHopperStorage()));
+						.getBlockedEdges(gh.getGraphHopperStorage()), RealTrafficDataProvider.getInstance()
+						.getHeavyVehicleBlockedEdges(gh.getGraphHopperStorage()));
 
 				edgeFilter = createEdgeFilter(ef, edgeFilter);
 			}
@@ -711,7 +855,7 @@ public class RoutingProfile
 		if (edgeFilter == null)
 			edgeFilter = new DefaultEdgeFilter(flagEncoder);
 
-		RouteSearchContext searchCntx = new RouteSearchContext(mGraphHopper, edgeFilter, flagEncoder);
+		RouteSearchContext searchCntx = new RouteSearchContext(gh, edgeFilter, flagEncoder);
 		searchCntx.setProperties(props);
 
 		return searchCntx;		
@@ -721,16 +865,14 @@ public class RoutingProfile
 			throws Exception {
 		RouteSegmentInfo[] rsi = null;
 
-		waitForUpdateCompletion();
-
-		beginUseGH();
+		GraphHopperHandle ghHandle = acquireGH();
 
 		try {
-			rsi = getMatchedSegmentsInternal(locations, searchRadius, null, bothDirections);
+			rsi = getMatchedSegmentsInternal(ghHandle.getGraphHopper(), locations, searchRadius, null, bothDirections);
 
-			endUseGH();
+			ghHandle.release();
 		} catch (Exception ex) {
-			endUseGH();
+			ghHandle.release();
 
 			throw ex;
 		}
@@ -738,18 +880,129 @@ public class RoutingProfile
 		return rsi;
 	}
 
-	private RouteSegmentInfo[] getMatchedSegmentsInternal(Coordinate[] locations,
+	private RouteSegmentInfo[] getMatchedSegmentsInternal(ORSGraphHopper gh, Coordinate[] locations,
 			double searchRadius, EdgeFilter edgeFilter, boolean bothDirections) {
-		if (mMapMatcher ==  null)
+		return getMapMatcher(gh).match(locations, searchRadius, edgeFilter, bothDirections);
+	}
+
+	/**
+	 * Returns the map matcher of the given graph. The matcher is shared by all requests on the graph and is only
+	 * replaced when the graph has been updated.
+	 */
+	private MapMatcher getMapMatcher(ORSGraphHopper gh) {
+		MapMatcher mapMatcher = mMapMatcher;
+		if (mapMatcher == null || mapMatcher.getGraphHopper() != gh)
 		{
-			mMapMatcher = new HiddenMarkovMapMatcher();
-			mMapMatcher.setGraphHopper(mGraphHopper);
+			synchronized (this)
+			{
+				mapMatcher = mMapMatcher;
+				if (mapMatcher == null || mapMatcher.getGraphHopper() != gh)
+				{
+					mapMatcher = new HiddenMarkovMapMatcher();
+					mapMatcher.setGraphHopper(gh);
+					mMapMatcher = mapMatcher;
+				}
+			}
 		}
 
-		mMapMatcher.setSearchRadius(searchRadius);
-		mMapMatcher.setEdgeFilter(edgeFilter);
+		return mapMatcher;
+	}
 
-		return mMapMatcher.match(locations, bothDirections);
+	/**
+	 * Returns the avoid features index of the given graph. Like the map matcher, it is built on first use and shared
+	 * by all requests until the graph has been updated.
+	 */
+	private AvoidFeaturesIndex getAvoidFeaturesIndex(ORSGraphHopper gh) {
+		AvoidFeaturesIndex index = mAvoidFeaturesIndex;
+		if (index == null || index.getGraphStorage() != gh.getGraphHopperStorage())
+		{
+			synchronized (this)
+			{
+				index = mAvoidFeaturesIndex;
+				if (index == null || index.getGraphStorage() != gh.getGraphHopperStorage())
+				{
+					index = new AvoidFeaturesIndex(gh.getGraphHopperStorage());
+					mAvoidFeaturesIndex = index;
+				}
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Matches the GPS track of the request to the road network. Sections of the track which are not connected to
+	 * each other are concatenated in the resulting geometry.
+	 */
+	public RouteResult matchTrack(MapMatchingRequest req) throws Exception {
+		return matchTrack(req, null, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Same as matchTrack(req), with the candidates of the track points looked up in the given cache if it has been
+	 * filled for the current graph.
+	 *
+	 * @param deadline time in milliseconds since the epoch after which the matching is cancelled
+	 * @throws java.util.concurrent.CancellationException if the thread has been interrupted or the deadline has passed
+	 */
+	public RouteResult matchTrack(MapMatchingRequest req, LocationIndexMatchCache locationCache, long deadline) throws Exception {
+		return matchTrack(req, locationCache, deadline, null);
+	}
+
+	/**
+	 * Same as matchTrack(req, locationCache, deadline), with the geometry passed to the given listener while the track
+	 * is being matched instead of being part of the result, unless the listener is null.
+	 */
+	public RouteResult matchTrack(MapMatchingRequest req, LocationIndexMatchCache locationCache, long deadline, MatchedGeometryListener geometryListener) throws Exception {
+		GraphHopperHandle ghHandle = acquireGH();
+
+		try {
+			ORSGraphHopper gh = ghHandle.getGraphHopper();
+			RouteSearchParameters searchParams = req.getSearchParameters();
+			RouteSearchContext searchCntx = createSearchContext(gh, searchParams, RouteSearchMode.Routing, null);
+			FlagEncoder encoder = searchCntx.getEncoder();
+
+			// the transitions between the candidates are weighted like the routes of the same request
+			HintsMap hints = new HintsMap();
+			PMap props = searchCntx.getProperties();
+			if (props != null && props.size() > 0)
+				hints.merge(props);
+			setWeighting(hints, searchParams);
+			if (searchParams.getMaximumSpeed() > 0)
+				hints.put("max_speed", searchParams.getMaximumSpeed());
+			Weighting weighting = new ORSWeightingFactory(RealTrafficDataProvider.getInstance()).createWeighting(hints, TraversalMode.NODE_BASED, encoder, gh.getGraphHopperStorage().getBaseGraph(), null, gh.getGraphHopperStorage());
+
+			final boolean includeElevation = req.getIncludeElevation() && gh.hasElevation();
+
+			TrackMatcher matcher = new TrackMatcher(gh, encoder, weighting, searchCntx.getEdgeFilter());
+			matcher.setSearchRadius(Math.min(req.getAccuracy(), MapMatchingServiceSettings.getMaximumSearchRadius()));
+			matcher.setMaximumVisitedNodes(MapMatchingServiceSettings.getMaximumVisitedNodes());
+			matcher.setWindowSize(MapMatchingServiceSettings.getWindowSize());
+			matcher.setIncludeElevation(includeElevation);
+			matcher.setLocationCache(locationCache);
+			matcher.setDeadline(deadline);
+
+			ExtraInfoProcessor extraInfoProcessor = null;
+			if (req.getExtraInfo() > 0) {
+				extraInfoProcessor = new ExtraInfoProcessor(gh, req);
+				extraInfoProcessor.init(encoder);
+				extraInfoProcessor.setSegmentIndex(0, 1);
+			}
+
+			// the steepness is computed from all points once their elevation has been smoothed
+			boolean keepPoints = RouteExtraInfoFlag.isSet(req.getExtraInfo(), RouteExtraInfoFlag.Steepness);
+			MatchedRouteBuilder routeBuilder = new MatchedRouteBuilder(includeElevation, extraInfoProcessor, geometryListener, keepPoints);
+
+			try {
+				matcher.match(req.getCoordinates(), routeBuilder);
+			} catch (UncheckedIOException ex) {
+				throw ex.getCause();
+			}
+
+			return routeBuilder.createRouteResult(req);
+		} finally {
+			ghHandle.release();
+		}
 	}
 
 	public boolean canProcessRequest(double totalDistance, double longestSegmentDistance, int wayPoints) {
@@ -764,14 +1017,17 @@ public class RoutingProfile
 
 		GHResponse resp = null; 
 
-		waitForUpdateCompletion();
-
-		beginUseGH();
+		// the segments of a request and their path processor work on the graph which has been acquired for the request
+		GraphHopperHandle ghHandle = routeProcCntx.getGraphHandle();
+		boolean ownLease = ghHandle == null;
+		if (ownLease)
+			ghHandle = acquireGH();
+		ORSGraphHopper gh = ghHandle.getGraphHopper();
 
 		try {
 			int profileType = searchParams.getProfileType();
 			int weightingMethod = searchParams.getWeightingMethod();
-			RouteSearchContext searchCntx = createSearchContext(searchParams, RouteSearchMode.Routing, customEdgeFilter);
+			RouteSearchContext searchCntx = createSearchContext(gh, searchParams, RouteSearchMode.Routing, customEdgeFilter);
 
 			boolean flexibleMode = searchParams.getFlexibleMode();
 			GHRequest req = new GHRequest(new GHPoint(lat0, lon0), new GHPoint(lat1, lon1));
@@ -784,58 +1040,26 @@ public class RoutingProfile
 			if (props != null && props.size() > 0)
 				req.getHints().merge(props);
 
-			if (supportWeightingMethod(profileType)) {
-				if (weightingMethod == WeightingMethod.FASTEST)
-				{
-					req.setWeighting("fastest");
-					req.getHints().put("weighting_method", "fastest");
-				}
-				else if (weightingMethod == WeightingMethod.SHORTEST)
-				{
-					req.setWeighting("shortest");
-					req.getHints().put("weighting_method", "shortest");
-					flexibleMode = true;
-				}
-				else if (weightingMethod == WeightingMethod.RECOMMENDED)
-				{
-					req.setWeighting("fastest");
-					req.getHints().put("weighting_method", "recommended");
-					flexibleMode = true;
-				}
-			} 
-
-			if ((profileType == RoutingProfileType.CYCLING_TOUR || profileType == RoutingProfileType.CYCLING_MOUNTAIN)
-					&& weightingMethod == WeightingMethod.FASTEST) {
-				req.setWeighting("fastest");
-				req.getHints().put("weighting_method", "recommended");
+			if (setWeighting(req.getHints(), searchParams))
 				flexibleMode = true;
-			}
-
-			if ((profileType == RoutingProfileType.CYCLING_TOUR /*RoutingProfileType.isCycling(profileType) || RoutingProfileType.isWalking(profileType)*/  || (profileType == RoutingProfileType.DRIVING_HGV && HeavyVehicleAttributes.HGV == searchParams
-					.getVehicleType())) && weightingMethod == WeightingMethod.RECOMMENDED) {
-				req.setWeighting("fastest");
-				req.getHints().put("weighting_method", "recommended_pref");
-
-				flexibleMode = true;
-			}
 
 			if (RoutingProfileType.isDriving(profileType) && RealTrafficDataProvider.getInstance().isInitialized())
-				req.setEdgeAnnotator(new TrafficEdgeAnnotator(mGraphHopper.getGraphHopperStorage()));
+				req.setEdgeAnnotator(new TrafficEdgeAnnotator(gh.getGraphHopperStorage()));
 
 			req.setEdgeFilter(searchCntx.getEdgeFilter());
 			req.setPathProcessor(routeProcCntx.getPathProcessor());
 
 			if (useDynamicWeights(searchParams) || flexibleMode)
 			{
-				if (mGraphHopper.isCHEnabled())  
+				if (gh.isCHEnabled())  
 					req.getHints().put("ch.disable", true);
-				if (mGraphHopper.getLMFactoryDecorator().isEnabled())
+				if (gh.getLMFactoryDecorator().isEnabled())
 					req.setAlgorithm("astarbi");
 				req.getHints().put("lm.disable", false);
 			} 
 			else
 			{
-				if (mGraphHopper.isCHEnabled())  
+				if (gh.isCHEnabled())  
 					req.getHints().put("lm.disable", true);
 				else
 					req.getHints().put("ch.disable", true);
@@ -846,31 +1070,85 @@ public class RoutingProfile
 			if (_astarApproximation != null)
 				req.getHints().put("astarbi.approximation", _astarApproximation);
 
+			// time dependent routes are calculated by a unidirectional search from the departure
+			if (routeProcCntx.getDepartureTime() >= 0)
+			{
+				req.setAlgorithm("astar");
+				req.getHints().put("departure_time", routeProcCntx.getDepartureTime());
+			}
+
 			/*if (directedSegment)
-				resp = mGraphHopper.directRoute(req); NOTE IMPLEMENTED!!!
+				resp = gh.directRoute(req); NOTE IMPLEMENTED!!!
 			else */
-			resp = mGraphHopper.route(req, routeProcCntx.getArrayBuffer());
+			resp = gh.route(req, routeProcCntx.getArrayBuffer());
 			
 			if (DebugUtility.isDebug())
 			{
 				System.out.println("visited_nodes.average - " + resp.getHints().get("visited_nodes.average", ""));
 			}
-
-			endUseGH();
 		} catch (Exception ex) {
-			endUseGH();
-
 			LOGGER.error(ex);
 
 			throw new InternalServerException(RoutingErrorCodes.UNKNOWN, "Unable to compute a route");
+		} finally {
+			if (ownLease)
+				ghHandle.release();
 		}
 
 		return resp;
 	}
 
+	/**
+	 * Sets the weighting of the given search parameters to the hints, as expected by ORSWeightingFactory.
+	 *
+	 * @return true if the weighting requires the flexible mode
+	 */
+	private boolean setWeighting(HintsMap hints, RouteSearchParameters searchParams)
+	{
+		int profileType = searchParams.getProfileType();
+		int weightingMethod = searchParams.getWeightingMethod();
+		boolean flexibleMode = false;
+
+		if (supportWeightingMethod(profileType)) {
+			if (weightingMethod == WeightingMethod.FASTEST)
+			{
+				hints.setWeighting("fastest");
+				hints.put("weighting_method", "fastest");
+			}
+			else if (weightingMethod == WeightingMethod.SHORTEST)
+			{
+				hints.setWeighting("shortest");
+				hints.put("weighting_method", "shortest");
+				flexibleMode = true;
+			}
+			else if (weightingMethod == WeightingMethod.RECOMMENDED)
+			{
+				hints.setWeighting("fastest");
+				hints.put("weighting_method", "recommended");
+				flexibleMode = true;
+			}
+		} 
+
+		if ((profileType == RoutingProfileType.CYCLING_TOUR || profileType == RoutingProfileType.CYCLING_MOUNTAIN)
+				&& weightingMethod == WeightingMethod.FASTEST) {
+			hints.setWeighting("fastest");
+			hints.put("weighting_method", "recommended");
+			flexibleMode = true;
+		}
+
+		if ((profileType == RoutingProfileType.CYCLING_TOUR /*RoutingProfileType.isCycling(profileType) || RoutingProfileType.isWalking(profileType)*/  || (profileType == RoutingProfileType.DRIVING_HGV && HeavyVehicleAttributes.HGV == searchParams.getVehicleType())) && weightingMethod == WeightingMethod.RECOMMENDED) {
+			hints.setWeighting("fastest");
+			hints.put("weighting_method", "recommended_pref");
+
+			flexibleMode = true;
+		}
+
+		return flexibleMode;
+	}
+
 	private boolean useDynamicWeights(RouteSearchParameters searchParams)
 	{
-		boolean dynamicWeights = (searchParams.hasAvoidAreas() || searchParams.hasAvoidFeatures() || searchParams.getMaximumSpeed() > 0 || (RoutingProfileType.isDriving(searchParams.getProfileType()) && (searchParams.hasParameters(VehicleParameters.class) || searchParams.getConsiderTraffic())) || (searchParams.getWeightingMethod() == WeightingMethod.SHORTEST || searchParams.getWeightingMethod() == WeightingMethod.RECOMMENDED) || searchParams.getConsiderTurnRestrictions() /*|| RouteExtraInformationFlag.isSet(extraInfo, value) searchParams.getIncludeWaySurfaceInfo()*/);
+		boolean dynamicWeights = (searchParams.hasAvoidAreas() || searchParams.hasAvoidFeatures() || searchParams.getMaximumSpeed() > 0 || (RoutingProfileType.isDriving(searchParams.getProfileType()) && (searchParams.hasParameters(VehicleParameters.class) || searchParams.getConsiderTraffic())) || (searchParams.getWeightingMethod() == WeightingMethod.SHORTEST || searchParams.getWeightingMethod() == WeightingMethod.RECOMMENDED) || searchParams.getConsiderTurnRestrictions() || searchParams.hasDepartureTime() /*|| RouteExtraInformationFlag.isSet(extraInfo, value) searchParams.getIncludeWaySurfaceInfo()*/);
 
 		return dynamicWeights;
 	}
@@ -892,24 +1170,24 @@ public class RoutingProfile
 		}
 	}
 
-	private EdgeFilter createWheelchairRestrictionsEdgeFilter(RouteSearchParameters searchParams, 
+	private EdgeFilter createWheelchairRestrictionsEdgeFilter(ORSGraphHopper gh, RouteSearchParameters searchParams, 
 			FlagEncoder flagEncoder, EdgeFilter edgeFilter) throws Exception {
 		if (searchParams.hasParameters(WheelchairParameters.class))
 		{
 			EdgeFilter ef = null;
-			GraphStorage gs = mGraphHopper.getGraphHopperStorage();
+			GraphStorage gs = gh.getGraphHopperStorage();
 			ef = new WheelchairEdgeFilter((WheelchairParameters)searchParams.getProfileParameters(), (WheelchairFlagEncoder) flagEncoder, gs);
 			edgeFilter = createEdgeFilter(ef, edgeFilter);
 		}
 		return edgeFilter;
 	}
 
-	private EdgeFilter createHeavyVehicleEdgeFilter(RouteSearchParameters searchParams, FlagEncoder flagEncoder,
+	private EdgeFilter createHeavyVehicleEdgeFilter(ORSGraphHopper gh, RouteSearchParameters searchParams, FlagEncoder flagEncoder,
 			EdgeFilter edgeFilter) 
 	{
 		if (searchParams.hasParameters(VehicleParameters.class))
 		{
-			GraphStorage gs = mGraphHopper.getGraphHopperStorage();
+			GraphStorage gs = gh.getGraphHopperStorage();
 
 			int vehicleType = searchParams.getVehicleType();
 			VehicleParameters vehicleParams = (VehicleParameters)searchParams.getProfileParameters();
@@ -944,7 +1222,24 @@ public class RoutingProfile
 
 	public Geometry getEdgeGeometry(int edgeId, int mode, int adjnodeid) 	
 	{ 	
-		EdgeIteratorState iter = mGraphHopper.getGraphHopperStorage().getEdgeIteratorState(edgeId, adjnodeid); 	
+		GraphHopperHandle ghHandle = acquireGH();
+		try
+		{
+			return getEdgeGeometry(ghHandle.getGraphHopper().getGraphHopperStorage(), edgeId, mode, adjnodeid);
+		}
+		finally
+		{
+			ghHandle.release();
+		}
+	}
+
+	/**
+	 * Returns the geometry of an edge of the given graph, e.g. of a graph which has been acquired by the caller for
+	 * a series of lookups.
+	 */
+	public static Geometry getEdgeGeometry(GraphHopperStorage graph, int edgeId, int mode, int adjnodeid) 	
+	{ 	
+		EdgeIteratorState iter = graph.getEdgeIteratorState(edgeId, adjnodeid); 	
 		PointList points = iter.fetchWayGeometry(mode); 	
 		if (points.size() > 1) 		{ 		
 			Coordinate[] coords = new Coordinate[points.size()]; 	
@@ -965,6 +1260,7 @@ public class RoutingProfile
 
 	public int hashCode()
 	{
-		return mGraphHopper.getGraphHopperStorage().getDirectory().getLocation().hashCode();
+		// the configured path identifies the profile, the location of its graph changes with every update
+		return _config.getGraphPath().hashCode();
 	}
 }
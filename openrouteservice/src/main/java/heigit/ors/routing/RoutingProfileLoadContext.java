@@ -3,6 +3,7 @@ package heigit.ors.routing;
 import com.graphhopper.reader.dem.ElevationProvider;
 
 import heigit.ors.routing.graphhopper.extensions.reader.dem.ElevationProviderCache;
+import heigit.ors.routing.graphhopper.extensions.reader.osm.SharedOSMInputFile;
 
 public class RoutingProfileLoadContext 
 {
@@ -10,6 +11,7 @@ public class RoutingProfileLoadContext
 	private int _threads = 1;
 
 	private ElevationProviderCache _elevProviders;
+	private SharedOSMInputFile _sharedOSMInput;
 	
 	public RoutingProfileLoadContext()
 	{
@@ -27,6 +29,16 @@ public class RoutingProfileLoadContext
 		return _elevProviders.getProvider(name, location, _threads, dataAccessType, clearCache);
 	}
 	
+	public SharedOSMInputFile getSharedOSMInput()
+	{
+		return _sharedOSMInput;
+	}
+	
+	public void setSharedOSMInput(SharedOSMInputFile sharedOSMInput)
+	{
+		_sharedOSMInput = sharedOSMInput;
+	}
+	
 	public void release()
 	{
 		_elevProviders.release();
@@ -32,6 +32,12 @@ public class RoutingProfileLoader implements Callable<RoutingProfile> {
 	@Override
 	public RoutingProfile call() throws Exception {
 		Thread.currentThread().setName("ORS-pl-" + rpc.getName());
-		return new RoutingProfile(osmFile, rpc, routeProfiles, loadCntx);
+		try {
+			return new RoutingProfile(osmFile, rpc, routeProfiles, loadCntx);
+		} finally {
+			// the imports of the other profiles must not wait for this one if it has failed
+			if (loadCntx.getSharedOSMInput() != null)
+				loadCntx.getSharedOSMInput().unregister(rpc.getGraphPath());
+		}
 	}
 }
\ No newline at end of file
@@ -11,16 +11,21 @@
  *|----------------------------------------------------------------------------------------------*/
 package heigit.ors.routing;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -29,20 +34,30 @@ import heigit.ors.routing.pathprocessors.ElevationSmoothPathProcessor;
 import heigit.ors.routing.pathprocessors.ExtraInfoProcessor;
 import heigit.ors.routing.configuration.RoutingManagerConfiguration;
 import heigit.ors.routing.configuration.RouteProfileConfiguration;
+import heigit.ors.routing.graphhopper.extensions.reader.osm.SharedOSMInputFile;
 import heigit.ors.routing.traffic.RealTrafficDataProvider;
+import heigit.ors.services.isochrones.IsochronesServiceSettings;
+import heigit.ors.services.mapmatching.MapMatchingServiceSettings;
 import heigit.ors.services.routing.RoutingServiceSettings;
 import heigit.ors.util.FormatUtility;
 import heigit.ors.isochrones.IsochroneSearchParameters;
+import heigit.ors.mapmatching.LocationIndexMatchCache;
+import heigit.ors.mapmatching.MapMatchingErrorCodes;
 import heigit.ors.mapmatching.MapMatchingRequest;
+import heigit.ors.mapmatching.MatchedGeometryListener;
+import heigit.ors.mapmatching.TrackMatchingListener;
 import heigit.ors.matrix.MatrixErrorCodes;
 import heigit.ors.matrix.MatrixRequest;
 import heigit.ors.matrix.MatrixResult;
+import heigit.ors.matrix.MatrixTileListener;
+import heigit.ors.matrix.algorithms.dijkstra.DijkstraMatrixAlgorithm;
 import heigit.ors.optimization.OptimizationErrorCodes;
 import heigit.ors.optimization.RouteOptimizationRequest;
 import heigit.ors.optimization.RouteOptimizationResult;
 import heigit.ors.exceptions.InternalServerException;
 import heigit.ors.exceptions.ServerLimitExceededException;
 import heigit.ors.isochrones.IsochroneMap;
+import heigit.ors.isochrones.IsochroneMapCollection;
 import heigit.ors.routing.RoutingProfilesCollection;
 import heigit.ors.routing.RouteSearchParameters;
 import heigit.ors.routing.RoutingProfileType;
@@ -64,6 +79,9 @@ public class RoutingProfileManager {
 
 	private RoutingProfilesCollection _routeProfiles;
 	private RoutingProfilesUpdater _profileUpdater;
+	private ExecutorService _segmentExecutor;
+	private ExecutorService _matchingExecutor;
+	private ExecutorService _isochroneExecutor;
 	private static RoutingProfileManager mInstance;
 
 	public static synchronized RoutingProfileManager getInstance() throws IOException {
@@ -116,6 +134,26 @@ public class RoutingProfileManager {
 		RuntimeUtility.clearMemory(LOGGER);
 	}
 
+	/**
+	 * Registers the profiles whose graphs do not exist yet as readers of a shared OSM input, so that the file is
+	 * decoded only once for all of them. Returns null if less than two graphs have to be built.
+	 */
+	private SharedOSMInputFile createSharedOSMInput(RoutingManagerConfiguration rmc) {
+		SharedOSMInputFile sharedInput = new SharedOSMInputFile(new File(RoutingServiceSettings.getSourceFile()), RoutingServiceSettings.getInitializationThreads());
+
+		for (RouteProfileConfiguration rpc : rmc.Profiles) {
+			if (rpc.getEnabled() && rpc.getProfilesTypes() != null && !new File(RoutingProfile.resolveGraphLocation(rpc.getGraphPath()), "properties").exists())
+				sharedInput.register(rpc.getGraphPath());
+		}
+
+		if (sharedInput.getConsumersCount() < 2)
+			return null;
+
+		LOGGER.info(String.format("Importing %d graphs from a shared OSM input.", sharedInput.getConsumersCount()));
+
+		return sharedInput;
+	}
+
 	public void initialize(String graphProps) {
 		RuntimeUtility.printRAMInfo("", LOGGER);
 
@@ -142,7 +180,18 @@ public class RoutingProfileManager {
 					int nRouteInstances = rmc.Profiles.length;
 
 					RoutingProfileLoadContext loadCntx = new RoutingProfileLoadContext(RoutingServiceSettings.getInitializationThreads());
-					ExecutorService executor = Executors.newFixedThreadPool(RoutingServiceSettings.getInitializationThreads());
+					int nThreads = RoutingServiceSettings.getInitializationThreads();
+
+					if (RoutingServiceSettings.getSharedImport()) {
+						SharedOSMInputFile sharedInput = createSharedOSMInput(rmc);
+						if (sharedInput != null) {
+							// all profiles which import the file have to read it at the same time
+							nThreads = Math.max(nThreads, sharedInput.getConsumersCount());
+							loadCntx.setSharedOSMInput(sharedInput);
+						}
+					}
+
+					ExecutorService executor = Executors.newFixedThreadPool(nThreads);
 					ExecutorCompletionService<RoutingProfile> compService = new ExecutorCompletionService<RoutingProfile>(executor);
 
 					int nTotalTasks = 0;
@@ -193,6 +242,15 @@ public class RoutingProfileManager {
 						RealTrafficDataProvider.getInstance().initialize(rmc, _routeProfiles);
 					}
 
+					if (RoutingServiceSettings.getOneToManyThreads() > 1)
+						_segmentExecutor = Executors.newFixedThreadPool(RoutingServiceSettings.getOneToManyThreads());
+
+					if (MapMatchingServiceSettings.getEnabled() && MapMatchingServiceSettings.getBatchThreads() > 1)
+						_matchingExecutor = Executors.newFixedThreadPool(MapMatchingServiceSettings.getBatchThreads());
+
+					if (IsochronesServiceSettings.getEnabled() && IsochronesServiceSettings.getMaximumLocations() > 1 && IsochronesServiceSettings.getThreads() > 1)
+						_isochroneExecutor = Executors.newFixedThreadPool(IsochronesServiceSettings.getThreads());
+
 					if (rmc.UpdateConfig != null && rmc.UpdateConfig.Enabled) {
 						_profileUpdater = new RoutingProfilesUpdater(rmc.UpdateConfig, _routeProfiles);
 						_profileUpdater.start();
@@ -218,6 +276,17 @@ public class RoutingProfileManager {
 		if (RealTrafficDataProvider.getInstance().isInitialized())
 			RealTrafficDataProvider.getInstance().destroy();
 
+		if (_segmentExecutor != null)
+			_segmentExecutor.shutdownNow();
+
+		if (_matchingExecutor != null)
+			_matchingExecutor.shutdownNow();
+
+		if (_isochroneExecutor != null)
+			_isochroneExecutor.shutdownNow();
+
+		DijkstraMatrixAlgorithm.shutdownPool();
+
 		_routeProfiles.destroy();
 	}
 
@@ -249,54 +318,50 @@ public class RoutingProfileManager {
 		List<RouteResult> routes = new ArrayList<RouteResult>(req.getCoordinates().length - 1);
 
 		RoutingProfile rp = getRouteProfile(req, true);
-		RouteSearchParameters searchParams = req.getSearchParameters();
-		PathProcessor pathProcessor = null;
+
+		Coordinate[] coords = req.getCoordinates();
+		Coordinate c0 = coords[0];
+		int nSegments = coords.length - 1;
+		EdgeFilter customEdgeFilter = rp.createAccessRestrictionFilter(coords);
 
 		if (req.getExtraInfo() > 0)
 		{
 			// do not allow geometry simplification when extras are requested
 			req.setSimplifyGeometry(false);
-			pathProcessor = new ExtraInfoProcessor(rp.getGraphhopper(), req);
-		}
-		else
-		{ 
-			if (req.getIncludeElevation())
-				pathProcessor = new ElevationSmoothPathProcessor();
 		}
 
-		Coordinate[] coords = req.getCoordinates();
-		Coordinate c0 = coords[0];
-		int nSegments = coords.length - 1;
-		RouteProcessContext routeProcCntx = new RouteProcessContext(pathProcessor);
-		RouteResultBuilder routeBuilder = new RouteResultBuilder();
-		EdgeFilter customEdgeFilter = rp.createAccessRestrictionFilter(coords);
-		List<GHResponse> resp =  new ArrayList<GHResponse>(); 
-
+		List<RouteSegmentTask> tasks = new ArrayList<RouteSegmentTask>(nSegments);
 		for(int i = 1; i <= nSegments; ++i)
 		{
-			if (pathProcessor != null)
-				pathProcessor.setSegmentIndex(i - 1, nSegments);
-
 			Coordinate c1 = coords[i];
-			GHResponse gr = null;
 			if (invertFlow)
-				gr = rp.computeRoute(c0.y, c0.x, c1.y, c1.x, false, searchParams, customEdgeFilter, req.getSimplifyGeometry(), routeProcCntx);
+				tasks.add(new RouteSegmentTask(rp, req, c0, c1, customEdgeFilter));
 			else
-				gr = rp.computeRoute(c1.y, c1.x, c0.y, c0.x, false, searchParams, customEdgeFilter, req.getSimplifyGeometry(), routeProcCntx);
-
-			//if (gr.hasErrors())
-			//	throw new InternalServerException(RoutingErrorCodes.UNKNOWN, String.format("Unable to find a route between points %d (%s) and %d (%s)", i, FormatUtility.formatCoordinate(c0), i + 1, FormatUtility.formatCoordinate(c1)));
+				tasks.add(new RouteSegmentTask(rp, req, c1, c0, customEdgeFilter));
+		}
 
-			if (!gr.hasErrors())
+		// time dependent routes are computed one after another like the legs in computeRoute, every route departs at
+		// the requested time
+		if (_segmentExecutor == null || nSegments == 1 || req.getSearchParameters().hasDepartureTime())
+		{
+			for (RouteSegmentTask task : tasks)
+				routes.add(task.call());
+		}
+		else
+		{
+			// invokeAll preserves the order of the tasks, so that results match the order of the input locations
+			List<Future<RouteResult>> futures = _segmentExecutor.invokeAll(tasks);
+			try
 			{
-				resp.clear();
-				resp.add(gr);
-				RouteResult route = routeBuilder.createRouteResult(resp, req, (pathProcessor != null && (pathProcessor instanceof ExtraInfoProcessor)) ? ((ExtraInfoProcessor)pathProcessor).getExtras(): null);
-				route.setLocationIndex(req.getLocationIndex());
-				routes.add(route);
+				for (Future<RouteResult> future : futures)
+					routes.add(future.get());
+			}
+			catch (ExecutionException ex)
+			{
+				if (ex.getCause() instanceof Exception)
+					throw (Exception)ex.getCause();
+				throw ex;
 			}
-			else
-				routes.add(null);
 		}
 
 		return routes;
@@ -304,9 +369,126 @@ public class RoutingProfileManager {
 	
 	public RouteResult matchTrack(MapMatchingRequest req) throws Exception
 	{
-		//RoutingProfile rp = getRouteProfile(req, false);
-		
-		return null;
+		RoutingProfile rp = getRouteProfile(req, false);
+
+		return rp.matchTrack(req);
+	}
+
+	/**
+	 * Matches the track with its geometry passed to the listener while it is being matched, see RoutingProfile.
+	 */
+	public RouteResult matchTrack(MapMatchingRequest req, MatchedGeometryListener geometryListener) throws Exception
+	{
+		RoutingProfile rp = getRouteProfile(req, false);
+
+		return rp.matchTrack(req, null, Long.MAX_VALUE, geometryListener);
+	}
+
+	/**
+	 * Matches a batch of tracks which share the same profile and parameters. The tracks are matched concurrently and
+	 * reported to the listener as soon as they are finished, together with the index of the request in the list.
+	 * Tracks which are not finished within timeLimit milliseconds are cancelled and reported as failed. The matchers
+	 * check the deadline themselves as well, so that a track which is cancelled gives up its thread.
+	 */
+	public void matchTracks(List<MapMatchingRequest> reqs, long timeLimit, TrackMatchingListener listener) throws Exception
+	{
+		if (reqs.isEmpty())
+			return;
+
+		final RoutingProfile rp = getRouteProfile(reqs.get(0), false);
+		final LocationIndexMatchCache locationCache = new LocationIndexMatchCache(MapMatchingServiceSettings.getMaximumCachedLocations());
+		final long deadline = System.currentTimeMillis() + timeLimit;
+
+		if (_matchingExecutor == null || reqs.size() == 1)
+		{
+			for (int i = 0; i < reqs.size(); i++)
+			{
+				if (System.currentTimeMillis() > deadline)
+				{
+					listener.trackFailed(i, createTimeLimitException());
+					continue;
+				}
+
+				RouteResult result = null;
+				try
+				{
+					result = rp.matchTrack(reqs.get(i), locationCache, deadline);
+				}
+				catch (CancellationException ex)
+				{
+					listener.trackFailed(i, createTimeLimitException());
+					continue;
+				}
+				catch (Exception ex)
+				{
+					listener.trackFailed(i, ex);
+					continue;
+				}
+
+				listener.trackMatched(i, result);
+			}
+
+			return;
+		}
+
+		ExecutorCompletionService<RouteResult> completionService = new ExecutorCompletionService<RouteResult>(_matchingExecutor);
+		Map<Future<RouteResult>, Integer> futures = new HashMap<Future<RouteResult>, Integer>(reqs.size());
+
+		for (int i = 0; i < reqs.size(); i++)
+		{
+			final MapMatchingRequest req = reqs.get(i);
+			futures.put(completionService.submit(new Callable<RouteResult>() {
+				@Override
+				public RouteResult call() throws Exception {
+					return rp.matchTrack(req, locationCache, deadline);
+				}
+			}), i);
+		}
+
+		try
+		{
+			while (!futures.isEmpty())
+			{
+				long remainingTime = deadline - System.currentTimeMillis();
+				Future<RouteResult> future = remainingTime > 0 ? completionService.poll(remainingTime, TimeUnit.MILLISECONDS) : null;
+				if (future == null)
+					break;
+
+				int index = futures.remove(future);
+				RouteResult result = null;
+				try
+				{
+					result = future.get();
+				}
+				catch (ExecutionException ex)
+				{
+					if (ex.getCause() instanceof CancellationException)
+						listener.trackFailed(index, createTimeLimitException());
+					else
+						listener.trackFailed(index, ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex);
+					continue;
+				}
+
+				listener.trackMatched(index, result);
+			}
+
+			for (Map.Entry<Future<RouteResult>, Integer> entry : futures.entrySet())
+			{
+				entry.getKey().cancel(true);
+				listener.trackFailed(entry.getValue(), createTimeLimitException());
+			}
+		}
+		finally
+		{
+			// the listener may fail, e.g. if the client has closed the connection
+			for (Future<RouteResult> future : futures.keySet())
+				future.cancel(true);
+		}
+	}
+
+	private static Exception createTimeLimitException()
+	{
+		return new InternalServerException(MapMatchingErrorCodes.UNKNOWN, "The time limit of the batch has been exceeded.");
 	}
 
 	public RouteResult computeRoute(RoutingRequest req) throws Exception
@@ -317,40 +499,57 @@ public class RoutingProfileManager {
 		RouteSearchParameters searchParams = req.getSearchParameters();
 		PathProcessor pathProcessor = null;
 
-		if (req.getExtraInfo() > 0)
+		// all segments are computed on the same graph, even if it is replaced by an update in the meantime
+		GraphHopperHandle ghHandle = rp.acquireGH();
+
+		try
 		{
-			// do not allow geometry simplification when extras are requested
-			req.setSimplifyGeometry(false);
+			if (req.getExtraInfo() > 0)
+			{
+				// do not allow geometry simplification when extras are requested
+				req.setSimplifyGeometry(false);
 
-			pathProcessor = new ExtraInfoProcessor(rp.getGraphhopper(), req);
-		}
-		else
-		{ 
-			if (req.getIncludeElevation())
-				pathProcessor = new ElevationSmoothPathProcessor();
-		}
+				pathProcessor = new ExtraInfoProcessor(ghHandle.getGraphHopper(), req);
+			}
+			else
+			{ 
+				if (req.getIncludeElevation())
+					pathProcessor = new ElevationSmoothPathProcessor();
+			}
 
-		Coordinate[] coords = req.getCoordinates();
-		Coordinate c0 = coords[0];
-		Coordinate c1;
-		int nSegments = coords.length - 1;
-		RouteProcessContext routeProcCntx = new RouteProcessContext(pathProcessor);
-		EdgeFilter customEdgeFilter = rp.createAccessRestrictionFilter(coords);
+			Coordinate[] coords = req.getCoordinates();
+			Coordinate c0 = coords[0];
+			Coordinate c1;
+			int nSegments = coords.length - 1;
+			RouteProcessContext routeProcCntx = new RouteProcessContext(pathProcessor);
+			routeProcCntx.setGraphHandle(ghHandle);
+			EdgeFilter customEdgeFilter = rp.createAccessRestrictionFilter(coords);
+			if (searchParams.hasDepartureTime())
+				routeProcCntx.setDepartureTime(searchParams.getDepartureTime().getTime());
+
+			for(int i = 1; i <= nSegments; ++i)
+			{
+				c1 = coords[i];
 
-		for(int i = 1; i <= nSegments; ++i)
-		{
-			c1 = coords[i];
-			
-			if (pathProcessor != null)
-				pathProcessor.setSegmentIndex(i - 1, nSegments);
+				if (pathProcessor != null)
+					pathProcessor.setSegmentIndex(i - 1, nSegments);
+
+				GHResponse gr = rp.computeRoute(c0.y, c0.x, c1.y, c1.x, c0.z == 1.0, searchParams, customEdgeFilter,  req.getSimplifyGeometry(), routeProcCntx);
 
-			GHResponse gr = rp.computeRoute(c0.y, c0.x, c1.y, c1.x, c0.z == 1.0, searchParams, customEdgeFilter,  req.getSimplifyGeometry(), routeProcCntx);
+				if (gr.hasErrors())
+					throw new InternalServerException(RoutingErrorCodes.UNKNOWN, String.format("Unable to find a route between points %d (%s) and %d (%s)", i, FormatUtility.formatCoordinate(c0), i + 1, FormatUtility.formatCoordinate(c1)));
 
-			if (gr.hasErrors())
-				throw new InternalServerException(RoutingErrorCodes.UNKNOWN, String.format("Unable to find a route between points %d (%s) and %d (%s)", i, FormatUtility.formatCoordinate(c0), i + 1, FormatUtility.formatCoordinate(c1)));
+				routes.add(gr);
+				c0 = c1;
 
-			routes.add(gr);
-			c0 = c1;
+				// the next segment starts at the arrival time of this one
+				if (routeProcCntx.getDepartureTime() >= 0)
+					routeProcCntx.setDepartureTime(routeProcCntx.getDepartureTime() + gr.getBest().getTime());
+			}
+		}
+		finally
+		{
+			ghHandle.release();
 		}
 
 		return new RouteResultBuilder().createRouteResult(routes, req, (pathProcessor != null && (pathProcessor instanceof ExtraInfoProcessor)) ? ((ExtraInfoProcessor)pathProcessor).getExtras(): null);
@@ -360,7 +559,7 @@ public class RoutingProfileManager {
 		RouteSearchParameters searchParams = req.getSearchParameters();
 		int profileType = searchParams.getProfileType();
 
-		boolean dynamicWeights = (searchParams.hasAvoidAreas() || searchParams.hasAvoidFeatures() || searchParams.getMaximumSpeed() > 0 || (RoutingProfileType.isDriving(profileType) && ((RoutingProfileType.isHeavyVehicle(profileType) && searchParams.getVehicleType() > 0) ||  searchParams.hasParameters(VehicleParameters.class) || searchParams.getConsiderTraffic())) || (searchParams.getWeightingMethod() == WeightingMethod.SHORTEST || searchParams.getWeightingMethod() == WeightingMethod.RECOMMENDED) || searchParams.getConsiderTurnRestrictions() /*|| RouteExtraInformationFlag.isSet(extraInfo, value) searchParams.getIncludeWaySurfaceInfo()*/);
+		boolean dynamicWeights = (searchParams.hasAvoidAreas() || searchParams.hasAvoidFeatures() || searchParams.getMaximumSpeed() > 0 || (RoutingProfileType.isDriving(profileType) && ((RoutingProfileType.isHeavyVehicle(profileType) && searchParams.getVehicleType() > 0) ||  searchParams.hasParameters(VehicleParameters.class) || searchParams.getConsiderTraffic())) || (searchParams.getWeightingMethod() == WeightingMethod.SHORTEST || searchParams.getWeightingMethod() == WeightingMethod.RECOMMENDED) || searchParams.getConsiderTurnRestrictions() || searchParams.hasDepartureTime() /*|| RouteExtraInformationFlag.isSet(extraInfo, value) searchParams.getIncludeWaySurfaceInfo()*/);
 
 		RoutingProfile rp = _routeProfiles.getRouteProfile(profileType, !dynamicWeights);
 
@@ -442,15 +641,85 @@ public class RoutingProfileManager {
 
 		return rp.buildIsochrone(parameters);
 	}
+
+	/**
+	 * Builds the isochrone maps of several travellers. The maps are computed concurrently on the shared isochrone
+	 * pool, at most IsochronesServiceSettings.getMaximumParallelLocations() at a time for one request, and are added
+	 * to the collection in the order of the given parameters.
+	 */
+	public IsochroneMapCollection buildIsochrones(List<IsochroneSearchParameters> parameters) throws Exception
+	{
+		IsochroneMapCollection isoMaps = new IsochroneMapCollection();
+		int nMaps = parameters.size();
+		int maxParallel = Math.min(nMaps, IsochronesServiceSettings.getMaximumParallelLocations());
+
+		if (_isochroneExecutor == null || maxParallel <= 1)
+		{
+			for (IsochroneSearchParameters searchParams : parameters)
+				isoMaps.add(buildIsochrone(searchParams));
+
+			return isoMaps;
+		}
+
+		IsochroneMap[] maps = new IsochroneMap[nMaps];
+		ExecutorCompletionService<IsochroneMap> completionService = new ExecutorCompletionService<IsochroneMap>(_isochroneExecutor);
+		Map<Future<IsochroneMap>, Integer> futures = new HashMap<Future<IsochroneMap>, Integer>(maxParallel);
+		int nSubmitted = 0;
+
+		try
+		{
+			while (nSubmitted < nMaps || !futures.isEmpty())
+			{
+				while (nSubmitted < nMaps && futures.size() < maxParallel)
+				{
+					final IsochroneSearchParameters searchParams = parameters.get(nSubmitted);
+					futures.put(completionService.submit(new Callable<IsochroneMap>() {
+						@Override
+						public IsochroneMap call() throws Exception {
+							return buildIsochrone(searchParams);
+						}
+					}), nSubmitted++);
+				}
+
+				Future<IsochroneMap> future = completionService.take();
+				int index = futures.remove(future);
+				try
+				{
+					maps[index] = future.get();
+				}
+				catch (ExecutionException ex)
+				{
+					if (ex.getCause() instanceof Exception)
+						throw (Exception)ex.getCause();
+					throw ex;
+				}
+			}
+		}
+		finally
+		{
+			for (Future<IsochroneMap> future : futures.keySet())
+				future.cancel(true);
+		}
+
+		for (IsochroneMap map : maps)
+			isoMaps.add(map);
+
+		return isoMaps;
+	}
 	
 	public MatrixResult computeMatrix(MatrixRequest req) throws Exception
+	{
+		return computeMatrix(req, null);
+	}
+	
+	public MatrixResult computeMatrix(MatrixRequest req, MatrixTileListener listener) throws Exception
 	{
 		 RoutingProfile rp = _routeProfiles.getRouteProfile(req.getProfileType(), true);
 		 
 		 if (rp == null)
 			 throw new InternalServerException(MatrixErrorCodes.UNKNOWN, "Unable to find an appropriate routing profile.");
 		 
-		return rp.computeMatrix(req);
+		return rp.computeMatrix(req, listener);
 	}
 	
 	public RouteOptimizationResult computeOptimizedRoutes(RouteOptimizationRequest req) throws Exception
@@ -262,7 +262,7 @@ public class RoutingProfilesUpdater {
 				for (RoutingProfile profile : m_routeProfiles.getUniqueProfiles()) {
 					RouteProfileConfiguration rpc = profile.getConfiguration();
 
-					Path pathTimestamp = Paths.get(rpc.getGraphPath(), "stamp.txt");
+					Path pathTimestamp = Paths.get(profile.getGraphLocation(), "stamp.txt");
 					File file2 = pathTimestamp.toFile();
 					if (file2.exists()) {
 						String oldFileStamp = FileUtils.readFileToString(file2);
@@ -300,6 +300,9 @@ public class RoutingProfilesUpdater {
 							{
 								m_updateStatus += ". Performing map matching...";
 								RealTrafficDataProvider.getInstance().updateGraphMatching(profile, profile.getGraphLocation());
+
+								if (profile.useTrafficInformation() && !hasGraphMatching(profile))
+									LOGGER.severe("The traffic data of profile '" + rpc.getProfiles() + "' has not been matched to its updated graph, traffic is ignored until the next update.");
 							}
 
 							nUpdatedProfiles++;
@@ -334,6 +337,18 @@ public class RoutingProfilesUpdater {
 		m_isRunning = false;
 	}
 
+	/**
+	 * Checks that the traffic data is found for the graph which the profile uses after the update.
+	 */
+	private static boolean hasGraphMatching(RoutingProfile profile) {
+		GraphHopperHandle ghHandle = profile.acquireGH();
+		try {
+			return RealTrafficDataProvider.getInstance().hasGraphMatching(ghHandle.getGraphHopper().getGraphHopperStorage());
+		} finally {
+			ghHandle.release();
+		}
+	}
+
 	public void stop() {
 		if (m_timer != null) {
 			m_timer.cancel();
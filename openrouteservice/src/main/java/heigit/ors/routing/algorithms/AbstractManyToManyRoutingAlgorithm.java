@@ -21,7 +21,7 @@ import com.graphhopper.storage.NodeAccess;
 import com.graphhopper.util.EdgeExplorer;
 import com.graphhopper.util.EdgeIterator;
 
-import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPEntry;
+import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPStorage;
 
 public abstract class AbstractManyToManyRoutingAlgorithm implements ManyToManyRoutingAlgorithm {
 	protected final Graph _graph;
@@ -69,12 +69,9 @@ public abstract class AbstractManyToManyRoutingAlgorithm implements ManyToManyRo
 		return _additionalEdgeFilter == null || _additionalEdgeFilter.accept(iter);
 	}
 
-	// protected MultiTreeSPEntry createMultiTreeSPEntry(int node, double
-	// weight) {
-	// return new MultiTreeSPEntry(EdgeIterator.NO_EDGE, node, weight);
-	// }
+	public abstract int[] calcPaths(int[] from, int[] to);
 
-	public abstract MultiTreeSPEntry[] calcPaths(int[] from, int[] to);
+	public abstract MultiTreeSPStorage getStorage();
 
 	public abstract void reset();
 
@@ -1,45 +1,306 @@
 package heigit.ors.routing.algorithms;
 
-import com.carrotsearch.hppc.IntObjectMap;
-import com.graphhopper.routing.Dijkstra;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.graphhopper.routing.util.DefaultEdgeFilter;
+import com.graphhopper.routing.util.EdgeFilter;
 import com.graphhopper.routing.util.TraversalMode;
 import com.graphhopper.routing.weighting.Weighting;
-import com.graphhopper.storage.SPTEntry;
 import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+
+import heigit.ors.routing.graphhopper.extensions.AccessibilityMap;
 
-public class DijkstraCostCondition extends Dijkstra
+/**
+ * Node based Dijkstra which settles all nodes up to a maximum cost. The shortest path tree is stored in an
+ * AccessibilityMap and the queue is a binary heap of its slots, so that the search does not create an object per
+ * node. Both are taken from a small pool shared by all threads. The heap is given back at the end of the search, the
+ * map has to be given back by {@link #releaseMap(AccessibilityMap)} once it is not used anymore.
+ */
+public class DijkstraCostCondition
 {
-	private double weightLimit = -1;
-    public DijkstraCostCondition(Graph g, Weighting weighting, double maxCost, boolean reverseDirection, TraversalMode tMode)
-    {
-        super(g, weighting, tMode, -1);
-
-        initCollections(1000);
-        this.weightLimit = maxCost;
-        setReverseDirection(reverseDirection);
-    }
-
-    @Override
-    protected boolean finished() {
-        return  super.finished() || currEdge.weight > weightLimit;
-    }
-    
-    public IntObjectMap<SPTEntry> getMap()
-    {
-    	return fromMap;
-    }
-    
-    public SPTEntry getCurrentEdge()
-    {
-    	if (currEdge == null || !finished())
-    		return  null;
-    	else
-    		return currEdge;
-    }
-
-    @Override
-    public String getName()
-    {
-        return "dijkstracc";
-    }
+	// maps and heaps that grew larger than this are not kept in the pool
+	private static final int MAX_POOLED_CAPACITY = 1 << 21;
+	// about the number of searches which can run at the same time, additional instances are left to the GC
+	private static final int MAX_POOLED_INSTANCES = Runtime.getRuntime().availableProcessors();
+
+	private static final InstancePool<AccessibilityMap> MAP_POOL = new InstancePool<AccessibilityMap>();
+	private static final InstancePool<SlotHeap> HEAP_POOL = new InstancePool<SlotHeap>();
+
+	private Graph _graph;
+	private Weighting _weighting;
+	private double _weightLimit;
+	private boolean _reverseDirection;
+	private TraversalMode _traversalMode;
+	private EdgeFilter _edgeFilter;
+	private AccessibilityMap _map;
+
+	private static class InstancePool<T>
+	{
+		private final ConcurrentLinkedQueue<T> _instances = new ConcurrentLinkedQueue<T>();
+		private final AtomicInteger _size = new AtomicInteger();
+
+		public T poll()
+		{
+			T instance = _instances.poll();
+			if (instance != null)
+				_size.decrementAndGet();
+			return instance;
+		}
+
+		public void offer(T instance)
+		{
+			if (_size.incrementAndGet() <= MAX_POOLED_INSTANCES)
+				_instances.offer(instance);
+			else
+				_size.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Binary min-heap of AccessibilityMap slots ordered by their weight, tracking the position of every slot for
+	 * decreasing its key.
+	 */
+	static class SlotHeap
+	{
+		private AccessibilityMap _map;
+		private int[] _heap;
+		private int[] _positions;
+		private int _size;
+
+		public SlotHeap(AccessibilityMap map, int capacity)
+		{
+			_map = map;
+			_heap = new int[Math.max(capacity, 16)];
+			_positions = new int[Math.max(capacity, 16)];
+			Arrays.fill(_positions, -1);
+		}
+
+		public boolean isEmpty()
+		{
+			return _size == 0;
+		}
+
+		public int getCapacity()
+		{
+			return _positions.length;
+		}
+
+		/**
+		 * Empties the heap and orders the slots of the given map from now on.
+		 */
+		public void reset(AccessibilityMap map)
+		{
+			clear();
+			_map = map;
+		}
+
+		public void clear()
+		{
+			for (int i = 0; i < _size; i++)
+				_positions[_heap[i]] = -1;
+			_size = 0;
+		}
+
+		public void update(int slot)
+		{
+			if (slot >= _positions.length)
+			{
+				int oldLength = _positions.length;
+				_positions = Arrays.copyOf(_positions, Math.max(slot + 1, oldLength * 2));
+				Arrays.fill(_positions, oldLength, _positions.length, -1);
+			}
+
+			int pos = _positions[slot];
+			if (pos < 0)
+			{
+				if (_size == _heap.length)
+					_heap = Arrays.copyOf(_heap, _size * 2);
+
+				_heap[_size] = slot;
+				_positions[slot] = _size;
+				siftUp(_size++);
+			}
+			else
+				siftUp(pos);
+		}
+
+		public int poll()
+		{
+			int slot = _heap[0];
+			_positions[slot] = -1;
+
+			if (--_size > 0)
+			{
+				_heap[0] = _heap[_size];
+				_positions[_heap[0]] = 0;
+				siftDown(0);
+			}
+
+			return slot;
+		}
+
+		private void siftUp(int pos)
+		{
+			int slot = _heap[pos];
+			double weight = _map.getWeight(slot);
+
+			while (pos > 0)
+			{
+				int parentPos = (pos - 1) >>> 1;
+				int parent = _heap[parentPos];
+				if (_map.getWeight(parent) <= weight)
+					break;
+
+				_heap[pos] = parent;
+				_positions[parent] = pos;
+				pos = parentPos;
+			}
+
+			_heap[pos] = slot;
+			_positions[slot] = pos;
+		}
+
+		private void siftDown(int pos)
+		{
+			int slot = _heap[pos];
+			double weight = _map.getWeight(slot);
+			int half = _size >>> 1;
+
+			while (pos < half)
+			{
+				int childPos = 2 * pos + 1;
+				int child = _heap[childPos];
+				int rightPos = childPos + 1;
+
+				if (rightPos < _size && _map.getWeight(_heap[rightPos]) < _map.getWeight(child))
+				{
+					childPos = rightPos;
+					child = _heap[childPos];
+				}
+
+				if (weight <= _map.getWeight(child))
+					break;
+
+				_heap[pos] = child;
+				_positions[child] = pos;
+				pos = childPos;
+			}
+
+			_heap[pos] = slot;
+			_positions[slot] = pos;
+		}
+	}
+
+	public DijkstraCostCondition(Graph g, Weighting weighting, double maxCost, boolean reverseDirection, TraversalMode tMode)
+	{
+		if (tMode.isEdgeBased())
+			throw new IllegalArgumentException("Only node based traversal is supported.");
+
+		_graph = g;
+		_weighting = weighting;
+		_weightLimit = maxCost;
+		_reverseDirection = reverseDirection;
+		_traversalMode = tMode;
+	}
+
+	public void setEdgeFilter(EdgeFilter edgeFilter)
+	{
+		_edgeFilter = edgeFilter;
+	}
+
+	/**
+	 * Settles all nodes which can be reached from the given node within the maximum cost. Nodes reached by an edge
+	 * which ends beyond the maximum cost are stored as well, but are not expanded.
+	 */
+	public void calcPath(int from)
+	{
+		AccessibilityMap map = acquireMap();
+		SlotHeap heap = acquireHeap(map);
+
+		EdgeExplorer explorer = _graph.createEdgeExplorer(new DefaultEdgeFilter(_weighting.getFlagEncoder(), _reverseDirection, !_reverseDirection));
+
+		int currSlot = map.add(from, EdgeIterator.NO_EDGE, 0.0, AccessibilityMap.NO_SLOT);
+
+		while (map.getWeight(currSlot) <= _weightLimit)
+		{
+			int currEdge = map.getEdge(currSlot);
+			double currWeight = map.getWeight(currSlot);
+
+			EdgeIterator iter = explorer.setBaseNode(map.getNode(currSlot));
+			while (iter.next())
+			{
+				if (!_traversalMode.hasUTurnSupport() && iter.getEdge() == currEdge)
+					continue;
+				if (_edgeFilter != null && !_edgeFilter.accept(iter))
+					continue;
+
+				double tmpWeight = _weighting.calcWeight(iter, _reverseDirection, currEdge) + currWeight;
+				if (Double.isInfinite(tmpWeight))
+					continue;
+
+				int slot = map.getSlot(iter.getAdjNode());
+				if (slot == AccessibilityMap.NO_SLOT)
+					slot = map.add(iter.getAdjNode(), iter.getEdge(), tmpWeight, currSlot);
+				else if (map.getWeight(slot) > tmpWeight)
+					map.set(slot, iter.getEdge(), tmpWeight, currSlot);
+				else
+					continue;
+
+				heap.update(slot);
+			}
+
+			if (heap.isEmpty())
+				break;
+
+			currSlot = heap.poll();
+		}
+
+		releaseHeap(heap);
+		_map = map;
+	}
+
+	public AccessibilityMap getMap()
+	{
+		return _map;
+	}
+
+	/**
+	 * Gives a map returned by getMap() back to the pool. The map must not be used afterwards.
+	 */
+	public static void releaseMap(AccessibilityMap map)
+	{
+		if (map.getCapacity() > MAX_POOLED_CAPACITY)
+			return;
+
+		map.clear();
+		MAP_POOL.offer(map);
+	}
+
+	private static AccessibilityMap acquireMap()
+	{
+		AccessibilityMap map = MAP_POOL.poll();
+
+		return map != null ? map : new AccessibilityMap(1000);
+	}
+
+	private static SlotHeap acquireHeap(AccessibilityMap map)
+	{
+		SlotHeap heap = HEAP_POOL.poll();
+		if (heap == null)
+			return new SlotHeap(map, 1000);
+
+		heap.reset(map);
+		return heap;
+	}
+
+	private static void releaseHeap(SlotHeap heap)
+	{
+		heap.reset(null);
+		if (heap.getCapacity() <= MAX_POOLED_CAPACITY)
+			HEAP_POOL.offer(heap);
+	}
 }
@@ -11,13 +11,18 @@
  *|----------------------------------------------------------------------------------------------*/
 package heigit.ors.routing.algorithms;
 
-import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPEntry;
+import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPStorage;
 
 public interface ManyToManyRoutingAlgorithm {
 
 	void prepare(int[] from, int[] to);
 
-	MultiTreeSPEntry[] calcPaths(int[] from, int[] to);
+	/**
+	 * Returns the slots of the target entries in the storage of the shortest-path-trees.
+	 */
+	int[] calcPaths(int[] from, int[] to);
+
+	MultiTreeSPStorage getStorage();
 
 	void reset();
 
@@ -0,0 +1,278 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.algorithms;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.graphhopper.routing.util.DefaultEdgeFilter;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.CHGraph;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+
+import heigit.ors.routing.algorithms.DijkstraCostCondition.SlotHeap;
+import heigit.ors.routing.graphhopper.extensions.AccessibilityMap;
+import heigit.ors.routing.graphhopper.extensions.edgefilters.CHLevelEdgeFilter;
+import heigit.ors.routing.graphhopper.extensions.edgefilters.DownwardSearchEdgeFilter;
+import heigit.ors.routing.graphhopper.extensions.edgefilters.UpwardSearchEdgeFilter;
+
+/**
+ * Range restricted PHAST on a contraction hierarchy. An upward Dijkstra search from the source is followed by a
+ * sweep over the downward edges in descending order of the node levels, which yields the costs of all nodes within
+ * the maximum cost. Only nodes which have been reached take part in the sweep, so that its size depends on the range
+ * rather than on the size of the graph.
+ * <p>
+ * The result is mapped back to the base graph: every node gets the base edge through which its cost is reached, and
+ * the nodes beyond the maximum cost which are adjacent to reached nodes are added with their tentative costs, as the
+ * plain DijkstraCostCondition does. The result can therefore be used by the isochrone builders without changes.
+ */
+public class PHASTAlgorithm {
+	private CHGraph _chGraph;
+	private Graph _baseGraph;
+	private Weighting _weighting;
+	private FlagEncoder _encoder;
+	private double _weightLimit;
+	private boolean _reverseDirection;
+
+	/**
+	 * Binary max-heap of slots ordered by the CH level of their nodes.
+	 */
+	static class LevelHeap
+	{
+		private int[] _slots = new int[64];
+		private int[] _levels = new int[64];
+		private int _size;
+
+		public boolean isEmpty()
+		{
+			return _size == 0;
+		}
+
+		public void add(int slot, int level)
+		{
+			if (_size == _slots.length)
+			{
+				_slots = Arrays.copyOf(_slots, _size * 2);
+				_levels = Arrays.copyOf(_levels, _size * 2);
+			}
+
+			int pos = _size++;
+			while (pos > 0)
+			{
+				int parentPos = (pos - 1) >>> 1;
+				if (_levels[parentPos] >= level)
+					break;
+
+				_slots[pos] = _slots[parentPos];
+				_levels[pos] = _levels[parentPos];
+				pos = parentPos;
+			}
+
+			_slots[pos] = slot;
+			_levels[pos] = level;
+		}
+
+		public int poll()
+		{
+			int result = _slots[0];
+			int slot = _slots[--_size];
+			int level = _levels[_size];
+			int pos = 0, half = _size >>> 1;
+
+			while (pos < half)
+			{
+				int childPos = 2 * pos + 1;
+				if (childPos + 1 < _size && _levels[childPos + 1] > _levels[childPos])
+					childPos++;
+				if (level >= _levels[childPos])
+					break;
+
+				_slots[pos] = _slots[childPos];
+				_levels[pos] = _levels[childPos];
+				pos = childPos;
+			}
+
+			_slots[pos] = slot;
+			_levels[pos] = level;
+
+			return result;
+		}
+	}
+
+	public PHASTAlgorithm(CHGraph chGraph, Graph baseGraph, Weighting weighting, double maxCost, boolean reverseDirection)
+	{
+		_chGraph = chGraph;
+		_baseGraph = baseGraph;
+		_weighting = weighting;
+		_encoder = weighting.getFlagEncoder();
+		_weightLimit = maxCost;
+		_reverseDirection = reverseDirection;
+	}
+
+	public AccessibilityMap calcAccessibilityMap(int from)
+	{
+		AccessibilityMap chMap = new AccessibilityMap(1000);
+		chMap.add(from, EdgeIterator.NO_EDGE, 0.0, AccessibilityMap.NO_SLOT);
+
+		runUpwardSearch(chMap);
+		runDownwardSweep(chMap);
+
+		return createBaseMap(chMap);
+	}
+
+	private void runUpwardSearch(AccessibilityMap chMap)
+	{
+		// towards the source the edges have to be traversed backwards
+		CHLevelEdgeFilter upwardFilter = _reverseDirection ? new DownwardSearchEdgeFilter(_chGraph, _encoder) : new UpwardSearchEdgeFilter(_chGraph, _encoder);
+		SlotHeap heap = new SlotHeap(chMap, 1000);
+		EdgeExplorer explorer = _chGraph.createEdgeExplorer();
+		int currSlot = 0;
+
+		while (true)
+		{
+			int currNode = chMap.getNode(currSlot);
+			double currWeight = chMap.getWeight(currSlot);
+			upwardFilter.setBaseNode(currNode);
+
+			EdgeIterator iter = explorer.setBaseNode(currNode);
+			while (iter.next())
+			{
+				if (!upwardFilter.accept(iter))
+					continue;
+
+				double tmpWeight = _weighting.calcWeight(iter, _reverseDirection, EdgeIterator.NO_EDGE) + currWeight;
+				if (tmpWeight > _weightLimit)
+					continue;
+
+				int slot = chMap.getSlot(iter.getAdjNode());
+				if (slot == AccessibilityMap.NO_SLOT)
+					slot = chMap.add(iter.getAdjNode(), iter.getEdge(), tmpWeight, currSlot);
+				else if (chMap.getWeight(slot) > tmpWeight)
+					chMap.set(slot, iter.getEdge(), tmpWeight, currSlot);
+				else
+					continue;
+
+				heap.update(slot);
+			}
+
+			if (heap.isEmpty())
+				break;
+
+			currSlot = heap.poll();
+		}
+	}
+
+	/**
+	 * Relaxes the edges leading to lower levels, starting with the highest node. A node is only expanded after all
+	 * nodes above it, so its cost is final at that time.
+	 */
+	private void runDownwardSweep(AccessibilityMap chMap)
+	{
+		LevelHeap heap = new LevelHeap();
+		BitSet queued = new BitSet(chMap.size());
+		EdgeExplorer explorer = _chGraph.createEdgeExplorer();
+
+		for (int slot = 0; slot < chMap.size(); slot++)
+		{
+			heap.add(slot, _chGraph.getLevel(chMap.getNode(slot)));
+			queued.set(slot);
+		}
+
+		while (!heap.isEmpty())
+		{
+			int currSlot = heap.poll();
+			int currNode = chMap.getNode(currSlot);
+			int currLevel = _chGraph.getLevel(currNode);
+			double currWeight = chMap.getWeight(currSlot);
+
+			EdgeIterator iter = explorer.setBaseNode(currNode);
+			while (iter.next())
+			{
+				int adjNode = iter.getAdjNode();
+				int adjLevel = _chGraph.getLevel(adjNode);
+				if (adjLevel >= currLevel)
+					continue;
+				if (_reverseDirection ? !iter.isBackward(_encoder) : !iter.isForward(_encoder))
+					continue;
+
+				double tmpWeight = _weighting.calcWeight(iter, _reverseDirection, EdgeIterator.NO_EDGE) + currWeight;
+				if (tmpWeight > _weightLimit)
+					continue;
+
+				int slot = chMap.getSlot(adjNode);
+				if (slot == AccessibilityMap.NO_SLOT)
+					slot = chMap.add(adjNode, iter.getEdge(), tmpWeight, currSlot);
+				else if (chMap.getWeight(slot) > tmpWeight)
+					chMap.set(slot, iter.getEdge(), tmpWeight, currSlot);
+				else
+					continue;
+
+				if (!queued.get(slot))
+				{
+					queued.set(slot);
+					heap.add(slot, adjLevel);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the shortest path tree on the base graph. The parent of a node is the reached neighbour through which
+	 * its cost is lowest, the nodes beyond the maximum cost keep their lowest tentative cost.
+	 */
+	private AccessibilityMap createBaseMap(AccessibilityMap chMap)
+	{
+		int nReached = chMap.size();
+		AccessibilityMap map = new AccessibilityMap(nReached + nReached / 4);
+
+		// the reached nodes keep their slots, so that the source is at slot 0
+		for (int slot = 0; slot < nReached; slot++)
+			map.add(chMap.getNode(slot), EdgeIterator.NO_EDGE, chMap.getWeight(slot), AccessibilityMap.NO_SLOT);
+
+		double[] parentWeights = new double[nReached];
+		Arrays.fill(parentWeights, Double.POSITIVE_INFINITY);
+
+		EdgeExplorer explorer = _baseGraph.createEdgeExplorer(new DefaultEdgeFilter(_encoder, _reverseDirection, !_reverseDirection));
+
+		for (int currSlot = 0; currSlot < nReached; currSlot++)
+		{
+			double currWeight = map.getWeight(currSlot);
+
+			EdgeIterator iter = explorer.setBaseNode(map.getNode(currSlot));
+			while (iter.next())
+			{
+				double tmpWeight = _weighting.calcWeight(iter, _reverseDirection, EdgeIterator.NO_EDGE) + currWeight;
+				if (Double.isInfinite(tmpWeight))
+					continue;
+
+				int slot = map.getSlot(iter.getAdjNode());
+				if (slot == AccessibilityMap.NO_SLOT)
+					map.add(iter.getAdjNode(), iter.getEdge(), tmpWeight, currSlot);
+				else if (slot < nReached)
+				{
+					if (slot != 0 && tmpWeight < parentWeights[slot])
+					{
+						parentWeights[slot] = tmpWeight;
+						map.set(slot, iter.getEdge(), map.getWeight(slot), currSlot);
+					}
+				}
+				else if (map.getWeight(slot) > tmpWeight)
+					map.set(slot, iter.getEdge(), tmpWeight, currSlot);
+			}
+		}
+
+		return map;
+	}
+}
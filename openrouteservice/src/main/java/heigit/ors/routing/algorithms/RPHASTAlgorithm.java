@@ -13,8 +13,7 @@ package heigit.ors.routing.algorithms;
 
 import java.util.PriorityQueue;
 
-import com.carrotsearch.hppc.IntObjectMap;
-import com.graphhopper.coll.GHIntObjectHashMap;
+import com.graphhopper.coll.GHIntHashSet;
 import com.graphhopper.routing.QueryGraph;
 import com.graphhopper.routing.util.FlagEncoder;
 import com.graphhopper.routing.util.TraversalMode;
@@ -26,36 +25,34 @@ import com.graphhopper.util.EdgeIterator;
 
 import heigit.ors.routing.graphhopper.extensions.edgefilters.DownwardSearchEdgeFilter;
 import heigit.ors.routing.graphhopper.extensions.edgefilters.UpwardSearchEdgeFilter;
-import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPEntry;
-import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPEntryItem;
+import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPQueue;
+import heigit.ors.routing.graphhopper.extensions.storages.MultiTreeSPStorage;
 
 public class RPHASTAlgorithm extends AbstractManyToManyRoutingAlgorithm {
 	//private final Logger logger = LoggerFactory.getLogger(getClass());
 
-	private IntObjectMap<MultiTreeSPEntry> _bestWeightMapFrom;
-	private MultiTreeSPEntry _currFrom;
-	private MultiTreeSPEntry _currTo;
-	private PriorityQueue<MultiTreeSPEntry> _prioQueue;
+	private MultiTreeSPStorage _storage;
+	private MultiTreeSPQueue _prioQueue;
+	private int _currFrom;
+	private int _currTo;
 	private UpwardSearchEdgeFilter _upwardEdgeFilter;
 	private DownwardSearchEdgeFilter _downwardEdgeFilter;
 	private SubGraph _targetGraph;
+	private CHGraph _chGraph;
 	private boolean _finishedFrom;
 	private boolean _finishedTo;
 	private int _visitedCountFrom;
 	private int _visitedCountTo;
 	private int _treeEntrySize;
+	private int _initialCapacity;
 	
-	private MultiTreeSPEntryItem _msptItem;
-	private MultiTreeSPEntryItem _msptSubItem;
 	private boolean _addToQueue = false;
 	private double _edgeWeight, _entryWeight, _tmpWeight;
 	
 	public RPHASTAlgorithm(Graph graph, Weighting weighting, TraversalMode traversalMode) {
 		super(graph, weighting, traversalMode);
 
-		int size = Math.min(Math.max(200, graph.getNodes() / 10), 2000);
-
-		initCollections(size);
+		_initialCapacity = Math.min(Math.max(200, graph.getNodes() / 10), 2000);
 
 		CHGraph chGraph = null;
 		if (graph instanceof CHGraph)
@@ -64,6 +61,7 @@ public class RPHASTAlgorithm extends AbstractManyToManyRoutingAlgorithm {
 			QueryGraph qGraph = (QueryGraph) graph;
 			chGraph = (CHGraph) qGraph.getMainGraph();
 		}
+		_chGraph = chGraph;
 
 		setMaxVisitedNodes(Integer.MAX_VALUE);
 		FlagEncoder encoder = weighting.getFlagEncoder();
@@ -75,33 +73,54 @@ public class RPHASTAlgorithm extends AbstractManyToManyRoutingAlgorithm {
 		_outEdgeExplorer = graph.createEdgeExplorer();
 	}
 
-	protected void initCollections(int size) {
-		_prioQueue = new PriorityQueue<MultiTreeSPEntry>(size);
-		_bestWeightMapFrom = new GHIntObjectHashMap<MultiTreeSPEntry>(size);
+	protected void initCollections(int numTrees) {
+		_treeEntrySize = numTrees;
+		_storage = new MultiTreeSPStorage(numTrees, _initialCapacity);
+		_prioQueue = new MultiTreeSPQueue(_storage, _initialCapacity);
 	}
 
 	@Override
 	public void reset() {
 		_finishedFrom = false;
 		_finishedTo = false;
-		_prioQueue.clear();
-		_bestWeightMapFrom.clear();
+		if (_prioQueue != null)
+			_prioQueue.clear();
+		if (_storage != null)
+			_storage.clear();
+	}
+
+	@Override
+	public MultiTreeSPStorage getStorage() {
+		return _storage;
 	}
 
 	@Override
 	public void prepare(int[] sources, int[] targets) {
+		initCollections(sources.length);
+		_targetGraph = createTargetGraph(_graph, targets);
+	}
+
+	/**
+	 * Prepares the algorithm with a target graph that has been built beforehand, e.g. a cached one.
+	 */
+	public void prepare(int[] sources, SubGraph targetGraph) {
+		initCollections(sources.length);
+		_targetGraph = targetGraph;
+	}
+
+	public SubGraph createTargetGraph(Graph graph, int[] targets) {
 		PriorityQueue<Integer> prioQueue = new PriorityQueue<>(100);
-		_treeEntrySize = sources.length;
+		EdgeExplorer explorer = graph.createEdgeExplorer();
 
 		// Phase I: build shortest path tree from all target nodes to the
 		// highest node
-		_targetGraph = new SubGraph(_graph);
+		SubGraph targetGraph = new SubGraph(graph);
 
-		addNodes(_targetGraph, prioQueue, targets);
+		addNodes(targetGraph, prioQueue, targets);
 
 		while (!prioQueue.isEmpty()) {
 			int adjNode = prioQueue.poll();
-			EdgeIterator iter = _outEdgeExplorer.setBaseNode(adjNode);
+			EdgeIterator iter = explorer.setBaseNode(adjNode);
 			_downwardEdgeFilter.setBaseNode(adjNode);
 
 			while (iter.next()) {
@@ -110,13 +129,64 @@ public class RPHASTAlgorithm extends AbstractManyToManyRoutingAlgorithm {
 
 				_downwardEdgeFilter.updateHighestNode(iter);
 
-				if (_targetGraph.addEdge(adjNode, iter, true))
+				if (targetGraph.addEdge(adjNode, iter, true))
 					prioQueue.add(iter.getAdjNode());
 			}
 		}
 
 		//if (logger.isInfoEnabled())
-		//	_targetGraph.print();
+		//	targetGraph.print();
+
+		return targetGraph;
+	}
+
+	/**
+	 * Builds the request-specific part of the target graph, that is the virtual edges of the query graph which lead 
+	 * to virtual target nodes. The exploration stops at tower nodes, which are collected in towerNodes together with
+	 * all target nodes that are tower nodes themselves. The remaining part of the target graph can be built from 
+	 * these nodes on the main graph and does not depend on the query graph.
+	 */
+	public SubGraph createVirtualTargetGraph(int[] targets, GHIntHashSet towerNodes) {
+		PriorityQueue<Integer> prioQueue = new PriorityQueue<>(100);
+		EdgeExplorer explorer = _graph.createEdgeExplorer();
+		int maxNodes = _chGraph.getNodes();
+
+		SubGraph targetGraph = new SubGraph(_graph);
+
+		for (int i = 0; i < targets.length; i++) {
+			int nodeId = targets[i];
+			if (nodeId < 0)
+				continue;
+
+			if (nodeId < maxNodes) {
+				towerNodes.add(nodeId);
+			} else {
+				targetGraph.addEdge(nodeId, null, true);
+				prioQueue.add(nodeId);
+			}
+		}
+
+		while (!prioQueue.isEmpty()) {
+			int adjNode = prioQueue.poll();
+			EdgeIterator iter = explorer.setBaseNode(adjNode);
+
+			// edges of virtual nodes are always accepted by DownwardSearchEdgeFilter
+			while (iter.next()) {
+				if (targetGraph.addEdge(adjNode, iter, true)) {
+					int node = iter.getAdjNode();
+					if (node < maxNodes)
+						towerNodes.add(node);
+					else
+						prioQueue.add(node);
+				}
+			}
+		}
+
+		return targetGraph;
+	}
+
+	public CHGraph getCHGraph() {
+		return _chGraph;
 	}
 
 	private void addNodes(SubGraph graph, PriorityQueue<Integer> prioQueue, int[] nodes) {
@@ -152,7 +222,7 @@ public class RPHASTAlgorithm extends AbstractManyToManyRoutingAlgorithm {
 			return false;
 
 		_currFrom = _prioQueue.poll();
-		fillEdgesUpward(_currFrom, _prioQueue, _bestWeightMapFrom, _outEdgeExplorer);
+		fillEdgesUpward(_currFrom, _outEdgeExplorer);
 		_visitedCountFrom++;
 
 		return true;
@@ -163,87 +233,66 @@ public class RPHASTAlgorithm extends AbstractManyToManyRoutingAlgorithm {
 			return false;
 
 		_currTo = _prioQueue.poll();
-		fillEdgesDownward(_currTo, _prioQueue, _bestWeightMapFrom, _outEdgeExplorer);
+		fillEdgesDownward(_currTo, _outEdgeExplorer);
 		_visitedCountTo++;
 
 		return true;
 	}
 
+	/**
+	 * Returns the slots of the target entries in the storage (see {@link #getStorage()}) or
+	 * MultiTreeSPStorage.NO_SLOT for targets which have not been reached.
+	 */
 	@Override
-	public MultiTreeSPEntry[] calcPaths(int[] from, int[] to) {
+	public int[] calcPaths(int[] from, int[] to) {
+		if (_traversalMode.isEdgeBased())
+			throw new IllegalStateException("Edge-based behavior not supported");
+
 		for (int i = 0; i < from.length; i++) {
 			if (from[i] == -1)
 			  continue;
-			
-			_currFrom = new MultiTreeSPEntry(from[i], EdgeIterator.NO_EDGE, 0.0, true, null, from.length);
-			_currFrom.getItem(i).weight = 0.0001;
-			_currFrom.visited = true;
-			_prioQueue.add(_currFrom);
-
-			if (!_traversalMode.isEdgeBased()) 
-				_bestWeightMapFrom.put(from[i], _currFrom);
-			else
-				throw new IllegalStateException("Edge-based behavior not supported");
+
+			_currFrom = _storage.getSlot(from[i]);
+			if (_currFrom == MultiTreeSPStorage.NO_SLOT)
+				_currFrom = _storage.addEntry(from[i]);
+
+			_storage.setItem(_currFrom, i, 0.0001, EdgeIterator.NO_EDGE, MultiTreeSPStorage.NO_SLOT);
+			_storage.resetUpdate(_currFrom, true);
+			_storage.updateWeights(_currFrom);
+			_storage.setVisited(_currFrom, true);
+			_prioQueue.update(_currFrom);
 		}
  
 		_outEdgeExplorer = _graph.createEdgeExplorer();
-	//	StopWatch sw = new StopWatch();
-	//	sw.start();
 
 		runUpwardSearch();
 
-	//	sw.stop();
-		
-	//	if (logger.isInfoEnabled())
-	//	{
-	//		logger.info(Long.toString(sw.getTime()));
-	//		logger.info("HN: " + Integer.toString(_upwardEdgeFilter.getHighestNode()));
-	//	}
-
-		_currFrom = _bestWeightMapFrom.get(_upwardEdgeFilter.getHighestNode());
-		_currFrom.visited = true;
-		_currFrom.resetUpdate(true);
+		_currFrom = _storage.getSlot(_upwardEdgeFilter.getHighestNode());
+		_storage.setVisited(_currFrom, true);
+		_storage.resetUpdate(_currFrom, true);
 		_prioQueue.clear();
-		_prioQueue.add(_currFrom);
+		_prioQueue.update(_currFrom);
 
 		_outEdgeExplorer = _targetGraph.createExplorer();
-	//	sw = new StopWatch();
-	//	sw.start();
+
 		runDownwardSearch();
-	//	sw.stop();
-		
-	//	if (logger.isInfoEnabled())
-	//	{
-	//		logger.info(Long.toString(sw.getTime()));
-			
-	//		logger.info("Iters: " + upwardIters + " " + downwardIters);
-	//		logger.info("Total: " + upwardItersTotal + " " + downwardItersTotal);
-	//		logger.info("Skipped: " + upwardItersSkipped + " " + downwardItersSkipped);
-	//	}
-		
-		MultiTreeSPEntry[] targets = new MultiTreeSPEntry[to.length];
+
+		int[] targets = new int[to.length];
 
 		for (int i = 0; i < to.length; ++i)
-			targets[i] = _bestWeightMapFrom.get(to[i]);
+			targets[i] = _storage.getSlot(to[i]);
 
 		return targets;
 	}
 
-/*	private int downwardIters = 0;
-	private int upwardIters = 0;
-	private int downwardItersTotal = 0;
-	private int upwardItersTotal = 0;
-	private int downwardItersSkipped = 0;
-	private int upwardItersSkipped = 0;*/
-
-	private void fillEdgesUpward(MultiTreeSPEntry currEdge, PriorityQueue<MultiTreeSPEntry> prioQueue,
-			IntObjectMap<MultiTreeSPEntry> shortestWeightMap, EdgeExplorer explorer) {
-		EdgeIterator iter = explorer.setBaseNode(currEdge.adjNode);
+	private void fillEdgesUpward(int currSlot, EdgeExplorer explorer) {
+		int currNode = _storage.getAdjNode(currSlot);
+		EdgeIterator iter = explorer.setBaseNode(currNode);
 
 		if (iter == null) // we reach one of the target nodes
 			return;
 
-		_upwardEdgeFilter.setBaseNode(currEdge.adjNode);
+		_upwardEdgeFilter.setBaseNode(currNode);
 
 		while (iter.next()) {
 			if (!_upwardEdgeFilter.accept(iter))
@@ -254,61 +303,45 @@ public class RPHASTAlgorithm extends AbstractManyToManyRoutingAlgorithm {
 			_edgeWeight = _weighting.calcWeight(iter, false, 0);
 
 			if (!Double.isInfinite(_edgeWeight)) {
-				MultiTreeSPEntry ee = shortestWeightMap.get(iter.getAdjNode());
-
-				if (ee == null) {
-					ee = new MultiTreeSPEntry(iter.getAdjNode(), iter.getEdge(), _edgeWeight, true, currEdge, currEdge.getSize());
+				int eeSlot = _storage.getSlot(iter.getAdjNode());
 
-					shortestWeightMap.put(iter.getAdjNode(), ee);
-					prioQueue.add(ee);
+				if (eeSlot == MultiTreeSPStorage.NO_SLOT) {
+					eeSlot = _storage.addEntry(iter.getAdjNode(), iter.getEdge(), _edgeWeight, true, currSlot);
+					_prioQueue.update(eeSlot);
 				} else {
 					_addToQueue = false;
 					
 					for (int i = 0; i < _treeEntrySize; ++i) {
-						_msptItem = currEdge.getItem(i);
-						_entryWeight = _msptItem.weight;
+						_entryWeight = _storage.getWeight(currSlot, i);
 						
 						if (_entryWeight == 0.0)
 							continue;
 
-						_msptSubItem = ee.getItem(i);
-
-						if (_msptItem.update == false) {
-		//					upwardItersSkipped++;
+						if (!_storage.isUpdate(currSlot, i))
 							continue;
-						}
 						
 						_tmpWeight = _edgeWeight + _entryWeight;
+						double eeWeight = _storage.getWeight(eeSlot, i);
 
-						if (_msptSubItem.weight > _tmpWeight || _msptSubItem.weight == 0.0) {
-							_msptSubItem.weight = _tmpWeight;
-							_msptSubItem.edge = iter.getEdge();
-							_msptSubItem.parent = currEdge;
-							_msptSubItem.update = true;
-							
+						if (eeWeight > _tmpWeight || eeWeight == 0.0) {
+							_storage.setItem(eeSlot, i, _tmpWeight, iter.getEdge(), currSlot);
 							_addToQueue = true;
-		//					upwardIters++;
-
-						} //else
-		//					upwardItersTotal++;
+						}
 					}
 
 					if (_addToQueue) {
-						ee.updateWeights();
-						prioQueue.remove(ee);
-						prioQueue.add(ee);
+						_storage.updateWeights(eeSlot);
+						_prioQueue.update(eeSlot);
 					}
 				}
 			}
 		}
 		
-		currEdge.resetUpdate(false);
+		_storage.resetUpdate(currSlot, false);
 	}
 
-	private void fillEdgesDownward(MultiTreeSPEntry currEdge, PriorityQueue<MultiTreeSPEntry> prioQueue,
-			IntObjectMap<MultiTreeSPEntry> shortestWeightMap, EdgeExplorer explorer) {
-
-		EdgeIterator iter = explorer.setBaseNode(currEdge.adjNode);
+	private void fillEdgesDownward(int currSlot, EdgeExplorer explorer) {
+		EdgeIterator iter = explorer.setBaseNode(_storage.getAdjNode(currSlot));
 
 		if (iter == null)
 			return;
@@ -317,68 +350,50 @@ public class RPHASTAlgorithm extends AbstractManyToManyRoutingAlgorithm {
 			_edgeWeight = _weighting.calcWeight(iter, false, 0);
 
 			if (!Double.isInfinite(_edgeWeight)) {
-				MultiTreeSPEntry ee = shortestWeightMap.get(iter.getAdjNode());
-
-				if (ee == null) {
-					ee = new MultiTreeSPEntry(iter.getAdjNode(), iter.getEdge(), _edgeWeight, true, currEdge, currEdge.getSize());
-					ee.visited = true;
+				int eeSlot = _storage.getSlot(iter.getAdjNode());
 
-					shortestWeightMap.put(iter.getAdjNode(), ee);
-					prioQueue.add(ee);
+				if (eeSlot == MultiTreeSPStorage.NO_SLOT) {
+					eeSlot = _storage.addEntry(iter.getAdjNode(), iter.getEdge(), _edgeWeight, true, currSlot);
+					_storage.setVisited(eeSlot, true);
+					_prioQueue.update(eeSlot);
 				} else {
 					_addToQueue = false;
 					
 					for (int i = 0; i < _treeEntrySize; ++i) {
-						_msptItem = currEdge.getItem(i);
-						_entryWeight = _msptItem.weight;
+						_entryWeight = _storage.getWeight(currSlot, i);
 						
 						if (_entryWeight == 0.0)
 							continue;
 
-						if (_msptItem.update == false) {
-		//					downwardItersSkipped++;
+						if (!_storage.isUpdate(currSlot, i))
 							continue;
-						}
 
 						_tmpWeight = _edgeWeight + _entryWeight;
+						double eeWeight = _storage.getWeight(eeSlot, i);
 
-						MultiTreeSPEntryItem eeItem = ee.getItem(i);
-
-						if (eeItem.weight > _tmpWeight || eeItem.weight == 0.0) {
-							eeItem.weight = _tmpWeight;
-							eeItem.edge = iter.getEdge();
-							eeItem.parent = currEdge;
-							eeItem.update = true;
-							
+						if (eeWeight > _tmpWeight || eeWeight == 0.0) {
+							_storage.setItem(eeSlot, i, _tmpWeight, iter.getEdge(), currSlot);
 							_addToQueue = true;
-		//					downwardIters++;
-						} //else
-						//	downwardItersTotal++;
+						}
 					}
 					
-					ee.updateWeights();
+					_storage.updateWeights(eeSlot);
 					
-					if (ee.visited == false) {
-						// // This is the case if the node has been assigned a
-						// weight in
-						// // the upwards pass (fillEdges). We need to use it in
-						// the
-						// // downwards pass to access lower level nodes, though
-						// the
-						// weight
-						// // does not have to be reset necessarily //
-						ee.visited = true;
-						ee.resetUpdate(true);
-						prioQueue.add(ee);
+					if (!_storage.isVisited(eeSlot)) {
+						// This is the case if the node has been assigned a weight in
+						// the upwards pass (fillEdges). We need to use it in the
+						// downwards pass to access lower level nodes, though the weight
+						// does not have to be reset necessarily
+						_storage.setVisited(eeSlot, true);
+						_storage.resetUpdate(eeSlot, true);
+						_prioQueue.update(eeSlot);
 					} else if (_addToQueue) {
-						ee.visited = true;
-						prioQueue.remove(ee);
-						prioQueue.add(ee);
+						_prioQueue.update(eeSlot);
 					}
 				}
 			}
 		}
 		
-		currEdge.resetUpdate(false);
+		_storage.resetUpdate(currSlot, false);
 	}
 }
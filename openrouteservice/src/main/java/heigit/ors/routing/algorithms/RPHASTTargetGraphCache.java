@@ -0,0 +1,195 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.algorithms;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.graphhopper.storage.Graph;
+
+import heigit.ors.services.matrix.MatrixServiceSettings;
+
+/**
+ * LRU cache of RPHAST target graphs (the downward CH edges reachable from a set of target nodes). The cached graphs
+ * are built on the main CH graph and are read-only, so they can be shared by concurrent matrix requests. The cache is
+ * bounded by the number of entries as well as by the estimated memory usage of the stored graphs.
+ */
+public class RPHASTTargetGraphCache {
+	private static RPHASTTargetGraphCache mInstance;
+
+	private LinkedHashMap<CacheKey, CacheEntry> _entries;
+	private int _maximumEntries;
+	private long _maximumMemory;
+	private long _memoryUsage;
+
+	public static class CacheKey
+	{
+		public final String graphLocation;
+		public final String weighting;
+		public final int[] nodes;
+		private final int _hashCode;
+
+		public CacheKey(String graphLocation, String weighting, int[] nodes)
+		{
+			this.graphLocation = graphLocation;
+			this.weighting = weighting;
+			this.nodes = nodes;
+			_hashCode = 31 * (31 * graphLocation.hashCode() + weighting.hashCode()) + Arrays.hashCode(nodes);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return _hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (!(obj instanceof CacheKey))
+				return false;
+
+			CacheKey other = (CacheKey)obj;
+			return _hashCode == other._hashCode && graphLocation.equals(other.graphLocation) && weighting.equals(other.weighting) && Arrays.equals(nodes, other.nodes);
+		}
+	}
+
+	static class CacheEntry
+	{
+		public final Graph graph;
+		public final SubGraph targetGraph;
+		public final long memory;
+
+		public CacheEntry(Graph graph, SubGraph targetGraph)
+		{
+			this.graph = graph;
+			this.targetGraph = targetGraph;
+			this.memory = targetGraph.getMemoryUsage();
+		}
+	}
+
+	public RPHASTTargetGraphCache(int maximumEntries, long maximumMemory)
+	{
+		_maximumEntries = maximumEntries;
+		_maximumMemory = maximumMemory;
+		_entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true);
+	}
+
+	public static synchronized RPHASTTargetGraphCache getInstance()
+	{
+		if (mInstance == null)
+			mInstance = new RPHASTTargetGraphCache(MatrixServiceSettings.getMaximumCachedTargetGraphs(), MatrixServiceSettings.getMaximumCachedTargetGraphsMemory());
+
+		return mInstance;
+	}
+
+	public boolean isEnabled()
+	{
+		return _maximumEntries > 0 && _maximumMemory > 0;
+	}
+
+	/**
+	 * Creates a key for the given target nodes. The array is sorted and duplicates are removed, so that the same
+	 * set of targets always maps to the same key regardless of the order of the locations in the request.
+	 */
+	public CacheKey createKey(String graphLocation, String weighting, int[] nodes)
+	{
+		int[] sorted = Arrays.copyOf(nodes, nodes.length);
+		Arrays.sort(sorted);
+
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++)
+		{
+			if (i == 0 || sorted[i] != sorted[i - 1])
+				sorted[n++] = sorted[i];
+		}
+
+		return new CacheKey(graphLocation, weighting, n == sorted.length ? sorted : Arrays.copyOf(sorted, n));
+	}
+
+	/**
+	 * Returns the target graph stored for the given key, or null if there is none or it was built on a graph
+	 * instance other than the given one (e.g. before the graph was updated).
+	 */
+	public synchronized SubGraph get(CacheKey key, Graph graph)
+	{
+		CacheEntry entry = _entries.get(key);
+		if (entry == null)
+			return null;
+
+		if (entry.graph != graph)
+		{
+			remove(key);
+			return null;
+		}
+
+		return entry.targetGraph;
+	}
+
+	public synchronized void put(CacheKey key, Graph graph, SubGraph targetGraph)
+	{
+		CacheEntry entry = new CacheEntry(graph, targetGraph);
+		if (entry.memory > _maximumMemory)
+			return;
+
+		remove(key);
+
+		_entries.put(key, entry);
+		_memoryUsage += entry.memory;
+
+		Iterator<Map.Entry<CacheKey, CacheEntry>> iter = _entries.entrySet().iterator();
+		while ((_entries.size() > _maximumEntries || _memoryUsage > _maximumMemory) && iter.hasNext())
+		{
+			Map.Entry<CacheKey, CacheEntry> eldest = iter.next();
+			_memoryUsage -= eldest.getValue().memory;
+			iter.remove();
+		}
+	}
+
+	/**
+	 * Removes all target graphs that were built for the graph stored at the given location.
+	 */
+	public synchronized void invalidate(String graphLocation)
+	{
+		Iterator<Map.Entry<CacheKey, CacheEntry>> iter = _entries.entrySet().iterator();
+		while (iter.hasNext())
+		{
+			Map.Entry<CacheKey, CacheEntry> e = iter.next();
+			if (e.getKey().graphLocation.equals(graphLocation))
+			{
+				_memoryUsage -= e.getValue().memory;
+				iter.remove();
+			}
+		}
+	}
+
+	public synchronized int size()
+	{
+		return _entries.size();
+	}
+
+	public synchronized long getMemoryUsage()
+	{
+		return _memoryUsage;
+	}
+
+	private void remove(CacheKey key)
+	{
+		CacheEntry entry = _entries.remove(key);
+		if (entry != null)
+			_memoryUsage -= entry.memory;
+	}
+}
@@ -19,6 +19,8 @@ public class SubGraph {
 
 	private GHIntObjectHashMap<EdgeIteratorLink> _node2edgesMap;
 	private Graph _baseGraph;
+	private SubGraph _parent;
+	private int _edgesCount;
 
 	class EdgeIteratorLink  {
 		public EdgeIteratorState state;
@@ -49,11 +51,13 @@ public class SubGraph {
 	{
 		private EdgeIteratorState _currState;
 		private EdgeIteratorLink _link;
+		private EdgeIteratorLink _nextChain;
 		private boolean _firstRun = true;
 
-		public EdgeIteratorLinkIterator(EdgeIteratorLink link)
+		public EdgeIteratorLinkIterator(EdgeIteratorLink link, EdgeIteratorLink nextChain)
 		{
 			_link = link;
+			_nextChain = nextChain;
 			_currState = link.state;
 		}
 
@@ -172,6 +176,12 @@ public class SubGraph {
 
 			_link = _link.next;
 
+			if (_link == null && _nextChain != null)
+			{
+				_link = _nextChain;
+				_nextChain = null;
+			}
+
 			if (_link == null)
 			{
 				_currState = null;
@@ -228,6 +238,15 @@ public class SubGraph {
 		_node2edgesMap = new GHIntObjectHashMap<EdgeIteratorLink>(Math.min(Math.max(200, graph.getNodes() / 10), 2000));
 	}
 
+	/**
+	 * Sets a read-only graph whose edges are returned in addition to the edges of this graph. 
+	 * This allows to combine a shared (cached) graph with a small request-specific one.
+	 */
+	public void setParent(SubGraph parent)
+	{
+		_parent = parent;
+	}
+
 	/**
 	 * Returns true/false depending on whether node is already in the graph or not.
 	 */
@@ -239,6 +258,8 @@ public class SubGraph {
 			return true;
 		}
 
+		_edgesCount++;
+
 		EdgeIteratorState iterState = null;
 		if (reverse)
 		{
@@ -272,13 +293,36 @@ public class SubGraph {
 
 	public boolean containsNode(int adjNode)
 	{
-		return _node2edgesMap.containsKey(adjNode);
+		return _node2edgesMap.containsKey(adjNode) || (_parent != null && _parent.containsNode(adjNode));
 	}
 
 	public EdgeIterator setBaseNode(int baseNode)
 	{
 		EdgeIteratorLink link = _node2edgesMap.get(baseNode);
-		return link == null ? null: new EdgeIteratorLinkIterator(link);
+		EdgeIteratorLink parentLink = _parent == null ? null : _parent._node2edgesMap.get(baseNode);
+
+		if (link == null)
+			return parentLink == null ? null : new EdgeIteratorLinkIterator(parentLink, null);
+		else
+			return new EdgeIteratorLinkIterator(link, parentLink);
+	}
+
+	public int getNodesCount()
+	{
+		return _node2edgesMap.size();
+	}
+
+	public int getEdgesCount()
+	{
+		return _edgesCount;
+	}
+
+	/**
+	 * Returns a rough estimate of the number of bytes occupied by this graph (map slots, links and detached edge states).
+	 */
+	public long getMemoryUsage()
+	{
+		return 24L * _node2edgesMap.size() + 96L * _edgesCount;
 	}
 
 	public EdgeExplorer createExplorer()
@@ -0,0 +1,56 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.algorithms;
+
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.BeelineWeightApproximator;
+import com.graphhopper.routing.weighting.WeightApproximator;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.Helper;
+
+import heigit.ors.routing.graphhopper.extensions.weighting.TimeDependentWeighting;
+
+/**
+ * Time dependent A* which guides the search by the beeline distance to the target at the minimum weight of the
+ * weighting.
+ */
+public class TimeDependentAStar extends TimeDependentDijkstra {
+	private WeightApproximator _weightApprox;
+
+	public TimeDependentAStar(Graph graph, TimeDependentWeighting weighting, TraversalMode tMode) {
+		super(graph, weighting, tMode);
+
+		BeelineWeightApproximator defaultApprox = new BeelineWeightApproximator(nodeAccess, weighting);
+		defaultApprox.setDistanceCalc(Helper.DIST_PLANE);
+		_weightApprox = defaultApprox;
+	}
+
+	public TimeDependentAStar setApproximation(WeightApproximator approx) {
+		_weightApprox = approx;
+		return this;
+	}
+
+	@Override
+	protected void initTo(int to) {
+		_weightApprox.setTo(to);
+	}
+
+	@Override
+	protected double estimate(int node) {
+		return _weightApprox.approximate(node);
+	}
+
+	@Override
+	public String getName() {
+		return "td_astar";
+	}
+}
@@ -0,0 +1,46 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.algorithms;
+
+import com.graphhopper.routing.AbstractRoutingAlgorithm;
+import com.graphhopper.routing.AlgorithmOptions;
+import com.graphhopper.routing.RoutingAlgorithm;
+import com.graphhopper.routing.RoutingAlgorithmFactory;
+import com.graphhopper.storage.Graph;
+
+import heigit.ors.routing.graphhopper.extensions.weighting.TimeDependentWeighting;
+
+/**
+ * Creates time dependent algorithms for time dependent weightings: A* for the astar algorithms and Dijkstra
+ * otherwise, both unidirectional as the arrival time at the target is not known in advance. The time dependent
+ * weighting must be the outermost one, other weightings (e.g. the turn costs) have to be below it.
+ */
+public class TimeDependentAlgorithmFactory implements RoutingAlgorithmFactory {
+	@Override
+	public RoutingAlgorithm createAlgo(Graph g, AlgorithmOptions opts) {
+		// a wrapped time dependent weighting would silently lead to a route for the departure time only
+		if (!(opts.getWeighting() instanceof TimeDependentWeighting))
+			throw new IllegalArgumentException("A time dependent weighting is required, got " + opts.getWeighting().getName() + ".");
+
+		TimeDependentWeighting weighting = (TimeDependentWeighting) opts.getWeighting();
+		AbstractRoutingAlgorithm algo;
+
+		if (opts.getAlgorithm() != null && opts.getAlgorithm().startsWith("astar"))
+			algo = new TimeDependentAStar(g, weighting, opts.getTraversalMode());
+		else
+			algo = new TimeDependentDijkstra(g, weighting, opts.getTraversalMode());
+
+		algo.setMaxVisitedNodes(opts.getMaxVisitedNodes());
+
+		return algo;
+	}
+}
@@ -0,0 +1,168 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.algorithms;
+
+import java.util.PriorityQueue;
+
+import com.carrotsearch.hppc.IntObjectMap;
+import com.graphhopper.coll.GHIntObjectHashMap;
+import com.graphhopper.routing.AbstractRoutingAlgorithm;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.SPTEntry;
+import com.graphhopper.util.EdgeExplorer;
+import com.graphhopper.util.EdgeIterator;
+
+import heigit.ors.routing.graphhopper.extensions.weighting.TimeDependentWeighting;
+
+/**
+ * Dijkstra which evaluates the weight of every edge at the time at which it is entered. The time of arrival at a node
+ * is kept in its shortest path tree entry and is derived from the travel time of the edges, not from their weight, so
+ * that the weighting can still apply its preferences. The search is exact as long as the weights satisfy the FIFO
+ * property, i.e. entering an edge later never leads to an earlier arrival, which holds apart from the borders of
+ * the buckets of the speed profiles.
+ */
+public class TimeDependentDijkstra extends AbstractRoutingAlgorithm {
+	protected TimeDependentWeighting _tdWeighting;
+	protected IntObjectMap<TDEntry> _fromMap;
+	protected PriorityQueue<TDEntry> _fromHeap;
+	protected TDEntry _currEdge;
+	private int _visitedNodes;
+	private int _to = -1;
+
+	public static class TDEntry extends SPTEntry {
+		public long time; // milliseconds since the departure at the adjacent node
+		public double weightOfVisitedPath;
+
+		public TDEntry(int edgeId, int adjNode, double weight, long time, double weightOfVisitedPath) {
+			super(edgeId, adjNode, weight);
+			this.time = time;
+			this.weightOfVisitedPath = weightOfVisitedPath;
+		}
+
+		public TDEntry getParent() {
+			return (TDEntry) parent;
+		}
+	}
+
+	public TimeDependentDijkstra(Graph graph, TimeDependentWeighting weighting, TraversalMode tMode) {
+		super(graph, weighting, tMode);
+
+		_tdWeighting = weighting;
+		int size = Math.min(Math.max(200, graph.getNodes() / 10), 2000);
+		_fromHeap = new PriorityQueue<TDEntry>(size);
+		_fromMap = new GHIntObjectHashMap<TDEntry>(size);
+	}
+
+	@Override
+	public Path calcPath(int from, int to) {
+		checkAlreadyRun();
+
+		_to = to;
+		initTo(to);
+		_currEdge = new TDEntry(EdgeIterator.NO_EDGE, from, estimate(from), 0, 0);
+		if (!traversalMode.isEdgeBased())
+			_fromMap.put(from, _currEdge);
+
+		runAlgo();
+
+		return extractPath();
+	}
+
+	/**
+	 * Called before the search with the node to which the path is calculated.
+	 */
+	protected void initTo(int to) {
+	}
+
+	/**
+	 * Returns a lower bound of the weight from the node to the target, which is added to the weight of its entry.
+	 */
+	protected double estimate(int node) {
+		return 0;
+	}
+
+	protected void runAlgo() {
+		EdgeExplorer explorer = outEdgeExplorer;
+		while (true) {
+			_visitedNodes++;
+			if (isMaxVisitedNodesExceeded() || finished())
+				break;
+
+			EdgeIterator iter = explorer.setBaseNode(_currEdge.adjNode);
+			while (iter.next()) {
+				if (!accept(iter, _currEdge.edge))
+					continue;
+
+				double weight = _tdWeighting.calcWeight(iter, false, _currEdge.edge, _currEdge.time);
+				if (Double.isInfinite(weight))
+					continue;
+
+				double tmpWeight = _currEdge.weightOfVisitedPath + weight;
+				int traversalId = traversalMode.createTraversalId(iter, false);
+				TDEntry nEdge = _fromMap.get(traversalId);
+
+				if (nEdge == null) {
+					long time = _currEdge.time + _tdWeighting.calcMillis(iter, false, _currEdge.edge, _currEdge.time);
+					nEdge = new TDEntry(iter.getEdge(), iter.getAdjNode(), tmpWeight + estimate(iter.getAdjNode()), time, tmpWeight);
+					nEdge.parent = _currEdge;
+					_fromMap.put(traversalId, nEdge);
+					_fromHeap.add(nEdge);
+				} else if (nEdge.weightOfVisitedPath > tmpWeight) {
+					_fromHeap.remove(nEdge);
+					nEdge.edge = iter.getEdge();
+					nEdge.time = _currEdge.time + _tdWeighting.calcMillis(iter, false, _currEdge.edge, _currEdge.time);
+					nEdge.weight = tmpWeight + (nEdge.weight - nEdge.weightOfVisitedPath);
+					nEdge.weightOfVisitedPath = tmpWeight;
+					nEdge.parent = _currEdge;
+					_fromHeap.add(nEdge);
+				}
+			}
+
+			if (_fromHeap.isEmpty())
+				break;
+
+			_currEdge = _fromHeap.poll();
+			if (_currEdge == null)
+				throw new AssertionError("Empty edge cannot happen");
+		}
+	}
+
+	@Override
+	protected boolean finished() {
+		return _currEdge.adjNode == _to;
+	}
+
+	@Override
+	protected Path extractPath() {
+		if (_currEdge == null || !finished())
+			return createEmptyPath();
+
+		return new TimeDependentPath(graph, _tdWeighting).setWeight(_currEdge.weightOfVisitedPath).setSPTEntry(_currEdge).extract();
+	}
+
+	@Override
+	protected boolean isMaxVisitedNodesExceeded() {
+		return maxVisitedNodes < _visitedNodes;
+	}
+
+	@Override
+	public int getVisitedNodes() {
+		return _visitedNodes;
+	}
+
+	@Override
+	public String getName() {
+		return "td_dijkstra";
+	}
+}
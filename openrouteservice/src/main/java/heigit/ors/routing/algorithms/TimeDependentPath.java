@@ -0,0 +1,91 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.algorithms;
+
+import com.carrotsearch.hppc.IntLongHashMap;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.weighting.AbstractWeighting;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeIteratorState;
+
+import heigit.ors.routing.algorithms.TimeDependentDijkstra.TDEntry;
+import heigit.ors.routing.graphhopper.extensions.weighting.TimeDependentWeighting;
+
+/**
+ * Path of a time dependent search. The time of every edge is taken from the arrival times stored in the shortest
+ * path tree instead of being calculated for the departure time. The instructions are calculated with the times at
+ * which their edges are entered as well, so that the durations of the steps add up to the time of the path.
+ */
+public class TimeDependentPath extends Path {
+	/**
+	 * Calculates the time of an edge of the path for the time at which the path enters it.
+	 */
+	private static class PathWeighting extends AbstractWeighting {
+		private final TimeDependentWeighting _tdWeighting;
+		private final IntLongHashMap _entryTimes = new IntLongHashMap();
+
+		public PathWeighting(TimeDependentWeighting tdWeighting) {
+			super(tdWeighting.getFlagEncoder());
+			_tdWeighting = tdWeighting;
+		}
+
+		@Override
+		public double calcWeight(EdgeIteratorState edgeState, boolean reverse, int prevOrNextEdgeId) {
+			return _tdWeighting.calcWeight(edgeState, reverse, prevOrNextEdgeId, _entryTimes.getOrDefault(edgeState.getEdge(), 0));
+		}
+
+		@Override
+		public long calcMillis(EdgeIteratorState edgeState, boolean reverse, int prevOrNextEdgeId) {
+			return _tdWeighting.calcMillis(edgeState, reverse, prevOrNextEdgeId, _entryTimes.getOrDefault(edgeState.getEdge(), 0));
+		}
+
+		@Override
+		public double getMinWeight(double distance) {
+			return _tdWeighting.getMinWeight(distance);
+		}
+
+		@Override
+		public String getName() {
+			return _tdWeighting.getName();
+		}
+	}
+
+	private PathWeighting _pathWeighting;
+	private TDEntry _entry;
+
+	public TimeDependentPath(Graph graph, TimeDependentWeighting weighting) {
+		this(graph, new PathWeighting(weighting));
+	}
+
+	private TimeDependentPath(Graph graph, PathWeighting pathWeighting) {
+		super(graph, pathWeighting);
+		_pathWeighting = pathWeighting;
+	}
+
+	@Override
+	public Path extract() {
+		_entry = (TDEntry) sptEntry;
+		return super.extract();
+	}
+
+	@Override
+	protected void processEdge(int edgeId, int adjNode, int prevEdgeId) {
+		EdgeIteratorState iter = graph.getEdgeIteratorState(edgeId, adjNode);
+		distance += iter.getDistance();
+		// the edges are processed from the target, so that the entry of the edge is the current one
+		long entryTime = _entry.getParent().time;
+		time += _entry.time - entryTime;
+		_pathWeighting._entryTimes.put(edgeId, entryTime);
+		addEdge(edgeId);
+		_entry = _entry.getParent();
+	}
+}
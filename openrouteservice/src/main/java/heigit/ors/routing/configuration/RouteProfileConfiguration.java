@@ -15,6 +15,7 @@ public class RouteProfileConfiguration
 	private Boolean _enabled = true;
 	private String _profiles; // comma separated
 	private String _graphPath;
+	private String _graphDataAccess = "RAM_STORE";
 	private Map<String, Map<String, String>> _extStorages;
 	private Map<String, Map<String, String>> _graphBuilders;
 	private Double _maximumDistance = 0.0;
@@ -70,6 +71,7 @@ public class RouteProfileConfiguration
 		rpc._enabled = this._enabled;
 		rpc._profiles = this._profiles;
 		rpc._graphPath = this._graphPath;
+		rpc._graphDataAccess = this._graphDataAccess;
 			
 		rpc._maximumDistance = this._maximumDistance;
 		rpc._maximumSegmentDistanceWithDynamicWeights = this._maximumSegmentDistanceWithDynamicWeights;
@@ -136,6 +138,20 @@ public class RouteProfileConfiguration
 		return _graphPath;
 	}
 	
+	/**
+	 * Sets the storage type of the graph and its extensions, RAM_STORE (loaded into the heap) or MMAP (memory-mapped
+	 * files, which are shared through the page cache by all processes loading the same graph folder).
+	 */
+	public void setGraphDataAccess(String value)
+	{
+		_graphDataAccess = value;
+	}
+
+	public String getGraphDataAccess()
+	{
+		return _graphDataAccess;
+	}
+
 	public void setExtStorages(Map<String, Map<String, String>> value)
 	{
 		_extStorages = value; 
@@ -88,6 +88,9 @@ public class RoutingManagerConfiguration
 					case "encoder_flags_size":
 						profile.setEncoderFlagsSize(Integer.parseInt(paramItem.getValue().toString()));
 						break;
+					case "graph_data_access":
+						profile.setGraphDataAccess(StringUtility.trimQuotes(paramItem.getValue().toString()).toUpperCase());
+						break;
 					case "instructions":
 						profile.setInstructions(Boolean.parseBoolean(paramItem.getValue().toString()));
 						break;
@@ -9,34 +9,140 @@
  *|	        	                                       	http://www.giscience.uni-hd.de
  *|								
  *|----------------------------------------------------------------------------------------------*/
-
 package heigit.ors.routing.graphhopper.extensions;
 
-import com.carrotsearch.hppc.IntObjectMap;
-import com.graphhopper.storage.SPTEntry;
+import java.util.Arrays;
+
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.graphhopper.util.EdgeIterator;
 
+/**
+ * The shortest path tree of an isochrone search. Every node reached by the search gets a slot, its weight, the edge
+ * from its parent and the slot of the parent are stored in primitive arrays at the index of the slot. Slots are
+ * assigned in the order in which the nodes are reached, the start node having slot 0.
+ * <p>
+ * The arrays are kept when the map is cleared, so that an instance can be reused for the next search. Clearing
+ * only resets the nodes which have been reached.
+ */
 public class AccessibilityMap {
-	private IntObjectMap<SPTEntry> map;
-	private SPTEntry edgeEntry;
-	
-	public AccessibilityMap(IntObjectMap<SPTEntry> map, SPTEntry edgeEntry)
+	public static final int NO_SLOT = -1;
+
+	private int[] _nodes;
+	private int[] _edges;
+	private int[] _parents;
+	private double[] _weights;
+	private int _size;
+	private IntIntHashMap _node2slot;
+
+	public AccessibilityMap(int capacity)
 	{
-		this.map = map;
-		this.edgeEntry = edgeEntry;
+		capacity = Math.max(capacity, 16);
+		_nodes = new int[capacity];
+		_edges = new int[capacity];
+		_parents = new int[capacity];
+		_weights = new double[capacity];
+		_node2slot = new IntIntHashMap(capacity);
 	}
-	
+
 	public boolean isEmpty()
 	{
-		return map.size() == 0;
+		return _size == 0;
+	}
+
+	public int size()
+	{
+		return _size;
+	}
+
+	public int getCapacity()
+	{
+		return _nodes.length;
 	}
-	
-	public IntObjectMap<SPTEntry> getMap()
+
+	public void clear()
+	{
+		// IntIntHashMap.clear() resets all buckets, which is slow for a map that has grown by a large search
+		if (_size < _nodes.length / 4)
+		{
+			for (int slot = 0; slot < _size; slot++)
+				_node2slot.remove(_nodes[slot]);
+		}
+		else
+			_node2slot.clear();
+
+		_size = 0;
+	}
+
+	/**
+	 * Returns the slot of the given node or NO_SLOT if the node has not been reached.
+	 */
+	public int getSlot(int node)
 	{
-		return map;
+		return _node2slot.getOrDefault(node, NO_SLOT);
 	}
-	
-	public SPTEntry getEdgeEntry()
+
+	public int add(int node, int edge, double weight, int parentSlot)
+	{
+		if (_size == _nodes.length)
+			ensureCapacity(_size * 2);
+
+		int slot = _size++;
+		_nodes[slot] = node;
+		set(slot, edge, weight, parentSlot);
+		_node2slot.put(node, slot);
+
+		return slot;
+	}
+
+	public void set(int slot, int edge, double weight, int parentSlot)
+	{
+		_edges[slot] = edge;
+		_weights[slot] = weight;
+		_parents[slot] = parentSlot;
+	}
+
+	public int getNode(int slot)
+	{
+		return _nodes[slot];
+	}
+
+	/**
+	 * Returns the edge leading from the parent to the node of the slot, or EdgeIterator.NO_EDGE for the start node.
+	 */
+	public int getEdge(int slot)
+	{
+		return _edges[slot];
+	}
+
+	public int getParent(int slot)
+	{
+		return _parents[slot];
+	}
+
+	public double getWeight(int slot)
+	{
+		return _weights[slot];
+	}
+
+	/**
+	 * Returns the weight at the start of the edge of the slot, i.e. the weight of its parent.
+	 */
+	public double getParentWeight(int slot)
+	{
+		int parent = _parents[slot];
+		return parent == NO_SLOT ? 0.0 : _weights[parent];
+	}
+
+	public boolean isStart(int slot)
+	{
+		return _edges[slot] == EdgeIterator.NO_EDGE;
+	}
+
+	private void ensureCapacity(int capacity)
 	{
-		return edgeEntry;
+		_nodes = Arrays.copyOf(_nodes, capacity);
+		_edges = Arrays.copyOf(_edges, capacity);
+		_parents = Arrays.copyOf(_parents, capacity);
+		_weights = Arrays.copyOf(_weights, capacity);
 	}
 }
@@ -14,6 +14,7 @@ import heigit.ors.plugins.PluginManager;
 import heigit.ors.routing.configuration.RouteProfileConfiguration;
 import heigit.ors.routing.graphhopper.extensions.graphbuilders.GraphBuilder;
 import heigit.ors.routing.graphhopper.extensions.storages.builders.GraphStorageBuilder;
+import heigit.ors.routing.graphhopper.extensions.storages.builders.GraphStorageBuilderPipeline;
 
 public class GraphProcessContext {
 	private static Logger LOGGER = Logger.getLogger(GraphProcessContext.class.getName());
@@ -23,6 +24,8 @@ public class GraphProcessContext {
 	private GraphBuilder[] _arrGraphBuilders;
 	private List<GraphStorageBuilder> _storageBuilders;
 	private GraphStorageBuilder[] _arrStorageBuilders;
+	private int _storageBuilderThreads = 1;
+	private GraphStorageBuilderPipeline _storageBuilderPipeline;
 
 	public GraphProcessContext(RouteProfileConfiguration config) throws Exception
 	{
@@ -75,8 +78,33 @@ public class GraphProcessContext {
 		return _storageBuilders;
 	}
 
+	/**
+	 * Sets the number of threads which run the storage builders. With more than one thread, the builders process the
+	 * ways and edges in a GraphStorageBuilderPipeline while the reader goes on.
+	 */
+	public void setStorageBuilderThreads(int threads)
+	{
+		_storageBuilderThreads = threads;
+	}
+
+	private GraphStorageBuilderPipeline getStorageBuilderPipeline()
+	{
+		if (_storageBuilderPipeline == null && _storageBuilderThreads > 1 && _arrStorageBuilders != null)
+			_storageBuilderPipeline = new GraphStorageBuilderPipeline(_arrStorageBuilders, _storageBuilderThreads);
+
+		return _storageBuilderPipeline;
+	}
+
 	public void processWay(ReaderWay way) 
 	{
+		// failures of the pipeline are passed on, they must abort the import
+		GraphStorageBuilderPipeline pipeline = getStorageBuilderPipeline();
+		if (pipeline != null)
+		{
+			pipeline.processWay(way);
+			return;
+		}
+
 		try
 		{
 			if (_arrStorageBuilders != null)
@@ -124,42 +152,56 @@ public class GraphProcessContext {
 
 	public void processEdge(ReaderWay way, EdgeIteratorState edge)
 	{
-		if (_arrStorageBuilders != null)
+		GraphStorageBuilderPipeline pipeline = getStorageBuilderPipeline();
+		if (pipeline != null)
 		{
-			int nStorages = _arrStorageBuilders.length;
-			if (nStorages > 0)
+			pipeline.processEdge(way, edge);
+			return;
+		}
+
+		try
+		{
+			if (_arrStorageBuilders != null)
 			{
-				if (nStorages == 1)
-				{
-					_arrStorageBuilders[0].processEdge(way, edge);
-				}
-				else if (nStorages == 2)
-				{
-					_arrStorageBuilders[0].processEdge(way, edge);
-					_arrStorageBuilders[1].processEdge(way, edge);
-				}
-				else if (nStorages == 3)
-				{
-					_arrStorageBuilders[0].processEdge(way, edge);
-					_arrStorageBuilders[1].processEdge(way, edge);
-					_arrStorageBuilders[2].processEdge(way, edge);
-				}
-				else  if (nStorages == 4)
+				int nStorages = _arrStorageBuilders.length;
+				if (nStorages > 0)
 				{
-					_arrStorageBuilders[0].processEdge(way, edge);
-					_arrStorageBuilders[1].processEdge(way, edge);
-					_arrStorageBuilders[2].processEdge(way, edge);
-					_arrStorageBuilders[3].processEdge(way, edge);
-				}
-				else
-				{		
-					for (int i = 0; i < nStorages; ++i)
+					if (nStorages == 1)
+					{
+						_arrStorageBuilders[0].processEdge(way, edge);
+					}
+					else if (nStorages == 2)
+					{
+						_arrStorageBuilders[0].processEdge(way, edge);
+						_arrStorageBuilders[1].processEdge(way, edge);
+					}
+					else if (nStorages == 3)
+					{
+						_arrStorageBuilders[0].processEdge(way, edge);
+						_arrStorageBuilders[1].processEdge(way, edge);
+						_arrStorageBuilders[2].processEdge(way, edge);
+					}
+					else  if (nStorages == 4)
 					{
-						_arrStorageBuilders[i].processEdge(way, edge);
+						_arrStorageBuilders[0].processEdge(way, edge);
+						_arrStorageBuilders[1].processEdge(way, edge);
+						_arrStorageBuilders[2].processEdge(way, edge);
+						_arrStorageBuilders[3].processEdge(way, edge);
+					}
+					else
+					{		
+						for (int i = 0; i < nStorages; ++i)
+						{
+							_arrStorageBuilders[i].processEdge(way, edge);
+						}
 					}
 				}
 			}
 		}
+		catch(Exception ex)
+		{
+			LOGGER.warning(ex.getMessage() + ". Way id = " + way.getId());
+		}
 	}
 
 	public boolean createEdges(DataReaderContext readerCntx, ReaderWay way, LongArrayList osmNodeIds, long wayFlags, List<EdgeIteratorState> createdEdges) throws Exception
@@ -208,6 +250,12 @@ public class GraphProcessContext {
 
 	public void finish()
 	{
+		if (_storageBuilderPipeline != null)
+		{
+			_storageBuilderPipeline.finish();
+			_storageBuilderPipeline = null;
+		}
+
 		if (_arrStorageBuilders != null)
 		{
 			int nStorages = _arrStorageBuilders.length;
@@ -14,26 +14,28 @@
 
 package heigit.ors.routing.graphhopper.extensions;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 import heigit.ors.mapmatching.RouteSegmentInfo;
 import heigit.ors.routing.RoutingProfile;
+import heigit.ors.routing.algorithms.TimeDependentAlgorithmFactory;
+import heigit.ors.routing.graphhopper.extensions.reader.osm.SharedOSMInputFile;
+import heigit.ors.routing.graphhopper.extensions.storages.GraphStorageUtils;
+import heigit.ors.routing.graphhopper.extensions.storages.TmcEdgesGraphStorage;
+import heigit.ors.routing.graphhopper.extensions.weighting.TimeDependentWeighting;
 
 import com.graphhopper.GHRequest;
 import com.graphhopper.GHResponse;
 import com.graphhopper.GraphHopper;
 import com.graphhopper.reader.DataReader;
 import com.graphhopper.routing.Path;
+import com.graphhopper.routing.RoutingAlgorithmFactory;
 import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.HintsMap;
+import com.graphhopper.routing.util.TraversalMode;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.Graph;
 import com.graphhopper.storage.GraphHopperStorage;
 import com.graphhopper.util.EdgeIteratorState;
 import com.graphhopper.util.PointList;
@@ -44,27 +46,35 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 public class ORSGraphHopper extends GraphHopper {
 
 	private GraphProcessContext _procCntx;
-	private HashMap<Long, ArrayList<Integer>> osmId2EdgeIds; // one osm id can correspond to multiple edges 
-	private HashMap<Integer, Long> tmcEdges;
 	
 	// A route profile for referencing which is used to extract names of adjacent streets and other objects.
 	private RoutingProfile refRouteProfile;
 
-	public ORSGraphHopper(GraphProcessContext procCntx, boolean useTmc, RoutingProfile refProfile) {
+	private SharedOSMInputFile _sharedInput;
+	private String _sharedInputConsumer;
+
+	public ORSGraphHopper(GraphProcessContext procCntx, RoutingProfile refProfile) {
 		_procCntx = procCntx;
 		this.refRouteProfile= refProfile;
 		this.forDesktop();
 		
-		if (useTmc){
-			tmcEdges = new HashMap<Integer, Long>(); 
-			osmId2EdgeIds = new HashMap<Long, ArrayList<Integer>>();
-		}
 		_procCntx.init(this);
 	}
 	
+	/**
+	 * Imports the OSM data from an input which is shared with the imports of other profiles.
+	 */
+	public void setSharedInput(SharedOSMInputFile sharedInput, String consumer) {
+		_sharedInput = sharedInput;
+		_sharedInputConsumer = consumer;
+	}
+
     protected DataReader createReader(GraphHopperStorage tmpGraph) {
+		ORSOSMReader reader = new ORSOSMReader(tmpGraph, _procCntx, refRouteProfile);
+		if (_sharedInput != null)
+			reader.setSharedInput(_sharedInput, _sharedInputConsumer);
 
-		return initDataReader(new ORSOSMReader(tmpGraph, _procCntx, tmcEdges, osmId2EdgeIds, refRouteProfile));
+		return initDataReader(reader);
 	}
 	
 	public boolean load( String graphHopperFolder )
@@ -75,62 +85,31 @@ public class ORSGraphHopper extends GraphHopper {
 		return res;
     }
     
-	protected void flush()
-	{
-        super.flush();
-	}
+	@Override
+	public Weighting createTurnWeighting(Graph graph, Weighting weighting, TraversalMode tMode) {
+		// the turn costs go below the time dependent weighting, so that the algorithm factory still finds it
+		if (weighting instanceof TimeDependentWeighting) {
+			TimeDependentWeighting tdWeighting = (TimeDependentWeighting) weighting;
+			Weighting superWeighting = super.createTurnWeighting(graph, tdWeighting.getSuperWeighting(), tMode);
+			return superWeighting == tdWeighting.getSuperWeighting() ? weighting : new TimeDependentWeighting(superWeighting, tdWeighting);
+		}
 
-	@SuppressWarnings("unchecked")
-	public GraphHopper importOrLoad() {
-		GraphHopper gh = super.importOrLoad();
-		
+		return super.createTurnWeighting(graph, weighting, tMode);
+	}
 
-		if ((tmcEdges != null) && (osmId2EdgeIds !=null)) {
-			java.nio.file.Path path = Paths.get(gh.getGraphHopperLocation(), "edges_ors_traffic");
+	@Override
+	public RoutingAlgorithmFactory getAlgorithmFactory(HintsMap map) {
+		if (map.getLong("departure_time", -1) >= 0)
+			return new TimeDependentAlgorithmFactory();
 
-			if ((tmcEdges.size() == 0) || (osmId2EdgeIds.size()==0)) {
-				// try to load TMC edges from file.
-				
-				try {
-					File file = path.toFile();
-
-					if (file.exists())
-					{
-						FileInputStream fis = new FileInputStream(path.toString());
-						ObjectInputStream ois = new ObjectInputStream(fis);
-						tmcEdges = (HashMap<Integer, Long>)ois.readObject();
-						osmId2EdgeIds = (HashMap<Long, ArrayList<Integer>>)ois.readObject();	
-						ois.close();
-						fis.close();
-						System.out.printf("Serialized HashMap data is saved in trafficEdges");
-					}
-				} catch (IOException ioe) {
-					ioe.printStackTrace();
-				}
-				catch(ClassNotFoundException c)
-			      {
-			         System.out.println("Class not found");
-			         c.printStackTrace();
-			      }
-			} else {
-				// save TMC edges if needed.
-				try {
-					FileOutputStream fos = new FileOutputStream(path.toString());
-					ObjectOutputStream oos = new ObjectOutputStream(fos);
-					oos.writeObject(tmcEdges);
-					oos.writeObject(osmId2EdgeIds);
-					oos.close();
-					fos.close();
-					System.out.printf("Serialized HashMap data is saved in trafficEdges");
-				} catch (IOException ioe) {
-					ioe.printStackTrace();
-				}
-			}
-		}
+		return super.getAlgorithmFactory(map);
+	}
 
-		return gh;
+	protected void flush()
+	{
+        super.flush();
 	}
-	
+
 	public RouteSegmentInfo getRouteSegment(double[] latitudes, double[] longitudes, String vehicle,
 			EdgeFilter edgeFilter) {
 		RouteSegmentInfo result = null;
@@ -195,11 +174,11 @@ public class ORSGraphHopper extends GraphHopper {
 		return result;
 	}
 
-	public HashMap<Integer, Long> getTmcGraphEdges() {
-		return tmcEdges;
-	}
-	
-	public HashMap<Long, ArrayList<Integer>> getOsmId2EdgeIds() {		
-		return osmId2EdgeIds;
+	/**
+	 * Returns the OSM way ids of the edges which are referenced by TMC messages or null if the graph has been built
+	 * without traffic information.
+	 */
+	public TmcEdgesGraphStorage getTmcEdges() {
+		return GraphStorageUtils.getGraphExtension(getGraphHopperStorage(), TmcEdgesGraphStorage.class);
 	}
 }
\ No newline at end of file
@@ -22,6 +22,7 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
+import heigit.ors.routing.graphhopper.extensions.storages.TmcEdgesGraphStorage;
 import heigit.ors.routing.graphhopper.extensions.storages.builders.GraphStorageBuilder;
 
 import com.graphhopper.GraphHopper;
@@ -38,9 +39,15 @@ public class ORSGraphStorageFactory implements GraphStorageFactory {
 	private static Logger LOGGER = Logger.getLogger(ORSGraphStorageFactory.class.getName());
 	
 	private List<GraphStorageBuilder> _graphStorageBuilders;
+	private boolean _useTmc;
 	
 	public ORSGraphStorageFactory(List<GraphStorageBuilder> graphStorageBuilders) {
+		this(graphStorageBuilders, false);
+	}
+	
+	public ORSGraphStorageFactory(List<GraphStorageBuilder> graphStorageBuilders, boolean useTmc) {
 		_graphStorageBuilders = graphStorageBuilders;
+		_useTmc = useTmc;
 	}
 
 	@Override
@@ -77,6 +84,18 @@ public class ORSGraphStorageFactory implements GraphStorageFactory {
 			}
 		}
 
+		if (_useTmc)
+		{
+			File fileEdges  = Paths.get(dir.getLocation(), "edges").toFile();
+			File fileTmcEdges = Paths.get(dir.getLocation(), "ext_tmc_edges").toFile();
+
+			// graphs which have been built before the TMC edges were kept in a graph storage have to be rebuilt
+			if ((!hasGraph(gh) && !fileEdges.exists()) || (fileEdges.exists() && fileTmcEdges.exists()))
+				graphExtensions.add(new TmcEdgesGraphStorage());
+			else
+				LOGGER.warn("Graph at '" + dir.getLocation() + "' has no TMC edges, traffic information is not available until it is rebuilt.");
+		}
+
 		GraphExtension graphExtension = null;
 		
 		if (geTurnCosts == null && graphExtensions.size() == 0)
@@ -14,16 +14,22 @@
 
 package heigit.ors.routing.graphhopper.extensions;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.logging.Logger;
 
+import javax.xml.stream.XMLStreamException;
+
 import heigit.ors.routing.RoutingProfile;
+import heigit.ors.routing.graphhopper.extensions.storages.GraphStorageUtils;
+import heigit.ors.routing.graphhopper.extensions.storages.TmcEdgesGraphStorage;
+import heigit.ors.routing.graphhopper.extensions.reader.osm.SharedOSMInputFile;
 
 import com.carrotsearch.hppc.LongArrayList;
 import com.graphhopper.reader.ReaderNode;
 import com.graphhopper.reader.ReaderWay;
+import com.graphhopper.reader.osm.OSMInput;
 import com.graphhopper.reader.osm.OSMReader;
 import com.graphhopper.storage.GraphHopperStorage;
 import com.graphhopper.util.EdgeIteratorState;
@@ -34,22 +40,22 @@ public class ORSOSMReader extends OSMReader {
 	private static Logger LOGGER = Logger.getLogger(ORSOSMReader.class.getName());
 
 	private GraphProcessContext _procCntx;
-	private HashMap<Integer, Long> tmcEdges;
-	private HashMap<Long, ArrayList<Integer>> osmId2EdgeIds;
+	private TmcEdgesGraphStorage tmcEdges;
 	private RoutingProfile refProfile;
 	private boolean enrichInstructions;
 	private OSMDataReaderContext _readerCntx;
+	private SharedOSMInputFile _sharedInput;
+	private String _sharedInputConsumer;
 
 	private String[] TMC_ROAD_TYPES = new String[] { "motorway", "motorway_link", "trunk", "trunk_link", "primary",
 			"primary_link", "secondary", "secondary_link", "tertiary", "tertiary_link", "unclassified", "residential" };
 
-	public ORSOSMReader(GraphHopperStorage storage, GraphProcessContext procCntx, HashMap<Integer, Long> tmcEdges,  HashMap<Long, ArrayList<Integer>> osmId2EdgeIds, RoutingProfile refProfile) {
+	public ORSOSMReader(GraphHopperStorage storage, GraphProcessContext procCntx, RoutingProfile refProfile) {
 		super(storage);
 
 		this._procCntx = procCntx;
 		this._readerCntx = new OSMDataReaderContext(this);
-		this.tmcEdges = tmcEdges;
-		this.osmId2EdgeIds = osmId2EdgeIds;
+		this.tmcEdges = GraphStorageUtils.getGraphExtension(storage, TmcEdgesGraphStorage.class);
 		this.refProfile = refProfile;
 		
 		enrichInstructions = (refProfile != null) && (storage.getEncodingManager().supports("foot")
@@ -59,6 +65,22 @@ public class ORSOSMReader extends OSMReader {
 				|| storage.getEncodingManager().supports("SAFETYBIKE"));
 	}
 
+	/**
+	 * Reads the elements from the given shared input instead of decoding the file itself.
+	 */
+	public void setSharedInput(SharedOSMInputFile sharedInput, String consumer) {
+		_sharedInput = sharedInput;
+		_sharedInputConsumer = consumer;
+	}
+
+	@Override
+	protected OSMInput openOsmInputFile(File osmFile) throws XMLStreamException, IOException {
+		if (_sharedInput != null)
+			return _sharedInput.open(_sharedInputConsumer);
+
+		return super.openOsmInputFile(osmFile);
+	}
+
 	@Override
 	protected boolean isInBounds(ReaderNode node) {
 		if (_procCntx != null) {
@@ -104,34 +126,24 @@ public class ORSOSMReader extends OSMReader {
 		}
 
 		try {
-			if ((tmcEdges != null) && (osmId2EdgeIds!=null)) {
+			if (tmcEdges != null) {
 				String highwayValue = way.getTag("highway");
 
 				if (!Helper.isEmpty(highwayValue)) {
 
 					for (int i = 0; i < TMC_ROAD_TYPES.length; i++) {
 						if (TMC_ROAD_TYPES[i].equalsIgnoreCase(highwayValue)) {
-							tmcEdges.put(edge.getEdge(), way.getId());
-
-							if (osmId2EdgeIds.containsKey(way.getId())){
-								osmId2EdgeIds.get(way.getId()).add(edge.getEdge());
-
-							} else{								
-								ArrayList<Integer> edgeIds = new ArrayList<Integer>();
-								edgeIds.add(edge.getEdge()); 
-								osmId2EdgeIds.put(way.getId(), edgeIds);		
-							} 							
-
+							tmcEdges.setOsmId(edge.getEdge(), way.getId());
 							break;
 						}
 					}
 				}
 			}
-		
-			_procCntx.processEdge(way, edge);
 		} catch (Exception ex) {
 			LOGGER.warning(ex.getMessage() + ". Way id = " + way.getId());
 		}
+
+		_procCntx.processEdge(way, edge);
 	}
 	
 	@Override 
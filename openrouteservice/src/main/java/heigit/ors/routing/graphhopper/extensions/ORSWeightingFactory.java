@@ -158,6 +158,10 @@ public class ORSWeightingFactory extends DefaultWeightingFactory {
 			}
 		}
 
+		long departureTime = hintsMap.getLong("departure_time", -1);
+		if (departureTime >= 0 && graphStorage != null)
+			result = new TimeDependentWeighting(result, encoder, graphStorage, departureTime);
+
 		return result;
 	}
 
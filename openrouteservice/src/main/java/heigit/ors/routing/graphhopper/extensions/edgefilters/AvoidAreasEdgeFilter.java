@@ -16,42 +16,91 @@ package heigit.ors.routing.graphhopper.extensions.edgefilters;
 
 import java.io.Serializable;
 
+import com.graphhopper.coll.GHBitSet;
+import com.graphhopper.coll.GHTBitSet;
 import com.graphhopper.routing.util.EdgeFilter;
 import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.NodeAccess;
 import com.graphhopper.util.EdgeIteratorState;
 import com.graphhopper.util.PointList;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 
+/**
+ * Rejects the edges which run through one of the given polygons.
+ * <p>
+ * The envelope of the polygons is divided into a grid whose cells are classified lazily as lying inside a polygon,
+ * outside of all polygons or on a boundary. When the filter is created with a graph, the tower nodes of an edge are
+ * looked up in this grid: an edge starting or ending in an inside cell is rejected and an edge which cannot leave the
+ * outside cells around its tower nodes (its geometry stays within its distance of both nodes) is accepted. Only the
+ * remaining edges fetch their geometry, which is tested against the prepared polygons and the verdict is cached by
+ * edge id.
+ */
 public class AvoidAreasEdgeFilter implements EdgeFilter {
 
+	private static final int MAX_GRID_SIZE = 64; // maximum number of cells along one axis
+	private static final int MAX_CELLS_PER_EDGE = 16;
+	private static final double METERS_PER_DEGREE = 111320.0;
+	private static final double DISTANCE_TOLERANCE = 1.1;
+
+	private static final byte CELL_UNKNOWN = 0;
+	private static final byte CELL_OUTSIDE = 1;
+	private static final byte CELL_INSIDE = 2;
+	private static final byte CELL_BOUNDARY = 3;
+
 	private final boolean in;
 	private final boolean out;
 	private FlagEncoder encoder;
-	private Envelope env; 
+	private Envelope env;
 	private Polygon[] polys;
+	private PreparedGeometry[] preparedPolys;
 	private DefaultCoordinateSequence coordSequence;
 	private GeometryFactory geomFactory = new GeometryFactory();
-	
-	private double eMinX = Double.MAX_VALUE;
-	private double eMinY = Double.MAX_VALUE;
-	private double eMaxX = Double.MIN_VALUE;
-	private double eMaxY = Double.MIN_VALUE;
-	
+
+	private byte[] cells;
+	private int gridWidth;
+	private int gridHeight;
+	private double cellWidth;
+	private double cellHeight;
+
+	private NodeAccess nodeAccess;
+	private int baseNodes;
+	private int baseEdges;
+	private GHBitSet checkedEdges;
+	private GHBitSet blockedEdges;
+
 	/**
 	 * Creates an edges filter which accepts both direction of the specified vehicle.
 	 */
 	public AvoidAreasEdgeFilter(FlagEncoder encoder, Polygon[] polys)
 	{
-		this(encoder, true, true, polys);
+		this(encoder, true, true, polys, null);
+	}
+
+	/**
+	 * Creates an edges filter which accepts both direction of the specified vehicle and uses the node coordinates of
+	 * the given graph to decide most edges without fetching their geometry.
+	 */
+	public AvoidAreasEdgeFilter(FlagEncoder encoder, Polygon[] polys, Graph graph)
+	{
+		this(encoder, true, true, polys, graph);
 	}
 
 	public AvoidAreasEdgeFilter(FlagEncoder encoder, boolean in, boolean out, Polygon[] polys)
+	{
+		this(encoder, in, out, polys, null);
+	}
+
+	public AvoidAreasEdgeFilter(FlagEncoder encoder, boolean in, boolean out, Polygon[] polys, Graph graph)
 	{
 		this.encoder = encoder;
 		this.in = in;
@@ -60,26 +109,30 @@ public class AvoidAreasEdgeFilter implements EdgeFilter {
 
 		if (polys != null && polys.length > 0)
 		{
-			double minX = Double.MAX_VALUE;
-			double minY = Double.MAX_VALUE;
-			double maxX = Double.MIN_VALUE;
-			double maxY = Double.MIN_VALUE;
+			env = new Envelope();
+			preparedPolys = new PreparedGeometry[polys.length];
 
 			for (int i = 0; i< polys.length; i++)
 			{
-				Polygon poly = polys[i];
-				Envelope env = poly.getEnvelopeInternal();
-				if (env.getMinX() < minX)
-					minX = env.getMinX();
-				if (env.getMinY() < minY)
-					minY = env.getMinY();
-				if (env.getMaxX() > maxX)
-					maxX = env.getMaxX();
-				if (env.getMaxY() > maxY)
-					maxY = env.getMaxY();
+				env.expandToInclude(polys[i].getEnvelopeInternal());
+				preparedPolys[i] = PreparedGeometryFactory.prepare(polys[i]);
 			}
 
-			env = new Envelope(minX, maxX, minY, maxY);
+			double cellSize = Math.max(env.getWidth(), env.getHeight()) / MAX_GRID_SIZE;
+			gridWidth = cellSize > 0 ? Math.max(1, Math.min(MAX_GRID_SIZE, (int)Math.ceil(env.getWidth() / cellSize))) : 1;
+			gridHeight = cellSize > 0 ? Math.max(1, Math.min(MAX_GRID_SIZE, (int)Math.ceil(env.getHeight() / cellSize))) : 1;
+			cellWidth = env.getWidth() / gridWidth;
+			cellHeight = env.getHeight() / gridHeight;
+			cells = new byte[gridWidth * gridHeight];
+
+			if (graph != null)
+			{
+				nodeAccess = graph.getNodeAccess();
+				baseNodes = graph.getNodes();
+				baseEdges = graph.getAllEdges().getMaxId();
+				checkedEdges = new GHTBitSet(1000);
+				blockedEdges = new GHTBitSet(1000);
+			}
 
 			coordSequence = new DefaultCoordinateSequence(new Coordinate[1], 1);
 		}
@@ -93,90 +146,194 @@ public class AvoidAreasEdgeFilter implements EdgeFilter {
 			if (env == null)
 				return true;
 
-			boolean inEnv = false;
-			//   PointList pl = iter.fetchWayGeometry(2); // does not work
-			PointList pl = iter.fetchWayGeometry(3);
-			int size = pl.getSize();
-			
-			eMinX = Double.MAX_VALUE;
-			eMinY = Double.MAX_VALUE;
-			eMaxX = Double.MIN_VALUE;
-			eMaxY = Double.MIN_VALUE;
-
-			for (int j = 0; j < pl.getSize(); j++)
+			int edgeId = iter.getEdge();
+			// edges of a query graph which are not part of the base graph are not cached
+			boolean cacheable = checkedEdges != null && edgeId < baseEdges;
+			if (cacheable && checkedEdges.contains(edgeId))
+				return !blockedEdges.contains(edgeId);
+
+			byte state = classifyEdge(iter);
+			if (state == CELL_OUTSIDE)
+				return true;
+			if (state == CELL_INSIDE)
+				return false;
+
+			boolean accepted = acceptGeometry(iter);
+			if (cacheable)
 			{
-				double x = pl.getLon(j);
-				double y = pl.getLat(j);
-				if (env.contains(x, y))
-				{
-					inEnv = true;
-					break;
-				}
-				
-				if (x < eMinX)
-					eMinX = x;
-				if (y < eMinY)
-					 eMinY = y;
-				if (x > eMaxX)
-					eMaxX = x;
-				if (y > eMaxY)
-					eMaxY = y;
+				checkedEdges.add(edgeId);
+				if (!accepted)
+					blockedEdges.add(edgeId);
 			}
 
-			if (inEnv || !(eMinX > env.getMaxX() || eMaxX < env.getMinX() || eMinY > env.getMaxY() || eMaxY < env.getMinY()))
+			return accepted;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Classifies an edge by the grid cells around its tower nodes. Returns CELL_BOUNDARY if the edge has to be tested
+	 * against its geometry.
+	 */
+	private byte classifyEdge(EdgeIteratorState iter)
+	{
+		if (nodeAccess == null)
+			return CELL_BOUNDARY;
+
+		int baseNode = iter.getBaseNode();
+		int adjNode = iter.getAdjNode();
+		if (baseNode >= baseNodes || adjNode >= baseNodes)
+			return CELL_BOUNDARY;
+
+		double lat0 = nodeAccess.getLat(baseNode);
+		double lon0 = nodeAccess.getLon(baseNode);
+		double lat1 = nodeAccess.getLat(adjNode);
+		double lon1 = nodeAccess.getLon(adjNode);
+
+		if (getCellState(lon0, lat0) == CELL_INSIDE || getCellState(lon1, lat1) == CELL_INSIDE)
+			return CELL_INSIDE;
+
+		// every point of the edge lies within the edge distance of both tower nodes
+		double dLat = iter.getDistance() * DISTANCE_TOLERANCE / METERS_PER_DEGREE;
+		double maxLat = Math.min(89.0, Math.max(Math.abs(lat0), Math.abs(lat1)) + dLat);
+		double dLon = dLat / Math.cos(Math.toRadians(maxLat));
+
+		double minX = Math.max(lon0, lon1) - dLon;
+		double maxX = Math.min(lon0, lon1) + dLon;
+		double minY = Math.max(lat0, lat1) - dLat;
+		double maxY = Math.min(lat0, lat1) + dLat;
+
+		if (minX > env.getMaxX() || maxX < env.getMinX() || minY > env.getMaxY() || maxY < env.getMinY())
+			return CELL_OUTSIDE;
+
+		int col0 = getColumn(minX), col1 = getColumn(maxX);
+		int row0 = getRow(minY), row1 = getRow(maxY);
+		if ((col1 - col0 + 1) * (row1 - row0 + 1) > MAX_CELLS_PER_EDGE)
+			return CELL_BOUNDARY;
+
+		for (int row = row0; row <= row1; row++)
+		{
+			for (int col = col0; col <= col1; col++)
 			{
-				if (size >= 2)
-				{
-					// resize sequence if needed
-					coordSequence.resize(size);
-
-					for (int j = 0; j < size; j++)
-					{
-						double x = pl.getLon(j);
-						double y = pl.getLat(j);
-						Coordinate c =  coordSequence.getCoordinate(j);
-
-						if (c == null)
-						{
-							c = new Coordinate(x, y);
-							coordSequence.setCoordinate(j, c);
-						}
-						else
-						{
-							c.x = x;
-							c.y = y;
-						}
-					}
-
-					LineString ls = geomFactory.createLineString(coordSequence);
-
-					for (int i = 0; i < polys.length; i++)
-					{
-						Polygon poly = polys[i];
-						if (poly.contains(ls) || ls.crosses(poly))
-						{
-							return false;
-						}
-					}
-				}
-				else
-				{
-					return false;
-				}
+				if (getCellState(col, row) != CELL_OUTSIDE)
+					return CELL_BOUNDARY;
+			}
+		}
+
+		return CELL_OUTSIDE;
+	}
+
+	private boolean acceptGeometry(EdgeIteratorState iter)
+	{
+		//   PointList pl = iter.fetchWayGeometry(2); // does not work
+		PointList pl = iter.fetchWayGeometry(3);
+		int size = pl.getSize();
+
+		double eMinX = Double.MAX_VALUE;
+		double eMinY = Double.MAX_VALUE;
+		double eMaxX = -Double.MAX_VALUE;
+		double eMaxY = -Double.MAX_VALUE;
+
+		for (int j = 0; j < size; j++)
+		{
+			double x = pl.getLon(j);
+			double y = pl.getLat(j);
+
+			if (x < eMinX)
+				eMinX = x;
+			if (y < eMinY)
+				eMinY = y;
+			if (x > eMaxX)
+				eMaxX = x;
+			if (y > eMaxY)
+				eMaxY = y;
+		}
+
+		if (eMinX > env.getMaxX() || eMaxX < env.getMinX() || eMinY > env.getMaxY() || eMaxY < env.getMinY())
+			return true;
+
+		if (size < 2)
+			return false;
+
+		// resize sequence if needed
+		coordSequence.resize(size);
+
+		for (int j = 0; j < size; j++)
+		{
+			double x = pl.getLon(j);
+			double y = pl.getLat(j);
+			Coordinate c =  coordSequence.getCoordinate(j);
+
+			if (c == null)
+			{
+				c = new Coordinate(x, y);
+				coordSequence.setCoordinate(j, c);
 			}
-			/*else
+			else
 			{
-				// Check if edge geomery intersects env.
-				if (!(eMinX > env.getMaxX() || eMaxX < env.getMinX() || eMinY > env.getMaxY() || eMaxY < env.getMinY()))
+				c.x = x;
+				c.y = y;
+			}
+		}
+
+		LineString ls = geomFactory.createLineString(coordSequence);
+
+		for (int i = 0; i < preparedPolys.length; i++)
+		{
+			PreparedGeometry poly = preparedPolys[i];
+			if (poly.intersects(ls) && (poly.contains(ls) || ls.crosses(polys[i])))
+				return false;
+		}
+
+		return true;
+	}
+
+	private int getColumn(double x)
+	{
+		return Math.max(0, Math.min(gridWidth - 1, (int)((x - env.getMinX()) / cellWidth)));
+	}
+
+	private int getRow(double y)
+	{
+		return Math.max(0, Math.min(gridHeight - 1, (int)((y - env.getMinY()) / cellHeight)));
+	}
+
+	private byte getCellState(double x, double y)
+	{
+		if (!env.contains(x, y))
+			return CELL_OUTSIDE;
+
+		return getCellState(getColumn(x), getRow(y));
+	}
+
+	private byte getCellState(int col, int row)
+	{
+		int index = row * gridWidth + col;
+		byte state = cells[index];
+
+		if (state == CELL_UNKNOWN)
+		{
+			double x = env.getMinX() + col * cellWidth;
+			double y = env.getMinY() + row * cellHeight;
+			Geometry cell = geomFactory.toGeometry(new Envelope(x, x + cellWidth, y, y + cellHeight));
+
+			state = CELL_OUTSIDE;
+			for (int i = 0; i < preparedPolys.length; i++)
+			{
+				if (preparedPolys[i].containsProperly(cell))
 				{
-					
+					state = CELL_INSIDE;
+					break;
 				}
-			}	*/			
+				if (state == CELL_OUTSIDE && preparedPolys[i].intersects(cell))
+					state = CELL_BOUNDARY;
+			}
 
-			return true;
+			cells[index] = state;
 		}
 
-		return false;
+		return state;
 	}
 
 	@Override
@@ -11,6 +11,10 @@
  *|----------------------------------------------------------------------------------------------*/
 package heigit.ors.routing.graphhopper.extensions.edgefilters;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
 import heigit.ors.routing.AvoidFeatureFlags;
 import heigit.ors.routing.RouteSearchParameters;
 import heigit.ors.routing.RoutingProfileCategory;
@@ -28,11 +32,9 @@ public class AvoidFeaturesEdgeFilter implements EdgeFilter {
 	private final boolean _in;
 	private final boolean _out;
 	protected final FlagEncoder _encoder;
-	private byte[] _buffer;
-	private WayCategoryGraphStorage _extWayCategory;
+	private BitSet[] _avoidEdges;
+	private BitSet _tollwayEdges;
 	private TollwayExtractor _tollwayExtractor;
-	private int _avoidFeatureType;
-	private int _profileCategory; 
 
 	private static final int HIGHWAYS = AvoidFeatureFlags.Highways;
 	private static final int TOLLWAYS = AvoidFeatureFlags.Tollways;
@@ -46,164 +48,82 @@ public class AvoidFeaturesEdgeFilter implements EdgeFilter {
 	private static final int BRIDGES = AvoidFeatureFlags.Bridges;
 	private static final int FORDS = AvoidFeatureFlags.Fords;
 
-	public AvoidFeaturesEdgeFilter(FlagEncoder encoder, RouteSearchParameters searchParams, GraphStorage graphStorage) {
-		this(encoder, true, true, searchParams, graphStorage);
+	// the features which can be avoided by the profiles of a category
+	private static final int DRIVING_FEATURES = HIGHWAYS | TOLLWAYS | FERRIES | UNPAVEDROADS | TRACKS | BORDERS | TUNNELS | BRIDGES | FORDS;
+	private static final int CYCLING_FEATURES = FERRIES | UNPAVEDROADS | PAVEDROADS | STEPS | FORDS;
+	private static final int WALKING_FEATURES = FERRIES | STEPS | FORDS;
+	private static final int WHEELCHAIR_FEATURES = FERRIES;
+
+	public AvoidFeaturesEdgeFilter(FlagEncoder encoder, RouteSearchParameters searchParams, AvoidFeaturesIndex index, GraphStorage graphStorage) {
+		this(encoder, true, true, searchParams, index, graphStorage);
 	}
 
 	public AvoidFeaturesEdgeFilter(FlagEncoder encoder, boolean in, boolean out, RouteSearchParameters searchParams,
-			GraphStorage graphStorage) {
+			AvoidFeaturesIndex index, GraphStorage graphStorage) {
 		this._in = in;
 		this._out = out;
 
 		this._encoder = encoder;
-		this._avoidFeatureType = searchParams.getAvoidFeatureTypes();
-		this._buffer = new byte[10];
 
-		_profileCategory = RoutingProfileCategory.getFromRouteProfile(RoutingProfileType.getFromEncoderName(encoder.toString()));
+		int profileCategory = RoutingProfileCategory.getFromRouteProfile(RoutingProfileType.getFromEncoderName(encoder.toString()));
+		int avoidFeatureType = searchParams.getAvoidFeatureTypes() & getAvoidableFeatures(profileCategory);
+
+		if (profileCategory == RoutingProfileCategory.DRIVING && (avoidFeatureType & TOLLWAYS) == TOLLWAYS)
+		{
+			// tollways depend on the vehicle type, only the candidates are taken from the index
+			avoidFeatureType &= ~TOLLWAYS;
+
+			TollwaysGraphStorage extTollways = GraphStorageUtils.getGraphExtension(graphStorage, TollwaysGraphStorage.class);
+			if (extTollways != null)
+			{
+				_tollwayEdges = index.getEdges(TOLLWAYS);
+				_tollwayExtractor = new TollwayExtractor(extTollways, searchParams.getVehicleType(), searchParams.getProfileParameters());
+			}
+		}
+
+		List<BitSet> avoidEdges = new ArrayList<BitSet>();
+		while (avoidFeatureType != 0)
+		{
+			BitSet edges = index.getEdges(Integer.lowestOneBit(avoidFeatureType));
+			if (edges != null)
+				avoidEdges.add(edges);
+			avoidFeatureType &= avoidFeatureType - 1;
+		}
+
+		if (!avoidEdges.isEmpty())
+			_avoidEdges = avoidEdges.toArray(new BitSet[avoidEdges.size()]);
+	}
 
-		_extWayCategory = GraphStorageUtils.getGraphExtension(graphStorage, WayCategoryGraphStorage.class);
-		TollwaysGraphStorage extTollways = GraphStorageUtils.getGraphExtension(graphStorage, TollwaysGraphStorage.class);
-		if (extTollways != null)
-			_tollwayExtractor = new TollwayExtractor(extTollways, searchParams.getVehicleType(), searchParams.getProfileParameters());
+	private static int getAvoidableFeatures(int profileCategory)
+	{
+		if (profileCategory == RoutingProfileCategory.DRIVING)
+			return DRIVING_FEATURES;
+		else if (profileCategory == RoutingProfileCategory.CYCLING)
+			return CYCLING_FEATURES;
+		else if (profileCategory == RoutingProfileCategory.WALKING)
+			return WALKING_FEATURES;
+		else if (profileCategory == RoutingProfileCategory.WHEELCHAIR)
+			return WHEELCHAIR_FEATURES;
+
+		return 0;
 	}
 
 	@Override
 	public final boolean accept(EdgeIteratorState iter) {
 
 		if (_out && iter.isForward(_encoder) || _in && iter.isBackward(_encoder)) {
-			if (_avoidFeatureType != 0) {
-				int edgeFeatType = 0;
-				if (_extWayCategory != null) {
-					edgeFeatType = _extWayCategory.getEdgeValue(iter.getEdge(), _buffer);
-
-					if (edgeFeatType > 0) {
-
-						if (_profileCategory == RoutingProfileCategory.DRIVING)
-						{
-							if ((_avoidFeatureType & HIGHWAYS) == HIGHWAYS) {
-								if ((edgeFeatType & HIGHWAYS) == HIGHWAYS) {
-									return false;
-								}
-							}
-
-							if ((_avoidFeatureType & TOLLWAYS) == TOLLWAYS) {
-								if ((edgeFeatType & TOLLWAYS) == TOLLWAYS) {
-									if (_tollwayExtractor != null)
-									{
-										int value = _tollwayExtractor.getValue(iter.getEdge());
-										if (value != 0)
-											return false;
-									}
-								}
-							} 
-
-							if ((_avoidFeatureType & FERRIES) == FERRIES) {
-								if ((edgeFeatType & FERRIES) == FERRIES) {
-									return false;
-								}
-							} 
-
-							if ((_avoidFeatureType & UNPAVEDROADS) == UNPAVEDROADS) {
-								if ((edgeFeatType & UNPAVEDROADS) == UNPAVEDROADS) {
-									return false;
-								}
-							}
-
-							if ((_avoidFeatureType & TRACKS) == TRACKS) {
-								if ((edgeFeatType & TRACKS) == TRACKS) {
-									return false;
-								}
-							} 
-
-							if ((_avoidFeatureType & BORDERS) == BORDERS) {
-								if ((edgeFeatType & BORDERS) == BORDERS) {
-									return false;
-								}
-							} 
-
-							if ((_avoidFeatureType & TUNNELS) == TUNNELS) {
-								if ((edgeFeatType & TUNNELS) == TUNNELS) {
-									return false;
-								}
-							} 
-
-							if ((_avoidFeatureType & BRIDGES) == BRIDGES) {
-								if ((edgeFeatType & BRIDGES) == BRIDGES) {
-									return false;
-								}
-							} 
-
-							if ((_avoidFeatureType & FORDS) == FORDS) {
-								if ((edgeFeatType & FORDS) == FORDS) {
-									return false;
-								}
-							}
-						}
-						else if (_profileCategory == RoutingProfileCategory.CYCLING)
-						{
-							if ((_avoidFeatureType & FERRIES) == FERRIES) {
-								if ((edgeFeatType & FERRIES) == FERRIES) {
-									return false;
-								}
-							}
-
-							if ((_avoidFeatureType & UNPAVEDROADS) == UNPAVEDROADS) {
-								if ((edgeFeatType & UNPAVEDROADS) == UNPAVEDROADS) {
-									return false;
-								}
-							}
-
-							if ((_avoidFeatureType & PAVEDROADS) == PAVEDROADS) {
-								if ((edgeFeatType & PAVEDROADS) == PAVEDROADS) {
-									return false;
-								}
-							}
-
-							if ((_avoidFeatureType & STEPS) == STEPS) {
-								if ((edgeFeatType & STEPS) == STEPS) {
-									return false;
-								}
-							}
-
-							if ((_avoidFeatureType & FORDS) == FORDS) {
-								if ((edgeFeatType & FORDS) == FORDS) {
-									return false;
-								}
-							}
-						}
-						else if (_profileCategory == RoutingProfileCategory.WALKING)
-						{
-							if ((_avoidFeatureType & FERRIES) == FERRIES) {
-								if ((edgeFeatType & FERRIES) == FERRIES) {
-									return false;
-								}
-							}
-
-							if ((_avoidFeatureType & STEPS) == STEPS) {
-								if ((edgeFeatType & STEPS) == STEPS) {
-									return false;
-								}
-							}
-
-							if ((_avoidFeatureType & FORDS) == FORDS) {
-								if ((edgeFeatType & FORDS) == FORDS) {
-									return false;
-								}
-							}
-						}
-						else if (_profileCategory == RoutingProfileCategory.WHEELCHAIR)
-						{
-							if ((_avoidFeatureType & FERRIES) == FERRIES) {
-								if ((edgeFeatType & FERRIES) == FERRIES) {
-									return false;
-								}
-							}
-						}
-						
-					}
+			int edgeId = iter.getOriginalEdge();
+
+			if (_avoidEdges != null) {
+				for (int i = 0; i < _avoidEdges.length; i++) {
+					if (_avoidEdges[i].get(edgeId))
+						return false;
 				}
 			}
 
+			if (_tollwayEdges != null && _tollwayEdges.get(edgeId) && _tollwayExtractor.getValue(edgeId) != 0)
+				return false;
+
 			return true;
 		}
 
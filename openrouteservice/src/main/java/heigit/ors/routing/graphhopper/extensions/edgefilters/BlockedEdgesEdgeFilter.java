@@ -11,7 +11,7 @@
  *|----------------------------------------------------------------------------------------------*/
 package heigit.ors.routing.graphhopper.extensions.edgefilters;
 
-import java.util.List;
+import java.util.BitSet;
 
 import com.graphhopper.routing.util.EdgeFilter;
 import com.graphhopper.routing.util.FlagEncoder;
@@ -24,14 +24,14 @@ public class BlockedEdgesEdgeFilter implements EdgeFilter {
 	private final boolean in;
 	private final boolean out;
 	private FlagEncoder encoder;
-	private List<Integer> blockedEdges;
-	private List<Integer> blockedEdges_hv;
+	private BitSet blockedEdges;
+	private BitSet blockedEdges_hv;
 
 	/**
 	 * edges (blockedEdges) for cars and heavy vehicles
 	 * edges_hv only for heavy vehicles 
 	 **/
-	public BlockedEdgesEdgeFilter(FlagEncoder encoder, List<Integer> edges, List<Integer> edges_hv) {
+	public BlockedEdgesEdgeFilter(FlagEncoder encoder, BitSet edges, BitSet edges_hv) {
 		
 		this(encoder, true, true, edges, edges_hv);
 	}
@@ -39,7 +39,7 @@ public class BlockedEdgesEdgeFilter implements EdgeFilter {
 	 * Creates an edges filter which accepts both direction of the specified
 	 * vehicle.
 	 */
-	public BlockedEdgesEdgeFilter(FlagEncoder encoder, boolean in, boolean out, List<Integer> edges, List<Integer> edges_hv) {
+	public BlockedEdgesEdgeFilter(FlagEncoder encoder, boolean in, boolean out, BitSet edges, BitSet edges_hv) {
 		
 		this.encoder = encoder;
 		this.in = in;
@@ -51,18 +51,11 @@ public class BlockedEdgesEdgeFilter implements EdgeFilter {
 	@Override
 	public boolean accept(EdgeIteratorState iter) {
 		if (out && iter.isForward(encoder) || in && iter.isBackward(encoder)) {
-            if (blockedEdges != null)
-            {
-            	if (blockedEdges.contains(iter.getOriginalEdge()))
-            		return false;
-            }
+            if (blockedEdges != null && blockedEdges.get(iter.getOriginalEdge()))
+            	return false;
             
-            if ((blockedEdges_hv.size()!=0) && ( encoder instanceof HeavyVehicleFlagEncoder))
-            {
-         
-            	if (blockedEdges_hv.contains(iter.getOriginalEdge()))
-            		return false;
-            }
+            if (blockedEdges_hv != null && encoder instanceof HeavyVehicleFlagEncoder && blockedEdges_hv.get(iter.getOriginalEdge()))
+            	return false;
             
             return true;
 		}
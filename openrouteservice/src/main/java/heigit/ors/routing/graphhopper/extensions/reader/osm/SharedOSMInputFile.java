@@ -0,0 +1,272 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.graphhopper.extensions.reader.osm;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.log4j.Logger;
+
+import com.graphhopper.reader.ReaderElement;
+import com.graphhopper.reader.ReaderNode;
+import com.graphhopper.reader.ReaderRelation;
+import com.graphhopper.reader.ReaderWay;
+import com.graphhopper.reader.osm.OSMInput;
+import com.graphhopper.reader.osm.OSMInputFile;
+
+/**
+ * Decodes an OSM file once for several readers which import it at the same time.
+ * <p>
+ * Every registered reader has to open the same number of passes over the file (OSMReader reads it twice). A pass
+ * is decoded by a separate thread as soon as all registered readers have opened it, its elements are handed out to
+ * the readers in batches. The decoded elements are shared and therefore never modified: each reader works on its own
+ * copy of an element, as the readers add tags to the ways they process. As a reader which does not consume its
+ * elements blocks the others once its queue is full, the readers have to run in parallel.
+ */
+public class SharedOSMInputFile {
+	private static final Logger LOGGER = Logger.getLogger(SharedOSMInputFile.class.getName());
+
+	private static final int BATCH_SIZE = 1000;
+	private static final int QUEUE_CAPACITY = 32;
+	private static final ReaderElement[] END_OF_PASS = new ReaderElement[0];
+
+	private final File _osmFile;
+	private final int _workerThreads;
+	private final Set<String> _consumers = new HashSet<String>();
+	private Map<String, Subscriber> _pendingPass = new LinkedHashMap<String, Subscriber>();
+	private int _passes;
+
+	public SharedOSMInputFile(File osmFile, int workerThreads) {
+		_osmFile = osmFile;
+		_workerThreads = workerThreads;
+	}
+
+	/**
+	 * Registers a reader, identified by the location of its graph, which will read the file.
+	 */
+	public synchronized void register(String consumer) {
+		_consumers.add(consumer);
+	}
+
+	/**
+	 * Removes a reader which has finished or failed, the passes no longer wait for it.
+	 */
+	public synchronized void unregister(String consumer) {
+		if (_consumers.remove(consumer)) {
+			Subscriber subscriber = _pendingPass.remove(consumer);
+			if (subscriber != null)
+				subscriber.close();
+
+			startPassIfReady();
+		}
+	}
+
+	public synchronized boolean isRegistered(String consumer) {
+		return _consumers.contains(consumer);
+	}
+
+	public synchronized int getConsumersCount() {
+		return _consumers.size();
+	}
+
+	/**
+	 * Opens the next pass over the file for the given reader. The elements are delivered once all other readers have
+	 * opened this pass as well.
+	 */
+	public synchronized OSMInput open(String consumer) {
+		if (!_consumers.contains(consumer))
+			throw new IllegalStateException("Reader '" + consumer + "' is not registered.");
+		if (_pendingPass.containsKey(consumer))
+			throw new IllegalStateException("Reader '" + consumer + "' has already opened the next pass.");
+
+		Subscriber subscriber = new Subscriber();
+		_pendingPass.put(consumer, subscriber);
+		startPassIfReady();
+
+		return subscriber;
+	}
+
+	private void startPassIfReady() {
+		if (_pendingPass.isEmpty() || !_pendingPass.keySet().containsAll(_consumers))
+			return;
+
+		final List<Subscriber> subscribers = new ArrayList<Subscriber>(_pendingPass.values());
+		_pendingPass = new LinkedHashMap<String, Subscriber>();
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				decode(subscribers);
+			}
+		}, "ORS-osm-pass-" + (++_passes));
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void decode(List<Subscriber> subscribers) {
+		LOGGER.info(String.format("Reading '%s' for %d graphs.", _osmFile.getName(), subscribers.size()));
+
+		OSMInput in = null;
+		try {
+			in = new OSMInputFile(_osmFile).setWorkerThreads(_workerThreads).open();
+
+			ReaderElement[] batch = new ReaderElement[BATCH_SIZE];
+			int size = 0;
+			ReaderElement item;
+
+			while ((item = in.getNext()) != null) {
+				batch[size++] = item;
+				if (size == BATCH_SIZE) {
+					if (!publish(subscribers, batch))
+						return;
+
+					batch = new ReaderElement[BATCH_SIZE];
+					size = 0;
+				}
+			}
+
+			if (size > 0)
+				publish(subscribers, Arrays.copyOf(batch, size));
+			publish(subscribers, END_OF_PASS);
+		} catch (Exception ex) {
+			LOGGER.error("Unable to read '" + _osmFile.getAbsolutePath() + "'.", ex);
+
+			for (Subscriber subscriber : subscribers)
+				subscriber.fail(ex);
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (Exception ex) {
+				LOGGER.warn("Unable to close '" + _osmFile.getAbsolutePath() + "'.");
+			}
+		}
+	}
+
+	/**
+	 * Hands out a batch to all readers which have not closed their input. Returns false if there are none left.
+	 */
+	private boolean publish(List<Subscriber> subscribers, ReaderElement[] batch) throws InterruptedException {
+		boolean active = false;
+		for (Subscriber subscriber : subscribers)
+			active |= subscriber.offer(batch);
+
+		return active;
+	}
+
+	private static ReaderElement copy(ReaderElement item) {
+		ReaderElement result;
+
+		switch (item.getType()) {
+		case ReaderElement.NODE:
+			ReaderNode node = (ReaderNode) item;
+			result = new ReaderNode(node.getId(), node.getLat(), node.getLon());
+			break;
+		case ReaderElement.WAY:
+			ReaderWay way = new ReaderWay(item.getId());
+			way.getNodes().addAll(((ReaderWay) item).getNodes());
+			result = way;
+			break;
+		case ReaderElement.RELATION:
+			ReaderRelation relation = new ReaderRelation(item.getId());
+			for (ReaderRelation.Member member : ((ReaderRelation) item).getMembers())
+				relation.add(new ReaderRelation.Member(member));
+			result = relation;
+			break;
+		default:
+			// the file header is only read
+			return item;
+		}
+
+		for (Map.Entry<String, Object> tag : item.getTags().entrySet())
+			result.setTag(tag.getKey(), tag.getValue());
+
+		return result;
+	}
+
+	private class Subscriber implements OSMInput {
+		private final BlockingQueue<ReaderElement[]> _queue = new ArrayBlockingQueue<ReaderElement[]>(QUEUE_CAPACITY);
+		private volatile boolean _closed;
+		private volatile Exception _error;
+		private ReaderElement[] _batch;
+		private int _index;
+		private boolean _finished;
+
+		public boolean offer(ReaderElement[] batch) throws InterruptedException {
+			while (!_closed) {
+				if (_queue.offer(batch, 100, TimeUnit.MILLISECONDS))
+					return true;
+			}
+
+			return false;
+		}
+
+		public void fail(Exception error) {
+			_error = error;
+		}
+
+		@Override
+		public ReaderElement getNext() throws XMLStreamException {
+			while (_batch == null || _index == _batch.length) {
+				if (_finished)
+					return null;
+
+				_batch = take();
+				_index = 0;
+
+				if (_batch == END_OF_PASS)
+					_finished = true;
+			}
+
+			return copy(_batch[_index++]);
+		}
+
+		private ReaderElement[] take() {
+			try {
+				while (true) {
+					ReaderElement[] batch = _queue.poll(100, TimeUnit.MILLISECONDS);
+					if (batch != null)
+						return batch;
+					if (_error != null)
+						throw new IllegalStateException("Unable to read OSM file.", _error);
+					if (_closed)
+						return END_OF_PASS;
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Reading of OSM file was interrupted.", ex);
+			}
+		}
+
+		@Override
+		public int getUnprocessedElements() {
+			return _queue.size() * BATCH_SIZE + (_batch == null ? 0 : _batch.length - _index);
+		}
+
+		@Override
+		public void close() {
+			_closed = true;
+			_queue.clear();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.graphhopper.extensions.storages;
+
+import java.util.BitSet;
+
+import com.graphhopper.storage.GraphHopperStorage;
+
+/**
+ * Bitsets of the edges of a graph which carry a certain way category, one per bit of the values stored in
+ * WayCategoryGraphStorage. The bitsets are built once per graph and shared by all requests on it, so that
+ * AvoidFeaturesEdgeFilter tests a single bit per edge and category instead of reading the storage.
+ */
+public class AvoidFeaturesIndex {
+	// the way categories are stored in a single byte
+	private static final int NUM_CATEGORIES = 8;
+
+	private final GraphHopperStorage _graphStorage;
+	private final BitSet[] _edges;
+
+	public AvoidFeaturesIndex(GraphHopperStorage graphStorage) {
+		_graphStorage = graphStorage;
+		_edges = new BitSet[NUM_CATEGORIES];
+
+		WayCategoryGraphStorage extWayCategory = GraphStorageUtils.getGraphExtension(graphStorage, WayCategoryGraphStorage.class);
+		if (extWayCategory == null)
+			return;
+
+		byte[] buffer = new byte[10];
+		int edgesCount = (int)Math.min(graphStorage.getAllEdges().getMaxId(), extWayCategory.getCapacity());
+
+		for (int edgeId = 0; edgeId < edgesCount; edgeId++) {
+			int value = extWayCategory.getEdgeValue(edgeId, buffer);
+			while (value != 0) {
+				int bit = Integer.numberOfTrailingZeros(value);
+				if (_edges[bit] == null)
+					_edges[bit] = new BitSet(edgesCount);
+				_edges[bit].set(edgeId);
+				value &= value - 1;
+			}
+		}
+	}
+
+	public GraphHopperStorage getGraphStorage() {
+		return _graphStorage;
+	}
+
+	/**
+	 * Returns the edges which carry the given way category (one of the AvoidFeatureFlags) or null if there are none.
+	 */
+	public BitSet getEdges(int category) {
+		if (Integer.bitCount(category) != 1)
+			throw new IllegalArgumentException("A single way category is expected.");
+
+		int bit = Integer.numberOfTrailingZeros(category);
+		return bit < NUM_CATEGORIES ? _edges[bit] : null;
+	}
+}
@@ -94,7 +94,8 @@ public class HillIndexGraphStorage implements GraphExtension {
 		return value > _maxHillIndex ? _maxHillIndex : value;
 	}
 
-	public void setEdgeValue(int edgeId, int hillIndex, int reverseHillIndex) {
+	// synchronized as the HillIndexGraphStorageBuilder may run on several threads
+	public synchronized void setEdgeValue(int edgeId, int hillIndex, int reverseHillIndex) {
 		edgesCount++;
 		ensureEdgesIndex(edgeId);
 
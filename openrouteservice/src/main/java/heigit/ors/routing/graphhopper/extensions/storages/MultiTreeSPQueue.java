@@ -0,0 +1,122 @@
+package heigit.ors.routing.graphhopper.extensions.storages;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of MultiTreeSPStorage slots ordered by their total weight. The position of every slot in the heap
+ * is tracked, so that the key of a queued entry can be updated without a linear search.
+ */
+public class MultiTreeSPQueue {
+	private MultiTreeSPStorage _storage;
+	private int[] _heap;
+	private int[] _positions;
+	private int _size;
+
+	public MultiTreeSPQueue(MultiTreeSPStorage storage, int capacity) {
+		_storage = storage;
+		_heap = new int[Math.max(capacity, 16)];
+		_positions = new int[Math.max(capacity, 16)];
+		Arrays.fill(_positions, -1);
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public void clear() {
+		for (int i = 0; i < _size; i++)
+			_positions[_heap[i]] = -1;
+		_size = 0;
+	}
+
+	public boolean contains(int slot) {
+		return slot < _positions.length && _positions[slot] >= 0;
+	}
+
+	/**
+	 * Adds the slot to the queue or, if it is already queued, restores the heap order after its weight has changed.
+	 */
+	public void update(int slot) {
+		if (slot >= _positions.length) {
+			int oldLength = _positions.length;
+			_positions = Arrays.copyOf(_positions, Math.max(slot + 1, oldLength * 2));
+			Arrays.fill(_positions, oldLength, _positions.length, -1);
+		}
+
+		int pos = _positions[slot];
+		if (pos < 0) {
+			if (_size == _heap.length)
+				_heap = Arrays.copyOf(_heap, _size * 2);
+
+			_heap[_size] = slot;
+			_positions[slot] = _size;
+			siftUp(_size++);
+		} else {
+			siftUp(pos);
+			siftDown(_positions[slot]);
+		}
+	}
+
+	public int poll() {
+		int slot = _heap[0];
+		_positions[slot] = -1;
+
+		if (--_size > 0) {
+			_heap[0] = _heap[_size];
+			_positions[_heap[0]] = 0;
+			siftDown(0);
+		}
+
+		return slot;
+	}
+
+	private void siftUp(int pos) {
+		int slot = _heap[pos];
+		double weight = _storage.getTotalWeight(slot);
+
+		while (pos > 0) {
+			int parentPos = (pos - 1) >>> 1;
+			int parent = _heap[parentPos];
+			if (_storage.getTotalWeight(parent) <= weight)
+				break;
+
+			_heap[pos] = parent;
+			_positions[parent] = pos;
+			pos = parentPos;
+		}
+
+		_heap[pos] = slot;
+		_positions[slot] = pos;
+	}
+
+	private void siftDown(int pos) {
+		int slot = _heap[pos];
+		double weight = _storage.getTotalWeight(slot);
+		int half = _size >>> 1;
+
+		while (pos < half) {
+			int childPos = 2 * pos + 1;
+			int child = _heap[childPos];
+			int rightPos = childPos + 1;
+
+			if (rightPos < _size && _storage.getTotalWeight(_heap[rightPos]) < _storage.getTotalWeight(child)) {
+				childPos = rightPos;
+				child = _heap[childPos];
+			}
+
+			if (weight <= _storage.getTotalWeight(child))
+				break;
+
+			_heap[pos] = child;
+			_positions[child] = pos;
+			pos = childPos;
+		}
+
+		_heap[pos] = slot;
+		_positions[slot] = pos;
+	}
+}
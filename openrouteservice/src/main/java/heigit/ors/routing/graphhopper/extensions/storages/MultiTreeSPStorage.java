@@ -0,0 +1,195 @@
+package heigit.ors.routing.graphhopper.extensions.storages;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.graphhopper.util.EdgeIterator;
+
+/**
+ * This class stores the entries of several shortest-path-trees which share the same nodes.
+ * <p>
+ * Instead of one object per node and tree, all values are kept in primitive arrays. Every settled node gets a slot,
+ * the values of a tree are stored at index (slot * numTrees + tree). Parents are referenced by their slot.
+ */
+public class MultiTreeSPStorage {
+	public static final int NO_SLOT = -1;
+
+	private int _numTrees;
+	private int _size;
+	private int _capacity;
+
+	// per slot
+	private int[] _adjNodes;
+	private double[] _totalWeights;
+	private BitSet _visited;
+
+	// per slot and tree
+	private double[] _weights;
+	private int[] _edges;
+	private int[] _parents;
+	private BitSet _updates;
+
+	private IntIntHashMap _node2slot;
+
+	public MultiTreeSPStorage(int numTrees, int capacity) {
+		_numTrees = numTrees;
+		_capacity = Math.max(capacity, 16);
+
+		_adjNodes = new int[_capacity];
+		_totalWeights = new double[_capacity];
+		_visited = new BitSet(_capacity);
+
+		int itemsCount = _capacity * numTrees;
+		_weights = new double[itemsCount];
+		_edges = new int[itemsCount];
+		_parents = new int[itemsCount];
+		_updates = new BitSet(itemsCount);
+
+		_node2slot = new IntIntHashMap(_capacity);
+	}
+
+	public int getNumTrees() {
+		return _numTrees;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public void clear() {
+		_size = 0;
+		_visited.clear();
+		_updates.clear();
+		_node2slot.clear();
+	}
+
+	/**
+	 * Returns the slot of the entry of the given node or NO_SLOT if the node has no entry yet.
+	 */
+	public int getSlot(int node) {
+		return _node2slot.getOrDefault(node, NO_SLOT);
+	}
+
+	/**
+	 * Creates an empty entry for the given node, all trees having zero weight and no parent.
+	 */
+	public int addEntry(int adjNode) {
+		if (_size == _capacity)
+			ensureCapacity(_capacity * 2);
+
+		int slot = _size++;
+		_adjNodes[slot] = adjNode;
+		_totalWeights[slot] = 0.0;
+		_visited.clear(slot);
+
+		int from = slot * _numTrees, to = from + _numTrees;
+		Arrays.fill(_weights, from, to, 0.0);
+		Arrays.fill(_edges, from, to, EdgeIterator.NO_EDGE);
+		Arrays.fill(_parents, from, to, NO_SLOT);
+		_updates.clear(from, to);
+
+		_node2slot.put(adjNode, slot);
+
+		return slot;
+	}
+
+	/**
+	 * Creates an entry which extends every tree of the parent entry by the given edge. Trees which have not reached
+	 * the parent yet (zero weight) remain empty.
+	 */
+	public int addEntry(int adjNode, int edgeId, double edgeWeight, boolean updated, int parentSlot) {
+		int slot = addEntry(adjNode);
+		int index = slot * _numTrees;
+		int parentIndex = parentSlot * _numTrees;
+		double totalWeight = 0.0;
+
+		for (int i = 0; i < _numTrees; ++i, ++index, ++parentIndex) {
+			double entryWeight = _weights[parentIndex];
+			if (entryWeight == 0.0)
+				continue;
+
+			_weights[index] = edgeWeight + entryWeight;
+			_parents[index] = parentSlot;
+			_edges[index] = edgeId;
+			if (updated)
+				_updates.set(index);
+			totalWeight += _weights[index];
+		}
+
+		_totalWeights[slot] = totalWeight;
+
+		return slot;
+	}
+
+	public int getAdjNode(int slot) {
+		return _adjNodes[slot];
+	}
+
+	public double getTotalWeight(int slot) {
+		return _totalWeights[slot];
+	}
+
+	public boolean isVisited(int slot) {
+		return _visited.get(slot);
+	}
+
+	public void setVisited(int slot, boolean value) {
+		_visited.set(slot, value);
+	}
+
+	public double getWeight(int slot, int tree) {
+		return _weights[slot * _numTrees + tree];
+	}
+
+	public int getEdge(int slot, int tree) {
+		return _edges[slot * _numTrees + tree];
+	}
+
+	public int getParent(int slot, int tree) {
+		return _parents[slot * _numTrees + tree];
+	}
+
+	public boolean isUpdate(int slot, int tree) {
+		return _updates.get(slot * _numTrees + tree);
+	}
+
+	public void setItem(int slot, int tree, double weight, int edge, int parentSlot) {
+		int index = slot * _numTrees + tree;
+		_weights[index] = weight;
+		_edges[index] = edge;
+		_parents[index] = parentSlot;
+		_updates.set(index);
+	}
+
+	public void setWeight(int slot, int tree, double weight) {
+		_weights[slot * _numTrees + tree] = weight;
+	}
+
+	public void resetUpdate(int slot, boolean value) {
+		int from = slot * _numTrees;
+		_updates.set(from, from + _numTrees, value);
+	}
+
+	public void updateWeights(int slot) {
+		int index = slot * _numTrees;
+		double totalWeight = 0.0;
+
+		for (int i = 0; i < _numTrees; i++)
+			totalWeight += _weights[index + i];
+
+		_totalWeights[slot] = totalWeight;
+	}
+
+	private void ensureCapacity(int capacity) {
+		_adjNodes = Arrays.copyOf(_adjNodes, capacity);
+		_totalWeights = Arrays.copyOf(_totalWeights, capacity);
+
+		int itemsCount = capacity * _numTrees;
+		_weights = Arrays.copyOf(_weights, itemsCount);
+		_edges = Arrays.copyOf(_edges, itemsCount);
+		_parents = Arrays.copyOf(_parents, itemsCount);
+
+		_capacity = capacity;
+	}
+}
@@ -0,0 +1,232 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.graphhopper.extensions.storages;
+
+import java.nio.charset.StandardCharsets;
+import java.util.TimeZone;
+
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.GraphExtension;
+
+/**
+ * Stores weekly speed profiles of the edges. A profile consists of one speed in km/h per 15 minutes of the week
+ * starting on Monday 00:00, quantised to an unsigned byte; 0 means that no speed is known for that time. Edges with
+ * equal profiles share one entry: 'ext_speed_profiles' holds the distinct profiles and 'ext_speed_profiles_edges'
+ * the index of the profile of every edge (0 if an edge has none, otherwise the index plus one).
+ * <p>
+ * The times of the profiles are local times of the time zone of the storage, which is kept in the header of
+ * 'ext_speed_profiles', so that the departure times of the requests are mapped to the same week on every server.
+ */
+public class SpeedProfilesGraphStorage implements GraphExtension {
+	public static final int BUCKET_MINUTES = 15;
+	public static final int BUCKETS_PER_DAY = 24 * 60 / BUCKET_MINUTES;
+	public static final int BUCKETS_PER_WEEK = 7 * BUCKETS_PER_DAY;
+	public static final long BUCKET_MILLIS = BUCKET_MINUTES * 60 * 1000L;
+	public static final long WEEK_MILLIS = BUCKETS_PER_WEEK * BUCKET_MILLIS;
+	private static final int MAX_TIME_ZONE_LENGTH = 64; // characters of the id which fit into the header
+
+	protected DataAccess edges;
+	protected DataAccess profiles;
+	protected int edgesCount; // number of edges with profiles
+	protected int profilesCount;
+	private int maxEdgeId = -1;
+	private TimeZone timeZone;
+
+	public SpeedProfilesGraphStorage(TimeZone timeZone) {
+		if (timeZone.getID().length() > MAX_TIME_ZONE_LENGTH)
+			throw new IllegalArgumentException("The time zone id '" + timeZone.getID() + "' is too long.");
+
+		this.timeZone = timeZone;
+	}
+
+	public void init(Graph graph, Directory dir) {
+		if (edgesCount > 0)
+			throw new AssertionError("The ext_speed_profiles storage must be initialized only once.");
+
+		this.edges = dir.find("ext_speed_profiles_edges");
+		this.profiles = dir.find("ext_speed_profiles");
+	}
+
+	public void setSegmentSize(int bytes) {
+		edges.setSegmentSize(bytes);
+		profiles.setSegmentSize(bytes);
+	}
+
+	public GraphExtension create(long initBytes) {
+		edges.create(initBytes * 4);
+		profiles.create(initBytes);
+		return this;
+	}
+
+	public void flush() {
+		edges.setHeader(0, edgesCount);
+		edges.setHeader(4, maxEdgeId);
+		profiles.setHeader(0, profilesCount);
+		writeTimeZone();
+		edges.flush();
+		profiles.flush();
+	}
+
+	public void close() {
+		edges.close();
+		profiles.close();
+	}
+
+	public long getCapacity() {
+		return edges.getCapacity() + profiles.getCapacity();
+	}
+
+	public int entries() {
+		return edgesCount;
+	}
+
+	public boolean loadExisting() {
+		if (!edges.loadExisting() || !profiles.loadExisting())
+			throw new IllegalStateException("Unable to load storage 'ext_speed_profiles'. corrupt file or directory? ");
+
+		edgesCount = edges.getHeader(0);
+		maxEdgeId = edges.getHeader(4);
+		profilesCount = profiles.getHeader(0);
+		// the profiles have been imported for this time zone
+		timeZone = readTimeZone();
+		return true;
+	}
+
+	/**
+	 * Writes the id of the time zone to the header, four characters per int.
+	 */
+	private void writeTimeZone() {
+		byte[] id = timeZone.getID().getBytes(StandardCharsets.US_ASCII);
+		profiles.setHeader(4, id.length);
+
+		for (int i = 0; i < id.length; i += 4) {
+			int value = 0;
+			for (int j = 0; j < 4 && i + j < id.length; j++)
+				value |= (id[i + j] & 0xFF) << (8 * j);
+			profiles.setHeader(8 + i, value);
+		}
+	}
+
+	private TimeZone readTimeZone() {
+		byte[] id = new byte[profiles.getHeader(4)];
+
+		for (int i = 0; i < id.length; i += 4) {
+			int value = profiles.getHeader(8 + i);
+			for (int j = 0; j < 4 && i + j < id.length; j++)
+				id[i + j] = (byte) (value >>> (8 * j));
+		}
+
+		return TimeZone.getTimeZone(new String(id, StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Returns the time zone of the local times of the profiles.
+	 */
+	public TimeZone getTimeZone() {
+		return timeZone;
+	}
+
+	/**
+	 * Adds a profile of BUCKETS_PER_WEEK speeds and returns its index.
+	 */
+	public int addProfile(byte[] speeds) {
+		if (speeds.length != BUCKETS_PER_WEEK)
+			throw new IllegalArgumentException("A speed profile must have " + BUCKETS_PER_WEEK + " values.");
+
+		long pointer = (long) profilesCount * BUCKETS_PER_WEEK;
+		profiles.ensureCapacity(pointer + BUCKETS_PER_WEEK);
+		profiles.setBytes(pointer, speeds, BUCKETS_PER_WEEK);
+
+		return profilesCount++;
+	}
+
+	public void setEdgeProfile(int edgeId, int profile) {
+		long pointer = (long) edgeId * 4;
+		edges.ensureCapacity(pointer + 4);
+
+		if (getEdgeProfile(edgeId) < 0)
+			edgesCount++;
+
+		edges.setInt(pointer, profile + 1);
+
+		if (edgeId > maxEdgeId)
+			maxEdgeId = edgeId;
+	}
+
+	/**
+	 * Returns the index of the profile of the edge or -1 if the edge has none.
+	 */
+	public int getEdgeProfile(int edgeId) {
+		if (edgeId < 0 || edgeId > maxEdgeId)
+			return -1;
+
+		return edges.getInt((long) edgeId * 4) - 1;
+	}
+
+	/**
+	 * Returns the speed in km/h of the profile in the given bucket of the week or 0 if it is not known.
+	 */
+	public int getSpeed(int profile, int bucket) {
+		return profiles.getByte((long) profile * BUCKETS_PER_WEEK + bucket) & 0xFF;
+	}
+
+	/**
+	 * Returns the bucket of a time given in milliseconds since Monday 00:00.
+	 */
+	public static int getBucket(long weekTime) {
+		long time = weekTime % WEEK_MILLIS;
+		if (time < 0)
+			time += WEEK_MILLIS;
+
+		return (int) (time / BUCKET_MILLIS);
+	}
+
+	public boolean isRequireNodeField() {
+		return false;
+	}
+
+	public boolean isRequireEdgeField() {
+		return false;
+	}
+
+	public int getDefaultNodeFieldValue() {
+		return -1;
+	}
+
+	public int getDefaultEdgeFieldValue() {
+		return -1;
+	}
+
+	public GraphExtension copyTo(GraphExtension clonedStorage) {
+		if (!(clonedStorage instanceof SpeedProfilesGraphStorage)) {
+			throw new IllegalStateException("the extended storage to clone must be the same");
+		}
+
+		SpeedProfilesGraphStorage clonedSP = (SpeedProfilesGraphStorage) clonedStorage;
+
+		edges.copyTo(clonedSP.edges);
+		profiles.copyTo(clonedSP.profiles);
+		clonedSP.edgesCount = edgesCount;
+		clonedSP.profilesCount = profilesCount;
+		clonedSP.maxEdgeId = maxEdgeId;
+		clonedSP.timeZone = timeZone;
+
+		return clonedStorage;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return false;
+	}
+}
@@ -0,0 +1,279 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.graphhopper.extensions.storages;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.GraphExtension;
+
+/**
+ * Stores the OSM way ids of the edges which can be referenced by TMC traffic messages, together with an index of the
+ * edges of every way.
+ * <p>
+ * The way ids are kept per edge (0 if an edge is not referenced). The index is built when the storage is flushed:
+ * 'ext_tmc_ways' holds the sorted way ids, each followed by the offset of its first edge in 'ext_tmc_way_edges'.
+ * All lookups work on the DataAccess instances, so the storage is not copied into the heap when it is memory mapped.
+ */
+public class TmcEdgesGraphStorage implements GraphExtension {
+	private static final int WAY_ENTRY_BYTES = 12; // way id and offset of the first edge
+
+	protected DataAccess edges;
+	protected DataAccess ways;
+	protected DataAccess wayEdges;
+	protected int edgesCount; // number of edges with way ids
+	protected int waysCount;
+	private int maxEdgeId = -1;
+	private boolean indexChanged;
+
+	public TmcEdgesGraphStorage() {
+	}
+
+	public void init(Graph graph, Directory dir) {
+		if (edgesCount > 0)
+			throw new AssertionError("The ext_tmc_edges storage must be initialized only once.");
+
+		this.edges = dir.find("ext_tmc_edges");
+		this.ways = dir.find("ext_tmc_ways");
+		this.wayEdges = dir.find("ext_tmc_way_edges");
+	}
+
+	public void setSegmentSize(int bytes) {
+		edges.setSegmentSize(bytes);
+		ways.setSegmentSize(bytes);
+		wayEdges.setSegmentSize(bytes);
+	}
+
+	public GraphExtension create(long initBytes) {
+		edges.create(initBytes * 8);
+		ways.create(initBytes);
+		wayEdges.create(initBytes);
+		return this;
+	}
+
+	public void flush() {
+		if (indexChanged)
+			buildIndex();
+
+		edges.setHeader(0, edgesCount);
+		edges.setHeader(4, maxEdgeId);
+		ways.setHeader(0, waysCount);
+		edges.flush();
+		ways.flush();
+		wayEdges.flush();
+	}
+
+	public void close() {
+		edges.close();
+		ways.close();
+		wayEdges.close();
+	}
+
+	public long getCapacity() {
+		return edges.getCapacity() + ways.getCapacity() + wayEdges.getCapacity();
+	}
+
+	public int entries() {
+		return edgesCount;
+	}
+
+	public boolean loadExisting() {
+		if (!edges.loadExisting() || !ways.loadExisting() || !wayEdges.loadExisting())
+			throw new IllegalStateException("Unable to load storage 'ext_tmc_edges'. corrupt file or directory? ");
+
+		edgesCount = edges.getHeader(0);
+		maxEdgeId = edges.getHeader(4);
+		waysCount = ways.getHeader(0);
+		return true;
+	}
+
+	public void setOsmId(int edgeId, long osmId) {
+		long pointer = (long) edgeId * 8;
+		edges.ensureCapacity(pointer + 8);
+
+		long prevOsmId = getOsmId(edgeId, pointer);
+		if (prevOsmId == 0 && osmId != 0)
+			edgesCount++;
+		else if (prevOsmId != 0 && osmId == 0)
+			edgesCount--;
+
+		edges.setInt(pointer, (int) (osmId >>> 32));
+		edges.setInt(pointer + 4, (int) osmId);
+
+		if (edgeId > maxEdgeId)
+			maxEdgeId = edgeId;
+		indexChanged = true;
+	}
+
+	/**
+	 * Returns the OSM way id of the edge or 0 if the edge is not referenced.
+	 */
+	public long getOsmId(int edgeId) {
+		if (edgeId < 0 || edgeId > maxEdgeId)
+			return 0;
+
+		return getOsmId(edgeId, (long) edgeId * 8);
+	}
+
+	private long getOsmId(int edgeId, long pointer) {
+		if (edgeId > maxEdgeId)
+			return 0;
+
+		return ((long) edges.getInt(pointer) << 32) | (edges.getInt(pointer + 4) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Adds the ids of the edges of the given OSM way to the list. Returns false if the way has no edges.
+	 */
+	public boolean getEdges(long osmId, IntArrayList result) {
+		int low = 0;
+		int high = waysCount - 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long pointer = (long) mid * WAY_ENTRY_BYTES;
+			long midId = ((long) ways.getInt(pointer) << 32) | (ways.getInt(pointer + 4) & 0xFFFFFFFFL);
+
+			if (midId < osmId)
+				low = mid + 1;
+			else if (midId > osmId)
+				high = mid - 1;
+			else {
+				int from = ways.getInt(pointer + 8);
+				int to = mid + 1 < waysCount ? ways.getInt(pointer + WAY_ENTRY_BYTES + 8) : edgesCount;
+				for (int i = from; i < to; i++)
+					result.add(wayEdges.getInt((long) i * 4));
+
+				return to > from;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Sorts the edges by their way ids and writes the index of the ways.
+	 */
+	private void buildIndex() {
+		long[] osmIds = new long[edgesCount];
+		int[] edgeIds = new int[edgesCount];
+		int n = 0;
+
+		for (int edgeId = 0; edgeId <= maxEdgeId; edgeId++) {
+			long osmId = getOsmId(edgeId, (long) edgeId * 8);
+			if (osmId != 0) {
+				osmIds[n] = osmId;
+				edgeIds[n] = edgeId;
+				n++;
+			}
+		}
+
+		sort(osmIds, edgeIds, 0, n - 1);
+
+		wayEdges.ensureCapacity((long) n * 4 + 4);
+		waysCount = 0;
+
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || osmIds[i] != osmIds[i - 1]) {
+				long pointer = (long) waysCount * WAY_ENTRY_BYTES;
+				ways.ensureCapacity(pointer + WAY_ENTRY_BYTES);
+				ways.setInt(pointer, (int) (osmIds[i] >>> 32));
+				ways.setInt(pointer + 4, (int) osmIds[i]);
+				ways.setInt(pointer + 8, i);
+				waysCount++;
+			}
+
+			wayEdges.setInt((long) i * 4, edgeIds[i]);
+		}
+
+		indexChanged = false;
+	}
+
+	/**
+	 * Quicksort of the pairs by way id and edge id.
+	 */
+	private static void sort(long[] keys, int[] values, int left, int right) {
+		while (left < right) {
+			int mid = (left + right) >>> 1;
+			long pivotKey = keys[mid];
+			int pivotValue = values[mid];
+			int i = left, j = right;
+
+			while (i <= j) {
+				while (keys[i] < pivotKey || (keys[i] == pivotKey && values[i] < pivotValue))
+					i++;
+				while (keys[j] > pivotKey || (keys[j] == pivotKey && values[j] > pivotValue))
+					j--;
+
+				if (i <= j) {
+					long key = keys[i];
+					keys[i] = keys[j];
+					keys[j] = key;
+					int value = values[i];
+					values[i] = values[j];
+					values[j] = value;
+					i++;
+					j--;
+				}
+			}
+
+			// recurse into the smaller part to bound the stack depth
+			if (j - left < right - i) {
+				sort(keys, values, left, j);
+				left = i;
+			} else {
+				sort(keys, values, i, right);
+				right = j;
+			}
+		}
+	}
+
+	public boolean isRequireNodeField() {
+		return false;
+	}
+
+	public boolean isRequireEdgeField() {
+		return false;
+	}
+
+	public int getDefaultNodeFieldValue() {
+		return -1;
+	}
+
+	public int getDefaultEdgeFieldValue() {
+		return -1;
+	}
+
+	public GraphExtension copyTo(GraphExtension clonedStorage) {
+		if (!(clonedStorage instanceof TmcEdgesGraphStorage)) {
+			throw new IllegalStateException("the extended storage to clone must be the same");
+		}
+
+		TmcEdgesGraphStorage clonedTE = (TmcEdgesGraphStorage) clonedStorage;
+
+		edges.copyTo(clonedTE.edges);
+		ways.copyTo(clonedTE.ways);
+		wayEdges.copyTo(clonedTE.wayEdges);
+		clonedTE.edgesCount = edgesCount;
+		clonedTE.waysCount = waysCount;
+		clonedTE.maxEdgeId = maxEdgeId;
+		clonedTE.indexChanged = indexChanged;
+
+		return clonedStorage;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return false;
+	}
+}
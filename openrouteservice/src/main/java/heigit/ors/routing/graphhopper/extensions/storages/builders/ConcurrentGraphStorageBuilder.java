@@ -0,0 +1,23 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.graphhopper.extensions.storages.builders;
+
+/**
+ * Marks a graph storage builder whose processEdge may be called concurrently for different edges.
+ * <p>
+ * The GraphStorageBuilderPipeline shares the edges of such a builder between all of its workers by edge id instead of
+ * pinning the builder to a single worker. The builder must therefore not derive any state from processWay which it
+ * uses in processEdge, and its storage must accept writes from several threads.
+ */
+public interface ConcurrentGraphStorageBuilder extends GraphStorageBuilder
+{
+}
@@ -0,0 +1,378 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.graphhopper.extensions.storages.builders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.graphhopper.reader.ReaderWay;
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.util.ByteArrayBuffer;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.PointList;
+
+/**
+ * Runs the graph storage builders on worker threads while the OSM reader goes on creating edges.
+ * <p>
+ * The ways and edges passed by the reader are queued in batches which are shared by all workers. Every builder is
+ * assigned to a single worker that calls it in the order of the reader, so a builder keeps the state it has derived
+ * from the current way and its storage is written by one thread only. A ConcurrentGraphStorageBuilder is called by
+ * every worker instead, each of them taking its share of the edges by edge id, so that the expensive builders scale
+ * with the number of threads.
+ * <p>
+ * The reader goes on changing the original way and growing the graph storage, so the workers never see either of
+ * them. The tags of a way are copied once into a snapshot which is shared by all builders, and the properties of an
+ * edge (geometry, flags, distance) are read into a detached snapshot on the reader thread before the handoff.
+ * <p>
+ * If a worker fails, the failure is passed on to the reader by the next call of processWay, processEdge or finish.
+ * This is also the case if a builder uses a property of an edge which the snapshot does not provide.
+ */
+public class GraphStorageBuilderPipeline {
+	private static Logger LOGGER = Logger.getLogger(GraphStorageBuilderPipeline.class.getName());
+
+	private static final int BATCH_SIZE = 256;
+	private static final int QUEUE_CAPACITY = 64;
+	private static final long OFFER_TIMEOUT = 100; // milliseconds
+	private static final Item[] END_OF_DATA = new Item[0];
+
+	private static class Item {
+		public final ReaderWay way;
+		public final EdgeIteratorState edge; // null for the processing of the way itself
+
+		public Item(ReaderWay way, EdgeIteratorState edge) {
+			this.way = way;
+			this.edge = edge;
+		}
+	}
+
+	/**
+	 * Read-only copy of the properties of an edge which the builders use. Everything else, as well as the setters,
+	 * is not supported; a builder calling such a method aborts the import, see {@link Worker#process}.
+	 */
+	private static class EdgeSnapshot implements EdgeIteratorState {
+		private final int _edge;
+		private final int _baseNode;
+		private final int _adjNode;
+		private final double _distance;
+		private final long _flags;
+		private final PointList _geometry; // base node, pillar nodes and adjacent node
+
+		public EdgeSnapshot(EdgeIteratorState edge) {
+			_edge = edge.getEdge();
+			_baseNode = edge.getBaseNode();
+			_adjNode = edge.getAdjNode();
+			_distance = edge.getDistance();
+			_flags = edge.getFlags();
+			_geometry = edge.fetchWayGeometry(3);
+		}
+
+		@Override
+		public int getEdge() {
+			return _edge;
+		}
+
+		@Override
+		public int getOriginalEdge() {
+			return _edge;
+		}
+
+		@Override
+		public int getBaseNode() {
+			return _baseNode;
+		}
+
+		@Override
+		public int getAdjNode() {
+			return _adjNode;
+		}
+
+		@Override
+		public PointList fetchWayGeometry(int mode) {
+			int from = (mode & 1) != 0 ? 0 : 1;
+			int to = (mode & 2) != 0 ? _geometry.getSize() : _geometry.getSize() - 1;
+			return _geometry.copy(from, to);
+		}
+
+		@Override
+		public PointList fetchWayGeometry(int mode, ByteArrayBuffer buffer) {
+			return fetchWayGeometry(mode);
+		}
+
+		@Override
+		public EdgeIteratorState setWayGeometry(PointList list) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public double getDistance() {
+			return _distance;
+		}
+
+		@Override
+		public EdgeIteratorState setDistance(double dist) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long getFlags() {
+			return _flags;
+		}
+
+		@Override
+		public long getFlags(int encoderIndex) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public EdgeIteratorState setFlags(long flags) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int getAdditionalField() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public EdgeIteratorState setAdditionalField(int value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean isForward(FlagEncoder encoder) {
+			return encoder.isForward(_flags);
+		}
+
+		@Override
+		public boolean isBackward(FlagEncoder encoder) {
+			return encoder.isBackward(_flags);
+		}
+
+		@Override
+		public boolean getBool(int key, boolean _default) {
+			return _default;
+		}
+
+		@Override
+		public String getName() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public EdgeIteratorState setName(String name) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public EdgeIteratorState detach(boolean reverse) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public EdgeIteratorState copyPropertiesTo(EdgeIteratorState e) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private class Worker implements Runnable {
+		private final int _index;
+		private final GraphStorageBuilder[] _builders;
+		private final GraphStorageBuilder[] _sharedBuilders;
+		private final BlockingQueue<Item[]> _queue = new ArrayBlockingQueue<Item[]>(QUEUE_CAPACITY);
+
+		public Worker(int index, List<GraphStorageBuilder> builders, List<GraphStorageBuilder> sharedBuilders) {
+			_index = index;
+			_builders = builders.toArray(new GraphStorageBuilder[builders.size()]);
+			_sharedBuilders = sharedBuilders.toArray(new GraphStorageBuilder[sharedBuilders.size()]);
+		}
+
+		public boolean offer(Item[] batch) throws InterruptedException {
+			return _queue.offer(batch, OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Item[] batch = _queue.take();
+					if (batch == END_OF_DATA)
+						return;
+
+					for (Item item : batch) {
+						for (GraphStorageBuilder builder : _builders)
+							process(builder, item);
+
+						// the ways are processed by the first worker, the edges by the worker they are assigned to
+						int owner = item.edge == null ? 0 : item.edge.getEdge() % _workers.length;
+						if (owner == _index) {
+							for (GraphStorageBuilder builder : _sharedBuilders)
+								process(builder, item);
+						}
+					}
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (Throwable ex) {
+				fail(ex);
+			}
+		}
+
+		private void process(GraphStorageBuilder builder, Item item) {
+			try {
+				if (item.edge == null)
+					builder.processWay(item.way);
+				else
+					builder.processEdge(item.way, item.edge);
+			} catch (UnsupportedOperationException ex) {
+				// the builder needs a property which is not in the snapshot, so it would fail for every edge
+				throw new IllegalStateException("Storage builder '" + builder.getName() + "' uses an edge property which is not available with more than one storage builder thread.", ex);
+			} catch (Exception ex) {
+				LOGGER.warning(ex.getMessage() + ". Way id = " + item.way.getId());
+			}
+		}
+	}
+
+	private final Worker[] _workers;
+	private final Thread[] _threads;
+	private volatile Throwable _failure;
+	private Item[] _batch = new Item[BATCH_SIZE];
+	private int _size;
+	private ReaderWay _sourceWay;
+	private ReaderWay _way;
+
+	@SuppressWarnings("unchecked")
+	public GraphStorageBuilderPipeline(GraphStorageBuilder[] builders, int threads) {
+		List<GraphStorageBuilder> pinnedBuilders = new ArrayList<GraphStorageBuilder>();
+		List<GraphStorageBuilder> sharedBuilders = new ArrayList<GraphStorageBuilder>();
+		for (GraphStorageBuilder builder : builders) {
+			if (builder instanceof ConcurrentGraphStorageBuilder)
+				sharedBuilders.add(builder);
+			else
+				pinnedBuilders.add(builder);
+		}
+
+		int nWorkers = sharedBuilders.isEmpty() ? Math.min(threads, pinnedBuilders.size()) : threads;
+		nWorkers = Math.max(1, nWorkers);
+
+		List<GraphStorageBuilder>[] groups = new List[nWorkers];
+		for (int i = 0; i < nWorkers; i++)
+			groups[i] = new ArrayList<GraphStorageBuilder>();
+		for (int i = 0; i < pinnedBuilders.size(); i++)
+			groups[i % nWorkers].add(pinnedBuilders.get(i));
+
+		_workers = new Worker[nWorkers];
+		_threads = new Thread[nWorkers];
+
+		for (int i = 0; i < nWorkers; i++)
+			_workers[i] = new Worker(i, groups[i], sharedBuilders);
+
+		for (int i = 0; i < nWorkers; i++) {
+			_threads[i] = new Thread(_workers[i], "ORS-gsb-" + i);
+			_threads[i].setDaemon(true);
+			_threads[i].start();
+		}
+	}
+
+	public void processWay(ReaderWay way) {
+		add(new Item(getSnapshot(way), null));
+	}
+
+	public void processEdge(ReaderWay way, EdgeIteratorState edge) {
+		add(new Item(getSnapshot(way), new EdgeSnapshot(edge)));
+	}
+
+	/**
+	 * Hands out the remaining items and waits until all builders have processed them.
+	 *
+	 * @throws IllegalStateException if a worker has failed or the waiting thread is interrupted
+	 */
+	public void finish() {
+		if (_size > 0)
+			publish(Arrays.copyOf(_batch, _size));
+		publish(END_OF_DATA);
+
+		_batch = null;
+		_size = 0;
+
+		try {
+			for (Thread thread : _threads)
+				thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Building of graph storages was interrupted.", ex);
+		}
+
+		checkFailure();
+	}
+
+	private void fail(Throwable ex) {
+		synchronized (this) {
+			if (_failure == null)
+				_failure = ex;
+		}
+
+		// the other workers are of no use anymore
+		for (Thread thread : _threads)
+			thread.interrupt();
+	}
+
+	private void checkFailure() {
+		Throwable failure = _failure;
+		if (failure != null)
+			throw new IllegalStateException("Building of graph storages failed: " + failure, failure);
+	}
+
+	private ReaderWay getSnapshot(ReaderWay way) {
+		if (way != _sourceWay) {
+			ReaderWay snapshot = new ReaderWay(way.getId());
+			snapshot.getNodes().addAll(way.getNodes());
+			for (Map.Entry<String, Object> tag : way.getTags().entrySet())
+				snapshot.setTag(tag.getKey(), tag.getValue());
+
+			_sourceWay = way;
+			_way = snapshot;
+		}
+
+		return _way;
+	}
+
+	private void add(Item item) {
+		_batch[_size++] = item;
+
+		if (_size == BATCH_SIZE) {
+			publish(_batch);
+			_batch = new Item[BATCH_SIZE];
+			_size = 0;
+		}
+	}
+
+	private void publish(Item[] batch) {
+		try {
+			for (Worker worker : _workers) {
+				// a failed worker does not take anything anymore, so never block on its queue for good
+				while (!worker.offer(batch))
+					checkFailure();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Building of graph storages was interrupted.", ex);
+		}
+
+		checkFailure();
+	}
+}
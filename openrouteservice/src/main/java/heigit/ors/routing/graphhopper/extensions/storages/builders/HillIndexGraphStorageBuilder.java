@@ -14,18 +14,19 @@ package heigit.ors.routing.graphhopper.extensions.storages.builders;
 import com.graphhopper.GraphHopper;
 import com.graphhopper.reader.ReaderWay;
 import com.graphhopper.storage.GraphExtension;
-import com.graphhopper.util.ByteArrayBuffer;
 import com.graphhopper.util.EdgeIteratorState;
 import com.graphhopper.util.PointList;
 
 import heigit.ors.routing.graphhopper.extensions.storages.HillIndexGraphStorage;
 import heigit.ors.routing.util.HillIndexCalculator;
 
-public class HillIndexGraphStorageBuilder extends AbstractGraphStorageBuilder
+/**
+ * Computes the hill index of every edge from its 3D geometry. The computation depends on the edge only, so the builder
+ * can run concurrently for different edges.
+ */
+public class HillIndexGraphStorageBuilder extends AbstractGraphStorageBuilder implements ConcurrentGraphStorageBuilder
 {
 	private HillIndexGraphStorage _storage;
-	private HillIndexCalculator _hillIndexCalc;
-	private ByteArrayBuffer _arrayBuffer;
 	
 	public HillIndexGraphStorageBuilder()
 	{
@@ -36,12 +37,9 @@ public class HillIndexGraphStorageBuilder extends AbstractGraphStorageBuilder
 		if (_storage != null)
 			throw new Exception("GraphStorageBuilder has been already initialized.");
 		
-		_arrayBuffer = new ByteArrayBuffer();
 		if (graphhopper.hasElevation())
 		{
 			_storage = new HillIndexGraphStorage(_parameters);
-			_hillIndexCalc = new HillIndexCalculator();
-			
 			return _storage;
 		}
 		else 
@@ -55,10 +53,12 @@ public class HillIndexGraphStorageBuilder extends AbstractGraphStorageBuilder
 	public void processEdge(ReaderWay way, EdgeIteratorState edge) {
 		boolean revert = edge.getBaseNode() > edge.getAdjNode();
 
-		PointList points = edge.fetchWayGeometry(3, _arrayBuffer);
+		PointList points = edge.fetchWayGeometry(3);
 	
-		byte hillIndex = _hillIndexCalc.getHillIndex(points, false);
-		byte reverseHillIndex = _hillIndexCalc.getHillIndex(points, true);
+		// the calculator keeps state between the calls, so each call gets its own one
+		HillIndexCalculator hillIndexCalc = new HillIndexCalculator();
+		byte hillIndex = hillIndexCalc.getHillIndex(points, false);
+		byte reverseHillIndex = hillIndexCalc.getHillIndex(points, true);
 
 		if (revert)
 			_storage.setEdgeValue(edge.getEdge(), reverseHillIndex, hillIndex);
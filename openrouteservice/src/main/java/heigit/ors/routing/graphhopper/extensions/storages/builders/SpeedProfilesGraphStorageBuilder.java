@@ -0,0 +1,163 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.graphhopper.extensions.storages.builders;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.graphhopper.GraphHopper;
+import com.graphhopper.reader.ReaderWay;
+import com.graphhopper.storage.GraphExtension;
+import com.graphhopper.util.EdgeIteratorState;
+import com.graphhopper.util.Helper;
+
+import heigit.ors.routing.graphhopper.extensions.storages.SpeedProfilesGraphStorage;
+
+/**
+ * Reads the speed profiles of OSM ways from a CSV file with a header line and rows of an OSM way id followed by
+ * speeds in km/h. A row holds either the speeds of one day, which apply to every day of the week, or of the whole
+ * week starting on Monday 00:00, e.g. 96 or 672 values for 15 minute buckets or 24 or 168 values for hours.
+ * The times are local times of the time zone given by the parameter 'time_zone', e.g. "Europe/Berlin".
+ */
+public class SpeedProfilesGraphStorageBuilder extends AbstractGraphStorageBuilder {
+	private SpeedProfilesGraphStorage _storage;
+	private Map<Long, Integer> _wayProfiles = new HashMap<Long, Integer>();
+	private List<byte[]> _profiles = new ArrayList<byte[]>();
+	private int[] _storageProfiles; // index of every profile in the storage, -1 if not added yet
+
+	public SpeedProfilesGraphStorageBuilder() {
+
+	}
+
+	@Override
+	public GraphExtension init(GraphHopper graphhopper) throws Exception {
+		if (_storage != null)
+			throw new Exception("GraphStorageBuilder has been already initialized.");
+
+		String csvFile = _parameters.get("filepath");
+		if (Helper.isEmpty(csvFile))
+			throw new Exception("The speed profiles file is not specified.");
+
+		String timeZoneId = _parameters.get("time_zone");
+		if (Helper.isEmpty(timeZoneId))
+			throw new Exception("The time zone of the speed profiles is not specified.");
+
+		// unknown ids are silently mapped to GMT
+		TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+		if (!timeZone.getID().equals(timeZoneId))
+			throw new Exception("The time zone '" + timeZoneId + "' of the speed profiles is unknown.");
+
+		readProfilesFromCSV(csvFile);
+
+		_storageProfiles = new int[_profiles.size()];
+		Arrays.fill(_storageProfiles, -1);
+		_storage = new SpeedProfilesGraphStorage(timeZone);
+
+		return _storage;
+	}
+
+	private void readProfilesFromCSV(String csvFile) throws IOException {
+		// rows with equal speeds share one profile
+		Map<ByteBuffer, Integer> profileIndices = new HashMap<ByteBuffer, Integer>();
+		BufferedReader csvBuffer = null;
+
+		try {
+			csvBuffer = new BufferedReader(new FileReader(csvFile));
+			// Jump the header line
+			String row = csvBuffer.readLine();
+			if (row == null)
+				return;
+
+			String separator = row.contains(";") ? ";" : ",";
+
+			while ((row = csvBuffer.readLine()) != null) {
+				if (Helper.isEmpty(row))
+					continue;
+
+				String[] values = row.split(separator);
+				byte[] speeds = parseSpeeds(values);
+				if (speeds == null)
+					continue;
+
+				ByteBuffer key = ByteBuffer.wrap(speeds);
+				Integer profile = profileIndices.get(key);
+				if (profile == null) {
+					profile = _profiles.size();
+					_profiles.add(speeds);
+					profileIndices.put(key, profile);
+				}
+
+				_wayProfiles.put(Long.parseLong(values[0].trim()), profile);
+			}
+		} finally {
+			if (csvBuffer != null)
+				csvBuffer.close();
+		}
+	}
+
+	private byte[] parseSpeeds(String[] values) {
+		int count = values.length - 1;
+		int bucketsPerValue;
+
+		if (count <= 0)
+			return null;
+		else if (SpeedProfilesGraphStorage.BUCKETS_PER_DAY % count == 0)
+			bucketsPerValue = SpeedProfilesGraphStorage.BUCKETS_PER_DAY / count;
+		else if (SpeedProfilesGraphStorage.BUCKETS_PER_WEEK % count == 0)
+			bucketsPerValue = SpeedProfilesGraphStorage.BUCKETS_PER_WEEK / count;
+		else
+			return null;
+
+		byte[] speeds = new byte[SpeedProfilesGraphStorage.BUCKETS_PER_WEEK];
+
+		for (int i = 0; i < speeds.length; i++) {
+			String value = values[1 + (i / bucketsPerValue) % count].trim();
+			long speed = Helper.isEmpty(value) ? 0 : Math.round(Double.parseDouble(value));
+			speeds[i] = (byte) Math.max(0, Math.min(255, speed));
+		}
+
+		return speeds;
+	}
+
+	@Override
+	public void processWay(ReaderWay way) {
+
+	}
+
+	@Override
+	public void processEdge(ReaderWay way, EdgeIteratorState edge) {
+		Integer profile = _wayProfiles.get(way.getId());
+		if (profile == null)
+			return;
+
+		int index = _storageProfiles[profile];
+		if (index < 0) {
+			index = _storage.addProfile(_profiles.get(profile));
+			_storageProfiles[profile] = index;
+		}
+
+		_storage.setEdgeProfile(edge.getEdge(), index);
+	}
+
+	@Override
+	public String getName() {
+		return "SpeedProfiles";
+	}
+}
@@ -0,0 +1,133 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.routing.graphhopper.extensions.weighting;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import com.graphhopper.routing.util.FlagEncoder;
+import com.graphhopper.routing.weighting.AbstractWeighting;
+import com.graphhopper.routing.weighting.Weighting;
+import com.graphhopper.storage.GraphStorage;
+import com.graphhopper.util.EdgeIteratorState;
+
+import heigit.ors.routing.graphhopper.extensions.storages.GraphStorageUtils;
+import heigit.ors.routing.graphhopper.extensions.storages.SpeedProfilesGraphStorage;
+
+/**
+ * Uses the speed profiles of the edges for the time at which an edge is entered. The weight of an edge with a known
+ * speed is the weight of the super weighting scaled by the ratio of the encoded speed and the profile speed, so that
+ * preferences of the super weighting are kept. Times are given in milliseconds since the departure; the methods
+ * without a time assume that the edge is entered at the departure time.
+ */
+public class TimeDependentWeighting extends AbstractWeighting {
+	private Weighting _superWeighting;
+	private SpeedProfilesGraphStorage _gsSpeedProfiles;
+	private long _departureWeekTime; // milliseconds since Monday 00:00 in the time zone of the profiles
+	private double _maxSpeed;
+
+	public TimeDependentWeighting(Weighting superWeighting, FlagEncoder encoder, GraphStorage graphStorage, long departureTime) {
+		super(encoder);
+
+		_superWeighting = superWeighting;
+		_gsSpeedProfiles = GraphStorageUtils.getGraphExtension(graphStorage, SpeedProfilesGraphStorage.class);
+		// without profiles the week time is not used
+		_departureWeekTime = getWeekTime(departureTime, _gsSpeedProfiles == null ? TimeZone.getTimeZone("UTC") : _gsSpeedProfiles.getTimeZone());
+		// profile speeds are limited to the maximum speed of the encoder to keep the minimum weight valid
+		_maxSpeed = encoder.getMaxSpeed();
+	}
+
+	/**
+	 * Creates a weighting with the speed profiles and the departure time of the given one on top of another super
+	 * weighting.
+	 */
+	public TimeDependentWeighting(Weighting superWeighting, TimeDependentWeighting weighting) {
+		super(weighting.getFlagEncoder());
+
+		_superWeighting = superWeighting;
+		_gsSpeedProfiles = weighting._gsSpeedProfiles;
+		_departureWeekTime = weighting._departureWeekTime;
+		_maxSpeed = weighting._maxSpeed;
+	}
+
+	public Weighting getSuperWeighting() {
+		return _superWeighting;
+	}
+
+	private static long getWeekTime(long time, TimeZone timeZone) {
+		Calendar cal = Calendar.getInstance(timeZone);
+		cal.setTimeInMillis(time);
+
+		int day = (cal.get(Calendar.DAY_OF_WEEK) + 5) % 7; // Monday is 0
+		long minutes = (day * 24L + cal.get(Calendar.HOUR_OF_DAY)) * 60 + cal.get(Calendar.MINUTE);
+
+		return minutes * 60000L + cal.get(Calendar.SECOND) * 1000L + cal.get(Calendar.MILLISECOND);
+	}
+
+	/**
+	 * Returns the speed of the profile of the edge at the given time or 0 if it is not known.
+	 */
+	private double getProfileSpeed(EdgeIteratorState edgeState, long time) {
+		if (_gsSpeedProfiles == null)
+			return 0;
+
+		int profile = _gsSpeedProfiles.getEdgeProfile(edgeState.getOriginalEdge());
+		if (profile < 0)
+			return 0;
+
+		int speed = _gsSpeedProfiles.getSpeed(profile, SpeedProfilesGraphStorage.getBucket(_departureWeekTime + time));
+		return Math.min(speed, _maxSpeed);
+	}
+
+	@Override
+	public double calcWeight(EdgeIteratorState edgeState, boolean reverse, int prevOrNextEdgeId) {
+		return calcWeight(edgeState, reverse, prevOrNextEdgeId, 0);
+	}
+
+	public double calcWeight(EdgeIteratorState edgeState, boolean reverse, int prevOrNextEdgeId, long time) {
+		double weight = _superWeighting.calcWeight(edgeState, reverse, prevOrNextEdgeId);
+		if (Double.isInfinite(weight))
+			return Double.POSITIVE_INFINITY;
+
+		double speed = getProfileSpeed(edgeState, time);
+		if (speed > 0) {
+			double edgeSpeed = reverse ? flagEncoder.getReverseSpeed(edgeState.getFlags()) : flagEncoder.getSpeed(edgeState.getFlags());
+			if (edgeSpeed > 0)
+				weight *= edgeSpeed / speed;
+		}
+
+		return weight;
+	}
+
+	@Override
+	public long calcMillis(EdgeIteratorState edgeState, boolean reverse, int prevOrNextEdgeId) {
+		return calcMillis(edgeState, reverse, prevOrNextEdgeId, 0);
+	}
+
+	public long calcMillis(EdgeIteratorState edgeState, boolean reverse, int prevOrNextEdgeId, long time) {
+		double speed = getProfileSpeed(edgeState, time);
+		if (speed > 0)
+			return (long) (edgeState.getDistance() * 3600 / speed);
+
+		return _superWeighting.calcMillis(edgeState, reverse, prevOrNextEdgeId);
+	}
+
+	@Override
+	public double getMinWeight(double distance) {
+		return _superWeighting.getMinWeight(distance);
+	}
+
+	@Override
+	public String getName() {
+		return "time_dependent";
+	}
+}
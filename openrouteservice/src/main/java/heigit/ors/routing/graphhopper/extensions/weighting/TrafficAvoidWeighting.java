@@ -15,9 +15,7 @@
 package heigit.ors.routing.graphhopper.extensions.weighting;
 
 
-import java.util.HashMap;
-
-
+import com.carrotsearch.hppc.IntObjectMap;
 import com.graphhopper.routing.util.CarFlagEncoder;
 import com.graphhopper.routing.util.FlagEncoder;
 import com.graphhopper.routing.weighting.AbstractWeighting;
@@ -38,7 +36,7 @@ public class TrafficAvoidWeighting extends AbstractWeighting {
      */
     protected final static double SPEED_CONV = 1;
     private double maxSpeed;
-	private HashMap<Integer, AvoidEdgeInfo> forbiddenEdges;
+	private IntObjectMap<AvoidEdgeInfo> forbiddenEdges;
 
 	private int encoderIndex = -1;
 
@@ -59,7 +57,7 @@ public class TrafficAvoidWeighting extends AbstractWeighting {
     }
 
 
-    public TrafficAvoidWeighting(Weighting defultWeighting, FlagEncoder encoder, HashMap<Integer, AvoidEdgeInfo> forbiddenEdges)
+    public TrafficAvoidWeighting(Weighting defultWeighting, FlagEncoder encoder, IntObjectMap<AvoidEdgeInfo> forbiddenEdges)
     {
         this(encoder, new PMap(0));
 		this.forbiddenEdges = forbiddenEdges;     
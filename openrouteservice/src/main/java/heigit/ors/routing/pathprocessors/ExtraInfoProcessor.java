@@ -341,7 +341,14 @@ public class ExtraInfoProcessor extends PathProcessor {
 
 	@Override
 	public void init(PathProcessingContext cntx) {
-		_encoder = cntx.getEncoder();
+		init(cntx.getEncoder());
+	}
+
+	/**
+	 * Initializes the processor for edges which are not part of a path, e.g. of a matched track.
+	 */
+	public void init(FlagEncoder encoder) {
+		_encoder = encoder;
 		_encoderWithPriority = _encoder.supports(PriorityWeighting.class);
 	}
 }
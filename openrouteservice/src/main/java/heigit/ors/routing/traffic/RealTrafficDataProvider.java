@@ -26,9 +26,11 @@ import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Timer;
@@ -37,12 +39,15 @@ import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
 
+import heigit.ors.routing.GraphHopperHandle;
 import heigit.ors.routing.RoutingProfile;
 import heigit.ors.routing.RoutingProfileLoadContext;
 import heigit.ors.routing.RoutingProfilesCollection;
 import heigit.ors.routing.configuration.RoutingManagerConfiguration;
 import heigit.ors.routing.configuration.RouteProfileConfiguration;
 import heigit.ors.routing.configuration.TrafficInformationConfiguration;
+import heigit.ors.routing.graphhopper.extensions.ORSGraphHopper;
+import heigit.ors.routing.graphhopper.extensions.storages.TmcEdgesGraphStorage;
 import heigit.ors.routing.traffic.providers.TrafficInfoDataSource;
 import heigit.ors.routing.traffic.providers.TrafficInfoDataSourceFactory;
 import heigit.ors.services.routing.RoutingServiceSettings;
@@ -51,6 +56,9 @@ import org.json.JSONException;
 import org.json.JSONWriter;
 import org.xml.sax.SAXException;
 
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntObjectMap;
+import com.graphhopper.coll.GHIntObjectHashMap;
 import com.graphhopper.storage.GraphStorage;
 import com.graphhopper.util.EdgeIterator;
 import com.graphhopper.util.Helper;
@@ -78,60 +86,91 @@ public class RealTrafficDataProvider {
 		}
 	}
 
+	/**
+	 * Immutable traffic data of a profile. A new snapshot is built only when the matched features have changed or a
+	 * feature has ended and it replaces the previous one with a single write, so that a request never sees a partially
+	 * updated state and the filters of running requests keep using the data they started with.
+	 */
+	private static class TmcEdgesSnapshot {
+		private final IntObjectMap<EdgeInfo> m_edges;
+		private final IntObjectMap<AvoidEdgeInfo> m_avoidEdges;
+		private final BitSet m_blockedEdges;
+		private final BitSet m_blockedEdges_hv; // for heavy vehicles
+		private final long m_nextExpiry; // end time of the first feature which is still active
+		private final long m_time; // time at which the features have been checked for their end
+		private final GraphStorage m_graph; // graph to which the edge ids refer, null if nothing has been matched yet
+
+		public TmcEdgesSnapshot(IntObjectMap<EdgeInfo> edges, IntObjectMap<AvoidEdgeInfo> avoidEdges,
+				BitSet blockedEdges, BitSet blockedEdges_hv, long nextExpiry, long time, GraphStorage graph) {
+			m_edges = edges;
+			m_avoidEdges = avoidEdges;
+			m_blockedEdges = blockedEdges;
+			m_blockedEdges_hv = blockedEdges_hv;
+			m_nextExpiry = nextExpiry;
+			m_time = time;
+			m_graph = graph;
+		}
+
+		public IntObjectMap<EdgeInfo> getEdges() {
+			return m_edges;
+		}
+
+		public IntObjectMap<AvoidEdgeInfo> getAvoidEdges() {
+			return m_avoidEdges;
+		}
+
+		public BitSet getBlockedEdges() {
+			return m_blockedEdges;
+		}
+
+		public BitSet getHeavyVehicleBlockedEdges() {
+			return m_blockedEdges_hv;
+		}
+
+		public long getNextExpiry() {
+			return m_nextExpiry;
+		}
+
+		public long getTime() {
+			return m_time;
+		}
+
+		public GraphStorage getGraph() {
+			return m_graph;
+		}
+	}
+
 	private class RouteProfileTmcData {
-		private HashMap<Integer, EdgeInfo> m_edges;
-		private HashMap<Integer, AvoidEdgeInfo> m_avoidEdges;
-		private List<Integer> m_blockedEdges;
-		private HashMap<Integer, Integer> m_edgeIdsMap;
 		private RoutingProfile m_routeProfile;
-		private List<Integer> m_blockedEdges_hv; // for heavy vehicles
-		private HashMap<Integer, TrafficFeatureInfo> m_edgeId2trafficFeature;  // one edge corresponds to one TrafficFeatureInfo
+		private volatile TmcEdgesSnapshot m_snapshot;
+		// edges matched to every feature of the last update, only accessed by the updating thread
+		private IdentityHashMap<TrafficFeatureInfo, int[]> m_featureEdges;
 
 		public RouteProfileTmcData(RoutingProfile rp) {
 			m_routeProfile = rp;
-			m_edges = new HashMap<Integer, EdgeInfo>();
-			m_avoidEdges = new HashMap<Integer, AvoidEdgeInfo>();
-			m_blockedEdges = new ArrayList<Integer>();
-			m_edgeIdsMap = new HashMap<Integer, Integer>();
-			m_blockedEdges_hv =  new ArrayList<Integer>();			
-			m_edgeId2trafficFeature = new HashMap<Integer, TrafficFeatureInfo>();
+			m_snapshot = new TmcEdgesSnapshot(new GHIntObjectHashMap<EdgeInfo>(), new GHIntObjectHashMap<AvoidEdgeInfo>(),
+					new BitSet(), new BitSet(), Long.MAX_VALUE, 0, null);
+			m_featureEdges = new IdentityHashMap<TrafficFeatureInfo, int[]>();
 		}
 
 		public RoutingProfile getRouteProfile() {
 			return m_routeProfile;
 		}
-		
-    
-		public HashMap<Integer, TrafficFeatureInfo> getMapEdgeId2trafficFeature() {
-			return m_edgeId2trafficFeature;
-		}
-		
-		public List<Integer> getBlockedEdges() {
-			return m_blockedEdges;
-		}
-		
-		public List<Integer> getHeavyVehicleBlockedEdges() {
-			return m_blockedEdges_hv;
-		}
 
-		public HashMap<Integer, AvoidEdgeInfo> getAvoidEdges() {
-			return m_avoidEdges;
+		public TmcEdgesSnapshot getSnapshot() {
+			return m_snapshot;
 		}
 
-		public HashMap<Integer, EdgeInfo> getEdges() {
-			return m_edges;
+		public void setSnapshot(TmcEdgesSnapshot snapshot) {
+			m_snapshot = snapshot;
 		}
 
-		public void update(HashMap<Integer, EdgeInfo> edges, HashMap<Integer, AvoidEdgeInfo> avoidEdges,
-				List<Integer> blockedEdges, List<Integer> blockedEdges_hv) {
-			m_avoidEdges = avoidEdges;
-			m_blockedEdges = blockedEdges;
-			m_edges = edges;
-			m_blockedEdges_hv = blockedEdges_hv;
+		public IdentityHashMap<TrafficFeatureInfo, int[]> getFeatureEdges() {
+			return m_featureEdges;
 		}
-		
-		public void setMapEddgeId2trafficFeature(HashMap<Integer, TrafficFeatureInfo> m_edgeId2trafficFeature){
-			this.m_edgeId2trafficFeature = m_edgeId2trafficFeature;
+
+		public void setFeatureEdges(IdentityHashMap<TrafficFeatureInfo, int[]> featureEdges) {
+			m_featureEdges = featureEdges;
 		}
 	}
 
@@ -187,12 +226,18 @@ public class RealTrafficDataProvider {
 
 	private RoutingProfile m_tmcRouteProfile;
 	private TmcSegmentsCollection m_tmcSegments;
-	private HashMap<Integer, RouteProfileTmcData> m_routeProfilesMap;
+	private HashMap<RoutingProfile, RouteProfileTmcData> m_routeProfilesMap;
 	private Timer m_timer;
 	private boolean m_updateIsRunning = false;
 	private boolean m_initialized;
 	private TrafficInformationConfiguration m_config;
-	private TmcUpdateInfo m_lastUpdateInfo;
+	private volatile TmcUpdateInfo m_lastUpdateInfo;
+	private String m_lastMessage;
+	// features of the last TMC message keyed by TrafficMessageData.getKey()
+	private HashMap<String, List<TrafficFeatureInfo>> m_messageFeatures = new HashMap<String, List<TrafficFeatureInfo>>();
+	private volatile long m_lastUpdateDuration = -1;
+	private volatile int m_lastUpdateAddedMessages;
+	private volatile int m_lastUpdateRemovedMessages;
 	private TrafficLocationGraph m_locationGraph;
 	private TrafficInfoDataSource m_tmcDatasource;
 	private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
@@ -205,7 +250,7 @@ public class RealTrafficDataProvider {
 	}
 
 	public RealTrafficDataProvider() {
-		m_routeProfilesMap = new HashMap<Integer, RealTrafficDataProvider.RouteProfileTmcData>();
+		m_routeProfilesMap = new HashMap<RoutingProfile, RealTrafficDataProvider.RouteProfileTmcData>();
 	}
 
 	public void initialize(RoutingManagerConfiguration rmc, RoutingProfilesCollection profiles) throws Exception {
@@ -264,7 +309,7 @@ public class RealTrafficDataProvider {
 
 						updateRouteProfile(rptd, updateInfo, true);
 
-						m_routeProfilesMap.put(rp.hashCode(), rptd);
+						m_routeProfilesMap.put(rp, rptd);
 					}
 				}
 			}catch(Exception ex)
@@ -347,62 +392,115 @@ public class RealTrafficDataProvider {
 		{
 			m_tmcSegments = new TmcSegmentsCollection(loadTmcSegments(m_config.LocationCodesPath, m_tmcRouteProfile, outputDir, false));
 
-			updateGraphMatchingInternal(false);
+			updateGraphMatchingInternal(null);
+		}
+		else
+		{
+			RouteProfileTmcData rptd = m_routeProfilesMap.get(rp);
+			if (rptd != null)
+				updateGraphMatchingInternal(rptd);
 		}
 	}
 
+	/**
+	 * Matches the features of the update to the edges of the profile and publishes a new snapshot of its traffic data
+	 * if anything has changed. The edges of the features which have been matched by the previous update are reused
+	 * unless loadExisting is false, so that only new features are matched against the graph.
+	 */
 	private void updateRouteProfile(RouteProfileTmcData rptd, TmcUpdateInfo updateInfo, boolean loadExisting) {
-		
-        HashMap<Integer, TrafficFeatureInfo> m_edgeId2trafficFeature = new HashMap<Integer, TrafficFeatureInfo>();
-        List<Integer> edgeIds = new ArrayList<Integer>();
-        
-		for (TrafficFeatureInfo tmcFeature:updateInfo.features) {
-			for (int i=0; i < tmcFeature.getEdgeIds().size(); i++){
-			    
-				int edgeId  = tmcFeature.getEdgeIds().get(i);
-				long osmId  = m_tmcRouteProfile.getTmcEdges().get(edgeId); // todo: use graphhopperstorage to obtain osmid
-				
-				if (rptd.getRouteProfile().getOsmId2edgeIds().containsKey(osmId)) { 
-				    	
-				    	ArrayList<Integer> newEdgeIds = rptd.getRouteProfile().getOsmId2edgeIds().get(osmId);
-					    boolean foundMatched = false;
-						for (Integer newEdgeId : newEdgeIds) {
-							// one edge of an osm way has trafficInfo doesnt mean that all edges of the same osm way have the same trafficInfo
-							// so check if there is a newEdgeId corresponding to (match) edgeid in tmc graph
-							boolean isMatched = isEdgesMatched(edgeId, m_tmcRouteProfile, newEdgeId, rptd.getRouteProfile());
-							
-							if (isMatched) {
-							    edgeIds.add(newEdgeId);
-							    m_edgeId2trafficFeature.put(newEdgeId, tmcFeature);
-							    foundMatched = true;
-							}
-						} // end for all new edge ids						
-						 // if (!foundMatched){System.err.println("tmc edge " + edgeId+ " doesnt have matched newEdgeId " 
-						 //		+ rptd.getRouteProfile().getGraphLocation());}
-						
-				} // end if contains osm id 
-
-		     } // end for tmc edgeIds
-		} // end for tmc features 	
-	
-	
-		rptd.setMapEddgeId2trafficFeature(m_edgeId2trafficFeature);
-		updateRouteProfileEdges(rptd, updateInfo);
+		// the edges of both graphs are looked up by id, so neither of them may be replaced while the update is matched
+		GraphHopperHandle tmcHandle = m_tmcRouteProfile.acquireGH();
+		GraphHopperHandle profileHandle = null;
+		try {
+			profileHandle = rptd.getRouteProfile().acquireGH();
+			updateRouteProfile(rptd, updateInfo, loadExisting, tmcHandle.getGraphHopper(), profileHandle.getGraphHopper());
+		} finally {
+			if (profileHandle != null)
+				profileHandle.release();
+			tmcHandle.release();
+		}
+	}
+
+	private void updateRouteProfile(RouteProfileTmcData rptd, TmcUpdateInfo updateInfo, boolean loadExisting, ORSGraphHopper tmcGraph, ORSGraphHopper profileGraph) {
+
+        TmcEdgesGraphStorage tmcEdges = tmcGraph.getTmcEdges();
+        TmcEdgesGraphStorage profileTmcEdges = profileGraph.getTmcEdges();
+        if (tmcEdges == null || profileTmcEdges == null) {
+        	logger.warning("TMC edges are not available for '" + profileGraph.getGraphHopperLocation() + "'.");
+        	return;
+        }
+
+        GraphStorage graph = profileGraph.getGraphHopperStorage();
+        // the edges of the previous features belong to a graph which has been replaced in the meantime
+        if (rptd.getSnapshot().getGraph() != graph)
+        	loadExisting = false;
+
+        IdentityHashMap<TrafficFeatureInfo, int[]> prevFeatureEdges = loadExisting ? rptd.getFeatureEdges() : new IdentityHashMap<TrafficFeatureInfo, int[]>();
+        IdentityHashMap<TrafficFeatureInfo, int[]> featureEdges = new IdentityHashMap<TrafficFeatureInfo, int[]>(updateInfo.features.size());
+        IntArrayList newEdgeIds = new IntArrayList();
+        IntArrayList matchedEdgeIds = new IntArrayList();
+        int nMatched = 0;
+
+		for (TrafficFeatureInfo tmcFeature : updateInfo.features) {
+			if (featureEdges.containsKey(tmcFeature))
+				continue;
+
+			int[] edges = prevFeatureEdges.get(tmcFeature);
+			if (edges == null) {
+				edges = matchFeatureEdges(tmcFeature, tmcEdges, profileTmcEdges, tmcGraph, profileGraph, newEdgeIds, matchedEdgeIds);
+				nMatched++;
+			}
 
+			featureEdges.put(tmcFeature, edges);
+		}
+
+		int nRemoved = prevFeatureEdges.size() - (featureEdges.size() - nMatched);
+		rptd.setFeatureEdges(featureEdges);
+
+		if (!loadExisting)
+			rptd.setSnapshot(createSnapshot(updateInfo, featureEdges, null, null, System.currentTimeMillis(), graph));
+		else if (nMatched > 0 || nRemoved > 0 || rptd.getSnapshot().getNextExpiry() <= System.currentTimeMillis())
+			rptd.setSnapshot(updateSnapshot(rptd.getSnapshot(), updateInfo, prevFeatureEdges, featureEdges));
 	}
-	
-	
-	
+
+	private int[] matchFeatureEdges(TrafficFeatureInfo tmcFeature, TmcEdgesGraphStorage tmcEdges, TmcEdgesGraphStorage profileTmcEdges,
+			ORSGraphHopper tmcGraph, ORSGraphHopper profileGraph, IntArrayList newEdgeIds, IntArrayList matchedEdgeIds) {
+		if (tmcFeature.getEdgeIds() == null)
+			return new int[0];
+
+		matchedEdgeIds.clear();
+
+		for (int i = 0; i < tmcFeature.getEdgeIds().size(); i++) {
+			int edgeId = tmcFeature.getEdgeIds().get(i);
+			long osmId = tmcEdges.getOsmId(edgeId);
+			if (osmId == 0)
+				continue;
+
+			newEdgeIds.clear();
+			if (profileTmcEdges.getEdges(osmId, newEdgeIds)) {
+				for (int j = 0; j < newEdgeIds.size(); j++) {
+					int newEdgeId = newEdgeIds.get(j);
+					// one edge of an osm way has trafficInfo doesnt mean that all edges of the same osm way have the same trafficInfo
+					// so check if there is a newEdgeId corresponding to (match) edgeid in tmc graph
+					if (isEdgesMatched(edgeId, tmcGraph, newEdgeId, profileGraph))
+						matchedEdgeIds.add(newEdgeId);
+				}
+			}
+		}
+
+		return matchedEdgeIds.toArray();
+	}
+
 	// assume that if two edges intersect with each, they 
-	private boolean isEdgesMatched(int edgeId, RoutingProfile rp4tmc, int newEdgeId, RoutingProfile rp4routing){
+	private boolean isEdgesMatched(int edgeId, ORSGraphHopper rp4tmc, int newEdgeId, ORSGraphHopper rp4routing){
 		
 		// check the validity of the edge
 		//boolean flag1 = rp4tmc.getGraphhopper().getGraphHopperStorage().isValidEdge(edgeId);
 		//boolean flag2 = rp4routing.getGraphhopper().getGraphHopperStorage().isValidEdge(newEdgeId); // Runge: it has been commented out as the meaning of this check is not entirely clear
 			
 		if (EdgeIterator.Edge.isValid(edgeId) && EdgeIterator.Edge.isValid(newEdgeId)){
-			LineString edge_geom  = (LineString) rp4tmc.getEdgeGeometry(edgeId, 3, Integer.MIN_VALUE); 
-			LineString new_edge_geom = (LineString) rp4routing.getEdgeGeometry(newEdgeId, 3, Integer.MIN_VALUE);
+			LineString edge_geom  = (LineString) RoutingProfile.getEdgeGeometry(rp4tmc.getGraphHopperStorage(), edgeId, 3, Integer.MIN_VALUE); 
+			LineString new_edge_geom = (LineString) RoutingProfile.getEdgeGeometry(rp4routing.getGraphHopperStorage(), newEdgeId, 3, Integer.MIN_VALUE);
 		
 		    if (edge_geom.intersects(new_edge_geom)){		    	
 			   return true;			   
@@ -413,15 +511,24 @@ public class RealTrafficDataProvider {
 	}
 	
 
-	private void updateGraphMatchingInternal(boolean loadExisting) {
+	/**
+	 * Matches the current features again after a graph has been rebuilt. If no profile is given the TMC segments
+	 * have changed and the features of all profiles are extracted and matched from scratch.
+	 */
+	private synchronized void updateGraphMatchingInternal(RouteProfileTmcData profileData) {
 		long startTime = System.currentTimeMillis();
 
 		logger.info("TMC: start updating graph matching");
 
 		try {
+			if (profileData == null) {
+				m_messageFeatures = new HashMap<String, List<TrafficFeatureInfo>>();
+				m_lastMessage = null;
+			}
+
 			TmcUpdateInfo updateInfo = getUpdateInfo();
-			for (Entry<Integer, RouteProfileTmcData> entry0 : m_routeProfilesMap.entrySet()) {
-				updateRouteProfile(entry0.getValue(), updateInfo, loadExisting);
+			for (RouteProfileTmcData rptd : m_routeProfilesMap.values()) {
+				updateRouteProfile(rptd, updateInfo, profileData != null && profileData != rptd);
 			}
 		} catch (Exception ex) {
 			logger.warning(ex.getMessage());
@@ -431,7 +538,7 @@ public class RealTrafficDataProvider {
 		logger.info("TMC: graph matching performed in " + seconds + " s.");
 	}
 
-	private void runUpdateEdges() {
+	private synchronized void runUpdateEdges() {
 		if (m_updateIsRunning)
 			return;
 
@@ -441,14 +548,15 @@ public class RealTrafficDataProvider {
 			long startTime = System.currentTimeMillis();
 
 			TmcUpdateInfo updateInfo = getUpdateInfo();
-			for (Entry<Integer, RouteProfileTmcData> entry : m_routeProfilesMap.entrySet()) {
-				updateRouteProfile(entry.getValue(), updateInfo, true);
+			for (RouteProfileTmcData rptd : m_routeProfilesMap.values()) {
+				updateRouteProfile(rptd, updateInfo, true);
 			}
 
 			saveTmcData(updateInfo);
 			
-			long seconds = (System.currentTimeMillis() - startTime) / 1000;
-			logger.info("TMC: data is updated. Took " + seconds + " s.");
+			m_lastUpdateDuration = System.currentTimeMillis() - startTime;
+			logger.info("TMC: data is updated. Took " + m_lastUpdateDuration + " ms, " + m_lastUpdateAddedMessages
+					+ " messages added, " + m_lastUpdateRemovedMessages + " removed.");
 	   } catch (Exception ex) {
 			logger.warning(ex.getMessage());
 		}
@@ -478,109 +586,171 @@ public class RealTrafficDataProvider {
 		}
 	}
 
-	private void updateRouteProfileEdges(RouteProfileTmcData rptd, TmcUpdateInfo updateInfo) {
-		
-		HashMap<Integer, TrafficFeatureInfo> m_edgeId2trafficFeature = rptd.getMapEdgeId2trafficFeature();
-		if (m_edgeId2trafficFeature.size() == 0)
-			return;
+	/**
+	 * Derives the snapshot of the current features from the previous one. Only the edges of the features which have
+	 * been added or removed, or which have ended since the previous snapshot, are resolved again; the values of all
+	 * other edges are copied from the previous snapshot, which stays unchanged for the requests still using it.
+	 */
+	private TmcEdgesSnapshot updateSnapshot(TmcEdgesSnapshot prevSnapshot, TmcUpdateInfo updateInfo,
+			IdentityHashMap<TrafficFeatureInfo, int[]> prevFeatureEdges, IdentityHashMap<TrafficFeatureInfo, int[]> featureEdges) {
+		long now = System.currentTimeMillis();
+		BitSet changedEdges = new BitSet();
+
+		for (Entry<TrafficFeatureInfo, int[]> entry : prevFeatureEdges.entrySet()) {
+			if (!featureEdges.containsKey(entry.getKey()))
+				setEdges(changedEdges, entry.getValue());
+		}
 
-		HashMap<Integer, AvoidEdgeInfo> avoidEdges = new HashMap<Integer, AvoidEdgeInfo>();
-		List<Integer> blockedEdges = new ArrayList<Integer>();
-		List<Integer> blockedEdges_hv = new ArrayList<Integer>();
-		HashMap<Integer, EdgeInfo> edges = new HashMap<Integer, EdgeInfo>();
+		for (Entry<TrafficFeatureInfo, int[]> entry : featureEdges.entrySet()) {
+			TrafficFeatureInfo tfi = entry.getKey();
+			Date endTime = tfi.getEndTime();
+			if (!prevFeatureEdges.containsKey(tfi) || (endTime != null && endTime.getTime() >= prevSnapshot.getTime() && endTime.getTime() < now))
+				setEdges(changedEdges, entry.getValue());
+		}
 
-		try {
-			long diff = new Date().getTime() - updateInfo.time.getTime();
-			if (true/*DebugUtility.isDebug() /*
-															 * more than one
-															 * hour
-															 */) {
-				
-				for (Entry<Integer, TrafficFeatureInfo> entry : m_edgeId2trafficFeature.entrySet()) {  
-					  
-				    //System.out.println("Key = " + entry.getKey() + ", Value = " + entry.getValue());  
-				    int newEdgeId = (Integer) entry.getKey();
-				    TrafficFeatureInfo tfi = (TrafficFeatureInfo) entry.getValue();
-				    
-				    if (!(tfi.getGeometry() instanceof LineString))
-						continue;
-					short[] codes = new short[tfi.getEventCodes().size()];
-					for (int i = 0; i < codes.length; i++) {
-						codes[i] = (short)Math.min(Math.max(tfi.getEventCodes().get(i), Short.MIN_VALUE), Short.MAX_VALUE);
-					}
-					
-					String message = tfi.getMessage();
-					if (tfi.getEdgeIds() == null)
-						continue;
-				    
-					edges.put(newEdgeId, new EdgeInfo(newEdgeId, codes, message));
-					
-					
-					if (tfi.getEndTime() != null) {
-						Date now = new Date();
-						if (now.compareTo(tfi.getEndTime()) > 0)
-							continue;
-					}
-					
-					for (int i = 0; i < codes.length; i++) {
-						int code = codes[i];
-						TrafficEventInfo tec = TmcEventCodesTable.getEventInfo(code);
-						if (tec != null) {
-							int codeType = tec.type;
-							int mode = tec.mode;
-							if (codeType == TrafficEventType.AVOID) {
-								if (!avoidEdges.containsKey(newEdgeId)){				
-								
-										AvoidEdgeInfo edgeInfo = new AvoidEdgeInfo(newEdgeId, codes);
-										avoidEdges.put(newEdgeId, edgeInfo);
-								
-								} 
-								
-							 } else if (codeType == TrafficEventType.BLOCKED && mode == TmcMode.CAR) {
-								 
-									    if (!blockedEdges.contains(newEdgeId))
-									        blockedEdges.add(newEdgeId);
-							
-							 } else if (codeType == TrafficEventType.BLOCKED && mode == TmcMode.HEAVY_VEHICLE) {
-								 
-								        if (!blockedEdges_hv.contains(newEdgeId))
-								        	blockedEdges_hv.add(newEdgeId);
-						
-						     }  else if (codeType != TrafficEventType.ANY) {
-								
-							    	 logger.info("The TMC code '" + codeType +"' is not considered yet.");
-					         } 
-							
-							}
-							
-						} // end for codes    
-			
-				} // end for hashmap
-			}else { // end if debug
-				logger.info("TMC data is outdated." + updateInfo.time.toString());
+		return createSnapshot(updateInfo, featureEdges, prevSnapshot, changedEdges, now, prevSnapshot.getGraph());
+	}
+
+	private static void setEdges(BitSet bitSet, int[] edgeIds) {
+		if (edgeIds != null) {
+			for (int edgeId : edgeIds)
+				bitSet.set(edgeId);
+		}
+	}
+
+	/**
+	 * Creates the snapshot of the given features at the given time. If a previous snapshot is given, only the changed
+	 * edges are resolved from the features, the others keep their values.
+	 */
+	private TmcEdgesSnapshot createSnapshot(TmcUpdateInfo updateInfo, IdentityHashMap<TrafficFeatureInfo, int[]> featureEdges,
+			TmcEdgesSnapshot prevSnapshot, BitSet changedEdges, long now, GraphStorage graph) {
+		IntObjectMap<EdgeInfo> edges = new GHIntObjectHashMap<EdgeInfo>();
+		IntObjectMap<AvoidEdgeInfo> avoidEdges = new GHIntObjectHashMap<AvoidEdgeInfo>();
+		BitSet blockedEdges = new BitSet();
+		BitSet blockedEdges_hv = new BitSet();
+		long nextExpiry = Long.MAX_VALUE;
+
+		if (prevSnapshot != null) {
+			edges.putAll(prevSnapshot.getEdges());
+			avoidEdges.putAll(prevSnapshot.getAvoidEdges());
+			blockedEdges.or(prevSnapshot.getBlockedEdges());
+			blockedEdges_hv.or(prevSnapshot.getHeavyVehicleBlockedEdges());
+
+			for (int edgeId = changedEdges.nextSetBit(0); edgeId >= 0; edgeId = changedEdges.nextSetBit(edgeId + 1)) {
+				edges.remove(edgeId);
+				avoidEdges.remove(edgeId);
+				blockedEdges.clear(edgeId);
+				blockedEdges_hv.clear(edgeId);
 			}
-		} catch (Exception ex) {
-			logger.info(ex.toString());
 		}
 
-		// TODO make it thread safe.
-	    // System.out.println("edges size " +  edges.size() + " ; avoid edges size = "+ avoidEdges.size() + " ; blocked edges size = " + blockedEdges.size());
-		rptd.update(edges, avoidEdges, blockedEdges, blockedEdges_hv);
-		
-		// System.out.println("traffic edges size " + edges.keySet().toString());
-	    // System.out.println("TmcUpdateInfo size " + updateInfo.getTmcEdgeIds().size() +" info are "+ Arrays.deepToString(updateInfo.getTmcEdgeIds().toArray()));
+		for (TrafficFeatureInfo tfi : updateInfo.features) {
+			int[] edgeIds = featureEdges.get(tfi);
+			if (edgeIds == null || edgeIds.length == 0 || !(tfi.getGeometry() instanceof LineString))
+				continue;
+
+			if (changedEdges != null && !hasAnyEdge(changedEdges, edgeIds)) {
+				// the values of the edges have been copied, only the end of the feature is needed
+				if (tfi.getEndTime() != null && now <= tfi.getEndTime().getTime())
+					nextExpiry = Math.min(nextExpiry, tfi.getEndTime().getTime());
+				continue;
+			}
+
+			short[] codes = new short[tfi.getEventCodes().size()];
+			for (int i = 0; i < codes.length; i++) {
+				codes[i] = (short)Math.min(Math.max(tfi.getEventCodes().get(i), Short.MIN_VALUE), Short.MAX_VALUE);
+			}
+
+			String message = tfi.getMessage();
+			for (int edgeId : edgeIds) {
+				if (changedEdges == null || changedEdges.get(edgeId))
+					edges.put(edgeId, new EdgeInfo(edgeId, codes, message));
+			}
+
+			if (tfi.getEndTime() != null) {
+				long endTime = tfi.getEndTime().getTime();
+				if (now > endTime)
+					continue;
+
+				nextExpiry = Math.min(nextExpiry, endTime);
+			}
+
+			boolean avoid = false;
+			boolean blocked = false;
+			boolean blocked_hv = false;
+
+			for (int i = 0; i < codes.length; i++) {
+				TrafficEventInfo tec = TmcEventCodesTable.getEventInfo(codes[i]);
+				if (tec != null) {
+					int codeType = tec.type;
+					int mode = tec.mode;
+					if (codeType == TrafficEventType.AVOID)
+						avoid = true;
+					else if (codeType == TrafficEventType.BLOCKED && mode == TmcMode.CAR)
+						blocked = true;
+					else if (codeType == TrafficEventType.BLOCKED && mode == TmcMode.HEAVY_VEHICLE)
+						blocked_hv = true;
+					else if (codeType != TrafficEventType.ANY)
+						logger.info("The TMC code '" + codeType +"' is not considered yet.");
+				}
+			}
+
+			for (int edgeId : edgeIds) {
+				if (changedEdges != null && !changedEdges.get(edgeId))
+					continue;
+				if (avoid && !avoidEdges.containsKey(edgeId))
+					avoidEdges.put(edgeId, new AvoidEdgeInfo(edgeId, codes));
+				if (blocked)
+					blockedEdges.set(edgeId);
+				if (blocked_hv)
+					blockedEdges_hv.set(edgeId);
+			}
+		}
+
+		return new TmcEdgesSnapshot(edges, avoidEdges, blockedEdges, blockedEdges_hv, nextExpiry, now, graph);
+	}
+
+	private static boolean hasAnyEdge(BitSet bitSet, int[] edgeIds) {
+		for (int edgeId : edgeIds) {
+			if (bitSet.get(edgeId))
+				return true;
+		}
+
+		return false;
 	}
 
+	/**
+	 * Downloads the current TMC message. The features of the messages which were already part of the previous one
+	 * are reused, so that only new messages are matched against the TMC segments and an unchanged message is not
+	 * parsed at all.
+	 */
 	private TmcUpdateInfo getUpdateInfo() throws ParserConfigurationException, SAXException, IOException,
 			ParseException {
 		String message = m_tmcDatasource.getMessage();
 
 		if (Helper.isEmpty(message))
 			logger.warning("TMC message is null or empty. Check data source configuration. Datasource type: " + m_tmcDatasource.toString());
+		else if (m_lastUpdateInfo != null && message.equals(m_lastMessage)) {
+			m_lastUpdateAddedMessages = 0;
+			m_lastUpdateRemovedMessages = 0;
+
+			return m_lastUpdateInfo;
+		}
 		
 		Date msgTime = TrafficUtility.getMessageDateTime(message);
-		List<TrafficFeatureInfo> tmcFeatures = TrafficUtility.extractTmcFeatures(message, m_tmcSegments, 6*60*60*1000, m_locationGraph, logger);
+		HashMap<String, List<TrafficFeatureInfo>> messageFeatures = new HashMap<String, List<TrafficFeatureInfo>>();
+		List<TrafficFeatureInfo> tmcFeatures = TrafficUtility.extractTmcFeatures(message, m_tmcSegments, 6*60*60*1000, m_locationGraph, logger, m_messageFeatures, messageFeatures);
 
+		int nAdded = 0;
+		for (String key : messageFeatures.keySet()) {
+			if (!m_messageFeatures.containsKey(key))
+				nAdded++;
+		}
+
+		m_lastUpdateAddedMessages = nAdded;
+		m_lastUpdateRemovedMessages = m_messageFeatures.size() - (messageFeatures.size() - nAdded);
+		m_messageFeatures = messageFeatures;
+		m_lastMessage = message;
 		m_lastUpdateInfo = new TmcUpdateInfo(msgTime, tmcFeatures);
 		
 		return m_lastUpdateInfo;
@@ -602,6 +772,24 @@ public class RealTrafficDataProvider {
 		m_initialized = false;
 	}
 	
+	/**
+	 * Returns the time in milliseconds which the last periodic update took, -1 if there has been none yet.
+	 */
+	public long getLastUpdateDuration()
+	{
+		return m_lastUpdateDuration;
+	}
+
+	public int getLastUpdateAddedMessages()
+	{
+		return m_lastUpdateAddedMessages;
+	}
+
+	public int getLastUpdateRemovedMessages()
+	{
+		return m_lastUpdateRemovedMessages;
+	}
+
 	public String getTimeStamp()
 	{
 		if (m_lastUpdateInfo != null)
@@ -759,7 +947,7 @@ public class RealTrafficDataProvider {
 		if (rptd == null)
 			return "";
 		else {
-			EdgeInfo ei = rptd.getEdges().get(edgeId);
+			EdgeInfo ei = rptd.getSnapshot().getEdges().get(edgeId);
 
 			if (ei != null)
 				return ei.getCodesAsString() + " | " + ei.getMessage();
@@ -768,13 +956,13 @@ public class RealTrafficDataProvider {
 		}
 	}
 
-	public List<Integer> getBlockedEdges(GraphStorage graphStorage) {
+	public BitSet getBlockedEdges(GraphStorage graphStorage) {
 		RouteProfileTmcData rptd = getRouteProfileTmcData(graphStorage);
 
 		if (rptd == null)
 			return null;
 		else
-			return rptd.getBlockedEdges();
+			return rptd.getSnapshot().getBlockedEdges();
 		 //Test AAS 
 		 /*{
 			List<Integer> list = new ArrayList();
@@ -787,28 +975,45 @@ public class RealTrafficDataProvider {
 		}*/
 	}
 
-	public HashMap<Integer, AvoidEdgeInfo> getAvoidEdges(GraphStorage graphStorage) {
+	public IntObjectMap<AvoidEdgeInfo> getAvoidEdges(GraphStorage graphStorage) {
 		RouteProfileTmcData rptd = getRouteProfileTmcData(graphStorage);
 
 		if (rptd == null)
 			return null;
 		else
-			return rptd.getAvoidEdges();
+			return rptd.getSnapshot().getAvoidEdges();
 	}
 	
+	/**
+	 * Returns true if the traffic data has been matched to the given graph, which is the case for the current graph
+	 * of a profile using traffic information once its matching after an update is done.
+	 */
+	public boolean hasGraphMatching(GraphStorage graphStorage) {
+		return getRouteProfileTmcData(graphStorage) != null;
+	}
+
+	/**
+	 * Returns the data of the profile whose current snapshot refers to the edges of the given graph. Requests still
+	 * running on a replaced graph get no data once the new graph has been matched, as the edge ids differ.
+	 */
 	private RouteProfileTmcData getRouteProfileTmcData(GraphStorage graphStorage)
 	{
-		return m_routeProfilesMap.get(graphStorage.getDirectory().getLocation().hashCode());
+		for (RouteProfileTmcData rptd : m_routeProfilesMap.values()) {
+			if (rptd.getSnapshot().getGraph() == graphStorage)
+				return rptd;
+		}
+
+		return null;
 	}
 	
 	
-	public List<Integer> getHeavyVehicleBlockedEdges(GraphStorage graphStorage) {
+	public BitSet getHeavyVehicleBlockedEdges(GraphStorage graphStorage) {
 		RouteProfileTmcData rptd = getRouteProfileTmcData(graphStorage);
 
 		if (rptd == null)
 			return null;
 	
 		else
-			return rptd.getHeavyVehicleBlockedEdges();
+			return rptd.getSnapshot().getHeavyVehicleBlockedEdges();
 	}
 }
@@ -46,6 +46,21 @@ public class TrafficMessageData {
 	public TrafficMessageData() {
 	}
 
+	/**
+	 * Returns a key which is equal for two messages if and only if they describe the same event at the same
+	 * locations, so that the features extracted from a message can be reused by the next update.
+	 */
+	public String getKey() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(direction).append(bothDirections ? "|b|" : "|s|");
+		sb.append(locationCodes).append('|').append(eventDataCodes).append('|').append(messageDataText);
+		sb.append('|').append(startTime).append('|').append(endTime).append('|').append(uptTime).append('|').append(expTime);
+		if (location != null)
+			sb.append('|').append(location.x).append(',').append(location.y);
+
+		return sb.toString();
+	}
+
 	@SuppressWarnings("unchecked")
 	public static List<TrafficMessageData> parse(String message, String cs, TmcSegmentsCollection tmcSegments, TrafficLocationGraph graph) {
 		ArrayList<TrafficMessageData> messages = new ArrayList<TrafficMessageData>();
@@ -28,11 +28,13 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.logging.Logger;
 
@@ -443,15 +445,46 @@ public class TrafficUtility {
 
 	public static List<TrafficFeatureInfo> extractTmcFeatures(String tmcMessage, TmcSegmentsCollection segments,
 			long timeThreshold, TrafficLocationGraph graph, Logger logger) {
+		return extractTmcFeatures(tmcMessage, segments, timeThreshold, graph, logger, null, null);
+	}
+
+	/**
+	 * Extracts the features of a TMC message. When messageFeatures is given, it receives the features of every
+	 * message keyed by TrafficMessageData.getKey() and the features of the messages which are found in
+	 * prevMessageFeatures are reused instead of being matched against the TMC segments again.
+	 */
+	public static List<TrafficFeatureInfo> extractTmcFeatures(String tmcMessage, TmcSegmentsCollection segments,
+			long timeThreshold, TrafficLocationGraph graph, Logger logger, Map<String, List<TrafficFeatureInfo>> prevMessageFeatures,
+			Map<String, List<TrafficFeatureInfo>> messageFeatures) {
 		List<TrafficFeatureInfo> result = new ArrayList<TrafficFeatureInfo>();
 
 		List<TrafficMessageData> messages = TrafficMessageData.parse(tmcMessage, "ISO-8859-1", segments, graph);
 
 		GeometryFactory geomFactory = new GeometryFactory();
+		Date now = new Date();
 
 		for (int i = 0; i < messages.size(); i++) {
 			try {
 				TrafficMessageData m = (TrafficMessageData) messages.get(i);
+				String key = null;
+
+				if (messageFeatures != null) {
+					key = m.getKey();
+					List<TrafficFeatureInfo> features = messageFeatures.get(key);
+					if (features == null && prevMessageFeatures != null)
+						features = prevMessageFeatures.get(key);
+
+					if (features != null) {
+						if (isExpired(m, now))
+							features = Collections.emptyList();
+
+						messageFeatures.put(key, features);
+						result.addAll(features);
+						continue;
+					}
+				}
+
+				int firstFeature = result.size();
 
 				// event codes see
 				// http://wiki.openstreetmap.org/wiki/TMC/Event_Code_List
@@ -532,6 +565,9 @@ public class TrafficUtility {
 						result.add(tei);
 					}
 				}
+
+				if (key != null)
+					messageFeatures.put(key, new ArrayList<TrafficFeatureInfo>(result.subList(firstFeature, result.size())));
 			} catch (Exception e) {
 				logger.warning(e.getMessage());
 			}
@@ -555,8 +591,7 @@ public class TrafficUtility {
 			tei.setGeometry(geom);
 			
 			if (!Helper.isEmpty(m.expTime) && Helper.isEmpty(m.endTime)) {
-				Date expTime = df.parse(m.expTime);
-				if (now.compareTo(expTime) > 0)
+				if (isExpired(m, now))
 					return null;
 			} else {
 				if (!Helper.isEmpty(m.startTime) || !Helper.isEmpty(m.endTime)) {
@@ -588,6 +623,14 @@ public class TrafficUtility {
 		return result.size() == 0 ? null: result;
 	}
 	
+	private static boolean isExpired(TrafficMessageData m, Date now) throws ParseException
+	{
+		if (!Helper.isEmpty(m.expTime) && Helper.isEmpty(m.endTime))
+			return now.compareTo(df.parse(m.expTime)) > 0;
+
+		return false;
+	}
+
 	private static List<Geometry> processGeometries(List<Geometry> geoms, GeometryFactory geomFactory)
 	{
 		List<Geometry> result = new ArrayList<Geometry>();
@@ -120,6 +120,9 @@ public class ORSServicesUtils {
 			{
 				JSONObject jTrafficInfo = new JSONObject(true);
 				jTrafficInfo.put("update_date", RealTrafficDataProvider.getInstance().getTimeStamp());
+				jTrafficInfo.put("update_duration", RealTrafficDataProvider.getInstance().getLastUpdateDuration());
+				jTrafficInfo.put("messages_added", RealTrafficDataProvider.getInstance().getLastUpdateAddedMessages());
+				jTrafficInfo.put("messages_removed", RealTrafficDataProvider.getInstance().getLastUpdateRemovedMessages());
 				jInfo.put("tmc", jTrafficInfo);
 			}
 		}
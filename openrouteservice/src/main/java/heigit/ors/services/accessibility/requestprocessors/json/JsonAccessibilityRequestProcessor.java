@@ -221,8 +221,7 @@ public class JsonAccessibilityRequestProcessor extends AbstractHttpRequestProces
 						}
 						
 						BBox bbox = new BBox(0,0,0,0);
-						JSONArray jRoute = JsonRoutingResponseWriter.toJsonArray(reqRouting, new RouteResult[] { route }, bbox);
-						jRouteForLocIndex.put(jRoute.get(0));
+						jRouteForLocIndex.put(JsonRoutingResponseWriter.toJson(reqRouting, route, bbox));
 
 						if (minX > bbox.minLon)
 							minX =  bbox.minLon;
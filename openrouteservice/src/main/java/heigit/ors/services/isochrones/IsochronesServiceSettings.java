@@ -31,6 +31,8 @@ public class IsochronesServiceSettings {
 	private static Map<Integer, Integer> profileMaxRangeTimes;
 	private static int maximumIntervals = 1;
 	private static boolean allowComputeArea = true;
+	private static int threads = Runtime.getRuntime().availableProcessors();
+	private static int maximumParallelLocations = 4;
 	private static String attribution = "";
 
 	static 
@@ -75,6 +77,12 @@ public class IsochronesServiceSettings {
 		value = AppConfig.Global().getServiceParameter("isochrones", "allow_compute_area");
 		if (value != null)
 			allowComputeArea = Boolean.parseBoolean(value);
+		value = AppConfig.Global().getServiceParameter("isochrones", "threads");
+		if (value != null)
+			threads = Math.max(1, Integer.parseInt(value));
+		value = AppConfig.Global().getServiceParameter("isochrones", "maximum_parallel_locations");
+		if (value != null)
+			maximumParallelLocations = Math.max(1, Integer.parseInt(value));
 		value = AppConfig.Global().getServiceParameter("isochrones", "attribution");
 		if (value != null)
 			attribution = value;
@@ -114,6 +122,14 @@ public class IsochronesServiceSettings {
 		return maximumLocations;
 	}
 
+	public static int getThreads() {
+		return threads;
+	}
+
+	public static int getMaximumParallelLocations() {
+		return maximumParallelLocations;
+	}
+
 	public static int getMaximumRange(int profileType, TravelRangeType range) {
 		Integer res = 0;
 
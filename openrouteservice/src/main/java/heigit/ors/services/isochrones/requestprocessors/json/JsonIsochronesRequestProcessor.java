@@ -11,12 +11,12 @@
  *|----------------------------------------------------------------------------------------------*/
 package heigit.ors.services.isochrones.requestprocessors.json;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 
 import com.graphhopper.util.Helper;
@@ -46,8 +46,8 @@ import heigit.ors.isochrones.IsochroneRequest;
 import heigit.ors.routing.RoutingProfileManager;
 import heigit.ors.servlet.http.AbstractHttpRequestProcessor;
 import heigit.ors.servlet.util.ServletUtility;
-import heigit.ors.util.FormatUtility;
 import heigit.ors.util.AppInfo;
+import heigit.ors.util.JsonStreamWriter;
 import heigit.ors.util.StringUtility;
 
 public class JsonIsochronesRequestProcessor extends AbstractHttpRequestProcessor 
@@ -105,13 +105,11 @@ public class JsonIsochronesRequestProcessor extends AbstractHttpRequestProcessor
 
 		if (travellers.size() > 0)
 		{
-			IsochroneMapCollection isoMaps = new IsochroneMapCollection();
+			List<IsochroneSearchParameters> searchParams = new ArrayList<IsochroneSearchParameters>(travellers.size());
+			for (int i = 0;i < travellers.size(); ++i)
+				searchParams.add(req.getSearchParameters(i));
 
-			for (int i = 0;i < travellers.size(); ++i){
-				IsochroneSearchParameters searchParams = req.getSearchParameters(i);
-				IsochroneMap isochroneMap = RoutingProfileManager.getInstance().buildIsochrone(searchParams);
-				isoMaps.add(isochroneMap);
-			}
+			IsochroneMapCollection isoMaps = RoutingProfileManager.getInstance().buildIsochrones(searchParams);
 
 			writeResponse(response, req, isoMaps);
 		}
@@ -119,12 +117,12 @@ public class JsonIsochronesRequestProcessor extends AbstractHttpRequestProcessor
 
 	private void writeResponse(HttpServletResponse response, IsochroneRequest request, IsochroneMapCollection isochroneMaps) throws Exception
 	{
-		JSONObject jResp = new JSONObject(true);
+		JsonStreamWriter writer = ServletUtility.createJsonWriter(response);
+		writer.beginObject();
 
-		jResp.put("type", "FeatureCollection");
+		writer.name("type").value("FeatureCollection");
 		
-		JSONArray jFeatures = new JSONArray(isochroneMaps.getIsochronesCount());
-		jResp.put("features", jFeatures);
+		writer.name("features").beginArray();
 
 		double minX = Double.MAX_VALUE;
 		double minY = Double.MAX_VALUE;
@@ -145,40 +143,40 @@ public class JsonIsochronesRequestProcessor extends AbstractHttpRequestProcessor
 			{
 				Polygon isoPoly = (Polygon)isoLine.getGeometry();
 				LineString shell = isoPoly.getExteriorRing();
-				JSONObject jFeature = new JSONObject(true);
-				jFeature.put("type", "Feature");
-
-				JSONObject jPolygon = new JSONObject(true);
-				jPolygon.put("type", "Polygon");
 
-				jPolygon.put("coordinates", GeometryJSON.toJSON(isoPoly));
+				writer.beginObject();
+				writer.name("type").value("Feature");
 
-				jFeature.put("geometry", jPolygon);
+				writer.name("geometry").beginObject();
+				writer.name("type").value("Polygon");
+				writer.name("coordinates");
+				GeometryJSON.write(writer, isoPoly);
+				writer.endObject();
 
-				JSONObject jProperties = new JSONObject(true);
+				writer.name("properties").beginObject();
 
-				jProperties.put("group_index", groupIndex);
-				jProperties.put("value", isoLine.getValue());
+				writer.name("group_index").value(groupIndex);
+				writer.name("value").value(isoLine.getValue());
 
-				jProperties.put("center", GeometryJSON.toJSON(isoMap.getCenter()));
+				writer.name("center");
+				GeometryJSON.write(writer, isoMap.getCenter());
 
 				if (includeArea || includeReachFactor)
 				{
 					double area = isoLine.getArea(units);
 					if (includeArea)
-						jProperties.put("area", FormatUtility.roundToDecimals(area, 4));
+						writer.name("area").value(area, 4);
 					if (includeReachFactor && traveller.getRangeType() == TravelRangeType.Time)
 					{
 						double r  = isoLine.getMaxRadius(units);
 						double maxArea = Math.PI * r * r;
 
-						jProperties.put("reachfactor", FormatUtility.roundToDecimals(area/maxArea, 4));
+						writer.name("reachfactor").value(area/maxArea, 4);
 					}
 				}
 
-				jFeature.put("properties", jProperties);
-
-				jFeatures.put(jFeature);
+				writer.endObject();
+				writer.endObject();
 
 				Envelope env = shell.getEnvelopeInternal();
 				if (minX > env.getMinX())
@@ -202,82 +200,85 @@ public class JsonIsochronesRequestProcessor extends AbstractHttpRequestProcessor
 				for (IsochronesIntersection isoIntersection : isoIntersections)
 				{
 					Geometry geom = isoIntersection.getGeometry();
-					JSONObject jFeature = new JSONObject(true);
-					jFeature.put("type", "Feature");
-
-					JSONObject jGeometry = new JSONObject(true);
-					jGeometry.put("type", geom.getGeometryType());
-					jGeometry.put("coordinates", GeometryJSON.toJSON(geom, null));
 
-					jFeature.put("geometry", jGeometry);
+					writer.beginObject();
+					writer.name("type").value("Feature");
 
-					JSONObject jProperties = new JSONObject(true);
+					writer.name("geometry").beginObject();
+					writer.name("type").value(geom.getGeometryType());
+					writer.name("coordinates");
+					GeometryJSON.write(writer, geom);
+					writer.endObject();
 
-					JSONArray jContours = new JSONArray(isoIntersection.getContourRefs().size());
-					jProperties.put("contours", jContours);
+					writer.name("properties").beginObject();
 
+					writer.name("contours").beginArray();
 					for(Pair<Integer, Integer> ref : isoIntersection.getContourRefs())
 					{
-						JSONArray jRef = new JSONArray(2);
-						jRef.put(ref.first);
-						jRef.put(ref.second);
-						jContours.put(jRef);
+						writer.beginArray();
+						writer.value(ref.first);
+						writer.value(ref.second);
+						writer.endArray();
 					}
+					writer.endArray();
 
 					if (includeArea)
-						jProperties.put("area", FormatUtility.roundToDecimals(isoIntersection.getArea(units), 4));
+						writer.name("area").value(isoIntersection.getArea(units), 4);
 
-					jFeature.put("properties", jProperties);
-
-					jFeatures.put(jFeature);
+					writer.endObject();
+					writer.endObject();
 				}
 			}
 		}
 
-		jResp.put("bbox", GeometryJSON.toJSON(minX, minY, maxX, maxY));
+		writer.endArray();
+
+		writer.name("bbox");
+		GeometryJSON.write(writer, minX, minY, maxX, maxY);
 
 		traveller = request.getTravellers().get(0);
 		
-		JSONObject jInfo = new JSONObject();
-		jInfo.put("service", "isochrones");
-		jInfo.put("engine", AppInfo.getEngineInfo());
+		writer.name("info").beginObject();
+		writer.name("service").value("isochrones");
+		writer.name("engine").value(AppInfo.getEngineInfo());
 		if (!Helper.isEmpty(IsochronesServiceSettings.getAttribution()))
-			jInfo.put("attribution", IsochronesServiceSettings.getAttribution());
-		jInfo.put("timestamp", System.currentTimeMillis());
+			writer.name("attribution").value(IsochronesServiceSettings.getAttribution());
+		writer.name("timestamp").value(System.currentTimeMillis());
 
-		JSONObject jQuery = new JSONObject();
+		writer.name("query").beginObject();
 
-		jQuery.put("profile", RoutingProfileType.getName(traveller.getRouteSearchParameters().getProfileType()));
+		writer.name("profile").value(RoutingProfileType.getName(traveller.getRouteSearchParameters().getProfileType()));
 
 		if (traveller.getRangeType() != null)
-			jQuery.put("range_type", traveller.getRangeType().toString().toLowerCase());
+			writer.name("range_type").value(traveller.getRangeType().toString().toLowerCase());
 
-		jQuery.put("ranges", StringUtility.arrayToString(traveller.getRanges(), ","));
+		writer.name("ranges").value(StringUtility.arrayToString(traveller.getRanges(), ","));
 
-		jQuery.put("locations", GeometryJSON.toJSON(request.getLocations(), false));
+		writer.name("locations");
+		GeometryJSON.write(writer, request.getLocations(), false);
 
 		if (request.getUnits() != null)
-			jQuery.put("units", request.getUnits());
+			writer.name("units").value(request.getUnits());
 
 		if (traveller.getLocationType() != null)
-			jQuery.put("location_type", traveller.getLocationType());
+			writer.name("location_type").value(traveller.getLocationType());
 
 		if (request.getAttributes() != null)
-			jQuery.put("attributes", StringUtility.combine(request.getAttributes(), "|"));
+			writer.name("attributes").value(StringUtility.combine(request.getAttributes(), "|"));
 
 		if (request.getCalcMethod() != null)
-			jQuery.put("calc_method", request.getCalcMethod());
+			writer.name("calc_method").value(request.getCalcMethod());
 
 		if (!Helper.isEmpty(traveller.getRouteSearchParameters().getOptions()))
-			jQuery.put("options", new JSONObject(traveller.getRouteSearchParameters().getOptions()));
+			writer.name("options").value(new JSONObject(traveller.getRouteSearchParameters().getOptions()));
 
 		if (request.getId() != null)
-			jQuery.put("id", request.getId());
-
-		jInfo.put("query", jQuery);
+			writer.name("id").value(request.getId());
 
-		jResp.put("info", jInfo);
+		writer.endObject();
+		writer.endObject();
 
-		ServletUtility.write(response, jResp);
+		writer.endObject();
+		writer.close();
 	}
 }
@@ -15,9 +15,14 @@ import heigit.ors.config.AppConfig;
 
 public class MapMatchingServiceSettings {
 	private static Boolean enabled  = true;
-	private static int maximumLocations = 100;
+	private static int maximumLocations = 100000;
 	private static double maximumSearchRadius = 200;
 	private static int maximumVisitedNodes = 10000;
+	private static int windowSize = 50;
+	private static int maximumBatchTraces = 1000;
+	private static int batchThreads = 4;
+	private static long batchTimeLimit = 60000;
+	private static int maximumCachedLocations = 100000;
 	private static String attribution = "";
 		
 	static 
@@ -34,6 +39,21 @@ public class MapMatchingServiceSettings {
 		value = AppConfig.Global().getServiceParameter("mapmatching", "maximum_visited_nodes");
 		if (value != null)
 			maximumVisitedNodes = Math.max(1, Integer.parseInt(value));
+		value = AppConfig.Global().getServiceParameter("mapmatching", "window_size");
+		if (value != null)
+			windowSize = Math.max(2, Integer.parseInt(value));
+		value = AppConfig.Global().getServiceParameter("mapmatching", "maximum_batch_traces");
+		if (value != null)
+			maximumBatchTraces = Math.max(1, Integer.parseInt(value));
+		value = AppConfig.Global().getServiceParameter("mapmatching", "batch_threads");
+		if (value != null)
+			batchThreads = Math.max(1, Integer.parseInt(value));
+		value = AppConfig.Global().getServiceParameter("mapmatching", "batch_time_limit");
+		if (value != null)
+			batchTimeLimit = Math.max(1, Long.parseLong(value));
+		value = AppConfig.Global().getServiceParameter("mapmatching", "maximum_cached_locations");
+		if (value != null)
+			maximumCachedLocations = Math.max(0, Integer.parseInt(value));
 		value = AppConfig.Global().getServiceParameter("mapmatching", "attribution");
 		if (value != null)
 			attribution = value;
@@ -58,4 +78,24 @@ public class MapMatchingServiceSettings {
 	public static int getMaximumVisitedNodes() {
 		return maximumVisitedNodes;
 	}
+
+	public static int getWindowSize() {
+		return windowSize;
+	}
+
+	public static int getMaximumBatchTraces() {
+		return maximumBatchTraces;
+	}
+
+	public static int getBatchThreads() {
+		return batchThreads;
+	}
+
+	public static long getBatchTimeLimit() {
+		return batchTimeLimit;
+	}
+
+	public static int getMaximumCachedLocations() {
+		return maximumCachedLocations;
+	}
 }
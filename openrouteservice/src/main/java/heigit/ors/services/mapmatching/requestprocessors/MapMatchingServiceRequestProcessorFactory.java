@@ -19,6 +19,7 @@ import heigit.ors.exceptions.UnknownParameterValueException;
 import heigit.ors.mapmatching.MapMatchingErrorCodes;
 import heigit.ors.routing.RoutingProfileManagerStatus;
 import heigit.ors.services.mapmatching.MapMatchingServiceSettings;
+import heigit.ors.services.mapmatching.requestprocessors.json.JsonBatchMapMatchingRequestProcessor;
 import heigit.ors.services.mapmatching.requestprocessors.json.JsonMapMatchingRequestProcessor;
 import heigit.ors.servlet.http.AbstractHttpRequestProcessor;
 
@@ -39,6 +40,9 @@ public class MapMatchingServiceRequestProcessorFactory {
 		if (Helper.isEmpty(formatParam))
 			formatParam = "json";
 		
+		if ("/matching/batch".equals(request.getServletPath()))
+			return new JsonBatchMapMatchingRequestProcessor(request);
+
 		switch(formatParam)
 		{
 			case "json":
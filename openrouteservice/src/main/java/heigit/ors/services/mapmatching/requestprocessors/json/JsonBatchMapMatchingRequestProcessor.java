@@ -0,0 +1,259 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2016
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.services.mapmatching.requestprocessors.json;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.graphhopper.util.shapes.BBox;
+import com.vividsolutions.jts.geom.Coordinate;
+
+import heigit.ors.common.StatusCode;
+import heigit.ors.exceptions.ParameterOutOfRangeException;
+import heigit.ors.exceptions.ParameterValueException;
+import heigit.ors.exceptions.StatusCodeException;
+import heigit.ors.mapmatching.MapMatchingErrorCodes;
+import heigit.ors.mapmatching.MapMatchingRequest;
+import heigit.ors.mapmatching.TrackMatchingListener;
+import heigit.ors.routing.RouteResult;
+import heigit.ors.routing.RoutingProfileManager;
+import heigit.ors.services.mapmatching.MapMatchingServiceSettings;
+import heigit.ors.servlet.http.AbstractHttpRequestProcessor;
+
+/**
+ * Matches a batch of traces posted either as a GeoJSON FeatureCollection of LineStrings or as newline delimited JSON,
+ * one trace per line given as a Feature or as an object with "id" and "coordinates". The profile and all other
+ * parameters are taken from the query string and apply to every trace.
+ * <p>
+ * The response is newline delimited JSON as well. Every trace is written as soon as it is matched, so the lines are
+ * not in the order of the input; they contain the index of the trace and its id, and either the matched routes or
+ * the error which occurred for this trace.
+ */
+public class JsonBatchMapMatchingRequestProcessor extends AbstractHttpRequestProcessor {
+
+	public JsonBatchMapMatchingRequestProcessor(HttpServletRequest request) throws Exception 
+	{
+		super(request);
+	}
+
+	@Override
+	public void process(HttpServletResponse response) throws Exception {
+		List<Object> traces = readTraces();
+
+		if (traces.isEmpty())
+			throw new StatusCodeException(StatusCode.BAD_REQUEST, MapMatchingErrorCodes.MISSING_PARAMETER, "The request does not contain any traces.");
+		if (traces.size() > MapMatchingServiceSettings.getMaximumBatchTraces())
+			throw new ParameterOutOfRangeException(MapMatchingErrorCodes.PARAMETER_VALUE_EXCEEDS_MAXIMUM, "traces", Integer.toString(traces.size()), Integer.toString(MapMatchingServiceSettings.getMaximumBatchTraces()));
+
+		// fails for the whole batch if the parameters in the query string are invalid
+		JsonMapMatchingRequestParser.parseFromRequestParams(_request);
+
+		response.setCharacterEncoding("UTF-8");
+		response.setContentType("application/x-ndjson");
+		response.addHeader("Vary", "Accept-Encoding");
+
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+
+		try
+		{
+			final List<MapMatchingRequest> reqs = new ArrayList<MapMatchingRequest>(traces.size());
+			final List<Integer> indices = new ArrayList<Integer>(traces.size());
+			final String[] ids = new String[traces.size()];
+
+			for (int i = 0; i < traces.size(); i++)
+			{
+				try
+				{
+					JSONObject jTrace = (JSONObject)traces.get(i);
+					ids[i] = getTraceId(jTrace);
+
+					MapMatchingRequest req = JsonMapMatchingRequestParser.parseFromRequestParams(_request);
+					req.setId(ids[i]);
+					req.setCoordinates(getTraceCoordinates(jTrace));
+
+					reqs.add(req);
+					indices.add(i);
+				}
+				catch (Exception ex)
+				{
+					writeError(writer, i, ids[i], ex);
+				}
+			}
+
+			RoutingProfileManager.getInstance().matchTracks(reqs, MapMatchingServiceSettings.getBatchTimeLimit(), new TrackMatchingListener() {
+				@Override
+				public void trackMatched(int index, RouteResult result) throws Exception {
+					MapMatchingRequest req = reqs.get(index);
+					int traceIndex = indices.get(index);
+
+					JSONObject json = new JSONObject(true);
+					json.put("index", traceIndex);
+					if (ids[traceIndex] != null)
+						json.put("id", ids[traceIndex]);
+					json.put("routes", JsonMapMatchingResponseWriter.toJsonArray(req, new RouteResult[] { result }, new BBox(0, 0, 0, 0)));
+
+					writeLine(writer, json);
+				}
+
+				@Override
+				public void trackFailed(int index, Exception ex) throws Exception {
+					int traceIndex = indices.get(index);
+					writeError(writer, traceIndex, ids[traceIndex], ex);
+				}
+			});
+		}
+		finally
+		{
+			// sends the lines written so far also if the matching failed
+			writer.close();
+		}
+	}
+
+	/**
+	 * Returns the traces of the request body. The body is either a single FeatureCollection or a sequence of JSON
+	 * objects, one per line.
+	 */
+	private List<Object> readTraces() throws Exception
+	{
+		StringBuilder content = new StringBuilder();
+		BufferedReader reader = _request.getReader();
+		String line;
+		while ((line = reader.readLine()) != null)
+			content.append(line).append('\n');
+		reader.close();
+
+		List<Object> traces = new ArrayList<Object>();
+
+		try
+		{
+			String text = content.toString().trim();
+			if (text.startsWith("{"))
+			{
+				JSONObject json = new JSONObject(text);
+				if ("FeatureCollection".equals(json.optString("type")))
+				{
+					JSONArray jFeatures = json.getJSONArray("features");
+					for (int i = 0; i < jFeatures.length(); i++)
+						traces.add(jFeatures.getJSONObject(i));
+
+					return traces;
+				}
+			}
+		}
+		catch (JSONException ex)
+		{
+			// not a single document, try to read it line by line
+		}
+
+		int lineNumber = 0;
+		for (String text : content.toString().split("\n"))
+		{
+			lineNumber++;
+			text = text.trim();
+			if (text.isEmpty())
+				continue;
+
+			try
+			{
+				traces.add(new JSONObject(text));
+			}
+			catch (JSONException ex)
+			{
+				throw new StatusCodeException(StatusCode.BAD_REQUEST, MapMatchingErrorCodes.INVALID_JSON_FORMAT, "Unable to parse the trace in line " + lineNumber + ".");
+			}
+		}
+
+		return traces;
+	}
+
+	private static String getTraceId(JSONObject jTrace)
+	{
+		Object id = jTrace.opt("id");
+		if (id == null && jTrace.has("properties"))
+			id = jTrace.getJSONObject("properties").opt("id");
+
+		return id == null ? null : id.toString();
+	}
+
+	private static Coordinate[] getTraceCoordinates(JSONObject jTrace) throws Exception
+	{
+		JSONArray jCoords = null;
+
+		try
+		{
+			if (jTrace.has("geometry"))
+			{
+				JSONObject jGeometry = jTrace.getJSONObject("geometry");
+				if (!"LineString".equals(jGeometry.optString("type")))
+					throw new ParameterValueException(MapMatchingErrorCodes.INVALID_PARAMETER_VALUE, "geometry", jGeometry.optString("type"));
+				jCoords = jGeometry.getJSONArray("coordinates");
+			}
+			else if (jTrace.has("coordinates"))
+				jCoords = jTrace.getJSONArray("coordinates");
+			else
+				throw new ParameterValueException(MapMatchingErrorCodes.MISSING_PARAMETER, "coordinates");
+
+			Coordinate[] coords = new Coordinate[jCoords.length()];
+			for (int i = 0; i < coords.length; i++)
+			{
+				JSONArray jCoord = jCoords.getJSONArray(i);
+				coords[i] = new Coordinate(jCoord.getDouble(0), jCoord.getDouble(1));
+			}
+
+			if (coords.length < 2)
+				throw new ParameterValueException(MapMatchingErrorCodes.INVALID_PARAMETER_VALUE, "coordinates parameter must contain at least two locations");
+			if (MapMatchingServiceSettings.getMaximumLocations() > 0 && coords.length > MapMatchingServiceSettings.getMaximumLocations())
+				throw new ParameterOutOfRangeException(MapMatchingErrorCodes.PARAMETER_VALUE_EXCEEDS_MAXIMUM, "coordinates", Integer.toString(coords.length), Integer.toString(MapMatchingServiceSettings.getMaximumLocations()));
+
+			return coords;
+		}
+		catch (JSONException ex)
+		{
+			throw new ParameterValueException(MapMatchingErrorCodes.INVALID_PARAMETER_FORMAT, "coordinates");
+		}
+	}
+
+	private static void writeError(Writer writer, int index, String id, Exception ex) throws IOException
+	{
+		JSONObject jError = new JSONObject(true);
+		jError.put("code", ex instanceof StatusCodeException ? ((StatusCodeException)ex).getInternalCode() : MapMatchingErrorCodes.UNKNOWN);
+		jError.put("message", ex.getMessage());
+
+		JSONObject json = new JSONObject(true);
+		json.put("index", index);
+		if (id != null)
+			json.put("id", id);
+		json.put("error", jError);
+
+		writeLine(writer, json);
+	}
+
+	private static void writeLine(Writer writer, JSONObject json) throws IOException
+	{
+		json.write(writer);
+		writer.write('\n');
+		// every trace is sent to the client right away
+		writer.flush();
+	}
+}
@@ -26,7 +26,6 @@ import heigit.ors.mapmatching.MapMatchingRequest;
 import heigit.ors.routing.RouteResult;
 import heigit.ors.routing.RoutingProfileManager;
 import heigit.ors.services.mapmatching.MapMatchingServiceSettings;
-import heigit.ors.services.matrix.MatrixServiceSettings;
 import heigit.ors.servlet.http.AbstractHttpRequestProcessor;
 import heigit.ors.servlet.util.ServletUtility;
 
@@ -44,15 +43,39 @@ public class JsonMapMatchingRequestProcessor extends AbstractHttpRequestProcesso
 		if (req == null)
 			throw new StatusCodeException(StatusCode.BAD_REQUEST, MapMatchingErrorCodes.UNKNOWN, "MapMatchingRequest object is null.");
 		
-		if (MapMatchingServiceSettings.getMaximumLocations() > 0 && req.getCoordinates().length > MatrixServiceSettings.getMaximumLocations())
-			throw new ParameterOutOfRangeException(MapMatchingErrorCodes.PARAMETER_VALUE_EXCEEDS_MAXIMUM, "sources/destinations", Integer.toString(req.getCoordinates().length), Integer.toString(MapMatchingServiceSettings.getMaximumLocations()));
+		if (MapMatchingServiceSettings.getMaximumLocations() > 0 && req.getCoordinates().length > MapMatchingServiceSettings.getMaximumLocations())
+			throw new ParameterOutOfRangeException(MapMatchingErrorCodes.PARAMETER_VALUE_EXCEEDS_MAXIMUM, "coordinates", Integer.toString(req.getCoordinates().length), Integer.toString(MapMatchingServiceSettings.getMaximumLocations()));
 
 		
+		String respFormat = _request.getParameter("format");
+
+		// long tracks are sent while they are being matched instead of being kept in memory
+		if ((Helper.isEmpty(respFormat) || "json".equalsIgnoreCase(respFormat)) && JsonMatchedRouteWriter.canWrite(req))
+		{
+			JsonMatchedRouteWriter writer = new JsonMatchedRouteWriter(response, req);
+			RouteResult result = null;
+
+			try
+			{
+				result = RoutingProfileManager.getInstance().matchTrack(req, writer);
+			}
+			catch (Exception ex)
+			{
+				if (!writer.isStarted())
+					throw ex;
+
+				writer.error(ex);
+				return;
+			}
+
+			writer.end(result);
+			return;
+		}
+
 		RouteResult result = RoutingProfileManager.getInstance().matchTrack(req);
 		
 		JSONObject json = null;
 		
-		String respFormat = _request.getParameter("format");
 		if (Helper.isEmpty(respFormat) || "json".equalsIgnoreCase(respFormat))
 			json = JsonMapMatchingResponseWriter.toJson(req, new RouteResult[] { result });
 		else if ("geojson".equalsIgnoreCase(respFormat))
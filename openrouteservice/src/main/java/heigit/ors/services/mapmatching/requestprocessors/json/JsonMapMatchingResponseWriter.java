@@ -56,6 +56,13 @@ public class JsonMapMatchingResponseWriter {
 
 		// *************** info ***************
 
+		jResp.put("info", toJsonInfo(request));
+
+		return jResp;
+	}
+
+	static JSONObject toJsonInfo(RoutingRequest request)
+	{
 		JSONObject jInfo = new JSONObject(3);
 		jInfo.put("service", "routing");
 		jInfo.put("engine", AppInfo.getEngineInfo());
@@ -98,9 +105,7 @@ public class JsonMapMatchingResponseWriter {
 
 		jInfo.put("query", jQuery);
 
-		jResp.put("info", jInfo);
-
-		return jResp;
+		return jInfo;
 	}
 	
 	public static JSONObject toGeoJson(RoutingRequest request, RouteResult[] routeResult) throws Exception
@@ -110,6 +115,14 @@ public class JsonMapMatchingResponseWriter {
 	}
 
 	public static JSONArray toJsonArray(RoutingRequest request, RouteResult[] routeResult, BBox bbox) throws Exception
+	{
+		return toJsonArray(request, routeResult, bbox, true);
+	}
+
+	/**
+	 * @param writeGeometry false if the geometry of the routes and its format are written separately
+	 */
+	static JSONArray toJsonArray(RoutingRequest request, RouteResult[] routeResult, BBox bbox, boolean writeGeometry) throws Exception
 	{
 		StringBuffer buffer = new StringBuffer();
 		// *************** routes ***************
@@ -127,7 +140,7 @@ public class JsonMapMatchingResponseWriter {
 			RouteResult route = routeResult[i];
 			JSONObject jRoute = new JSONObject(true);
 
-			if (request.getIncludeElevation())
+			if (writeGeometry && request.getIncludeElevation())
 				jRoute.put("elevation", true);
 
 			JSONObject jSummary = new JSONObject(true, 6);
@@ -152,10 +165,13 @@ public class JsonMapMatchingResponseWriter {
 
 			if (request.getIncludeGeometry())
 			{
-				if (request.getGeometryFormat() != null)
-					jRoute.put("geometry_format", request.getGeometryFormat());
+				if (writeGeometry)
+				{
+					if (request.getGeometryFormat() != null)
+						jRoute.put("geometry_format", request.getGeometryFormat());
 
-				jRoute.put("geometry", getGeometry(route.getGeometry(), request.getIncludeElevation(), request.getGeometryFormat(), buffer));
+					jRoute.put("geometry", getGeometry(route.getGeometry(), request.getIncludeElevation(), request.getGeometryFormat(), buffer));
+				}
 
 				if (request.getIncludeInstructions() && route.getSegments().size() > 0)
 				{
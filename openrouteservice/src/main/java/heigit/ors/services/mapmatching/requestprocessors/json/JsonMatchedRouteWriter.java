@@ -0,0 +1,198 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.services.mapmatching.requestprocessors.json;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.graphhopper.util.Helper;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.shapes.BBox;
+
+import heigit.ors.exceptions.StatusCodeException;
+import heigit.ors.geojson.GeometryJSON;
+import heigit.ors.mapmatching.MapMatchingErrorCodes;
+import heigit.ors.mapmatching.MapMatchingRequest;
+import heigit.ors.mapmatching.MatchedGeometryListener;
+import heigit.ors.routing.RouteResult;
+import heigit.ors.servlet.util.ServletUtility;
+import heigit.ors.util.JsonStreamWriter;
+import heigit.ors.util.PolylineEncoder;
+
+/**
+ * Writes the JSON response of a single track while it is being matched. The document is started with the geometry of
+ * the route as soon as the first points have been matched, the other members of the route follow once the whole
+ * track has been matched. Only the encodedpolyline and polyline formats can be written this way.
+ * <p>
+ * If the matching fails after the geometry has been started, the document is completed with an "error" member
+ * instead of the rest of the route, so clients have to check for it before using the geometry.
+ */
+public class JsonMatchedRouteWriter implements MatchedGeometryListener
+{
+	// the same as in GeometryJSON
+	private static final int COORDINATE_PRECISION = 6;
+
+	private HttpServletResponse _response;
+	private MapMatchingRequest _request;
+	private JsonStreamWriter _writer;
+	private PolylineEncoder _polylineEncoder;
+	private StringBuffer _buffer;
+
+	public JsonMatchedRouteWriter(HttpServletResponse response, MapMatchingRequest request)
+	{
+		_response = response;
+		_request = request;
+	}
+
+	public static boolean canWrite(MapMatchingRequest request)
+	{
+		String format = request.getGeometryFormat();
+
+		return request.getIncludeGeometry() && (Helper.isEmpty(format) || "encodedpolyline".equalsIgnoreCase(format) || "polyline".equalsIgnoreCase(format));
+	}
+
+	/**
+	 * Returns true if the response has been started, so that errors have to be reported by {@link #error(Exception)}.
+	 */
+	public boolean isStarted()
+	{
+		return _writer != null;
+	}
+
+	@Override
+	public void pointsMatched(PointList points) throws IOException
+	{
+		if (_writer == null)
+			begin();
+
+		boolean includeElevation = _request.getIncludeElevation() && points.is3D();
+
+		for (int i = 0; i < points.size(); i++)
+		{
+			double ele = includeElevation ? points.getEle(i) : 0;
+
+			if (_polylineEncoder != null)
+			{
+				_polylineEncoder.append(points.getLat(i), points.getLon(i), ele, includeElevation, _buffer);
+			}
+			else
+			{
+				_writer.beginArray();
+				_writer.value(points.getLon(i), COORDINATE_PRECISION);
+				_writer.value(points.getLat(i), COORDINATE_PRECISION);
+				if (includeElevation)
+					_writer.value(ele, 1);
+				_writer.endArray();
+			}
+		}
+
+		if (_polylineEncoder != null)
+		{
+			_writer.stringPart(_buffer.toString());
+			_buffer.setLength(0);
+		}
+	}
+
+	/**
+	 * Completes the route with the members that follow the geometry, e.g. the summary and the extra info.
+	 */
+	public void end(RouteResult result) throws Exception
+	{
+		if (_writer == null)
+			begin();
+
+		closeGeometry();
+
+		BBox bbox = new BBox(0, 0, 0, 0);
+		JSONArray jRoutes = JsonMapMatchingResponseWriter.toJsonArray(_request, new RouteResult[] { result }, bbox, false);
+		JSONObject jRoute = jRoutes.getJSONObject(0);
+
+		Iterator<String> keys = jRoute.keys();
+		while (keys.hasNext())
+		{
+			String key = keys.next();
+			_writer.name(key).value(jRoute.get(key));
+		}
+
+		_writer.endObject();
+		_writer.endArray();
+
+		_writer.name("bbox");
+		GeometryJSON.write(_writer, bbox.minLon, bbox.minLat, bbox.maxLon, bbox.maxLat);
+
+		_writer.name("info").value(JsonMapMatchingResponseWriter.toJsonInfo(_request));
+		_writer.endObject();
+
+		_writer.close();
+	}
+
+	public void error(Exception ex) throws IOException
+	{
+		closeGeometry();
+
+		_writer.endObject();
+		_writer.endArray();
+
+		_writer.name("error").beginObject();
+		if (ex instanceof StatusCodeException)
+		{
+			_writer.name("code").value(((StatusCodeException)ex).getInternalCode());
+			_writer.name("message").value(ex.getMessage());
+		}
+		else
+		{
+			_writer.name("code").value(MapMatchingErrorCodes.UNKNOWN);
+			_writer.name("message").value("Unable to match the track to the road network.");
+		}
+		_writer.endObject();
+		_writer.endObject();
+
+		_writer.close();
+	}
+
+	private void begin() throws IOException
+	{
+		_writer = ServletUtility.createJsonWriter(_response);
+		_writer.beginObject();
+		_writer.name("routes").beginArray().beginObject();
+
+		if (_request.getIncludeElevation())
+			_writer.name("elevation").value(true);
+		if (_request.getGeometryFormat() != null)
+			_writer.name("geometry_format").value(_request.getGeometryFormat());
+
+		_writer.name("geometry");
+		if (Helper.isEmpty(_request.getGeometryFormat()) || "encodedpolyline".equalsIgnoreCase(_request.getGeometryFormat()))
+		{
+			_polylineEncoder = new PolylineEncoder();
+			_buffer = new StringBuffer();
+			_writer.beginString();
+		}
+		else
+		{
+			_writer.beginArray();
+		}
+	}
+
+	private void closeGeometry() throws IOException
+	{
+		if (_polylineEncoder != null)
+			_writer.endString();
+		else
+			_writer.endArray();
+	}
+}
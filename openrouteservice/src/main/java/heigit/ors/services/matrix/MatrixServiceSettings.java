@@ -19,6 +19,11 @@ public class MatrixServiceSettings
 	private static int maximumVisitedNodes = 100000;
 	private static double maximumSearchRadius = 2000;
 	private static boolean allowResolveLocations = true;
+	private static int computationThreads = Runtime.getRuntime().availableProcessors();
+	private static int maximumThreadsPerRequest = 4;
+	private static int maximumCachedTargetGraphs = 100;
+	private static long maximumCachedTargetGraphsMemory = 256L * 1024 * 1024;
+	private static int tileSize = 250000;
 	private static String attribution = "";
 	private static boolean enabled = true;
 	
@@ -39,6 +44,21 @@ public class MatrixServiceSettings
 		value = AppConfig.Global().getServiceParameter("matrix", " allow_resolve_locations");
 		if (value != null)
 			allowResolveLocations = Boolean.parseBoolean(value);
+		value = AppConfig.Global().getServiceParameter("matrix", "computation_threads");
+		if (value != null)
+			computationThreads = Math.max(1, Integer.parseInt(value));
+		value = AppConfig.Global().getServiceParameter("matrix", "maximum_threads_per_request");
+		if (value != null)
+			maximumThreadsPerRequest = Math.max(1, Integer.parseInt(value));
+		value = AppConfig.Global().getServiceParameter("matrix", "maximum_cached_target_graphs");
+		if (value != null)
+			maximumCachedTargetGraphs = Math.max(0, Integer.parseInt(value));
+		value = AppConfig.Global().getServiceParameter("matrix", "maximum_cached_target_graphs_memory");
+		if (value != null)
+			maximumCachedTargetGraphsMemory = Math.max(0, Long.parseLong(value)) * 1024 * 1024;
+		value = AppConfig.Global().getServiceParameter("matrix", "tile_size");
+		if (value != null)
+			tileSize = Math.max(1, Integer.parseInt(value));
 		value = AppConfig.Global().getServiceParameter("matrix", "attribution");
 		if (value != null)
 			attribution = value;
@@ -64,6 +84,26 @@ public class MatrixServiceSettings
 		return maximumSearchRadius;
 	}
 	
+	public static int getComputationThreads() {
+		return computationThreads;
+	}
+	
+	public static int getMaximumThreadsPerRequest() {
+		return maximumThreadsPerRequest;
+	}
+	
+	public static int getMaximumCachedTargetGraphs() {
+		return maximumCachedTargetGraphs;
+	}
+	
+	public static long getMaximumCachedTargetGraphsMemory() {
+		return maximumCachedTargetGraphsMemory;
+	}
+	
+	public static int getTileSize() {
+		return tileSize;
+	}
+	
 	public static String getAttribution() {
 		return attribution;
 	}
@@ -19,6 +19,8 @@ import heigit.ors.exceptions.UnknownParameterValueException;
 import heigit.ors.matrix.MatrixErrorCodes;
 import heigit.ors.routing.RoutingProfileManagerStatus;
 import heigit.ors.services.matrix.MatrixServiceSettings;
+import heigit.ors.services.matrix.requestprocessors.binary.BinaryMatrixRequestProcessor;
+import heigit.ors.services.matrix.requestprocessors.binary.BinaryMatrixTileWriter;
 import heigit.ors.services.matrix.requestprocessors.json.JsonMatrixRequestProcessor;
 import heigit.ors.servlet.http.AbstractHttpRequestProcessor;
 
@@ -37,10 +39,19 @@ public class MatrixServiceRequestProcessorFactory {
 		String formatParam = request.getParameter("format");
 
 		if (Helper.isEmpty(formatParam))
-			formatParam = "json";
+		{
+			// machine clients may ask for the binary format by the Accept header
+			String accept = request.getHeader("Accept");
+			if (accept != null && accept.contains(BinaryMatrixTileWriter.CONTENT_TYPE))
+				formatParam = "binary";
+			else
+				formatParam = "json";
+		}
 
 		if (formatParam.equalsIgnoreCase("json"))
 			return new JsonMatrixRequestProcessor(request);
+		else if (formatParam.equalsIgnoreCase("binary"))
+			return new BinaryMatrixRequestProcessor(request);
 		else 
 			throw new UnknownParameterValueException(MatrixErrorCodes.INVALID_PARAMETER_VALUE, "format", formatParam);
 	}
@@ -0,0 +1,40 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.services.matrix.requestprocessors.binary;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import heigit.ors.matrix.MatrixRequest;
+import heigit.ors.routing.RoutingProfileManager;
+import heigit.ors.services.matrix.requestprocessors.json.JsonMatrixRequestParser;
+import heigit.ors.servlet.http.AbstractHttpRequestProcessor;
+
+/**
+ * Accepts the same parameters as the JSON processor, but writes the matrix in the compact binary format of
+ * {@link BinaryMatrixTileWriter}.
+ */
+public class BinaryMatrixRequestProcessor extends AbstractHttpRequestProcessor 
+{
+	public BinaryMatrixRequestProcessor(HttpServletRequest request) throws Exception
+	{
+		super(request);
+	}
+
+	@Override
+	public void process(HttpServletResponse response) throws Exception 
+	{
+		MatrixRequest req = JsonMatrixRequestParser.parseFromRequest(_request);
+
+		RoutingProfileManager.getInstance().computeMatrix(req, new BinaryMatrixTileWriter(response, req.getMetrics()));
+	}
+}
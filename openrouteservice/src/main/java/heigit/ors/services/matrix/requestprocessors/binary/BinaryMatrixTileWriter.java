@@ -0,0 +1,157 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.services.matrix.requestprocessors.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import heigit.ors.exceptions.StatusCodeException;
+import heigit.ors.matrix.MatrixMetricsType;
+import heigit.ors.matrix.MatrixResult;
+import heigit.ors.matrix.MatrixTileListener;
+import heigit.ors.matrix.ResolvedLocation;
+
+/**
+ * Writes a matrix as little-endian binary data while it is being computed. The response starts with a header of
+ * five 32-bit values: the magic bytes "ORSM", the format version, the number of sources (rows), the number of
+ * destinations (columns) and the metrics flags of MatrixMetricsType.
+ * <p>
+ * The header is followed by one record of 20 bytes per resolved location, first the sources, then the destinations:
+ * longitude and latitude as float64 and the snapped distance as float32. Locations which could not be resolved have
+ * NaN values.
+ * <p>
+ * Then follow the tiles of the matrix. Every tile starts with its number of rows as int32, followed by one block per
+ * row which holds a float32 value per destination for every requested metric in the order duration, distance,
+ * weight. Unreachable destinations have the value -1.
+ * <p>
+ * The tiles are terminated by a row count of 0 if the matrix is complete. If the computation fails after the first
+ * tiles have been sent, they are terminated by a row count of -1 followed by the int32 error code instead.
+ */
+public class BinaryMatrixTileWriter implements MatrixTileListener 
+{
+	public static final int MAGIC = 0x4D53524F; // "ORSM" in little-endian byte order
+	public static final int VERSION = 2;
+	public static final String CONTENT_TYPE = "application/octet-stream";
+
+	private static final int[] METRICS = new int[] { MatrixMetricsType.Duration, MatrixMetricsType.Distance, MatrixMetricsType.Weight };
+
+	private HttpServletResponse _response;
+	private int _metrics;
+	private OutputStream _outStream;
+	private ByteBuffer _buffer;
+	private int _clms;
+
+	public BinaryMatrixTileWriter(HttpServletResponse response, int metrics)
+	{
+		_response = response;
+		_metrics = metrics;
+	}
+
+	@Override
+	public void begin(ResolvedLocation[] sources, ResolvedLocation[] destinations) throws Exception 
+	{
+		_clms = destinations.length;
+		_buffer = ByteBuffer.allocate(Math.max(20, 4 * _clms)).order(ByteOrder.LITTLE_ENDIAN);
+
+		_response.setContentType(CONTENT_TYPE);
+		// the format is negotiated by the Accept header, so caches must not serve it to JSON clients
+		_response.addHeader("Vary", "Accept, Accept-Encoding");
+
+		_outStream = new BufferedOutputStream(_response.getOutputStream());
+
+		_buffer.putInt(MAGIC);
+		_buffer.putInt(VERSION);
+		_buffer.putInt(sources.length);
+		_buffer.putInt(destinations.length);
+		_buffer.putInt(_metrics);
+		writeBuffer();
+
+		writeLocations(sources);
+		writeLocations(destinations);
+	}
+
+	@Override
+	public void tileComputed(MatrixResult tile, int firstRow, int rowsCount) throws Exception 
+	{
+		_buffer.putInt(rowsCount);
+		writeBuffer();
+
+		for (int row = 0; row < rowsCount; row++)
+		{
+			for (int metric : METRICS)
+			{
+				if (!MatrixMetricsType.isSet(_metrics, metric))
+					continue;
+
+				float[] values = tile.getTable(metric);
+				int offset = row * _clms;
+				for (int j = 0; j < _clms; j++)
+					_buffer.putFloat(values[offset + j]);
+				writeBuffer();
+			}
+		}
+
+		_outStream.flush();
+	}
+
+	@Override
+	public void end() throws Exception 
+	{
+		_buffer.putInt(0);
+		writeBuffer();
+
+		_outStream.close();
+	}
+
+	@Override
+	public void error(StatusCodeException ex) throws Exception
+	{
+		_buffer.putInt(-1);
+		_buffer.putInt(ex.getInternalCode());
+		writeBuffer();
+
+		_outStream.close();
+	}
+
+	private void writeLocations(ResolvedLocation[] locations) throws Exception
+	{
+		for (ResolvedLocation loc : locations)
+		{
+			if (loc != null)
+			{
+				Coordinate c = loc.getCoordinate();
+				_buffer.putDouble(c.x);
+				_buffer.putDouble(c.y);
+				_buffer.putFloat((float)loc.getSnappedDistance());
+			}
+			else
+			{
+				_buffer.putDouble(Double.NaN);
+				_buffer.putDouble(Double.NaN);
+				_buffer.putFloat(Float.NaN);
+			}
+			writeBuffer();
+		}
+	}
+
+	private void writeBuffer() throws Exception
+	{
+		_outStream.write(_buffer.array(), 0, _buffer.position());
+		_buffer.clear();
+	}
+}
@@ -34,6 +34,7 @@ import heigit.ors.matrix.MatrixMetricsType;
 import heigit.ors.matrix.MatrixRequest;
 import heigit.ors.routing.RoutingProfileType;
 import heigit.ors.routing.WeightingMethod;
+import heigit.ors.services.matrix.MatrixServiceSettings;
 import heigit.ors.util.ArraysUtility;
 import heigit.ors.util.CoordTools;
 import heigit.ors.util.DistanceUnitUtil;
@@ -42,6 +43,33 @@ import heigit.ors.util.StreamUtility;
 
 public class JsonMatrixRequestParser {
 
+	/**
+	 * Parses the request from the query parameters (GET) or the JSON body (POST) and checks the number of locations.
+	 */
+	public static MatrixRequest parseFromRequest(HttpServletRequest request) throws Exception
+	{
+		MatrixRequest req = null;
+		switch (request.getMethod())
+		{
+		case "GET":
+			req = parseFromRequestParams(request);
+			break;
+		case "POST": 
+			req = parseFromStream(request.getInputStream());  
+			break;
+		default:
+			throw new StatusCodeException(StatusCode.METHOD_NOT_ALLOWED);
+		}
+
+		if (req == null)
+			throw new StatusCodeException(StatusCode.BAD_REQUEST, MatrixErrorCodes.UNKNOWN, "MatrixRequest object is null.");
+		
+		if (MatrixServiceSettings.getMaximumLocations() > 0 && req.getTotalNumberOfLocations() > MatrixServiceSettings.getMaximumLocations())
+			throw new ParameterOutOfRangeException(MatrixErrorCodes.PARAMETER_VALUE_EXCEEDS_MAXIMUM, "sources/destinations", Integer.toString(req.getTotalNumberOfLocations()), Integer.toString(MatrixServiceSettings.getMaximumLocations()));
+
+		return req;
+	}
+
 	public static MatrixRequest parseFromStream(InputStream stream) throws Exception 
 	{
 		String body = StreamUtility.readStream(stream);
@@ -0,0 +1,180 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.services.matrix.requestprocessors.json;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import heigit.ors.exceptions.StatusCodeException;
+import heigit.ors.matrix.MatrixMetricsType;
+import heigit.ors.matrix.MatrixRequest;
+import heigit.ors.matrix.MatrixResult;
+import heigit.ors.matrix.MatrixTileListener;
+import heigit.ors.matrix.ResolvedLocation;
+import heigit.ors.servlet.util.ServletUtility;
+import heigit.ors.util.JsonStreamWriter;
+
+/**
+ * Writes the JSON response of a matrix request while the matrix is being computed. The rows of the first table of the
+ * response are written as soon as their tile is available. The rows of the other requested tables have to follow
+ * afterwards, so they are kept as plain float arrays until the last tile has been computed.
+ * <p>
+ * If the computation fails after the first rows have been sent, the document is completed with an "error" member
+ * instead of the remaining tables, so clients have to check for it before using the tables.
+ */
+public class JsonMatrixTileWriter implements MatrixTileListener 
+{
+	private static final int[] METRICS = new int[] { MatrixMetricsType.Distance, MatrixMetricsType.Duration, MatrixMetricsType.Weight };
+	private static final String[] METRIC_NAMES = new String[] { "distances", "durations", "weights" };
+
+	private HttpServletResponse _response;
+	private MatrixRequest _request;
+	private JsonStreamWriter _writer;
+	private ResolvedLocation[] _sources;
+	private ResolvedLocation[] _destinations;
+	private int _streamedMetric = -1;
+	private float[][] _bufferedTables;
+	private boolean _tableOpen = false;
+
+	public JsonMatrixTileWriter(HttpServletResponse response, MatrixRequest request)
+	{
+		_response = response;
+		_request = request;
+	}
+
+	@Override
+	public void begin(ResolvedLocation[] sources, ResolvedLocation[] destinations) throws Exception 
+	{
+		_sources = sources;
+		_destinations = destinations;
+		_bufferedTables = new float[METRICS.length][];
+
+		for (int i = 0; i < METRICS.length; i++)
+		{
+			if (!MatrixMetricsType.isSet(_request.getMetrics(), METRICS[i]))
+				continue;
+
+			if (_streamedMetric < 0)
+				_streamedMetric = i;
+			else
+				_bufferedTables[i] = new float[sources.length * destinations.length];
+		}
+
+		_writer = ServletUtility.createJsonWriter(_response);
+		_response.addHeader("Vary", "Accept");
+		_writer.beginObject();
+
+		if (_streamedMetric >= 0)
+		{
+			_writer.name(METRIC_NAMES[_streamedMetric]).beginArray();
+			_tableOpen = true;
+		}
+	}
+
+	@Override
+	public void tileComputed(MatrixResult tile, int firstRow, int rowsCount) throws Exception 
+	{
+		int clms = _destinations.length;
+
+		for (int i = 0; i < METRICS.length; i++)
+		{
+			float[] values = tile.getTable(METRICS[i]);
+
+			if (i == _streamedMetric)
+			{
+				for (int row = 0; row < rowsCount; row++)
+					writeRow(values, row * clms, clms);
+			}
+			else if (_bufferedTables[i] != null)
+			{
+				System.arraycopy(values, 0, _bufferedTables[i], firstRow * clms, rowsCount * clms);
+			}
+		}
+
+		// sends the rows of the tile to the client instead of leaving them in the buffers of the writers
+		if (_streamedMetric >= 0)
+			_writer.flush();
+	}
+
+	@Override
+	public void end() throws Exception 
+	{
+		int clms = _destinations.length;
+
+		closeTable();
+
+		for (int i = 0; i < METRICS.length; i++)
+		{
+			float[] values = _bufferedTables[i];
+			if (values == null)
+				continue;
+
+			_writer.name(METRIC_NAMES[i]).beginArray();
+			for (int row = 0; row < _sources.length; row++)
+				writeRow(values, row * clms, clms);
+			_writer.endArray();
+
+			// the table is not needed anymore
+			_bufferedTables[i] = null;
+		}
+
+		_writer.name("destinations");
+		JsonMatrixRequestProcessor.writeLocations(_writer, _destinations, _request.getResolveLocations());
+		_writer.name("sources");
+		JsonMatrixRequestProcessor.writeLocations(_writer, _sources, _request.getResolveLocations());
+		_writer.name("info");
+		JsonMatrixRequestProcessor.writeInfo(_writer, _request);
+		_writer.endObject();
+
+		_writer.close();
+	}
+
+	@Override
+	public void error(StatusCodeException ex) throws Exception
+	{
+		closeTable();
+
+		_writer.name("error").beginObject();
+		_writer.name("code").value(ex.getInternalCode());
+		_writer.name("message").value(ex.getMessage());
+		_writer.endObject();
+		_writer.endObject();
+
+		_writer.close();
+	}
+
+	private void closeTable() throws IOException
+	{
+		if (_tableOpen)
+		{
+			_writer.endArray();
+			_tableOpen = false;
+		}
+	}
+
+	private void writeRow(float[] values, int offset, int clms) throws IOException
+	{
+		_writer.beginArray();
+
+		for (int j = 0; j < clms; ++j)
+		{
+			float value = values[offset + j];
+			if (value == -1)
+				_writer.nullValue();
+			else
+				_writer.value(value, 2);
+		}
+
+		_writer.endArray();
+	}
+}
@@ -82,8 +82,7 @@ public class JsonOptimizationRequestProcessor extends AbstractHttpRequestProcess
 		RoutingRequest reqRoute = request.createRoutingRequest(optResult.getWayPoints());
 
 		BBox bbox = new BBox(0, 0, 0, 0);
-		JSONArray jRoutes = JsonRoutingResponseWriter.toJsonArray(reqRoute, new RouteResult[] { optResult.getRouteResult() }, bbox);
-		jResp.put("routes", jRoutes);
+		jResp.put("routes", JsonRoutingResponseWriter.toJsonArray(reqRoute, new RouteResult[] { optResult.getRouteResult() }, bbox));
 		
 		JSONArray jWayPoints = new JSONArray();
 		jWayPoints.put(0, new JSONArray(optResult.getWayPoints()));
@@ -23,6 +23,9 @@ public class RoutingServiceSettings {
 	private static String sourceFile = "";
 	private static String workingMode = "Normal"; // Normal or PrepareGraphs
 	private static int initializationThreads = 1;
+	private static boolean sharedImport = false;
+	private static int storageBuilderThreads = 1;
+	private static int oneToManyThreads = Runtime.getRuntime().availableProcessors();
 	private static boolean distanceApproximation = false;
 	private static String storageFormat = "Native";
 	private static String attribution = "";
@@ -57,6 +60,18 @@ public class RoutingServiceSettings {
 		if (value != null)
 			initializationThreads = Integer.parseInt(value);
 		
+		value = config.getServiceParameter("routing", "init_shared_import");
+		if (value != null)
+			sharedImport = Boolean.parseBoolean(value);
+		
+		value = config.getServiceParameter("routing", "init_storage_builder_threads");
+		if (value != null)
+			storageBuilderThreads = Integer.parseInt(value);
+		
+		value = config.getServiceParameter("routing", "one_to_many_threads");
+		if (value != null)
+			oneToManyThreads = Integer.parseInt(value);
+		
 		value = config.getServiceParameter("routing", "distance_approximation");
 		if (value != null)
 			distanceApproximation = Boolean.parseBoolean(value);
@@ -87,6 +102,18 @@ public class RoutingServiceSettings {
 		return initializationThreads;
 	}
 	
+	public static boolean getSharedImport() {
+		return sharedImport;
+	}
+	
+	public static int getStorageBuilderThreads() {
+		return storageBuilderThreads;
+	}
+	
+	public static int getOneToManyThreads() {
+		return oneToManyThreads;
+	}
+	
 	public static boolean getDistanceApproximation()	{
 		return distanceApproximation;
 	}
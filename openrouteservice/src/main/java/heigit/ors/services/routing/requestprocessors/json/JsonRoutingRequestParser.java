@@ -12,6 +12,8 @@
 package heigit.ors.services.routing.requestprocessors.json;
 
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -185,10 +187,39 @@ public class JsonRoutingRequestParser
 		   }
 		}
 
+		value = request.getParameter("departure");
+		if (!Helper.isEmpty(value))
+		{
+			Date departure = parseDateTime(value);
+			if (departure == null)
+				throw new ParameterValueException(RoutingErrorCodes.INVALID_PARAMETER_FORMAT, "departure");
+
+			searchParams.setDepartureTime(departure);
+		}
+
 		value = request.getParameter("id");
 		if (!Helper.isEmpty(value))
 			req.setId(value);
 
 		return req;		
 	}
+
+	private static Date parseDateTime(String value)
+	{
+		String[] patterns = new String[] { "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm" };
+		for (String pattern : patterns)
+		{
+			try
+			{
+				SimpleDateFormat format = new SimpleDateFormat(pattern);
+				format.setLenient(false);
+				return format.parse(value);
+			}
+			catch(ParseException ex)
+			{
+			}
+		}
+
+		return null;
+	}
 }
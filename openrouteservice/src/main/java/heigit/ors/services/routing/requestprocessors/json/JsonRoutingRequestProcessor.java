@@ -23,6 +23,7 @@ import heigit.ors.routing.RoutingProfileManager;
 import heigit.ors.routing.RoutingRequest;
 import heigit.ors.servlet.http.AbstractHttpRequestProcessor;
 import heigit.ors.servlet.util.ServletUtility;
+import heigit.ors.util.JsonStreamWriter;
 
 public class JsonRoutingRequestProcessor extends AbstractHttpRequestProcessor {
 
@@ -37,14 +38,17 @@ public class JsonRoutingRequestProcessor extends AbstractHttpRequestProcessor {
 		
 		RouteResult result = RoutingProfileManager.getInstance().computeRoute(rreq);
 		
-		JSONObject json = null;
-		
 		String respFormat = _request.getParameter("format");
 		if (Helper.isEmpty(respFormat) || "json".equalsIgnoreCase(respFormat))
-			json = JsonRoutingResponseWriter.toJson(rreq, new RouteResult[] { result });
+		{
+			JsonStreamWriter writer = ServletUtility.createJsonWriter(response);
+			JsonRoutingResponseWriter.write(writer, rreq, new RouteResult[] { result });
+			writer.close();
+		}
 		else if ("geojson".equalsIgnoreCase(respFormat))
-			json = JsonRoutingResponseWriter.toGeoJson(rreq, new RouteResult[] { result });
-		
-		ServletUtility.write(response, json, "UTF-8");
+		{
+			JSONObject json = JsonRoutingResponseWriter.toGeoJson(rreq, new RouteResult[] { result });
+			ServletUtility.write(response, json, "UTF-8");
+		}
 	}
 }
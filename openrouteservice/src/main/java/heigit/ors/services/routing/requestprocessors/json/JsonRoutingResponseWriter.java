@@ -11,10 +11,12 @@
  *|----------------------------------------------------------------------------------------------*/
 package heigit.ors.services.routing.requestprocessors.json;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.List;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONString;
 
 import com.graphhopper.util.Helper;
 import com.graphhopper.util.shapes.BBox;
@@ -36,71 +38,74 @@ import heigit.ors.routing.WeightingMethod;
 import heigit.ors.services.routing.RoutingServiceSettings;
 import heigit.ors.util.AppInfo;
 import heigit.ors.util.DistanceUnitUtil;
-import heigit.ors.util.FormatUtility;
+import heigit.ors.util.JsonStreamWriter;
 import heigit.ors.util.PolylineEncoder;
 
 public class JsonRoutingResponseWriter {
 
-	public static JSONObject toJson(RoutingRequest request, RouteResult[] routeResult) throws Exception
+	public static void write(JsonStreamWriter writer, RoutingRequest request, RouteResult[] routeResult) throws Exception
 	{
-		JSONObject jResp = new JSONObject(true, 1);
-		BBox bbox = new BBox(0, 0, 0, 0);
-		JSONArray jRoutes = toJsonArray(request, routeResult, bbox);
-		jResp.put("routes", jRoutes);
+		writer.beginObject();
 
+		BBox bbox = new BBox(0, 0, 0, 0);
+		writer.name("routes");
+		writeRoutes(writer, request, routeResult, bbox);
 
 		// *************** bbox ***************
 
 		if (bbox != null)
-			jResp.put("bbox", GeometryJSON.toJSON(bbox.minLon, bbox.minLat, bbox.maxLon, bbox.maxLat));
+		{
+			writer.name("bbox");
+			GeometryJSON.write(writer, bbox.minLon, bbox.minLat, bbox.maxLon, bbox.maxLat);
+		}
 
 		// *************** info ***************
 
-		JSONObject jInfo = new JSONObject(3);
-		jInfo.put("service", "routing");
-		jInfo.put("engine", AppInfo.getEngineInfo());
+		writer.name("info").beginObject();
+		writer.name("service").value("routing");
+		writer.name("engine").value(AppInfo.getEngineInfo());
 		if (!Helper.isEmpty(RoutingServiceSettings.getAttribution()))
-			jInfo.put("attribution", RoutingServiceSettings.getAttribution());
-		jInfo.put("timestamp", System.currentTimeMillis());
+			writer.name("attribution").value(RoutingServiceSettings.getAttribution());
+		writer.name("timestamp").value(System.currentTimeMillis());
 
-		JSONObject jQuery = new JSONObject(true);
+		writer.name("query").beginObject();
 
-		jQuery.put("profile", RoutingProfileType.getName(request.getSearchParameters().getProfileType()));
+		writer.name("profile").value(RoutingProfileType.getName(request.getSearchParameters().getProfileType()));
 
-		jQuery.put("preference", WeightingMethod.getName(request.getSearchParameters().getWeightingMethod()));
+		writer.name("preference").value(WeightingMethod.getName(request.getSearchParameters().getWeightingMethod()));
 
-		jQuery.put("coordinates", GeometryJSON.toJSON(request.getCoordinates(), request.getIncludeElevation()));
+		writer.name("coordinates");
+		GeometryJSON.write(writer, request.getCoordinates(), request.getIncludeElevation());
 
 		if (request.getLanguage() != null)
-			jQuery.put("language", request.getLanguage());
+			writer.name("language").value(request.getLanguage());
 
 		if (request.getUnits() != null)
-			jQuery.put("units", DistanceUnitUtil.toString(request.getUnits()));
+			writer.name("units").value(DistanceUnitUtil.toString(request.getUnits()));
 
-		jQuery.put("geometry", request.getIncludeGeometry());
+		writer.name("geometry").value(request.getIncludeGeometry());
 		if (request.getIncludeGeometry())
 		{
-			jQuery.put("geometry_format", Helper.isEmpty(request.getGeometryFormat()) ? "encodedpolyline" : request.getGeometryFormat());
-			jQuery.put("geometry_simplify", request.getSimplifyGeometry());
+			writer.name("geometry_format").value(Helper.isEmpty(request.getGeometryFormat()) ? "encodedpolyline" : request.getGeometryFormat());
+			writer.name("geometry_simplify").value(request.getSimplifyGeometry());
 
 			if (request.getIncludeInstructions())
-				jQuery.put("instructions_format", request.getInstructionsFormat().toString().toLowerCase());
+				writer.name("instructions_format").value(request.getInstructionsFormat().toString().toLowerCase());
 
-			jQuery.put("instructions", request.getIncludeInstructions());
-			jQuery.put("elevation", request.getIncludeElevation());
+			writer.name("instructions").value(request.getIncludeInstructions());
+			writer.name("elevation").value(request.getIncludeElevation());
 		}
 
 		if (!Helper.isEmpty(request.getSearchParameters().getOptions()))
-			jQuery.put("options", new JSONObject(request.getSearchParameters().getOptions()));
+			writer.name("options").value(new JSONObject(request.getSearchParameters().getOptions()));
 
 		if (!Helper.isEmpty(request.getId()))
-			jQuery.put("id", request.getId());
-
-		jInfo.put("query", jQuery);
+			writer.name("id").value(request.getId());
 
-		jResp.put("info", jInfo);
+		writer.endObject();
+		writer.endObject();
 
-		return jResp;
+		writer.endObject();
 	}
 
 	public static JSONObject toGeoJson(RoutingRequest request, RouteResult[] routeResult) throws Exception
@@ -109,262 +114,282 @@ public class JsonRoutingResponseWriter {
 		return null;
 	}
 
-	public static JSONArray toJsonArray(RoutingRequest request, RouteResult[] routeResult, BBox bbox) throws Exception
+	/**
+	 * Renders the routes for services which build their response as a JSONObject tree.
+	 */
+	public static JSONString toJsonArray(RoutingRequest request, RouteResult[] routeResult, BBox bbox) throws Exception
+	{
+		StringWriter stringWriter = new StringWriter();
+		writeRoutes(new JsonStreamWriter(stringWriter), request, routeResult, bbox);
+		return JsonStreamWriter.toJSONString(stringWriter);
+	}
+
+	/**
+	 * Renders a single route for services which build their response as a JSONObject tree.
+	 */
+	public static JSONString toJson(RoutingRequest request, RouteResult route, BBox bbox) throws Exception
+	{
+		StringWriter stringWriter = new StringWriter();
+		writeRoute(new JsonStreamWriter(stringWriter), request, route, bbox, new StringBuffer());
+		return JsonStreamWriter.toJSONString(stringWriter);
+	}
+
+	public static void writeRoutes(JsonStreamWriter writer, RoutingRequest request, RouteResult[] routeResult, BBox bbox) throws Exception
 	{
 		StringBuffer buffer = new StringBuffer();
 		// *************** routes ***************
 
+		writer.beginArray();
+
+		for (int i = 0; i < routeResult.length; ++i)
+			writeRoute(writer, request, routeResult[i], bbox, buffer);
+
+		writer.endArray();
+	}
+
+	private static void writeRoute(JsonStreamWriter writer, RoutingRequest request, RouteResult route, BBox bbox, StringBuffer buffer) throws Exception
+	{
 		boolean attrDetourFactor = request.hasAttribute("detourfactor");
 		boolean attrPercentage = request.hasAttribute("percentage");
 		boolean attrAvgSpeed = request.hasAttribute("avgspeed");
 
-		int nRoutes = routeResult.length;
+		writer.beginObject();
 
-		JSONArray jRoutes = new JSONArray(nRoutes);
+		if (request.getIncludeElevation())
+			writer.name("elevation").value(true);
 
-		for (int i = 0; i < nRoutes; ++i)
-		{
-			RouteResult route = routeResult[i];
-			JSONObject jRoute = new JSONObject(true);
+		RouteSummary rSummary = route.getSummary();
 
-			if (request.getIncludeElevation())
-				jRoute.put("elevation", true);
+		writer.name("summary").beginObject();
+		writer.name("distance").value(rSummary.getDistance());
+		writer.name("duration").value(rSummary.getDuration());
 
-			JSONObject jSummary = new JSONObject(true, 6);
+		if (rSummary.getDistanceActual() != 0.0 && Math.abs(rSummary.getDistance() - rSummary.getDistanceActual()) > 1.0)
+			writer.name("distance_actual").value(rSummary.getDistanceActual());
 
-			RouteSummary rSummary = route.getSummary();
-			jSummary.put("distance", rSummary.getDistance());
-			jSummary.put("duration", rSummary.getDuration());
+		if (rSummary.getAscent() != 0.0 || rSummary.getDescent() != 0.0)
+		{
+			writer.name("ascent").value(rSummary.getAscent());
+			writer.name("descent").value(rSummary.getDescent());
+		}
 
-			if (rSummary.getDistanceActual() != 0.0 && Math.abs(rSummary.getDistance() - rSummary.getDistanceActual()) > 1.0)
-				jSummary.put("distance_actual", rSummary.getDistanceActual());
+		if (attrAvgSpeed)
+			writer.name("avgspeed").value(rSummary.getAverageSpeed());
 
-			if (rSummary.getAscent() != 0.0 || rSummary.getDescent() != 0.0)
-			{
-				jSummary.put("ascent", rSummary.getAscent());
-				jSummary.put("descent", rSummary.getDescent());
-			}
+		writer.endObject();
 
-			if (attrAvgSpeed)
-				jSummary.put("avgspeed", rSummary.getAverageSpeed());
+		if (request.getIncludeGeometry())
+		{
+			if (request.getGeometryFormat() != null)
+				writer.name("geometry_format").value(request.getGeometryFormat());
 
-			jRoute.put("summary", jSummary);
+			writer.name("geometry");
+			writeGeometry(writer, route.getGeometry(), request.getIncludeElevation(), request.getGeometryFormat(), buffer);
 
-			if (request.getIncludeGeometry())
+			if (request.getIncludeInstructions() && route.getSegments().size() > 0)
 			{
-				if (request.getGeometryFormat() != null)
-					jRoute.put("geometry_format", request.getGeometryFormat());
+				writer.name("segments").beginArray();
 
-				jRoute.put("geometry", getGeometry(route.getGeometry(), request.getIncludeElevation(), request.getGeometryFormat(), buffer));
-
-				if (request.getIncludeInstructions() && route.getSegments().size() > 0)
+				for (int j = 0; j < route.getSegments().size(); ++j)
 				{
-					int nSegments = route.getSegments().size();
-					JSONArray jSegments = new JSONArray(nSegments);
+					RouteSegment seg = route.getSegments().get(j);
+
+					writer.beginObject();
+					writer.name("distance").value(seg.getDistance());
+					writer.name("duration").value(seg.getDuration());
 
-					for (int j = 0; j < nSegments; ++j)
+					if (request.getIncludeElevation() && (seg.getAscent() !=0.0 || seg.getDescent() != 0.0))
 					{
-						JSONObject jSegment = new JSONObject(true);
+						writer.name("ascent").value(seg.getAscent());
+						writer.name("descent").value(seg.getDescent());
+					}
 
-						RouteSegment seg = route.getSegments().get(j);
+					if (attrDetourFactor)
+						writer.name("detour_factor").value(seg.getDetourFactor());
+					if (attrPercentage)
+						writer.name("percentage").value(seg.getDistance() * 100 / route.getSummary().getDistance(), 2);
+					if (attrAvgSpeed)
+					{
+						double distFactor = request.getUnits() == DistanceUnit.Meters ? 1000 : 1;
+						writer.name("avgspeed").value(seg.getDistance() / distFactor / (seg.getDuration() / 3600), 2);
+					}
 
-						jSegment.put("distance", seg.getDistance());
-						jSegment.put("duration", seg.getDuration());
+					writer.name("steps").beginArray();
 
-						if (request.getIncludeElevation() && (seg.getAscent() !=0.0 || seg.getDescent() != 0.0))
-						{
-							jSegment.put("ascent", seg.getAscent());
-							jSegment.put("descent", seg.getDescent());
-						}
-
-						if (attrDetourFactor)
-							jSegment.put("detour_factor", seg.getDetourFactor());
-						if (attrPercentage)
-							jSegment.put("percentage", FormatUtility.roundToDecimals(seg.getDistance() * 100 / route.getSummary().getDistance(), 2));
-						if (attrAvgSpeed)
+					for (int k = 0; k < seg.getSteps().size(); ++k)
+					{
+						RouteStep step = seg.getSteps().get(k);
+
+						writer.beginObject();
+						writer.name("distance").value(step.getDistance());
+						writer.name("duration").value(step.getDuration());
+						writer.name("type").value(step.getType());
+						writer.name("instruction").value(step.getInstruction());
+						if (step.getName() != null)
+							writer.name("name").value(step.getName());
+						if (step.getMessage() != null)
 						{
-							double distFactor = request.getUnits() == DistanceUnit.Meters ? 1000 : 1;
-							jSegment.put("avgspeed", FormatUtility.roundToDecimals(seg.getDistance() / distFactor / (seg.getDuration() / 3600) , 2));
+							writer.name("message").value(step.getMessage());
+							writer.name("message_type").value(step.getMessageType());
 						}
 
-						int nSteps = seg.getSteps().size();
-						JSONArray jSteps = new JSONArray(nSteps);
+						if (step.getExitNumber() != -1)
+							writer.name("exit_number").value(step.getExitNumber());
 
-						for (int k = 0; k < seg.getSteps().size(); ++k)
+						if (request.getIncludeManeuvers())
 						{
-							RouteStep step = seg.getSteps().get(k);
-
-							JSONObject jStep = new JSONObject(true);
-							jStep.put("distance", step.getDistance());
-							jStep.put("duration", step.getDuration());
-							jStep.put("type", step.getType());
-							jStep.put("instruction", step.getInstruction());
-							if (step.getName() != null)
-								jStep.put("name", step.getName());
-							if (step.getMessage() != null)
+							RouteStepManeuver maneuver = step.getManeuver();
+							if (maneuver != null)
 							{
-								jStep.put("message", step.getMessage());
-								jStep.put("message_type", step.getMessageType());
-							}
-
-							if (step.getExitNumber() != -1)
-								jStep.put("exit_number", step.getExitNumber());
-
-							if (request.getIncludeManeuvers())
-							{
-								RouteStepManeuver maneuver = step.getManeuver();
-								if (maneuver != null)
+								writer.name("maneuver").beginObject();
+								writer.name("bearing_before").value(maneuver.getBearingBefore());
+								writer.name("bearing_after").value(maneuver.getBearingAfter());
+								if (maneuver.getLocation() != null)
 								{
-									JSONObject jManeuver = new JSONObject(true);
-									jManeuver.put("bearing_before", maneuver.getBearingBefore());
-									jManeuver.put("bearing_after", maneuver.getBearingAfter());
-									if (maneuver.getLocation() != null)
-										jManeuver.put("location", GeometryJSON.toJSON(maneuver.getLocation()));
-
-									jStep.put("maneuver", jManeuver);
+									writer.name("location");
+									GeometryJSON.write(writer, maneuver.getLocation());
 								}
+								writer.endObject();
 							}
-
-							// add mode: driving, cycling, etc.
-
-							jStep.put("way_points", new JSONArray(step.getWayPoints()));
-
-							jSteps.put(jStep);
 						}
 
-						jSegment.put("steps", jSteps);
-						jSegments.put(jSegment);
+						// add mode: driving, cycling, etc.
+
+						writer.name("way_points").value(step.getWayPoints());
+						writer.endObject();
 					}
 
-					jRoute.put("segments", jSegments);
+					writer.endArray();
+					writer.endObject();
 				}
 
-				//if (route.getLocationIndex() >= 0)
-				//	jRoute.put("location_index", route.getLocationIndex());
+				writer.endArray();
+			}
+
+			//if (route.getLocationIndex() >= 0)
+			//	writer.name("location_index").value(route.getLocationIndex());
+
+			if (route.getWayPointsIndices() != null)
+				writer.name("way_points").value(route.getWayPointsIndices());
 
-				if (route.getWayPointsIndices() != null)
-					jRoute.put("way_points", new JSONArray(route.getWayPointsIndices()));
+			List<RouteExtraInfo> extras = route.getExtraInfo();
 
-				List<RouteExtraInfo> extras = route.getExtraInfo();
+			if (extras != null && extras.size() > 0)
+			{
+				writer.name("extras").beginObject();
 
-				if (extras != null && extras.size() > 0)
+				for (int j = 0; j < extras.size(); ++j)
 				{
-					JSONObject jExtras = new JSONObject(true);
+					RouteExtraInfo extraInfo = extras.get(j);
 
-					for (int j = 0; j < extras.size(); ++j)
+					if (!extraInfo.isEmpty())
 					{
-						RouteExtraInfo extraInfo = extras.get(j);
+						writer.name(extraInfo.getName()).beginObject();
+
+						// ---------- values ---------- 
+						writer.name("values").beginArray();
 
-						if (!extraInfo.isEmpty())
+						for (int k = 0; k < extraInfo.getSegments().size(); ++k)
 						{
-							JSONObject jExtraItem = new JSONObject(true);
+							RouteSegmentItem segExtra = extraInfo.getSegments().get(k); 
+
+							writer.beginArray();
+							writer.value(segExtra.getFrom());
+							writer.value(segExtra.getTo());
+							
+							if (extraInfo.getFactor() == 1.0)
+								writer.value(segExtra.getValue());
+							else
+								writer.value(segExtra.getValue()/extraInfo.getFactor(), 1);
+							writer.endArray();
+						}
 
-							// ---------- values ---------- 
-							int nExtraValues = extraInfo.getSegments().size();
-							JSONArray jExtraItemValues = new JSONArray(nExtraValues);
+						writer.endArray();
 
-							for (int k = 0; k < nExtraValues; ++k)
-							{
-								RouteSegmentItem segExtra = extraInfo.getSegments().get(k); 
-
-								JSONArray jExtraItemValue = new JSONArray(3);
-								jExtraItemValue.put(segExtra.getFrom());
-								jExtraItemValue.put(segExtra.getTo());
-								
-								if (extraInfo.getFactor() == 1.0)
-									jExtraItemValue.put(segExtra.getValue());
-								else
-									jExtraItemValue.put(FormatUtility.roundToDecimals(segExtra.getValue()/extraInfo.getFactor(), 1));
-
-								jExtraItemValues.put(jExtraItemValue);
-							}
+						// ---------- summary ---------- 
 
-							jExtraItem.put("values", jExtraItemValues);
+						List<ExtraSummaryItem> summaryItems = extraInfo.getSummary(request.getUnits(), rSummary.getDistance(), true);
 
-							// ---------- summary ---------- 
-
-							List<ExtraSummaryItem> summaryItems = extraInfo.getSummary(request.getUnits(), rSummary.getDistance(), true);
+						if (summaryItems.size() > 0)
+						{
+							writer.name("summary").beginArray();
 
-							if (summaryItems.size() > 0)
+							for (ExtraSummaryItem esi : summaryItems)
 							{
-								JSONArray jExtraItemSummary = new JSONArray(summaryItems.size());
-
-								for (ExtraSummaryItem esi : summaryItems)
-								{
-									JSONObject jExtraItemSummaryType = new JSONObject(true);
-
-									jExtraItemSummaryType.put("value", esi.getValue());
-									jExtraItemSummaryType.put("distance", esi.getDistance());
-									jExtraItemSummaryType.put("amount", esi.getAmount());
-
-									jExtraItemSummary.put(jExtraItemSummaryType);
-								}
-
-								jExtraItem.put("summary", jExtraItemSummary);
+								writer.beginObject();
+								writer.name("value").value(esi.getValue());
+								writer.name("distance").value(esi.getDistance());
+								writer.name("amount").value(esi.getAmount());
+								writer.endObject();
 							}
 
-							jExtras.put(extraInfo.getName(), jExtraItem);
+							writer.endArray();
 						}
-					}
 
-					jRoute.put("extras", jExtras);
+						writer.endObject();
+					}
 				}
+
+				writer.endObject();
 			}
+		}
 
-			// *************** bbox ***************
-			BBox bboxRoute = rSummary.getBBox();
-			if (bboxRoute != null)
+		// *************** bbox ***************
+		BBox bboxRoute = rSummary.getBBox();
+		if (bboxRoute != null)
+		{
+			writer.name("bbox");
+			GeometryJSON.write(writer, bboxRoute.minLon, bboxRoute.minLat, bboxRoute.maxLon, bboxRoute.maxLat);
+			if (!bbox.isValid())
 			{
-				jRoute.put("bbox", GeometryJSON.toJSON(bboxRoute.minLon, bboxRoute.minLat, bboxRoute.maxLon, bboxRoute.maxLat));
-				if (!bbox.isValid())
-				{
-					bbox.minLat = bboxRoute.minLat;
-					bbox.maxLat = bboxRoute.maxLat;
-					bbox.minLon = bboxRoute.minLon;
-					bbox.maxLon = bboxRoute.maxLon;
-				}
-				else
-				{
-					bbox.update(bboxRoute.minLat, bboxRoute.minLon);
-					bbox.update(bboxRoute.maxLat, bboxRoute.maxLon);
-				}
+				bbox.minLat = bboxRoute.minLat;
+				bbox.maxLat = bboxRoute.maxLat;
+				bbox.minLon = bboxRoute.minLon;
+				bbox.maxLon = bboxRoute.maxLon;
+			}
+			else
+			{
+				bbox.update(bboxRoute.minLat, bboxRoute.minLon);
+				bbox.update(bboxRoute.maxLat, bboxRoute.maxLon);
 			}
-
-			jRoutes.put(jRoute);
 		}
 
-		return jRoutes;
+		writer.endObject();
 	}  
 
-	private static Object getGeometry(Coordinate[] points, boolean includeElevation, String format, StringBuffer buffer)
+	private static void writeGeometry(JsonStreamWriter writer, Coordinate[] points, boolean includeElevation, String format, StringBuffer buffer) throws IOException
 	{
 		if (points == null)
-			return "";
+		{
+			writer.value("");
+			return;
+		}
 
 		if (Helper.isEmpty(format) || "encodedpolyline".equalsIgnoreCase(format))
 		{
-			return PolylineEncoder.encode(points, includeElevation, buffer);
+			writer.value(PolylineEncoder.encode(points, includeElevation, buffer));
 		}
 		else if ("geojson".equalsIgnoreCase(format))
 		{
-			JSONObject json = new JSONObject(true);
-
 			/*
 			 *{
 			    "type": "LineString",
                 "coordinates": [ [102.0, 0.0], [103.0, 1.0], [104.0, 0.0], [105.0, 1.0] ]
              }
 			 */
-			json.put("type", "LineString");
-			json.put("coordinates", GeometryJSON.toJSON(points, includeElevation));
-
-			return json;
+			writer.beginObject();
+			writer.name("type").value("LineString");
+			writer.name("coordinates");
+			GeometryJSON.write(writer, points, includeElevation);
+			writer.endObject();
 		}
 		else if ("polyline".equalsIgnoreCase(format))
 		{
-			return GeometryJSON.toJSON(points, includeElevation);
+			GeometryJSON.write(writer, points, includeElevation);
+		}
+		else
+		{
+			writer.value("");
 		}
-
-		return "";
 	}
 }
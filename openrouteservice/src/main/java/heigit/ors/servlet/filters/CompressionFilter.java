@@ -1,6 +1,7 @@
 package heigit.ors.servlet.filters;
 
 import java.io.IOException;
+import java.util.zip.Deflater;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -13,6 +14,10 @@ import javax.servlet.http.HttpServletResponse;
 
 public class CompressionFilter implements Filter 
 {
+	private int _compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private int _brotliQuality = 5;
+	private int _minimumSize = 1024;
+
 	public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException 
 	{
 		if (req instanceof HttpServletRequest)
@@ -22,21 +27,21 @@ public class CompressionFilter implements Filter
 			String acceptEncoding = request.getHeader("accept-encoding");
 			
 			if (acceptEncoding != null) {
-				if (acceptEncoding.indexOf(ContentEncodingType.BROTLI) != -1) {
-					BrotliResponseWrapper wrappedResponse = new BrotliResponseWrapper(response);
-					chain.doFilter(req, wrappedResponse);
-					wrappedResponse.finishResponse();
-					return;
-				}
-				else if(acceptEncoding.indexOf(ContentEncodingType.GZIP) != -1) {
-					GZIPResponseWrapper wrappedResponse = new GZIPResponseWrapper(response);
+				CompressionResponseWrapper wrappedResponse = null;
+
+				if (acceptEncoding.indexOf(ContentEncodingType.BROTLI) != -1)
+					wrappedResponse = new CompressionResponseWrapper(response, ContentEncodingType.BROTLI, _brotliQuality, _minimumSize);
+				else if(acceptEncoding.indexOf(ContentEncodingType.GZIP) != -1)
+					wrappedResponse = new CompressionResponseWrapper(response, ContentEncodingType.GZIP, _compressionLevel, _minimumSize);
+				else if (acceptEncoding.indexOf(ContentEncodingType.DEFLATE) != -1)
+					wrappedResponse = new CompressionResponseWrapper(response, ContentEncodingType.DEFLATE, _compressionLevel, _minimumSize);
+
+				if (wrappedResponse != null)
+				{
 					chain.doFilter(req, wrappedResponse);
 					wrappedResponse.finishResponse();
 					return;
 				}
-				else if (acceptEncoding.indexOf(ContentEncodingType.DEFLATE) != -1) {
-                   // todo
-				}
 			}
 
 			chain.doFilter(req, res);
@@ -44,7 +49,15 @@ public class CompressionFilter implements Filter
 	}
 
 	public void init(FilterConfig filterConfig) {
-
+		String value = filterConfig.getInitParameter("compression_level");
+		if (value != null)
+			_compressionLevel = Math.min(Math.max(Integer.parseInt(value), Deflater.BEST_SPEED), Deflater.BEST_COMPRESSION);
+		value = filterConfig.getInitParameter("brotli_quality");
+		if (value != null)
+			_brotliQuality = Math.min(Math.max(Integer.parseInt(value), 0), 11);
+		value = filterConfig.getInitParameter("minimum_size");
+		if (value != null)
+			_minimumSize = Math.max(Integer.parseInt(value), 0);
 	}
 
 	public void destroy() {
@@ -0,0 +1,156 @@
+package heigit.ors.servlet.filters;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Compresses the response body directly into the output stream of the container, so that the body is sent in chunks
+ * while it is written. The first minSize bytes are held back; bodies which do not exceed this size are sent
+ * uncompressed with their content length, since compressing them does not pay off. A flush starts the compression
+ * of the held back bytes, so that streamed responses reach the client while they are written.
+ */
+abstract class CompressionResponseStream extends ServletOutputStream { 
+	private ServletOutputStream _outputStream = null;
+	private HttpServletResponse _response = null;
+	private OutputStream _compressionStream = null;
+	private byte[] _pending;
+	private byte[] _singleByte = new byte[1];
+	private int _pendingSize = 0;
+	private boolean _closed = false;
+
+	public CompressionResponseStream(HttpServletResponse response, int minSize) throws IOException {
+		super();
+		
+		_response = response;
+		_outputStream = response.getOutputStream();
+		_pending = new byte[Math.max(minSize, 0)];
+	}
+
+	protected abstract String getContentEncoding();
+
+	/**
+	 * Creates the compression stream, its flush() must write all data compressed so far to the target stream.
+	 */
+	protected abstract OutputStream createCompressionStream(OutputStream out) throws IOException;
+
+	/**
+	 * Writes the remaining compressed data, e.g. the trailer of the format, and releases the compressor. Closing the
+	 * compression stream does not close the servlet stream.
+	 */
+	protected void finish(OutputStream compressionStream) throws IOException {
+		compressionStream.close();
+	}
+
+	public void close() throws IOException {
+		if (_closed) 
+			throw new IOException("This output stream has already been closed");
+
+		if (_compressionStream == null)
+		{
+			_response.setContentLength(_pendingSize);
+			_outputStream.write(_pending, 0, _pendingSize);
+		}
+		else
+		{
+			finish(_compressionStream);
+		}
+
+		_outputStream.close();
+		_closed = true;
+	}
+	
+	public boolean isClosed() {
+		return _closed;
+	}
+
+	public void flush() throws IOException {
+		if (_closed) 
+			throw new IOException("Cannot flush a closed output stream");
+		
+		// the held back bytes can only be sent once the headers of the compressed body are set
+		if (_compressionStream == null && _pendingSize > 0)
+			startCompression();
+
+		if (_compressionStream != null)
+		{
+			_compressionStream.flush();
+			_outputStream.flush();
+		}
+	}
+
+	public void write(int b) throws IOException {
+		_singleByte[0] = (byte)b;
+		write(_singleByte, 0, 1);
+	}
+
+	public void write(byte b[]) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	public void write(byte b[], int off, int len) throws IOException {
+		if (_closed) 
+			throw new IOException("Cannot write to a closed output stream");
+		
+		if (_compressionStream == null)
+		{
+			if (_pendingSize + len <= _pending.length)
+			{
+				System.arraycopy(b, off, _pending, _pendingSize, len);
+				_pendingSize += len;
+				return;
+			}
+
+			startCompression();
+		}
+
+		_compressionStream.write(b, off, len);
+	}
+
+	private void startCompression() throws IOException
+	{
+		// the headers must be set before the first bytes are committed, there is no content length, so
+		// the container uses chunked transfer encoding
+		_response.addHeader("Content-Encoding", getContentEncoding());
+		_compressionStream = createCompressionStream(new UnclosableOutputStream(_outputStream));
+
+		if (_pendingSize > 0)
+			_compressionStream.write(_pending, 0, _pendingSize);
+		_pending = null;
+	}
+
+	public void reset() {
+
+	}
+
+	@Override
+	public boolean isReady() {
+		return false;
+	}
+
+	@Override
+	public void setWriteListener(WriteListener arg0) {
+	}
+
+	/**
+	 * Keeps the compression streams from closing the servlet stream, which is closed only once by this stream.
+	 */
+	private static class UnclosableOutputStream extends FilterOutputStream {
+		public UnclosableOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte b[], int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+}
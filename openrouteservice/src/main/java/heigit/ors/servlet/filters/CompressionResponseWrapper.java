@@ -8,18 +8,32 @@ import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
-class BrotliResponseWrapper extends HttpServletResponseWrapper {
+class CompressionResponseWrapper extends HttpServletResponseWrapper {
 	protected HttpServletResponse _origResponse = null;
-	protected BrotliResponseStream _stream = null;
+	protected CompressionResponseStream _stream = null;
 	protected PrintWriter _writer = null;
+	protected String _encoding;
+	protected int _level;
+	protected int _minSize;
 
-	public BrotliResponseWrapper(HttpServletResponse response) {
+	public CompressionResponseWrapper(HttpServletResponse response, String encoding, int level, int minSize) {
 		super(response);
 		_origResponse = response;
+		_encoding = encoding;
+		_level = level;
+		_minSize = minSize;
 	}
 
-	public BrotliResponseStream createOutputStream() throws IOException {
-		return new BrotliResponseStream(_origResponse);
+	public CompressionResponseStream createOutputStream() throws IOException {
+		switch (_encoding)
+		{
+		case ContentEncodingType.BROTLI:
+			return new BrotliResponseStream(_origResponse, _level, _minSize);
+		case ContentEncodingType.GZIP:
+			return new GZIPResponseStream(_origResponse, _level, _minSize);
+		default:
+			return new DeflateResponseStream(_origResponse, _level, _minSize);
+		}
 	}
 
 	public void finishResponse() {
@@ -63,5 +77,8 @@ class BrotliResponseWrapper extends HttpServletResponseWrapper {
 		return (_writer);
 	}
 
+	// the length of the compressed body is unknown, the stream sets it only for uncompressed bodies
 	public void setContentLength(int length) {}
+
+	public void setContentLengthLong(long length) {}
 }
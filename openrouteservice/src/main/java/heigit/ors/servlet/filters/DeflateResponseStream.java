@@ -0,0 +1,38 @@
+package heigit.ors.servlet.filters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+class DeflateResponseStream extends CompressionResponseStream { 
+	private int _level;
+	private Deflater _deflater;
+
+	public DeflateResponseStream(HttpServletResponse response, int level, int minSize) throws IOException {
+		super(response, minSize);
+		
+		_level = level;
+	}
+
+	@Override
+	protected String getContentEncoding() {
+		return ContentEncodingType.DEFLATE;
+	}
+
+	@Override
+	protected OutputStream createCompressionStream(OutputStream out) throws IOException {
+		// HTTP deflate is the zlib format, i.e. with header and checksum
+		_deflater = new Deflater(_level);
+		return new DeflaterOutputStream(out, _deflater, 8192, true);
+	}
+
+	@Override
+	protected void finish(OutputStream compressionStream) throws IOException {
+		compressionStream.close();
+		// a deflater passed to the stream is not released by the stream itself
+		_deflater.end();
+	}
+}
@@ -1,86 +1,32 @@
 package heigit.ors.servlet.filters;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.zip.GZIPOutputStream;
 
-import javax.servlet.ServletOutputStream;
-import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletResponse;
 
-import heigit.ors.io.ByteArrayOutputStreamEx;
+class GZIPResponseStream extends CompressionResponseStream { 
+	private int _level;
 
-class GZIPResponseStream extends ServletOutputStream { 
-	private ByteArrayOutputStreamEx _bufferStream = null;
-	private GZIPOutputStream _gzipstream = null;
-	private ServletOutputStream _outputStream = null;
-	private HttpServletResponse _response = null;
-	private boolean _closed = false;
-
-	public GZIPResponseStream(HttpServletResponse response) throws IOException {
-		super();
-		
-		this._response = response;
-		this._outputStream = response.getOutputStream();
-		_bufferStream = new ByteArrayOutputStreamEx();
-		_gzipstream = new GZIPOutputStream(_bufferStream);
-	}
-
-	public void close() throws IOException {
-		if (_closed) 
-			throw new IOException("This output stream has already been closed");
-		
-		_gzipstream.finish();
-
-		byte[] bytes = _bufferStream.getBuffer();
-		int bytesLength = _bufferStream.size();
-				
-		_response.setContentLength(bytesLength); 
-        _response.addHeader("Content-Encoding", ContentEncodingType.GZIP);
-
-        _outputStream.write(bytes, 0, bytesLength);
-        _outputStream.close();
-		_closed = true;
-	}
-	
-	public boolean isClosed() {
-		return _closed;
-	}
-
-	public void flush() throws IOException {
-		if (_closed) 
-			throw new IOException("Cannot flush a closed output stream");
-		
-		_gzipstream.flush();
-	}
-
-	public void write(int b) throws IOException {
-		if (_closed) 
-			throw new IOException("Cannot write to a closed output stream");
+	public GZIPResponseStream(HttpServletResponse response, int level, int minSize) throws IOException {
+		super(response, minSize);
 		
-		_gzipstream.write((byte)b);
-	}
-
-	public void write(byte b[]) throws IOException {
-		write(b, 0, b.length);
-	}
-
-	public void write(byte b[], int off, int len) throws IOException {
-		if (_closed) 
-			throw new IOException("Cannot write to a closed output stream");
-		
-		_gzipstream.write(b, off, len);
-	}
-
-	public void reset() {
-
+		_level = level;
 	}
 
 	@Override
-	public boolean isReady() {
-		return false;
+	protected String getContentEncoding() {
+		return ContentEncodingType.GZIP;
 	}
 
 	@Override
-	public void setWriteListener(WriteListener arg0) {
-	}
-}
\ No newline at end of file
+	protected OutputStream createCompressionStream(OutputStream out) throws IOException {
+		// with syncFlush, flush() writes out everything compressed so far instead of leaving it in the deflater
+		return new GZIPOutputStream(out, 8192, true) {
+			{
+				def.setLevel(_level);
+			}
+		};
+	}
+}
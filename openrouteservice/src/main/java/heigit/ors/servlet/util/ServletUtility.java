@@ -11,9 +11,12 @@
  *|----------------------------------------------------------------------------------------------*/
 package heigit.ors.servlet.util;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -21,6 +24,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.json.JSONObject;
 
 import heigit.ors.common.StatusCode;
+import heigit.ors.util.JsonStreamWriter;
 import heigit.ors.util.StreamUtility;
 import heigit.ors.util.StringUtility;
  
@@ -42,8 +46,7 @@ public class ServletUtility
 	
 	public static void write(HttpServletResponse response, JSONObject json, String encoding) throws IOException
 	{
-		byte[] bytes = json.toString().getBytes(encoding);
-		write(response, bytes, "application/json", encoding);
+		write(response, json, encoding, StatusCode.OK);
 	}
 	
 	public static void write(HttpServletResponse response, JSONObject json, int statusCode) throws IOException
@@ -51,10 +54,35 @@ public class ServletUtility
 	  write(response, json, "UTF-8", statusCode);
 	}
 	
+	/**
+	 * Serializes the JSON object directly into the output stream, so that the document is not held as a String
+	 * and as a byte array in addition to the object tree.
+	 */
 	public static void write(HttpServletResponse response, JSONObject json, String encoding, int statusCode) throws IOException
 	{
-		byte[] bytes = json.toString().getBytes(encoding);
-		write(response, bytes, "application/json", encoding, statusCode);
+		OutputStream outStream = response.getOutputStream();
+		response.setCharacterEncoding(encoding);
+		response.setContentType("application/json");
+		response.addHeader("Vary", "Accept-Encoding");
+
+		if (statusCode != StatusCode.OK)
+			response.setStatus(statusCode);
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outStream, encoding));
+		json.write(writer);
+		writer.close();
+	}
+	
+	/**
+	 * Sets the headers of a JSON response and returns a writer for streaming the document into the response.
+	 */
+	public static JsonStreamWriter createJsonWriter(HttpServletResponse response) throws IOException
+	{
+		response.setCharacterEncoding("UTF-8");
+		response.setContentType("application/json");
+		response.addHeader("Vary", "Accept-Encoding");
+
+		return new JsonStreamWriter(response.getOutputStream());
 	}
 	
 	public static void write(HttpServletResponse response, byte[] bytes, String contentType) throws IOException
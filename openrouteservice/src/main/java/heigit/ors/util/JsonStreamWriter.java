@@ -0,0 +1,371 @@
+/*|----------------------------------------------------------------------------------------------
+ *|														Heidelberg University
+ *|	  _____ _____  _____      _                     	Department of Geography		
+ *|	 / ____|_   _|/ ____|    (_)                    	Chair of GIScience
+ *|	| |  __  | | | (___   ___ _  ___ _ __   ___ ___ 	(C) 2014-2017
+ *|	| | |_ | | |  \___ \ / __| |/ _ \ '_ \ / __/ _ \	
+ *|	| |__| |_| |_ ____) | (__| |  __/ | | | (_|  __/	Berliner Strasse 48								
+ *|	 \_____|_____|_____/ \___|_|\___|_| |_|\___\___|	D-69120 Heidelberg, Germany	
+ *|	        	                                       	http://www.giscience.uni-hd.de
+ *|								
+ *|----------------------------------------------------------------------------------------------*/
+package heigit.ors.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * Writes a JSON document token by token to a stream, so that large responses do not have to be built as a
+ * JSONObject tree and then as a String before they are sent. Commas between the members of objects and arrays are
+ * inserted automatically. Numbers with a given number of decimals are formatted without creating any objects.
+ */
+public class JsonStreamWriter {
+	private static final long[] POW10 = new long[] { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private Writer _writer;
+	private char[] _digits = new char[20];
+	private boolean[] _hasMembers = new boolean[16];
+	private int _depth = 0;
+	private boolean _afterName = false;
+
+	public JsonStreamWriter(OutputStream stream)
+	{
+		this(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), 16384));
+	}
+
+	public JsonStreamWriter(Writer writer)
+	{
+		_writer = writer;
+	}
+
+	/**
+	 * Renders a part of a document into a value that can be put into a JSONObject or a JSONArray, e.g. for services
+	 * which still build their response as a tree.
+	 */
+	public static JSONString toJSONString(StringWriter stringWriter)
+	{
+		final String json = stringWriter.toString();
+
+		return new JSONString() {
+			@Override
+			public String toJSONString() {
+				return json;
+			}
+		};
+	}
+
+	public JsonStreamWriter beginObject() throws IOException
+	{
+		beforeValue();
+		_writer.write('{');
+		push();
+		return this;
+	}
+
+	public JsonStreamWriter endObject() throws IOException
+	{
+		_depth--;
+		_writer.write('}');
+		return this;
+	}
+
+	public JsonStreamWriter beginArray() throws IOException
+	{
+		beforeValue();
+		_writer.write('[');
+		push();
+		return this;
+	}
+
+	public JsonStreamWriter endArray() throws IOException
+	{
+		_depth--;
+		_writer.write(']');
+		return this;
+	}
+
+	public JsonStreamWriter name(String name) throws IOException
+	{
+		beforeValue();
+		writeString(name);
+		_writer.write(':');
+		_afterName = true;
+		return this;
+	}
+
+	public JsonStreamWriter value(String value) throws IOException
+	{
+		if (value == null)
+			return nullValue();
+
+		beforeValue();
+		writeString(value);
+		return this;
+	}
+
+	public JsonStreamWriter value(boolean value) throws IOException
+	{
+		beforeValue();
+		_writer.write(value ? "true" : "false");
+		return this;
+	}
+
+	public JsonStreamWriter value(long value) throws IOException
+	{
+		beforeValue();
+		writeLong(value);
+		return this;
+	}
+
+	/**
+	 * Writes the value like JSONObject does, i.e. with all significant digits. Only integral values are written
+	 * without creating a String, use {@link #value(double, int)} for coordinates and other rounded values.
+	 */
+	public JsonStreamWriter value(double value) throws IOException
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return nullValue();
+
+		beforeValue();
+		if (value == Math.rint(value) && Math.abs(value) < 1E15)
+			writeLong((long)value);
+		else
+			_writer.write(JSONObject.numberToString(value));
+		return this;
+	}
+
+	/**
+	 * Writes the value rounded to the given number of decimals (at most 9) without trailing zeros, which gives the
+	 * same text as FormatUtility.roundToDecimals for values that are not written in scientific notation.
+	 */
+	public JsonStreamWriter value(double value, int decimals) throws IOException
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return nullValue();
+
+		double scaled = value * POW10[decimals];
+		if (Math.abs(scaled) >= 9E15)
+			return value(value);
+
+		beforeValue();
+
+		long units = Math.round(scaled);
+		if (units < 0)
+		{
+			_writer.write('-');
+			units = -units;
+		}
+
+		writeLong(units / POW10[decimals]);
+
+		long fraction = units % POW10[decimals];
+		if (fraction != 0)
+		{
+			int nDigits = decimals;
+			while (fraction % 10 == 0)
+			{
+				fraction /= 10;
+				nDigits--;
+			}
+
+			_writer.write('.');
+			int pos = _digits.length;
+			for (int i = 0; i < nDigits; i++)
+			{
+				_digits[--pos] = (char)('0' + fraction % 10);
+				fraction /= 10;
+			}
+			_writer.write(_digits, pos, nDigits);
+		}
+
+		return this;
+	}
+
+	public JsonStreamWriter value(int[] values) throws IOException
+	{
+		if (values == null)
+			return nullValue();
+
+		beginArray();
+		for (int value : values)
+			value(value);
+		return endArray();
+	}
+
+	/**
+	 * Writes a value that has been built as a JSONObject, JSONArray or JSONString, or any other value in the way
+	 * JSONObject would write it.
+	 */
+	public JsonStreamWriter value(Object value) throws IOException
+	{
+		if (value == null || JSONObject.NULL.equals(value))
+			return nullValue();
+
+		beforeValue();
+		if (value instanceof JSONObject)
+			((JSONObject)value).write(_writer);
+		else if (value instanceof JSONArray)
+			((JSONArray)value).write(_writer);
+		else
+			_writer.write(JSONObject.valueToString(value));
+		return this;
+	}
+
+	/**
+	 * Starts a string value whose content is appended by {@link #stringPart(String)}, e.g. an encoded polyline
+	 * of a geometry which is not available at once. No other method may be called until {@link #endString()}.
+	 */
+	public JsonStreamWriter beginString() throws IOException
+	{
+		beforeValue();
+		_writer.write('"');
+		return this;
+	}
+
+	public JsonStreamWriter stringPart(String value) throws IOException
+	{
+		writeChars(value);
+		return this;
+	}
+
+	public JsonStreamWriter endString() throws IOException
+	{
+		_writer.write('"');
+		return this;
+	}
+
+	public JsonStreamWriter nullValue() throws IOException
+	{
+		beforeValue();
+		_writer.write("null");
+		return this;
+	}
+
+	public void flush() throws IOException
+	{
+		_writer.flush();
+	}
+
+	public void close() throws IOException
+	{
+		_writer.close();
+	}
+
+	private void push()
+	{
+		if (++_depth == _hasMembers.length)
+			_hasMembers = Arrays.copyOf(_hasMembers, _depth * 2);
+		_hasMembers[_depth] = false;
+	}
+
+	private void beforeValue() throws IOException
+	{
+		if (_afterName)
+		{
+			_afterName = false;
+			return;
+		}
+
+		if (_depth > 0)
+		{
+			if (_hasMembers[_depth])
+				_writer.write(',');
+			else
+				_hasMembers[_depth] = true;
+		}
+	}
+
+	private void writeLong(long value) throws IOException
+	{
+		if (value == Long.MIN_VALUE)
+		{
+			_writer.write(Long.toString(value));
+			return;
+		}
+
+		if (value < 0)
+		{
+			_writer.write('-');
+			value = -value;
+		}
+
+		int pos = _digits.length;
+		do
+		{
+			_digits[--pos] = (char)('0' + value % 10);
+			value /= 10;
+		}
+		while (value != 0);
+
+		_writer.write(_digits, pos, _digits.length - pos);
+	}
+
+	private void writeString(String value) throws IOException
+	{
+		_writer.write('"');
+		writeChars(value);
+		_writer.write('"');
+	}
+
+	private void writeChars(String value) throws IOException
+	{
+		int len = value.length();
+		int start = 0;
+		for (int i = 0; i < len; i++)
+		{
+			char c = value.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029')
+				continue;
+
+			if (i > start)
+				_writer.write(value, start, i - start);
+			start = i + 1;
+
+			switch (c)
+			{
+			case '"':
+				_writer.write("\\\"");
+				break;
+			case '\\':
+				_writer.write("\\\\");
+				break;
+			case '\b':
+				_writer.write("\\b");
+				break;
+			case '\f':
+				_writer.write("\\f");
+				break;
+			case '\n':
+				_writer.write("\\n");
+				break;
+			case '\r':
+				_writer.write("\\r");
+				break;
+			case '\t':
+				_writer.write("\\t");
+				break;
+			default:
+				_writer.write("\\u");
+				_writer.write(HEX_DIGITS[(c >> 12) & 0xF]);
+				_writer.write(HEX_DIGITS[(c >> 8) & 0xF]);
+				_writer.write(HEX_DIGITS[(c >> 4) & 0xF]);
+				_writer.write(HEX_DIGITS[c & 0xF]);
+				break;
+			}
+		}
+
+		if (start < len)
+			_writer.write(value, start, len - start);
+	}
+}
@@ -3,6 +3,33 @@ package heigit.ors.util;
 import com.vividsolutions.jts.geom.Coordinate;
 
 public class PolylineEncoder {
+	private long _prevLat = 0;
+	private long _prevLon = 0;
+	private long _prevEle = 0;
+
+	/**
+	 * Appends a point of a line to the buffer, encoded relatively to the point passed to the previous call, so that a
+	 * line which is not available at once gives the same text as {@link #encode(Coordinate[], boolean, StringBuffer)}.
+	 */
+	public void append(double lat, double lon, double ele, boolean includeElevation, StringBuffer buffer)
+	{
+		long latValue = Math.round(lat * 1e5);
+		long lonValue = Math.round(lon * 1e5);
+
+		encode(latValue - _prevLat, buffer);
+		encode(lonValue - _prevLon, buffer);
+
+		if (includeElevation)
+		{
+			long eleValue = (long)Math.floor(ele * 100);
+			encode(eleValue - _prevEle, buffer);
+			_prevEle = eleValue;
+		}
+
+		_prevLat = latValue;
+		_prevLon = lonValue;
+	}
+
 	public static String encode(final Coordinate[] coords, boolean includeElevation, StringBuffer buffer) {
 		long lat, lon;
 	    long prevLat = 0;